@@ -0,0 +1,46 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import java.io.File;
+
+/**
+ * Indicates that a step of a {@link ConcurrencySweep} didn't finish within the
+ * step timeout which is most likely caused by a deadlock.
+ *
+ * @author richter
+ */
+public class ConcurrencyStallException extends Exception {
+    private static final long serialVersionUID = 1L;
+    private final int parallelism;
+    private final File threadDumpFile;
+
+    public ConcurrencyStallException(int parallelism,
+            File threadDumpFile) {
+        super(String.format("step with parallelism %d stalled, see thread dump in '%s'",
+                parallelism,
+                threadDumpFile.getAbsolutePath()));
+        this.parallelism = parallelism;
+        this.threadDumpFile = threadDumpFile;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public File getThreadDumpFile() {
+        return threadDumpFile;
+    }
+}
@@ -0,0 +1,296 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import de.richtercloud.reflection.form.builder.jpa.metrics.LatencyHistogram;
+import de.richtercloud.reflection.form.builder.jpa.metrics.OperationRecorder;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Runs a task with increasing parallelism and records per-operation latency
+ * histograms for every step. A step which doesn't finish within the step
+ * timeout is considered stalled: a thread dump is written next to the report
+ * and {@link ConcurrencyStallException} is thrown. The report is written as
+ * JSON to {@code <reportDir>/<name>.json} after every step, so that it's
+ * available for the completed steps when a later step stalls.
+ *
+ * @author richter
+ */
+public class ConcurrencySweep {
+    /**
+     * The system property which allows to specify the parallelism steps as
+     * comma-separated list.
+     */
+    public final static String PARALLELISM_PROPERTY = "reflection-form-builder-it.sweep.parallelism";
+    public final static List<Integer> PARALLELISM_DEFAULT = Collections.unmodifiableList(Arrays.asList(1, 2, 4, 8, 16, 32));
+    /**
+     * The system property which allows to specify the report directory, set
+     * to {@code ${project.build.directory}/concurrency-sweep} in the build.
+     */
+    public final static String REPORT_DIR_PROPERTY = "reflection-form-builder-it.sweep.reportDir";
+    private final static String REPORT_DIR_DEFAULT = "target/concurrency-sweep";
+    private final static double NANOS_PER_MILLI = 1_000_000.0;
+    private final String name;
+    private final List<Integer> parallelisms;
+    private final long stepTimeout;
+    private final TimeUnit stepTimeoutUnit;
+    private final File reportDir;
+
+    /**
+     * A task run by every thread of a step.
+     */
+    @FunctionalInterface
+    public interface SweepTask {
+
+        @SuppressWarnings("PMD.SignatureDeclareThrowsException")
+        void run(int threadIndex,
+                OperationRecorder recorder) throws Exception;
+    }
+
+    /**
+     * Parses the value of {@link #PARALLELISM_PROPERTY}.
+     *
+     * @return the parallelism steps or {@code null} if the property isn't
+     *     set which means that sweeps are disabled
+     */
+    public static List<Integer> parallelismsFromSystemProperty() {
+        String value = System.getProperty(PARALLELISM_PROPERTY);
+        if(value == null) {
+            return null;
+        }
+        if(value.trim().isEmpty()) {
+            return PARALLELISM_DEFAULT;
+        }
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .map(Integer::valueOf)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The value of {@link #REPORT_DIR_PROPERTY} or
+     * {@code target/concurrency-sweep} if it isn't set, e.g. when running a
+     * test from the IDE.
+     *
+     * @return the report directory
+     */
+    public static File reportDirFromSystemProperty() {
+        return new File(System.getProperty(REPORT_DIR_PROPERTY,
+                REPORT_DIR_DEFAULT));
+    }
+
+    public ConcurrencySweep(String name,
+            List<Integer> parallelisms,
+            long stepTimeout,
+            TimeUnit stepTimeoutUnit,
+            File reportDir) {
+        if(parallelisms == null || parallelisms.isEmpty()) {
+            throw new IllegalArgumentException("parallelisms mustn't be null or empty");
+        }
+        this.name = name;
+        this.parallelisms = new ArrayList<>(parallelisms);
+        this.stepTimeout = stepTimeout;
+        this.stepTimeoutUnit = stepTimeoutUnit;
+        this.reportDir = reportDir;
+    }
+
+    /**
+     * Runs all steps.
+     *
+     * @param task the task to run
+     * @return the results of all steps
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws ExecutionException if {@code task} throws an exception
+     * @throws ConcurrencyStallException if a step exceeds the step timeout
+     * @throws IOException if writing the report or a thread dump fails
+     */
+    public List<StepResult> run(SweepTask task) throws InterruptedException,
+            ExecutionException,
+            ConcurrencyStallException,
+            IOException {
+        if(!reportDir.exists() && !reportDir.mkdirs()) {
+            throw new IOException(String.format("report directory '%s' could not be created",
+                    reportDir.getAbsolutePath()));
+        }
+        List<StepResult> results = new ArrayList<>();
+        for(int parallelism : parallelisms) {
+            results.add(runStep(task,
+                    parallelism));
+            writeReport(results);
+        }
+        return results;
+    }
+
+    private StepResult runStep(SweepTask task,
+            int parallelism) throws InterruptedException,
+            ExecutionException,
+            ConcurrencyStallException,
+            IOException {
+        OperationRecorder recorder = new OperationRecorder();
+        ExecutorService executorService = Executors.newFixedThreadPool(parallelism);
+        try {
+            CountDownLatch startLatch = new CountDownLatch(1);
+            List<Future<Void>> futures = new ArrayList<>(parallelism);
+            for(int i = 0; i < parallelism; i++) {
+                int threadIndex = i;
+                futures.add(executorService.submit(() -> {
+                    startLatch.await();
+                    task.run(threadIndex,
+                            recorder);
+                    return null;
+                }));
+            }
+            long start = System.nanoTime();
+            long deadline = start+stepTimeoutUnit.toNanos(stepTimeout);
+            startLatch.countDown();
+            for(Future<Void> future : futures) {
+                try {
+                    future.get(Math.max(0, deadline-System.nanoTime()),
+                            TimeUnit.NANOSECONDS);
+                } catch (TimeoutException ex) {
+                    File threadDumpFile = writeThreadDump(parallelism);
+                    throw new ConcurrencyStallException(parallelism,
+                            threadDumpFile);
+                }
+            }
+            return new StepResult(parallelism,
+                    System.nanoTime()-start,
+                    recorder.getHistograms());
+        }finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private File writeThreadDump(int parallelism) throws IOException {
+        File threadDumpFile = new File(reportDir,
+                String.format("%s-stall-%d.txt",
+                        name,
+                        parallelism));
+        ThreadInfo[] threadInfos = ManagementFactory.getThreadMXBean().dumpAllThreads(true,
+                true);
+        try (Writer writer = Files.newBufferedWriter(threadDumpFile.toPath(),
+                StandardCharsets.UTF_8)) {
+            for(ThreadInfo threadInfo : threadInfos) {
+                //ThreadInfo.toString truncates the stack trace
+                writer.write(String.format("\"%s\" id=%d %s",
+                        threadInfo.getThreadName(),
+                        threadInfo.getThreadId(),
+                        threadInfo.getThreadState()));
+                if(threadInfo.getLockName() != null) {
+                    writer.write(String.format(" on %s owned by \"%s\"",
+                            threadInfo.getLockName(),
+                            threadInfo.getLockOwnerName()));
+                }
+                writer.write(System.lineSeparator());
+                for(StackTraceElement stackTraceElement : threadInfo.getStackTrace()) {
+                    writer.write(String.format("\tat %s%n",
+                            stackTraceElement));
+                }
+                writer.write(System.lineSeparator());
+            }
+            long[] deadlockedThreadIds = ManagementFactory.getThreadMXBean().findDeadlockedThreads();
+            if(deadlockedThreadIds != null) {
+                writer.write(String.format("deadlocked threads: %s%n",
+                        Arrays.toString(deadlockedThreadIds)));
+            }
+        }
+        return threadDumpFile;
+    }
+
+    private void writeReport(List<StepResult> results) throws IOException {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\n  \"name\": \"").append(name).append("\",\n  \"steps\": [");
+        for(int i = 0; i < results.size(); i++) {
+            StepResult result = results.get(i);
+            json.append(i == 0 ? "\n" : ",\n")
+                    .append("    {\"parallelism\": ").append(result.getParallelism())
+                    .append(", \"wallClockMillis\": ").append(formatMillis(result.getWallClockNanos()))
+                    .append(", \"operations\": {");
+            boolean first = true;
+            for(Map.Entry<String, LatencyHistogram> entry : result.getHistograms().entrySet()) {
+                LatencyHistogram histogram = entry.getValue();
+                json.append(first ? "\n" : ",\n")
+                        .append("      \"").append(entry.getKey()).append("\": {")
+                        .append("\"count\": ").append(histogram.getCount())
+                        .append(", \"meanMillis\": ").append(formatMillis(histogram.getMeanNanos()))
+                        .append(", \"p50Millis\": ").append(formatMillis(histogram.getValueAtPercentile(50)))
+                        .append(", \"p90Millis\": ").append(formatMillis(histogram.getValueAtPercentile(90)))
+                        .append(", \"p99Millis\": ").append(formatMillis(histogram.getValueAtPercentile(99)))
+                        .append(", \"maxMillis\": ").append(formatMillis(histogram.getMaxNanos()))
+                        .append('}');
+                first = false;
+            }
+            json.append("\n    }}");
+        }
+        json.append("\n  ]\n}\n");
+        Files.write(new File(reportDir, name+".json").toPath(),
+                json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String formatMillis(double nanos) {
+        return String.format(Locale.ROOT,
+                "%.3f",
+                nanos/NANOS_PER_MILLI);
+    }
+
+    /**
+     * The result of one step of a sweep.
+     */
+    public static class StepResult {
+        private final int parallelism;
+        private final long wallClockNanos;
+        private final Map<String, LatencyHistogram> histograms;
+
+        public StepResult(int parallelism,
+                long wallClockNanos,
+                Map<String, LatencyHistogram> histograms) {
+            this.parallelism = parallelism;
+            this.wallClockNanos = wallClockNanos;
+            this.histograms = histograms;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public long getWallClockNanos() {
+            return wallClockNanos;
+        }
+
+        public Map<String, LatencyHistogram> getHistograms() {
+            return histograms;
+        }
+    }
+}
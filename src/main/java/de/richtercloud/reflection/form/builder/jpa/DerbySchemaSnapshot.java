@@ -0,0 +1,303 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import de.richtercloud.reflection.form.builder.jpa.retriever.JPAOrderedCachedFieldRetriever;
+import de.richtercloud.reflection.form.builder.jpa.storage.DerbyEmbeddedPersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.storage.DerbyEmbeddedPersistenceStorageConf;
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+/**
+ * A golden Apache Derby database directory and scheme checksum file whose
+ * schema has been generated once per JVM, set of entity classes and persistence
+ * unit. Storages
+ * start from a file-level copy of the snapshot created with
+ * {@link #createStorageConf() } instead of running schema generation. They
+ * should use a persistence unit which doesn't generate the schema, like
+ * {@link #PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA} in this module.
+ *
+ * @author richter
+ */
+public final class DerbySchemaSnapshot {
+    /**
+     * The persistence unit of this module which doesn't generate the schema.
+     */
+    public final static String PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA = "reflection-form-builder-it-existing-schema";
+    /**
+     * SQL states with which Derby signals a successful shutdown: {@code 08006}
+     * for a single database and {@code XJ015} for the whole Derby system. Any
+     * other state, e.g. {@code XJ004} if the database isn't booted, means
+     * that the pages of the golden database might not have been flushed and
+     * is rethrown.
+     */
+    private final static Set<String> DERBY_SHUTDOWN_SQL_STATES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("08006", "XJ015")));
+    private final static Set<String> DERBY_LOCK_FILE_NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("db.lck", "dbex.lck")));
+    private final static String DERBY_EMBEDDED_DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
+    private final static Map<SnapshotKey, DerbySchemaSnapshot> INSTANCES = new HashMap<>();
+    private final Set<Class<?>> entityClasses;
+    private final File databaseDir;
+    private final File schemeChecksumFile;
+
+    /**
+     * Gets the snapshot for {@code entityClasses} and
+     * {@code persistenceUnitName} and builds it with a storage using the
+     * persistence unit which has to generate the schema if it doesn't exist
+     * yet.
+     *
+     * @param entityClasses the entity classes
+     * @param persistenceUnitName the name of the persistence unit which
+     *     generates the schema
+     * @return the snapshot
+     * @throws IOException if an I/O exception occurs
+     * @throws FieldOrderValidationException if such an exception occurs
+     * @throws StorageConfValidationException if such an exception occurs
+     * @throws StorageCreationException if such an exception occurs
+     * @throws SQLException if shutting down the golden database fails
+     */
+    public static DerbySchemaSnapshot getInstance(Set<Class<?>> entityClasses,
+            String persistenceUnitName) throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            SQLException {
+        synchronized(INSTANCES) {
+            SnapshotKey snapshotKey = new SnapshotKey(entityClasses,
+                    persistenceUnitName);
+            DerbySchemaSnapshot retValue = INSTANCES.get(snapshotKey);
+            if(retValue == null) {
+                retValue = build(entityClasses,
+                        persistenceUnitName);
+                INSTANCES.put(snapshotKey,
+                        retValue);
+            }
+            return retValue;
+        }
+    }
+
+    private static DerbySchemaSnapshot build(Set<Class<?>> entityClasses,
+            String persistenceUnitName) throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            SQLException {
+        File snapshotDir = ITResourceManager.getInstance().createTempDirectory(DerbySchemaSnapshot.class.getSimpleName());
+        File databaseDir = new File(snapshotDir, "database");
+            //mustn't exist for Apache Derby
+        File schemeChecksumFile = new File(snapshotDir, "checksum");
+        DerbyEmbeddedPersistenceStorageConf storageConf = new DerbyEmbeddedPersistenceStorageConf(entityClasses,
+                databaseDir.getAbsolutePath(),
+                schemeChecksumFile);
+        PersistenceStorage<Long> storage = new DerbyEmbeddedPersistenceStorage(storageConf,
+                persistenceUnitName,
+                1, //parallelQueryCount
+                new JPAOrderedCachedFieldRetriever(entityClasses));
+        storage.start();
+        storage.shutdown();
+        shutdownDatabase(databaseDir);
+            //make sure that all pages are flushed before files are copied
+        return new DerbySchemaSnapshot(entityClasses,
+                databaseDir,
+                schemeChecksumFile);
+    }
+
+    private static void shutdownDatabase(File databaseDir) throws SQLException {
+        try {
+            DriverManager.getConnection(String.format("jdbc:derby:%s;shutdown=true",
+                    databaseDir.getAbsolutePath())).close();
+        }catch(SQLException ex) {
+            if(!DERBY_SHUTDOWN_SQL_STATES.contains(ex.getSQLState())) {
+                throw ex;
+            }
+            //Derby signals successful shutdown with an exception
+        }
+    }
+
+    private DerbySchemaSnapshot(Set<Class<?>> entityClasses,
+            File databaseDir,
+            File schemeChecksumFile) {
+        this.entityClasses = entityClasses;
+        this.databaseDir = databaseDir;
+        this.schemeChecksumFile = schemeChecksumFile;
+    }
+
+    /**
+     * Copies the snapshot to a new temporary location and creates a storage
+     * configuration for it.
+     *
+     * @return the storage configuration for the copy
+     * @throws IOException if an I/O exception occurs during copying
+     */
+    public DerbyEmbeddedPersistenceStorageConf createStorageConf() throws IOException {
+        File targetDir = ITResourceManager.getInstance().createTempDirectory(DerbySchemaSnapshot.class.getSimpleName());
+        File targetDatabaseDir = new File(targetDir, databaseDir.getName());
+        File targetSchemeChecksumFile = new File(targetDir, schemeChecksumFile.getName());
+        copyTo(targetDatabaseDir,
+                targetSchemeChecksumFile);
+        return new DerbyEmbeddedPersistenceStorageConf(entityClasses,
+                targetDatabaseDir.getAbsolutePath(),
+                targetSchemeChecksumFile);
+    }
+
+    /**
+     * Copies the snapshot to a new temporary location and creates an entity
+     * manager factory for it which allows to use JPA directly instead of
+     * through a storage.
+     *
+     * @param persistenceUnitName the persistence unit which shouldn't generate
+     *     the schema, usually {@link #PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA}
+     * @return the entity manager factory for the copy which has to be closed
+     *     by the caller
+     * @throws IOException if an I/O exception occurs during copying
+     */
+    public EntityManagerFactory createEntityManagerFactory(String persistenceUnitName) throws IOException {
+        return createEntityManagerFactory(persistenceUnitName,
+                Collections.emptyMap());
+    }
+
+    /**
+     * Like {@link #createEntityManagerFactory(java.lang.String) }, but allows
+     * to pass additional properties, e.g. to enable batch writing.
+     *
+     * @param persistenceUnitName the persistence unit which shouldn't generate
+     *     the schema
+     * @param additionalProperties properties which are passed to
+     *     {@link Persistence#createEntityManagerFactory(java.lang.String, java.util.Map) }
+     *     in addition to the connection properties
+     * @return the entity manager factory for the copy which has to be closed
+     *     by the caller
+     * @throws IOException if an I/O exception occurs during copying
+     */
+    public EntityManagerFactory createEntityManagerFactory(String persistenceUnitName,
+            Map<String, String> additionalProperties) throws IOException {
+        File targetDir = ITResourceManager.getInstance().createTempDirectory(DerbySchemaSnapshot.class.getSimpleName());
+        File targetDatabaseDir = new File(targetDir, databaseDir.getName());
+        copyTo(targetDatabaseDir,
+                new File(targetDir, schemeChecksumFile.getName()));
+        Map<String, String> properties = new HashMap<>(additionalProperties);
+        properties.put("javax.persistence.jdbc.driver",
+                DERBY_EMBEDDED_DRIVER);
+        properties.put("javax.persistence.jdbc.url",
+                String.format("jdbc:derby:%s",
+                        targetDatabaseDir.getAbsolutePath()));
+        return Persistence.createEntityManagerFactory(persistenceUnitName,
+                properties);
+    }
+
+    /**
+     * Copies the snapshot database directory to {@code targetDatabaseDir}
+     * which mustn't exist and the scheme checksum file to
+     * {@code targetSchemeChecksumFile}.
+     *
+     * @param targetDatabaseDir the database directory to create
+     * @param targetSchemeChecksumFile the scheme checksum file to create or
+     *     overwrite
+     * @throws IOException if an I/O exception occurs during copying
+     */
+    public void copyTo(File targetDatabaseDir,
+            File targetSchemeChecksumFile) throws IOException {
+        if(targetDatabaseDir.exists()) {
+            throw new IllegalArgumentException(String.format("target database directory '%s' already exists",
+                    targetDatabaseDir.getAbsolutePath()));
+        }
+        Path source = databaseDir.toPath();
+        Path target = targetDatabaseDir.toPath();
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir,
+                    BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file,
+                    BasicFileAttributes attrs) throws IOException {
+                if(!DERBY_LOCK_FILE_NAMES.contains(file.getFileName().toString())) {
+                    Files.copy(file,
+                            target.resolve(source.relativize(file)));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Files.copy(schemeChecksumFile.toPath(),
+                targetSchemeChecksumFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public File getDatabaseDir() {
+        return databaseDir;
+    }
+
+    public File getSchemeChecksumFile() {
+        return schemeChecksumFile;
+    }
+
+    /**
+     * Identifies a snapshot since different persistence units might generate
+     * different schemas for the same entity classes.
+     */
+    private static class SnapshotKey {
+        private final Set<Class<?>> entityClasses;
+        private final String persistenceUnitName;
+
+        SnapshotKey(Set<Class<?>> entityClasses,
+                String persistenceUnitName) {
+            this.entityClasses = new HashSet<>(entityClasses);
+            this.persistenceUnitName = persistenceUnitName;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(entityClasses,
+                    persistenceUnitName);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj) {
+                return true;
+            }
+            if(!(obj instanceof SnapshotKey)) {
+                return false;
+            }
+            SnapshotKey other = (SnapshotKey) obj;
+            return entityClasses.equals(other.entityClasses)
+                    && Objects.equals(persistenceUnitName,
+                            other.persistenceUnitName);
+        }
+    }
+}
@@ -0,0 +1,437 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands out temporary directories, files, database names and ports which are
+ * unique per Maven failsafe fork and per request, so that ITs can run in
+ * several forks in parallel.
+ *
+ * All files are created below a root directory
+ * {@code reflection-form-builder-it-fork<forkId>-<random>} in the system's
+ * temporary directory. The root directory is deleted together with all
+ * registered resources in a shutdown hook or with {@link #cleanUp() }. A
+ * fork holds a file lock on {@code <root>/fork.lock} while it's running, so
+ * that root directories left behind by killed forks are recognized by an
+ * unlocked lock file and deleted when the next instance is created.
+ *
+ * Resources which should be released after every test instead of at the end
+ * of the fork, e.g. the data directory of a server started by the test, can
+ * be created in a {@link Scope} opened with {@link #openScope(java.lang.String) },
+ * usually through an {@link ITResourceRule}.
+ *
+ * The fork ID is read from the system property {@link #FORK_ID_PROPERTY}
+ * which is set to {@code ${surefire.forkNumber}} in the build.
+ *
+ * @author richter
+ */
+public final class ITResourceManager {
+    private final static Logger LOGGER = LoggerFactory.getLogger(ITResourceManager.class);
+    public final static String FORK_ID_PROPERTY = "reflection-form-builder-it.forkId";
+    private final static String FORK_ID_DEFAULT = "1";
+    private final static String ROOT_DIR_PREFIX = "reflection-form-builder-it-fork";
+    private final static String LOCK_FILE_NAME = "fork.lock";
+    private static ITResourceManager instance;
+    private final String forkId;
+    private final File rootDir;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final AtomicInteger counter = new AtomicInteger();
+    /**
+     * Resources which are closed in reverse registration order before the
+     * root directory is deleted. Guarded by {@code this}.
+     */
+    private final Deque<AutoCloseable> resources = new ArrayDeque<>();
+    /**
+     * Scopes which haven't been closed yet and are closed by
+     * {@link #cleanUp() }. Guarded by {@code this}.
+     */
+    private final Set<Scope> openScopes = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean cleanedUp;
+
+    /**
+     * Gets the resource manager of this JVM and creates it on first use.
+     *
+     * @return the resource manager
+     * @throws IOException if the root directory can't be created
+     */
+    public static synchronized ITResourceManager getInstance() throws IOException {
+        if(instance == null) {
+            String forkId = System.getProperty(FORK_ID_PROPERTY, FORK_ID_DEFAULT);
+            File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+            deleteStaleRootDirs(tmpDir);
+            ITResourceManager newInstance = new ITResourceManager(forkId,
+                    Files.createTempDirectory(tmpDir.toPath(),
+                            String.format("%s%s-",
+                                    ROOT_DIR_PREFIX,
+                                    forkId)).toFile());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    newInstance.cleanUp();
+                } catch (IOException ex) {
+                    LOGGER.error(String.format("cleaning up IT resources in '%s' failed",
+                                    newInstance.rootDir.getAbsolutePath()),
+                            ex);
+                }
+            }));
+            instance = newInstance;
+        }
+        return instance;
+    }
+
+    /**
+     * Deletes root directories of forks which aren't running anymore.
+     */
+    private static void deleteStaleRootDirs(File tmpDir) throws IOException {
+        try (DirectoryStream<Path> rootDirs = Files.newDirectoryStream(tmpDir.toPath(),
+                ROOT_DIR_PREFIX+"*")) {
+            for(Path rootDir : rootDirs) {
+                Path lockFile = rootDir.resolve(LOCK_FILE_NAME);
+                if(!Files.exists(lockFile)) {
+                    //being created or not created by this class
+                    continue;
+                }
+                boolean stale;
+                try (FileChannel channel = FileChannel.open(lockFile,
+                        StandardOpenOption.WRITE)) {
+                    FileLock staleLock = channel.tryLock();
+                    stale = staleLock != null;
+                    if(staleLock != null) {
+                        staleLock.release();
+                    }
+                }catch(OverlappingFileLockException ex) {
+                    //held by this JVM
+                    stale = false;
+                }
+                if(stale) {
+                    LOGGER.info(String.format("deleting IT resources of terminated fork in '%s'",
+                            rootDir));
+                    deleteRecursively(rootDir);
+                }
+            }
+        }
+    }
+
+    private ITResourceManager(String forkId,
+            File rootDir) throws IOException {
+        this.forkId = forkId;
+        this.rootDir = rootDir;
+        this.lockChannel = FileChannel.open(new File(rootDir, LOCK_FILE_NAME).toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        this.lock = lockChannel.lock();
+    }
+
+    private String nextName(String prefix) {
+        return String.format("%s-%d",
+                prefix,
+                counter.incrementAndGet());
+    }
+
+    /**
+     * Creates a new empty directory.
+     *
+     * @param prefix the prefix of the directory name, e.g. the simple name of
+     *     the requesting class
+     * @return the created directory
+     * @throws IOException if the directory can't be created
+     */
+    public File createTempDirectory(String prefix) throws IOException {
+        return Files.createDirectory(new File(rootDir,
+                nextName(prefix)).toPath()).toFile();
+    }
+
+    /**
+     * Creates a new empty file.
+     *
+     * @param prefix the prefix of the file name
+     * @param suffix the suffix of the file name
+     * @return the created file
+     * @throws IOException if the file can't be created
+     */
+    public File createTempFile(String prefix,
+            String suffix) throws IOException {
+        return Files.createFile(new File(rootDir,
+                nextName(prefix)+suffix).toPath()).toFile();
+    }
+
+    /**
+     * Creates a path for a file or directory which doesn't exist, e.g. for
+     * Apache Derby which requires that the database directory doesn't exist.
+     *
+     * @param prefix the prefix of the name
+     * @return the path which doesn't exist
+     */
+    public File createTempPath(String prefix) {
+        return new File(rootDir,
+                nextName(prefix));
+    }
+
+    /**
+     * Creates a database name which is unique across forks.
+     *
+     * @param prefix the prefix of the name
+     * @return the database name
+     */
+    public String createDatabaseName(String prefix) {
+        return String.format("%s-fork%s-%d",
+                prefix,
+                forkId,
+                counter.incrementAndGet());
+    }
+
+    /**
+     * Reserves a port with the shared {@link PortReservationService} which
+     * excludes other forks through file locks.
+     *
+     * @param startingFrom the port to start from
+     * @return the reservation which needs to be closed after the service owns
+     *     the port
+     * @throws IOException if an unexpected I/O exception occurs
+     */
+    public PortReservation reservePort(int startingFrom) throws IOException {
+        return PortReservationService.getInstance().reserve(startingFrom);
+    }
+
+    /**
+     * Registers a resource which is closed by {@link #cleanUp() } before the
+     * root directory is deleted, e.g. a server process using a directory
+     * created by this manager.
+     *
+     * @param resource the resource to close
+     */
+    public synchronized void register(AutoCloseable resource) {
+        if(cleanedUp) {
+            throw new IllegalStateException("resources have already been cleaned up");
+        }
+        resources.push(resource);
+    }
+
+    /**
+     * Opens a scope whose files and registered resources are released when
+     * the scope is closed, e.g. after a test.
+     *
+     * @param prefix the prefix of the name of the scope's directory, e.g. the
+     *     simple name of the test class
+     * @return the opened scope which has to be closed by the caller
+     * @throws IOException if the directory of the scope can't be created
+     */
+    public synchronized Scope openScope(String prefix) throws IOException {
+        if(cleanedUp) {
+            throw new IllegalStateException("resources have already been cleaned up");
+        }
+        Scope retValue = new Scope(createTempDirectory(prefix));
+        openScopes.add(retValue);
+        return retValue;
+    }
+
+    private synchronized void removeScope(Scope scope) {
+        openScopes.remove(scope);
+    }
+
+    /**
+     * Closes all open scopes and registered resources in reverse order of
+     * registration and deletes the root directory. Invoking this method more
+     * than once has no effect.
+     *
+     * @throws IOException if deleting the root directory fails
+     */
+    public synchronized void cleanUp() throws IOException {
+        if(cleanedUp) {
+            return;
+        }
+        cleanedUp = true;
+        for(Scope scope : new ArrayDeque<>(openScopes)) {
+            try {
+                scope.close();
+            }catch(IOException ex) {
+                //continue with other scopes and resources
+                LOGGER.error(String.format("closing IT resource scope in '%s' failed",
+                                scope.getDir().getAbsolutePath()),
+                        ex);
+            }
+        }
+        closeAll(resources);
+        try {
+            lock.release();
+        }finally {
+            lockChannel.close();
+        }
+        deleteRecursively(rootDir.toPath());
+    }
+
+    private static void closeAll(Deque<AutoCloseable> resources) {
+        while(!resources.isEmpty()) {
+            AutoCloseable resource = resources.pop();
+            try {
+                resource.close();
+            }catch(Exception ex) {
+                //continue with other resources
+                LOGGER.error(String.format("closing IT resource %s failed",
+                                resource),
+                        ex);
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if(!Files.exists(path)) {
+            return;
+        }
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file,
+                    BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir,
+                    IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public String getForkId() {
+        return forkId;
+    }
+
+    public File getRootDir() {
+        return rootDir;
+    }
+
+    /**
+     * Temporary files and resources of a part of a fork, usually one test,
+     * which are created in a directory of their own below the root directory.
+     * Closing the scope closes the registered resources in reverse order of
+     * registration and deletes the directory. Names are unique across scopes
+     * since they're created by the enclosing manager.
+     */
+    public final class Scope implements AutoCloseable {
+        private final File dir;
+        /**
+         * Guarded by {@code this}.
+         */
+        private final Deque<AutoCloseable> scopeResources = new ArrayDeque<>();
+        private boolean closed;
+
+        private Scope(File dir) {
+            this.dir = dir;
+        }
+
+        /**
+         * Creates a new empty directory in this scope.
+         *
+         * @param prefix the prefix of the directory name
+         * @return the created directory
+         * @throws IOException if the directory can't be created
+         */
+        public File createTempDirectory(String prefix) throws IOException {
+            return Files.createDirectory(new File(dir,
+                    nextName(prefix)).toPath()).toFile();
+        }
+
+        /**
+         * Creates a new empty file in this scope.
+         *
+         * @param prefix the prefix of the file name
+         * @param suffix the suffix of the file name
+         * @return the created file
+         * @throws IOException if the file can't be created
+         */
+        public File createTempFile(String prefix,
+                String suffix) throws IOException {
+            return Files.createFile(new File(dir,
+                    nextName(prefix)+suffix).toPath()).toFile();
+        }
+
+        /**
+         * Creates a path in this scope which doesn't exist.
+         *
+         * @param prefix the prefix of the name
+         * @return the path which doesn't exist
+         */
+        public File createTempPath(String prefix) {
+            return new File(dir,
+                    nextName(prefix));
+        }
+
+        /**
+         * Registers a resource which is closed when this scope is closed
+         * before its directory is deleted.
+         *
+         * @param resource the resource to close
+         */
+        public synchronized void register(AutoCloseable resource) {
+            if(resource == null) {
+                throw new IllegalArgumentException("resource mustn't be null");
+            }
+            if(closed) {
+                throw new IllegalStateException("scope has already been closed");
+            }
+            scopeResources.push(resource);
+        }
+
+        /**
+         * Closes all registered resources and deletes the directory of this
+         * scope. Invoking this method more than once has no effect.
+         *
+         * @throws IOException if deleting the directory fails
+         */
+        @Override
+        public void close() throws IOException {
+            synchronized(this) {
+                if(closed) {
+                    return;
+                }
+                closed = true;
+                    //scopeResources isn't modified anymore
+            }
+            removeScope(this);
+                //outside the lock of this scope since cleanUp closes scopes
+                //while holding the lock of the manager
+            closeAll(scopeResources);
+            deleteRecursively(dir.toPath());
+        }
+
+        public File getDir() {
+            return dir;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Opens an {@link ITResourceManager.Scope} before every test and closes it
+ * after the test, so that files and resources of the test are released
+ * before the next test starts instead of at the end of the fork. Use as
+ * {@code @Rule} field.
+ *
+ * @author richter
+ */
+public class ITResourceRule implements TestRule {
+    private volatile ITResourceManager.Scope scope;
+
+    @Override
+    public Statement apply(Statement base,
+            Description description) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                try (ITResourceManager.Scope testScope = ITResourceManager.getInstance().openScope(description.getTestClass().getSimpleName())) {
+                    scope = testScope;
+                    base.evaluate();
+                }finally {
+                    scope = null;
+                }
+            }
+        };
+    }
+
+    /**
+     * The scope of the running test.
+     *
+     * @return the scope
+     * @throws IllegalStateException if no test is running
+     */
+    public ITResourceManager.Scope getScope() {
+        ITResourceManager.Scope retValue = scope;
+        if(retValue == null) {
+            throw new IllegalStateException("scope is only available while a test is running");
+        }
+        return retValue;
+    }
+}
@@ -0,0 +1,332 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A MySQL server run from the binaries of a local installation, e.g. the
+ * extracted archive which the MySQL ITs expect in {@code $HOME}. It's the
+ * MySQL counterpart of {@link PostgresqlCluster}: the data directory is
+ * initialized without root password and the server runs without flushing
+ * the redo log at every commit. Readiness is detected with a
+ * {@link ServerReadinessProbe} which reads the handshake packet of the
+ * server. Shutdown sends {@code SIGTERM}, which makes {@code mysqld} shut
+ * down normally, and waits for the server process instead of polling with
+ * {@code mysqladmin}. Start and shutdown can run asynchronously and their
+ * durations are recorded.
+ *
+ * @author richter
+ */
+public class MySQLServer {
+    private final static String BIN = "bin";
+    private final static String ROOT_USERNAME = "root";
+    private final static long STARTUP_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private final static long SHUTDOWN_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private final String baseDir;
+    private final File dataDir;
+    private final File logFile;
+    private final File socketFile;
+    private final int port;
+    private final String username;
+    private final String password;
+    private Process mysqldProcess;
+    private volatile long startDurationMillis = -1;
+    private volatile long readinessDurationMillis = -1;
+    private volatile long shutdownDurationMillis = -1;
+
+    /**
+     * Creates a new {@code MySQLServer}.
+     *
+     * @param baseDir the installation directory containing
+     *     {@code bin/mysqld}
+     * @param dataDir the data directory which mustn't exist and is
+     *     initialized in {@link #start() }
+     * @param port the port to listen on
+     * @param username the name of the user which is created with all
+     *     privileges
+     * @param password the password of the user
+     */
+    public MySQLServer(String baseDir,
+            File dataDir,
+            int port,
+            String username,
+            String password) {
+        this.baseDir = baseDir;
+        this.dataDir = dataDir;
+        this.logFile = new File(dataDir.getParentFile(),
+                dataDir.getName()+".log");
+        this.socketFile = new File(dataDir.getParentFile(),
+                dataDir.getName()+".sock");
+            //avoid lacking permissions on the default socket directory
+        this.port = port;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Initializes the data directory, starts the server and creates the
+     * user.
+     *
+     * @throws IOException if a process fails or the server doesn't accept
+     *     connections within one minute
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws SQLException if creating the user fails
+     */
+    public synchronized void start() throws IOException,
+            InterruptedException,
+            SQLException {
+        if(mysqldProcess != null) {
+            throw new IllegalStateException("server has already been started");
+        }
+        if(dataDir.exists()) {
+            throw new IllegalStateException(String.format("data directory '%s' already exists",
+                    dataDir.getAbsolutePath()));
+        }
+        long start = System.currentTimeMillis();
+        runProcess(Arrays.asList(binary("mysqld"),
+                "--no-defaults",
+                "--initialize-insecure",
+                    //root without password, the user with password is
+                    //created after start
+                "--basedir="+baseDir,
+                "--datadir="+dataDir.getAbsolutePath(),
+                "--user="+System.getProperty("user.name")));
+                    //mysqld refuses to run as root without --user and
+                    //ignores it otherwise
+        mysqldProcess = new ProcessBuilder(binary("mysqld"),
+                "--no-defaults",
+                "--basedir="+baseDir,
+                "--datadir="+dataDir.getAbsolutePath(),
+                "--user="+System.getProperty("user.name"),
+                "--port="+port,
+                "--bind-address=127.0.0.1",
+                "--socket="+socketFile.getAbsolutePath(),
+                "--innodb-flush-log-at-trx-commit=0",
+                "--innodb-doublewrite=0",
+                "--performance-schema=OFF")
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(logFile))
+                    //mysqld logs to stderr without --log-error
+                .start();
+        readinessDurationMillis = new ServerReadinessProbe(mysqldProcess,
+                logFile,
+                ServerReadinessProbe.MYSQL_READY_PATTERN,
+                ServerReadinessProbe.mysqlProbe("localhost", port),
+                STARTUP_TIMEOUT_MILLIS).await();
+        try (Connection connection = getRootConnection();
+                PreparedStatement createUserStatement = connection.prepareStatement("CREATE USER ?@'%' IDENTIFIED BY ?");
+                PreparedStatement grantStatement = connection.prepareStatement("GRANT ALL PRIVILEGES ON *.* TO ?@'%'")) {
+            createUserStatement.setString(1, username);
+            createUserStatement.setString(2, password);
+            createUserStatement.executeUpdate();
+            grantStatement.setString(1, username);
+            grantStatement.executeUpdate();
+        }
+        startDurationMillis = System.currentTimeMillis()-start;
+    }
+
+    /**
+     * Runs {@link #start() } with {@code executor}.
+     *
+     * @param executor the executor to use
+     * @return a future which completes when the server accepts connections
+     *     or exceptionally with the exception thrown by {@link #start() }
+     */
+    public CompletableFuture<Void> startAsync(Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                start();
+            }catch(IOException | InterruptedException | SQLException ex) {
+                throw new CompletionException(ex);
+            }
+        },
+                executor);
+    }
+
+    /**
+     * Creates the empty database {@code databaseName}.
+     *
+     * @param databaseName the name of the database
+     * @throws SQLException if an SQL exception occurs
+     */
+    public void createDatabase(String databaseName) throws SQLException {
+        executeMaintenanceStatement(String.format("CREATE DATABASE %s",
+                quoteIdentifier(databaseName)));
+    }
+
+    public void dropDatabase(String databaseName) throws SQLException {
+        executeMaintenanceStatement(String.format("DROP DATABASE IF EXISTS %s",
+                quoteIdentifier(databaseName)));
+    }
+
+    private void executeMaintenanceStatement(String sql) throws SQLException {
+        try (Connection connection = getRootConnection();
+                Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private Connection getRootConnection() throws SQLException {
+        return DriverManager.getConnection(getJdbcUrl(""),
+                ROOT_USERNAME,
+                "" //password
+        );
+    }
+
+    public Connection getConnection(String databaseName) throws SQLException {
+        return DriverManager.getConnection(getJdbcUrl(databaseName),
+                username,
+                password);
+    }
+
+    public String getJdbcUrl(String databaseName) {
+        return String.format("jdbc:mysql://localhost:%d/%s",
+                port,
+                databaseName);
+    }
+
+    /**
+     * Stops the server by sending {@code SIGTERM} which makes {@code mysqld}
+     * shut down like {@code mysqladmin shutdown} and awaits the exit of the
+     * server process.
+     *
+     * @throws IOException if the server doesn't exit within one minute
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public synchronized void shutdown() throws IOException,
+            InterruptedException {
+        if(mysqldProcess == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            mysqldProcess.destroy();
+            if(!mysqldProcess.waitFor(SHUTDOWN_TIMEOUT_MILLIS,
+                    TimeUnit.MILLISECONDS)) {
+                throw new IOException(String.format("mysqld didn't exit within %d ms, see '%s' for details",
+                        SHUTDOWN_TIMEOUT_MILLIS,
+                        logFile.getAbsolutePath()));
+            }
+        }finally {
+            if(mysqldProcess.isAlive()) {
+                mysqldProcess.destroyForcibly();
+            }
+            mysqldProcess = null;
+            shutdownDurationMillis = System.currentTimeMillis()-start;
+        }
+    }
+
+    /**
+     * Runs {@link #shutdown() } with {@code executor}.
+     *
+     * @param executor the executor to use
+     * @return a future which completes when the server process has exited
+     *     or exceptionally with the exception thrown by {@link #shutdown() }
+     */
+    public CompletableFuture<Void> shutdownAsync(Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                shutdown();
+            }catch(IOException | InterruptedException ex) {
+                throw new CompletionException(ex);
+            }
+        },
+                executor);
+    }
+
+    private void runProcess(List<String> command) throws IOException,
+            InterruptedException {
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(logFile))
+                .start();
+        int exitCode = process.waitFor();
+        if(exitCode != 0) {
+            throw new IOException(String.format("command '%s' failed with exit code %d, see '%s' for details",
+                    String.join(" ", command),
+                    exitCode,
+                    logFile.getAbsolutePath()));
+        }
+    }
+
+    private String binary(String name) {
+        return new File(baseDir,
+                String.join(File.separator, BIN, name)).getAbsolutePath();
+    }
+
+    private static String quoteIdentifier(String identifier) {
+        return "`"+identifier.replace("`", "``")+"`";
+    }
+
+    public File getDataDir() {
+        return dataDir;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * The duration of the last {@link #start() } including the
+     * initialization of the data directory.
+     *
+     * @return the duration in milliseconds or {@code -1} if the server
+     *     hasn't been started
+     */
+    public long getStartDurationMillis() {
+        return startDurationMillis;
+    }
+
+    /**
+     * The time between the start of the server process and readiness.
+     *
+     * @return the duration in milliseconds or {@code -1} if the server
+     *     hasn't been started
+     */
+    public long getReadinessDurationMillis() {
+        return readinessDurationMillis;
+    }
+
+    /**
+     * The duration of the last {@link #shutdown() }.
+     *
+     * @return the duration in milliseconds or {@code -1} if the server
+     *     hasn't been shut down
+     */
+    public long getShutdownDurationMillis() {
+        return shutdownDurationMillis;
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * A port which has been reserved by {@link PortReservationService}. The
+ * reservation is held until {@link #close() } is invoked which should happen
+ * as soon as the service the port has been reserved for owns it, i.e. after it
+ * has been started.
+ *
+ * @author richter
+ */
+public final class PortReservation implements AutoCloseable {
+    private final int port;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final PortReservationService service;
+    private boolean closed;
+
+    PortReservation(int port,
+            FileChannel lockChannel,
+            FileLock lock,
+            PortReservationService service) {
+        this.port = port;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+        this.service = service;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Releases the reservation. Invoking this method more than once has no
+     * effect.
+     *
+     * @throws IOException if releasing the registry file lock fails
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        try {
+            lock.release();
+        }finally {
+            lockChannel.close();
+            service.release(port);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reserves ports for services started in integration tests in a way which is
+ * safe across threads, JVMs and Maven failsafe forks.
+ *
+ * A candidate port is reserved by acquiring an exclusive file lock on
+ * {@code <registry directory>/<port>.lock} and by binding a server socket to
+ * it in order to verify that no process outside the registry uses it. The bind
+ * probe is closed immediately because the service needs to bind the port
+ * itself, but the file lock is held until the returned
+ * {@link PortReservation} is closed. Callers are supposed to close the
+ * reservation after the service has been started, so that no external lock
+ * needs to be held across service startup and several services can be
+ * started in parallel.
+ *
+ * Each scan continues after the last port handed out for the same starting
+ * port, so that subsequent reservations don't need to probe all ports
+ * which have been reserved before.
+ *
+ * @author richter
+ */
+public final class PortReservationService {
+    /**
+     * The system property which allows to override the directory which is used
+     * as cross-JVM registry.
+     */
+    public final static String REGISTRY_DIR_PROPERTY = "reflection-form-builder-it.portRegistryDir";
+    private final static String REGISTRY_DIR_NAME_DEFAULT = "reflection-form-builder-it-ports";
+    private final static int PORT_MAX = 65535;
+    private final static String LOCK_FILE_SUFFIX = ".lock";
+    private static volatile PortReservationService instance;
+    private final File registryDir;
+    /**
+     * Ports reserved in this JVM. Necessary because file locks are held on
+     * behalf of the whole JVM, so that they can't be used to mutually exclude
+     * threads.
+     */
+    private final Set<Integer> reservedPorts = ConcurrentHashMap.newKeySet();
+    private final Map<Integer, AtomicInteger> nextCandidates = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the instance using the registry directory specified with
+     * {@link #REGISTRY_DIR_PROPERTY} or
+     * {@code reflection-form-builder-it-ports} in the system's temporary
+     * directory if the property isn't set.
+     *
+     * @return the shared instance
+     * @throws IOException if the registry directory can't be created
+     */
+    public static PortReservationService getInstance() throws IOException {
+        PortReservationService retValue = instance;
+        if(retValue == null) {
+            synchronized(PortReservationService.class) {
+                retValue = instance;
+                if(retValue == null) {
+                    String registryDirPath = System.getProperty(REGISTRY_DIR_PROPERTY);
+                    File registryDir = registryDirPath != null
+                            ? new File(registryDirPath)
+                            : new File(System.getProperty("java.io.tmpdir"),
+                                    REGISTRY_DIR_NAME_DEFAULT);
+                    retValue = new PortReservationService(registryDir);
+                    instance = retValue;
+                }
+            }
+        }
+        return retValue;
+    }
+
+    public PortReservationService(File registryDir) throws IOException {
+        if(registryDir == null) {
+            throw new IllegalArgumentException("registryDir mustn't be null");
+        }
+        if(!registryDir.exists() && !registryDir.mkdirs() && !registryDir.isDirectory()) {
+            throw new IOException(String.format("registry directory '%s' could not be created",
+                    registryDir.getAbsolutePath()));
+        }
+        if(!registryDir.isDirectory()) {
+            throw new IllegalArgumentException(String.format("registry directory '%s' exists, but is not a directory",
+                    registryDir.getAbsolutePath()));
+        }
+        this.registryDir = registryDir;
+    }
+
+    public PortReservation reserve(int startingFrom) throws IOException {
+        PortReservation retValue = reserve("localhost",
+                startingFrom);
+        return retValue;
+    }
+
+    /**
+     * Reserves the next port greater than or equal to {@code startingFrom}
+     * which isn't reserved by any other thread or JVM using the same registry
+     * directory and which can be bound on {@code host}. This method is
+     * thread-safe.
+     *
+     * @param host the host to bind the probe socket on
+     * @param startingFrom the port to start from
+     * @return the reservation which needs to be closed after the service
+     *     owns the port
+     * @throws IllegalStateException if no free port between
+     *     {@code startingFrom} and {@link #PORT_MAX} could be found
+     * @throws IOException if an unexpected I/O exception occurs
+     */
+    public PortReservation reserve(String host,
+            int startingFrom) throws IOException {
+        if(startingFrom < 1 || startingFrom >= PORT_MAX) {
+            throw new IllegalArgumentException(String.format("startingFrom has to be between 1 and %d",
+                    PORT_MAX));
+        }
+        AtomicInteger nextCandidate = nextCandidates.computeIfAbsent(startingFrom,
+                key -> new AtomicInteger(startingFrom));
+        int offset = nextCandidate.get()-startingFrom;
+        int range = PORT_MAX-startingFrom;
+        for (int i = 0; i < range; i++) {
+            int port = startingFrom+(offset+i)%range;
+            PortReservation reservation = tryReserve(host,
+                    port);
+            if(reservation != null) {
+                nextCandidate.set(port+1 < PORT_MAX ? port+1 : startingFrom);
+                return reservation;
+            }
+        }
+        throw new IllegalStateException(String.format("no free port between %d and %d is avaiable",
+                startingFrom,
+                PORT_MAX));
+    }
+
+    /**
+     * Tries to reserve {@code port}.
+     *
+     * @return the reservation or {@code null} if the port is reserved or used
+     */
+    private PortReservation tryReserve(String host,
+            int port) throws IOException {
+        if(!reservedPorts.add(port)) {
+            return null;
+        }
+        boolean reserved = false;
+        FileChannel lockChannel = null;
+        try {
+            lockChannel = FileChannel.open(new File(registryDir, port+LOCK_FILE_SUFFIX).toPath(),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            FileLock lock = lockChannel.tryLock();
+            if(lock == null) {
+                //reserved by another JVM
+                return null;
+            }
+            if(!isBindable(host,
+                    port)) {
+                lock.release();
+                return null;
+            }
+            reserved = true;
+            return new PortReservation(port,
+                    lockChannel,
+                    lock,
+                    this);
+        }finally {
+            if(!reserved) {
+                if(lockChannel != null) {
+                    lockChannel.close();
+                }
+                reservedPorts.remove(port);
+            }
+        }
+    }
+
+    private static boolean isBindable(String host,
+            int port) {
+        try (ServerSocket probeSocket = new ServerSocket()) {
+            probeSocket.setReuseAddress(true);
+                //allow binding ports in TIME_WAIT state like the services do
+            probeSocket.bind(new InetSocketAddress(host,
+                    port));
+            return true;
+        } catch (IOException ex) {
+            //expected if port is used
+            return false;
+        }
+    }
+
+    void release(int port) {
+        reservedPorts.remove(port);
+    }
+
+    public File getRegistryDir() {
+        return registryDir;
+    }
+}
@@ -0,0 +1,331 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A PostgreSQL cluster run from the binaries of a local installation which is
+ * shared by many tests. Tests get isolated databases by cloning a template
+ * database with {@link #createDatabase(java.lang.String, java.lang.String) }
+ * which is much cheaper than initializing and starting a cluster per test.
+ *
+ * Since the cluster is disposable, it's initialized and run without
+ * {@code fsync}. Readiness is detected with a {@link ServerReadinessProbe}
+ * and shutdown waits for the server process instead of polling with
+ * {@code pg_ctl}. Start and shutdown can run asynchronously, so that several
+ * clusters start and stop in parallel, and their durations are recorded.
+ *
+ * @author richter
+ */
+public class PostgresqlCluster {
+    private final static String BIN = "bin";
+    private final static String MAINTENANCE_DATABASE = "postgres";
+    private final static long STARTUP_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private final static long SHUTDOWN_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private final String installationPrefixDir;
+    private final File dataDir;
+    private final File logFile;
+    private final int port;
+    private final String username;
+    private final String password;
+    private Process postgresProcess;
+    private volatile long startDurationMillis = -1;
+    private volatile long readinessDurationMillis = -1;
+    private volatile long shutdownDurationMillis = -1;
+
+    /**
+     * Creates a new {@code PostgresqlCluster}.
+     *
+     * @param installationPrefixDir the installation prefix containing
+     *     {@code bin/initdb}, {@code bin/postgres} and {@code bin/pg_ctl}
+     * @param dataDir the data directory which mustn't exist and is
+     *     initialized in {@link #start() }
+     * @param port the port to listen on
+     * @param username the name of the superuser
+     * @param password the password of the superuser
+     */
+    public PostgresqlCluster(String installationPrefixDir,
+            File dataDir,
+            int port,
+            String username,
+            String password) {
+        this.installationPrefixDir = installationPrefixDir;
+        this.dataDir = dataDir;
+        this.logFile = new File(dataDir.getParentFile(),
+                dataDir.getName()+".log");
+        this.port = port;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Initializes the data directory and starts the server.
+     *
+     * @throws IOException if a process fails or the server doesn't accept
+     *     connections within one minute
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public synchronized void start() throws IOException,
+            InterruptedException {
+        if(postgresProcess != null) {
+            throw new IllegalStateException("cluster has already been started");
+        }
+        if(dataDir.exists()) {
+            throw new IllegalStateException(String.format("data directory '%s' already exists",
+                    dataDir.getAbsolutePath()));
+        }
+        long start = System.currentTimeMillis();
+        File passwordFile = File.createTempFile(PostgresqlCluster.class.getSimpleName(), "pw");
+        try {
+            Files.write(passwordFile.toPath(),
+                    password.getBytes(StandardCharsets.UTF_8));
+            runProcess(Arrays.asList(binary("initdb"),
+                    "-D", dataDir.getAbsolutePath(),
+                    "-U", username,
+                    "--pwfile="+passwordFile.getAbsolutePath(),
+                    "-A", "md5",
+                    "-E", "UTF8",
+                    "-N"));
+                //don't wait for the data directory to be written to disk
+        }finally {
+            Files.delete(passwordFile.toPath());
+        }
+        postgresProcess = new ProcessBuilder(binary("postgres"),
+                "-D", dataDir.getAbsolutePath(),
+                "-p", String.valueOf(port),
+                "-k", dataDir.getAbsolutePath(),
+                    //avoid lacking permissions on the default socket directory
+                "-c", "listen_addresses=localhost",
+                "-c", "fsync=off",
+                "-c", "synchronous_commit=off",
+                "-c", "full_page_writes=off")
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(logFile))
+                    //initdb output has been written to the log already
+                .start();
+        readinessDurationMillis = new ServerReadinessProbe(postgresProcess,
+                logFile,
+                ServerReadinessProbe.POSTGRESQL_READY_PATTERN,
+                ServerReadinessProbe.postgresqlProbe("localhost", port),
+                STARTUP_TIMEOUT_MILLIS).await();
+        startDurationMillis = System.currentTimeMillis()-start;
+    }
+
+    /**
+     * Runs {@link #start() } with {@code executor}.
+     *
+     * @param executor the executor to use
+     * @return a future which completes when the server accepts connections
+     *     or exceptionally with the exception thrown by {@link #start() }
+     */
+    public CompletableFuture<Void> startAsync(Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                start();
+            }catch(IOException | InterruptedException ex) {
+                throw new CompletionException(ex);
+            }
+        },
+                executor);
+    }
+
+    /**
+     * Creates the empty database {@code databaseName}.
+     *
+     * @param databaseName the name of the database
+     * @throws SQLException if an SQL exception occurs
+     */
+    public void createDatabase(String databaseName) throws SQLException {
+        executeMaintenanceStatement(String.format("CREATE DATABASE %s",
+                quoteIdentifier(databaseName)));
+    }
+
+    /**
+     * Creates the database {@code databaseName} as a copy of
+     * {@code templateDatabaseName}. The template mustn't have open connections.
+     *
+     * @param databaseName the name of the database to create
+     * @param templateDatabaseName the name of the database to copy
+     * @throws SQLException if an SQL exception occurs
+     */
+    public void createDatabase(String databaseName,
+            String templateDatabaseName) throws SQLException {
+        executeMaintenanceStatement(String.format("CREATE DATABASE %s TEMPLATE %s",
+                quoteIdentifier(databaseName),
+                quoteIdentifier(templateDatabaseName)));
+    }
+
+    public void dropDatabase(String databaseName) throws SQLException {
+        executeMaintenanceStatement(String.format("DROP DATABASE IF EXISTS %s",
+                quoteIdentifier(databaseName)));
+    }
+
+    private void executeMaintenanceStatement(String sql) throws SQLException {
+        try (Connection connection = getConnection(MAINTENANCE_DATABASE);
+                Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    public Connection getConnection(String databaseName) throws SQLException {
+        return DriverManager.getConnection(getJdbcUrl(databaseName),
+                username,
+                password);
+    }
+
+    public String getJdbcUrl(String databaseName) {
+        return String.format("jdbc:postgresql://localhost:%d/%s",
+                port,
+                databaseName);
+    }
+
+    /**
+     * Stops the server with fast shutdown mode. {@code pg_ctl} only signals
+     * the server and the exit of the server process is awaited directly,
+     * which avoids the polling interval of {@code pg_ctl -w}.
+     *
+     * @throws IOException if {@code pg_ctl} fails or the server doesn't exit
+     *     within one minute
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public synchronized void shutdown() throws IOException,
+            InterruptedException {
+        if(postgresProcess == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            runProcess(Arrays.asList(binary("pg_ctl"),
+                    "stop",
+                    "-D", dataDir.getAbsolutePath(),
+                    "-m", "fast",
+                    "-W"));
+            if(!postgresProcess.waitFor(SHUTDOWN_TIMEOUT_MILLIS,
+                    TimeUnit.MILLISECONDS)) {
+                throw new IOException(String.format("postgres didn't exit within %d ms, see '%s' for details",
+                        SHUTDOWN_TIMEOUT_MILLIS,
+                        logFile.getAbsolutePath()));
+            }
+        }finally {
+            if(postgresProcess.isAlive()) {
+                postgresProcess.destroyForcibly();
+            }
+            postgresProcess = null;
+            shutdownDurationMillis = System.currentTimeMillis()-start;
+        }
+    }
+
+    /**
+     * Runs {@link #shutdown() } with {@code executor}.
+     *
+     * @param executor the executor to use
+     * @return a future which completes when the server process has exited
+     *     or exceptionally with the exception thrown by {@link #shutdown() }
+     */
+    public CompletableFuture<Void> shutdownAsync(Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                shutdown();
+            }catch(IOException | InterruptedException ex) {
+                throw new CompletionException(ex);
+            }
+        },
+                executor);
+    }
+
+    private void runProcess(List<String> command) throws IOException,
+            InterruptedException {
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(logFile))
+                .start();
+        int exitCode = process.waitFor();
+        if(exitCode != 0) {
+            throw new IOException(String.format("command '%s' failed with exit code %d, see '%s' for details",
+                    String.join(" ", command),
+                    exitCode,
+                    logFile.getAbsolutePath()));
+        }
+    }
+
+    private String binary(String name) {
+        return new File(installationPrefixDir,
+                String.join(File.separator, BIN, name)).getAbsolutePath();
+    }
+
+    private static String quoteIdentifier(String identifier) {
+        return "\""+identifier.replace("\"", "\"\"")+"\"";
+    }
+
+    public File getDataDir() {
+        return dataDir;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * The duration of the last {@link #start() } including {@code initdb}.
+     *
+     * @return the duration in milliseconds or {@code -1} if the cluster
+     *     hasn't been started
+     */
+    public long getStartDurationMillis() {
+        return startDurationMillis;
+    }
+
+    /**
+     * The time between the start of the server process and readiness.
+     *
+     * @return the duration in milliseconds or {@code -1} if the cluster
+     *     hasn't been started
+     */
+    public long getReadinessDurationMillis() {
+        return readinessDurationMillis;
+    }
+
+    /**
+     * The duration of the last {@link #shutdown() }.
+     *
+     * @return the duration in milliseconds or {@code -1} if the cluster
+     *     hasn't been shut down
+     */
+    public long getShutdownDurationMillis() {
+        return shutdownDurationMillis;
+    }
+}
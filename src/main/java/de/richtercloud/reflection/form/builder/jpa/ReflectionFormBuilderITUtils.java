@@ -15,58 +15,51 @@
 package de.richtercloud.reflection.form.builder.jpa;
 
 import java.io.IOException;
-import java.net.Socket;
 
 /**
  *
  * @author richter
  */
 public final class ReflectionFormBuilderITUtils {
-    private final static int PORT_MAX = 65535;
-
+    /**
+     * Finds a free port on {@code localhost}.
+     *
+     * @param startingFrom the port to start from
+     * @return the found free port
+     * @throws IOException if an unexpected I/O exception occurs
+     * @deprecated use {@link PortReservationService}
+     * @see #findFreePort(java.lang.String, int)
+     */
+    @Deprecated
     public static int findFreePort(int startingFrom) throws IOException {
         int retValue = findFreePort("localhost",
                 startingFrom);
         return retValue;
     }
 
-    /*
-    internal implementation notes:
-    - providing a lock here doesn't make sense because it would be locked at any
-    invocation of findFreePort and then the caller would be responsible for
-    releasing it - it's more error proof and intuitive to leave all locks on the
-    caller's side
-    */
     /**
-     * This is method is not thread-safe because it doesn't make sense to find
-     * the next free port in a concurrent environment until the service for
-     * which the port is found has been started. Therefore callers need to work
-     * with locks in order to achieve that.
+     * Finds a free port by reserving it with
+     * {@link PortReservationService#reserve(java.lang.String, int) } and
+     * releasing the reservation immediately. Since the port is released before
+     * the service for which it is found has been started, callers which start
+     * services concurrently should use {@link PortReservationService} directly
+     * and keep the reservation until the service has been started.
      *
      * @param host find for host
      * @param startingFrom the port to start from
      * @return the found free port
      * @throws IllegalStateException if no free port between
-     *     {@code startingFrom} and {@link #PORT_MAX} could be found
+     *     {@code startingFrom} and {@code 65535} could be found
      * @throws IOException if an unexpected I/O exception occurs
+     * @deprecated use {@link PortReservationService} which holds the
+     *     reservation until the service owns the port
      */
-    @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
+    @Deprecated
     public static int findFreePort(String host,
             int startingFrom) throws IOException {
-        synchronized (ReflectionFormBuilderITUtils.class) {
-            for (int i = startingFrom; i < PORT_MAX; i++) {
-                try {
-                    Socket testSocket = new Socket(host,
-                            i);
-                    testSocket.close();
-                } catch (IOException ex) {
-                    //expected if port is free
-                    return i;
-                }
-            }
-            throw new IllegalStateException(String.format("no free port between %d and %d is avaiable",
-                    startingFrom,
-                    PORT_MAX));
+        try (PortReservation portReservation = PortReservationService.getInstance().reserve(host,
+                startingFrom)) {
+            return portReservation.getPort();
         }
     }
 
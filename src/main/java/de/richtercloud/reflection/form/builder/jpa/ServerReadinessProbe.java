@@ -0,0 +1,260 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.regex.Pattern;
+
+/**
+ * Waits for a server process to accept connections by tailing its log file
+ * for a line signalling readiness and probing the server's wire protocol
+ * with exponential backoff, starting at a few milliseconds. This detects
+ * readiness much earlier than waiting conservatively and doesn't need
+ * credentials like a JDBC connection attempt. The probe fails as soon as the
+ * process exits and reports the last lines of the log.
+ *
+ * @author richter
+ */
+public class ServerReadinessProbe {
+    /**
+     * The line which PostgreSQL logs once the startup process has finished.
+     */
+    public final static Pattern POSTGRESQL_READY_PATTERN = Pattern.compile(".*database system is ready to accept connections.*");
+    /**
+     * The PostgreSQL protocol code of an {@code SSLRequest} message.
+     */
+    private final static int POSTGRESQL_SSL_REQUEST_CODE = 80877103;
+    /**
+     * The line which MySQL logs once it accepts connections. The X Plugin of
+     * MySQL 8 logs a similar line which doesn't contain {@code mysqld:}.
+     */
+    public final static Pattern MYSQL_READY_PATTERN = Pattern.compile(".*mysqld.*: ready for connections.*");
+    /**
+     * The first byte of the payload of the initial handshake packet of MySQL
+     * since 3.21.
+     */
+    private final static int MYSQL_PROTOCOL_VERSION = 10;
+    private final static int PROTOCOL_PROBE_TIMEOUT_MILLIS = 1000;
+    private final static long POLL_INTERVAL_INITIAL_MILLIS = 5;
+    private final static long POLL_INTERVAL_MAX_MILLIS = 200;
+    private final static int LOG_TAIL_LINE_COUNT = 10;
+    private final Process process;
+    private final File logFile;
+    private final Pattern readyPattern;
+    private final ProtocolProbe protocolProbe;
+    private final long timeoutMillis;
+    private final Deque<String> logTail = new ArrayDeque<>(LOG_TAIL_LINE_COUNT);
+    private final StringBuilder incompleteLogLine = new StringBuilder();
+    private long logOffset;
+    private boolean readyLogged;
+
+    /**
+     * Checks whether the server speaks its wire protocol on the port.
+     */
+    @FunctionalInterface
+    public interface ProtocolProbe {
+
+        /**
+         * Probes the server once.
+         *
+         * @return {@code true} if the server answered as expected,
+         *     {@code false} if it didn't accept the connection or didn't
+         *     answer
+         */
+        boolean probe();
+    }
+
+    /**
+     * Creates a probe which sends a PostgreSQL {@code SSLRequest} and expects
+     * {@code S} or {@code N} as answer. The request doesn't start a session,
+     * so that it doesn't need credentials and doesn't produce log entries.
+     * The postmaster answers it during crash recovery as well, so that it
+     * should be combined with {@link #POSTGRESQL_READY_PATTERN}.
+     *
+     * @param host the host
+     * @param port the port
+     * @return the created probe
+     */
+    public static ProtocolProbe postgresqlProbe(String host,
+            int port) {
+        return () -> {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port),
+                        PROTOCOL_PROBE_TIMEOUT_MILLIS);
+                socket.setSoTimeout(PROTOCOL_PROBE_TIMEOUT_MILLIS);
+                DataOutputStream outputStream = new DataOutputStream(socket.getOutputStream());
+                outputStream.writeInt(8);
+                    //message length including itself
+                outputStream.writeInt(POSTGRESQL_SSL_REQUEST_CODE);
+                outputStream.flush();
+                int answer = socket.getInputStream().read();
+                return answer == 'S' || answer == 'N';
+            }catch(IOException ex) {
+                //not listening yet or closed the connection
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Creates a probe which reads the initial handshake packet which a MySQL
+     * server sends as soon as it accepted a connection and expects protocol
+     * version 10. The connection is closed without answering, so that no
+     * credentials are needed, the server only counts an aborted connection
+     * attempt. A server which can't handle the connection, e.g. because it's
+     * still initializing or shutting down, sends an error packet instead
+     * which is recognized as not ready.
+     *
+     * @param host the host
+     * @param port the port
+     * @return the created probe
+     */
+    public static ProtocolProbe mysqlProbe(String host,
+            int port) {
+        return () -> {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port),
+                        PROTOCOL_PROBE_TIMEOUT_MILLIS);
+                socket.setSoTimeout(PROTOCOL_PROBE_TIMEOUT_MILLIS);
+                DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+                byte[] header = new byte[4];
+                inputStream.readFully(header);
+                    //3 bytes little-endian payload length and the sequence
+                    //number
+                int payloadLength = (header[0] & 0xff)
+                        | (header[1] & 0xff) << 8
+                        | (header[2] & 0xff) << 16;
+                if(payloadLength == 0) {
+                    return false;
+                }
+                return inputStream.read() == MYSQL_PROTOCOL_VERSION;
+                    //an error packet starts with 0xff
+            }catch(IOException ex) {
+                //not listening yet or closed the connection
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Creates a new {@code ServerReadinessProbe}.
+     *
+     * @param process the server process
+     * @param logFile the log file of the server which might not exist yet
+     * @param readyPattern the pattern of the log line signalling readiness or
+     *     {@code null} if only {@code protocolProbe} should be used
+     * @param protocolProbe the probe of the server's wire protocol
+     * @param timeoutMillis the maximum time to wait
+     */
+    public ServerReadinessProbe(Process process,
+            File logFile,
+            Pattern readyPattern,
+            ProtocolProbe protocolProbe,
+            long timeoutMillis) {
+        if(process == null) {
+            throw new IllegalArgumentException("process mustn't be null");
+        }
+        if(logFile == null) {
+            throw new IllegalArgumentException("logFile mustn't be null");
+        }
+        if(protocolProbe == null) {
+            throw new IllegalArgumentException("protocolProbe mustn't be null");
+        }
+        this.process = process;
+        this.logFile = logFile;
+        this.readyPattern = readyPattern;
+        this.protocolProbe = protocolProbe;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Waits until the server is ready.
+     *
+     * @return the time waited in milliseconds
+     * @throws IOException if the process exits, the server doesn't get ready
+     *     within the timeout or reading the log file fails
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public long await() throws IOException,
+            InterruptedException {
+        long start = System.currentTimeMillis();
+        long deadline = start+timeoutMillis;
+        long pollInterval = POLL_INTERVAL_INITIAL_MILLIS;
+        while(true) {
+            tailLog();
+            if(!process.isAlive()) {
+                throw new IOException(String.format("server process exited with code %d before accepting connections, last lines of '%s':%n%s",
+                        process.exitValue(),
+                        logFile.getAbsolutePath(),
+                        String.join(System.lineSeparator(), logTail)));
+            }
+            if((readyPattern == null || readyLogged)
+                    && protocolProbe.probe()) {
+                return System.currentTimeMillis()-start;
+            }
+            if(System.currentTimeMillis() > deadline) {
+                throw new IOException(String.format("server didn't accept connections within %d ms, last lines of '%s':%n%s",
+                        timeoutMillis,
+                        logFile.getAbsolutePath(),
+                        String.join(System.lineSeparator(), logTail)));
+            }
+            Thread.sleep(pollInterval);
+            pollInterval = Math.min(pollInterval*2,
+                    POLL_INTERVAL_MAX_MILLIS);
+        }
+    }
+
+    /**
+     * Reads the lines appended to the log file since the last invocation.
+     */
+    private void tailLog() throws IOException {
+        if(!logFile.exists()) {
+            return;
+        }
+        try (RandomAccessFile log = new RandomAccessFile(logFile, "r")) {
+            long length = log.length();
+            if(length <= logOffset) {
+                return;
+            }
+            byte[] appended = new byte[(int)(length-logOffset)];
+            log.seek(logOffset);
+            log.readFully(appended);
+            logOffset = length;
+            incompleteLogLine.append(new String(appended,
+                    StandardCharsets.UTF_8));
+        }
+        int lineEnd;
+        while((lineEnd = incompleteLogLine.indexOf("\n")) >= 0) {
+            String line = incompleteLogLine.substring(0, lineEnd);
+            incompleteLogLine.delete(0, lineEnd+1);
+            if(logTail.size() == LOG_TAIL_LINE_COUNT) {
+                logTail.removeFirst();
+            }
+            logTail.addLast(line);
+            if(readyPattern != null && readyPattern.matcher(line).matches()) {
+                readyLogged = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the wall-clock time of the tests of a failsafe fork and the sum of
+ * the durations of its tests and reports the speedup of running the IT suite
+ * in several forks.
+ *
+ * Every fork writes {@code fork-<forkId>.properties} to the report directory
+ * when its run finished and then recomputes {@code summary.txt} from all fork
+ * files. The speedup is the sum of all test durations, i.e. the time a
+ * sequential run would take, divided by the wall-clock time between the
+ * earliest start and the latest end of all forks. Report files of previous
+ * builds are removed by {@code mvn clean}.
+ *
+ * @author richter
+ */
+public class WallClockRunListener extends RunListener {
+    private final static Logger LOGGER = LoggerFactory.getLogger(WallClockRunListener.class);
+    public final static String REPORT_DIR_PROPERTY = "reflection-form-builder-it.wallClockReportDir";
+    private final static String REPORT_DIR_DEFAULT = "target/it-wall-clock";
+    private final static String FORK_FILE_PREFIX = "fork-";
+    private final static String FORK_FILE_SUFFIX = ".properties";
+    private final static String SUMMARY_FILE_NAME = "summary.txt";
+    private final static String LOCK_FILE_NAME = "report.lock";
+    private final static String KEY_START = "start";
+    private final static String KEY_END = "end";
+    private final static String KEY_TEST_MILLIS = "testMillis";
+    private final static String KEY_TEST_COUNT = "testCount";
+    private final Map<Description, Long> testStarts = new ConcurrentHashMap<>();
+    private final AtomicLong testMillis = new AtomicLong();
+    private final AtomicInteger testCount = new AtomicInteger();
+    private long runStart;
+
+    @Override
+    public void testRunStarted(Description description) {
+        runStart = System.currentTimeMillis();
+    }
+
+    @Override
+    public void testStarted(Description description) {
+        testStarts.put(description,
+                System.currentTimeMillis());
+    }
+
+    @Override
+    public void testFinished(Description description) {
+        Long start = testStarts.remove(description);
+        if(start != null) {
+            testMillis.addAndGet(System.currentTimeMillis()-start);
+            testCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void testRunFinished(Result result) throws IOException {
+        File reportDir = new File(System.getProperty(REPORT_DIR_PROPERTY,
+                REPORT_DIR_DEFAULT));
+        Files.createDirectories(reportDir.toPath());
+        Properties forkReport = new Properties();
+        forkReport.setProperty(KEY_START,
+                String.valueOf(runStart));
+        forkReport.setProperty(KEY_END,
+                String.valueOf(System.currentTimeMillis()));
+        forkReport.setProperty(KEY_TEST_MILLIS,
+                String.valueOf(testMillis.get()));
+        forkReport.setProperty(KEY_TEST_COUNT,
+                String.valueOf(testCount.get()));
+        String forkId = System.getProperty(ITResourceManager.FORK_ID_PROPERTY,
+                "1");
+        try (FileChannel lockChannel = FileChannel.open(new File(reportDir, LOCK_FILE_NAME).toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            FileLock lock = lockChannel.lock();
+                //forks finishing at the same time mustn't read half-written
+                //files
+            try {
+                try (OutputStream outputStream = Files.newOutputStream(new File(reportDir,
+                        FORK_FILE_PREFIX+forkId+FORK_FILE_SUFFIX).toPath())) {
+                    forkReport.store(outputStream,
+                            null //comments
+                    );
+                }
+                String summary = summarize(reportDir.toPath());
+                Files.write(new File(reportDir, SUMMARY_FILE_NAME).toPath(),
+                        summary.getBytes(StandardCharsets.UTF_8));
+                LOGGER.info(summary);
+            }finally {
+                lock.release();
+            }
+        }
+    }
+
+    private static String summarize(Path reportDir) throws IOException {
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        long summedTestMillis = 0;
+        int summedTestCount = 0;
+        int forkCount = 0;
+        try (DirectoryStream<Path> forkFiles = Files.newDirectoryStream(reportDir,
+                FORK_FILE_PREFIX+"*"+FORK_FILE_SUFFIX)) {
+            for(Path forkFile : forkFiles) {
+                Properties forkReport = new Properties();
+                try (InputStream inputStream = Files.newInputStream(forkFile)) {
+                    forkReport.load(inputStream);
+                }
+                start = Math.min(start,
+                        Long.parseLong(forkReport.getProperty(KEY_START)));
+                end = Math.max(end,
+                        Long.parseLong(forkReport.getProperty(KEY_END)));
+                summedTestMillis += Long.parseLong(forkReport.getProperty(KEY_TEST_MILLIS));
+                summedTestCount += Integer.parseInt(forkReport.getProperty(KEY_TEST_COUNT));
+                forkCount++;
+            }
+        }
+        long wallClockMillis = Math.max(1,
+                end-start);
+        return String.format("%d tests in %d fork(s) took %d ms wall-clock time and %d ms summed test time, speedup %.2f%n",
+                summedTestCount,
+                forkCount,
+                wallClockMillis,
+                summedTestMillis,
+                (double)summedTestMillis/wallClockMillis);
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.accessor;
+
+import java.util.Objects;
+
+/**
+ * Identifies an entity by the class declaring its ID field and its ID, so
+ * that an entity and instances of its subclasses with the same ID share one
+ * key.
+ *
+ * @author richter
+ */
+public final class EntityKey {
+    private final Class<?> idDeclaringClass;
+    private final Object id;
+
+    /**
+     * Creates the key of the entity of {@code entityClass} with ID
+     * {@code id}.
+     *
+     * @param entityClass the entity class
+     * @param id the ID
+     * @return the key
+     * @throws IllegalArgumentException if {@code entityClass} doesn't have an
+     *     accessible ID field
+     */
+    public static EntityKey of(Class<?> entityClass,
+            Object id) {
+        return new EntityKey(getIdAccessor(entityClass).getField().getDeclaringClass(),
+                id);
+    }
+
+    /**
+     * Creates the key of {@code entity}.
+     *
+     * @param entity the entity
+     * @return the key
+     * @throws IllegalArgumentException if the class of {@code entity} doesn't
+     *     have an accessible ID field
+     */
+    public static EntityKey of(Object entity) {
+        FieldAccessor idAccessor = getIdAccessor(entity.getClass());
+        return new EntityKey(idAccessor.getField().getDeclaringClass(),
+                idAccessor.get(entity));
+    }
+
+    private static FieldAccessor getIdAccessor(Class<?> entityClass) {
+        try {
+            return IdAccessors.get(entityClass);
+        } catch (IllegalAccessException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    private EntityKey(Class<?> idDeclaringClass,
+            Object id) {
+        this.idDeclaringClass = idDeclaringClass;
+        this.id = id;
+    }
+
+    public Class<?> getIdDeclaringClass() {
+        return idDeclaringClass;
+    }
+
+    public Object getId() {
+        return id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(idDeclaringClass,
+                id);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final EntityKey other = (EntityKey) obj;
+        return idDeclaringClass == other.idDeclaringClass
+                && Objects.equals(id, other.id);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s]",
+                idDeclaringClass.getName(),
+                id);
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.accessor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Reads and writes one field through {@link MethodHandle}s which are
+ * resolved once, so that callers don't have to make the field accessible and
+ * handle {@link IllegalAccessException} for every access. Instances are
+ * obtained from {@link FieldAccessors} which caches them per field.
+ *
+ * The handles are held in instance fields which the JIT doesn't treat as
+ * constants, so that they aren't inlined and an access isn't faster than
+ * {@link Field#get(java.lang.Object) } or
+ * {@link Field#set(java.lang.Object, java.lang.Object) }, see
+ * {@code FieldAccessorBenchmark}. Faster accessors would require generating a
+ * class per field since {@link java.lang.invoke.LambdaMetafactory} can't bind
+ * to fields and entities don't provide accessor methods.
+ *
+ * @author richter
+ */
+public final class FieldAccessor {
+    private final static MethodType GETTER_TYPE = MethodType.methodType(Object.class,
+            Object.class);
+    private final static MethodType SETTER_TYPE = MethodType.methodType(void.class,
+            Object.class,
+            Object.class);
+    private final Field field;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+
+    /**
+     * Creates a new {@code FieldAccessor}.
+     *
+     * @param field the field to access which mustn't be static
+     * @throws IllegalAccessException if the method handles can't be created
+     */
+    FieldAccessor(Field field) throws IllegalAccessException {
+        field.setAccessible(true);
+            //allows unreflecting private fields with any lookup
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        this.field = field;
+        this.getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+        this.setter = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+    }
+
+    /**
+     * Gets the value of the field of {@code instance}.
+     *
+     * @param instance the instance
+     * @return the value of the field, boxed for primitive fields
+     * @throws ClassCastException if {@code instance} isn't an instance of the
+     *     declaring class of the field
+     */
+    @SuppressWarnings("PMD.AvoidCatchingThrowable")
+    public Object get(Object instance) {
+        try {
+            return getter.invokeExact(instance);
+        }catch(RuntimeException | Error ex) {
+            throw ex;
+        }catch(Throwable ex) {
+            //field getters don't throw checked exceptions
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Sets the field of {@code instance} to {@code value}.
+     *
+     * @param instance the instance
+     * @param value the new value
+     * @throws ClassCastException if {@code instance} isn't an instance of the
+     *     declaring class or {@code value} doesn't match the field type
+     */
+    @SuppressWarnings("PMD.AvoidCatchingThrowable")
+    public void set(Object instance,
+            Object value) {
+        try {
+            setter.invokeExact(instance,
+                    value);
+        }catch(RuntimeException | Error ex) {
+            throw ex;
+        }catch(Throwable ex) {
+            //field setters don't throw checked exceptions
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public Field getField() {
+        return field;
+    }
+}
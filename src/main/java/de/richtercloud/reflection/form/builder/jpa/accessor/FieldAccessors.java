@@ -0,0 +1,59 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.accessor;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache of {@link FieldAccessor}s which resolves every field at most once
+ * per JVM. Used for both the owning and the mapped side of relationships.
+ *
+ * @author richter
+ */
+public final class FieldAccessors {
+    private final static Map<Field, FieldAccessor> ACCESSORS = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the accessor for {@code field} and creates it on first access.
+     *
+     * @param field the field
+     * @return the cached accessor
+     * @throws IllegalAccessException if the method handles for the field
+     *     can't be created
+     */
+    public static FieldAccessor get(Field field) throws IllegalAccessException {
+        FieldAccessor retValue = ACCESSORS.get(field);
+        if(retValue == null) {
+            if(Modifier.isStatic(field.getModifiers())) {
+                throw new IllegalArgumentException(String.format("static field %s isn't supported",
+                        field));
+            }
+            retValue = new FieldAccessor(field);
+                //creating an accessor twice in case of a race is harmless
+            FieldAccessor previous = ACCESSORS.putIfAbsent(field,
+                    retValue);
+            if(previous != null) {
+                retValue = previous;
+            }
+        }
+        return retValue;
+    }
+
+    private FieldAccessors() {
+    }
+}
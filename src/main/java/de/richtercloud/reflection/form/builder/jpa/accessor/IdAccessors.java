@@ -0,0 +1,71 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.accessor;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.persistence.EmbeddedId;
+import javax.persistence.Id;
+
+/**
+ * A cache of {@link FieldAccessor}s for the field annotated with {@link Id}
+ * or {@link EmbeddedId} of entity classes. Entity classes with field access
+ * and a single ID field are supported.
+ *
+ * @author richter
+ */
+public final class IdAccessors {
+    private final static Map<Class<?>, FieldAccessor> ACCESSORS = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the accessor for the ID field of {@code entityClass} or one of its
+     * superclasses.
+     *
+     * @param entityClass the entity class
+     * @return the cached accessor
+     * @throws IllegalArgumentException if {@code entityClass} doesn't have an
+     *     ID field
+     * @throws IllegalAccessException if the method handles for the field
+     *     can't be created
+     */
+    public static FieldAccessor get(Class<?> entityClass) throws IllegalAccessException {
+        FieldAccessor retValue = ACCESSORS.get(entityClass);
+        if(retValue == null) {
+            retValue = FieldAccessors.get(findIdField(entityClass));
+            ACCESSORS.putIfAbsent(entityClass,
+                    retValue);
+        }
+        return retValue;
+    }
+
+    private static Field findIdField(Class<?> entityClass) {
+        Class<?> current = entityClass;
+        while(current != null && current != Object.class) {
+            for(Field field : current.getDeclaredFields()) {
+                if(field.isAnnotationPresent(Id.class)
+                        || field.isAnnotationPresent(EmbeddedId.class)) {
+                    return field;
+                }
+            }
+            current = current.getSuperclass();
+        }
+        throw new IllegalArgumentException(String.format("class %s doesn't have a field annotated with @Id or @EmbeddedId",
+                entityClass.getName()));
+    }
+
+    private IdAccessors() {
+    }
+}
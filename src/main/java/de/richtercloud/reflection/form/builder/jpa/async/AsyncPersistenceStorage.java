@@ -0,0 +1,266 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.async;
+
+import de.richtercloud.reflection.form.builder.jpa.accessor.EntityKey;
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs the blocking operations of a {@link PersistenceStorage} on an
+ * {@link Executor} and returns {@link CompletableFuture}s, so that callers
+ * like a Swing UI don't block.
+ *
+ * Ordering: operations on the same entity, identified by the class declaring
+ * its ID field and the ID, are executed in submission order and never
+ * concurrently, so that {@link #retrieveAsync(java.lang.Object, java.lang.Class) }
+ * after {@link #storeAsync(java.lang.Object) } of the same entity sees the
+ * stored state even if the store fails. Operations on different entities and
+ * {@link #runQueryAsync(java.util.function.Function) } aren't ordered.
+ *
+ * Backpressure: at most {@code maxPending} operations are submitted but not
+ * completed. Further operations are handled according to the
+ * {@link SaturationPolicy}. {@link SaturationPolicy#BLOCK} blocks the
+ * submitting thread until an operation completes and thus mustn't be used
+ * when submitting from the Swing event dispatch thread, use
+ * {@link SaturationPolicy#REJECT} there. If the submitting thread is
+ * interrupted while it's blocked, the returned future is completed
+ * exceptionally with the {@link InterruptedException} and the interrupt flag
+ * of the thread is restored.
+ *
+ * @param <I> the type of IDs of the storage
+ * @author richter
+ */
+public class AsyncPersistenceStorage<I> {
+    private final PersistenceStorage<I> storage;
+    private final Executor executor;
+    private final Semaphore pendingPermits;
+    private final int maxPending;
+    private final SaturationPolicy saturationPolicy;
+    /**
+     * The last submitted operation per entity which the next operation on the
+     * same entity waits for. Entries are removed when the last operation
+     * completes, so that the map only contains entities with pending
+     * operations.
+     */
+    private final Map<EntityKey, CompletableFuture<?>> tails = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new {@code AsyncPersistenceStorage}.
+     *
+     * @param storage the started storage
+     * @param executor the executor to run operations on, e.g. an
+     *     {@link de.richtercloud.reflection.form.builder.jpa.executor.AdaptiveQueryExecutor}
+     * @param maxPending the maximum number of pending operations
+     * @param saturationPolicy the handling of operations exceeding
+     *     {@code maxPending}
+     */
+    public AsyncPersistenceStorage(PersistenceStorage<I> storage,
+            Executor executor,
+            int maxPending,
+            SaturationPolicy saturationPolicy) {
+        if(storage == null) {
+            throw new IllegalArgumentException("storage mustn't be null");
+        }
+        if(executor == null) {
+            throw new IllegalArgumentException("executor mustn't be null");
+        }
+        if(maxPending <= 0) {
+            throw new IllegalArgumentException("maxPending has to be greater than 0");
+        }
+        if(saturationPolicy == null) {
+            throw new IllegalArgumentException("saturationPolicy mustn't be null");
+        }
+        this.storage = storage;
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.pendingPermits = new Semaphore(maxPending);
+        this.saturationPolicy = saturationPolicy;
+    }
+
+    /**
+     * Stores {@code entity} after all previously submitted operations on the
+     * same entity.
+     *
+     * @param entity the entity to store
+     * @return a future which is completed when {@code entity} has been stored
+     *     or exceptionally with a {@link CompletionException} wrapping the
+     *     {@link StorageException}
+     */
+    public CompletableFuture<Void> storeAsync(Object entity) {
+        EntityKey key = EntityKey.of(entity);
+        return submit(key,
+                () -> {
+                    try {
+                        storage.store(entity);
+                        return null;
+                    } catch (StorageException ex) {
+                        throw new CompletionException(ex);
+                    }
+                });
+    }
+
+    /**
+     * Retrieves the entity with ID {@code id} after all previously submitted
+     * operations on the same entity.
+     *
+     * @param <T> the type of the entity
+     * @param id the ID
+     * @param entityClass the entity class
+     * @return a future of the entity or {@code null} if it doesn't exist
+     */
+    public <T> CompletableFuture<T> retrieveAsync(I id,
+            Class<T> entityClass) {
+        EntityKey key = EntityKey.of(entityClass,
+                id);
+        return submit(key,
+                () -> {
+                    try {
+                        return storage.retrieve(id,
+                                entityClass);
+                    } catch (StorageException ex) {
+                        throw new CompletionException(ex);
+                    }
+                });
+    }
+
+    /**
+     * Runs {@code query} against the storage without ordering relative to
+     * other operations.
+     *
+     * @param <T> the type of the result
+     * @param query the query which may throw unchecked exceptions
+     * @return a future of the result of {@code query}
+     */
+    public <T> CompletableFuture<T> runQueryAsync(Function<PersistenceStorage<I>, T> query) {
+        return submit(null,
+                () -> query.apply(storage));
+    }
+
+    private <T> CompletableFuture<T> submit(EntityKey key,
+            Supplier<T> operation) {
+        boolean acquired;
+        try {
+            acquired = acquirePermit();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            CompletableFuture<T> retValue = new CompletableFuture<>();
+            retValue.completeExceptionally(ex);
+            return retValue;
+        }
+        if(!acquired) {
+            CompletableFuture<T> retValue = new CompletableFuture<>();
+            retValue.completeExceptionally(new RejectedExecutionException(String.format("%d operations are pending",
+                    maxPending)));
+            return retValue;
+        }
+        CompletableFuture<T> retValue;
+        try {
+            if(key == null) {
+                retValue = CompletableFuture.supplyAsync(operation,
+                        executor);
+            }else {
+                retValue = submitOrdered(key,
+                        operation);
+            }
+        }catch(RuntimeException ex) {
+            //e.g. RejectedExecutionException of the executor
+            pendingPermits.release();
+            throw ex;
+        }
+        retValue.whenComplete((result, throwable) -> pendingPermits.release());
+        return retValue;
+    }
+
+    /**
+     * Makes the future of the operation the new tail of {@code key} and
+     * submits the operation afterwards. Only the exchange of the tail is
+     * atomic, so that the operation isn't submitted while a bin of
+     * {@link #tails} is locked, which would deadlock or fail with executors
+     * running tasks in the submitting thread since completing the operation
+     * removes the tail again.
+     */
+    private <T> CompletableFuture<T> submitOrdered(EntityKey key,
+            Supplier<T> operation) {
+        CompletableFuture<T> retValue = new CompletableFuture<>();
+        CompletableFuture<?> previous = tails.put(key,
+                retValue);
+        retValue.whenComplete((result, throwable) -> tails.remove(key,
+                retValue));
+        CompletableFuture<T> operationFuture;
+        try {
+            if(previous == null) {
+                operationFuture = CompletableFuture.supplyAsync(operation,
+                        executor);
+            }else {
+                //run after the previous operation regardless of its outcome
+                operationFuture = previous.handle((result, throwable) -> null)
+                        .thenApplyAsync(ignored -> operation.get(),
+                                executor);
+            }
+        }catch(RuntimeException ex) {
+            //complete the tail, so that later operations on the same entity
+            //don't wait for it forever
+            retValue.completeExceptionally(ex);
+            throw ex;
+        }
+        operationFuture.whenComplete((result, throwable) -> {
+            if(throwable != null) {
+                retValue.completeExceptionally(throwable);
+            }else {
+                retValue.complete(result);
+            }
+        });
+        return retValue;
+    }
+
+    /**
+     * Acquires a permit according to the saturation policy.
+     *
+     * @return {@code true} if a permit has been acquired, {@code false} if
+     *     the operation is rejected
+     * @throws InterruptedException if the thread is interrupted while waiting
+     *     for a permit with {@link SaturationPolicy#BLOCK}
+     */
+    private boolean acquirePermit() throws InterruptedException {
+        if(saturationPolicy == SaturationPolicy.REJECT) {
+            return pendingPermits.tryAcquire();
+        }
+        pendingPermits.acquire();
+        return true;
+    }
+
+    /**
+     * The number of submitted operations which haven't completed yet.
+     *
+     * @return the number of pending operations
+     */
+    public int getPendingCount() {
+        return maxPending-pendingPermits.availablePermits();
+    }
+
+    public PersistenceStorage<I> getStorage() {
+        return storage;
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.async;
+
+/**
+ * What {@link AsyncPersistenceStorage} does with a new operation when the
+ * maximum number of pending operations is reached.
+ *
+ * @author richter
+ */
+public enum SaturationPolicy {
+    /**
+     * The calling thread waits until an operation completes. Suitable for
+     * background threads which produce operations faster than the database
+     * processes them. If the thread is interrupted while waiting, the
+     * returned future is completed exceptionally with the
+     * {@link InterruptedException} instead.
+     */
+    BLOCK,
+    /**
+     * The returned future is completed exceptionally with a
+     * {@link java.util.concurrent.RejectedExecutionException} immediately.
+     * Suitable for threads which mustn't block, e.g. the Swing event dispatch
+     * thread.
+     */
+    REJECT
+}
@@ -0,0 +1,671 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.bulk;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.TypedQuery;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.ManagedType;
+import org.eclipse.persistence.config.QueryHints;
+import org.eclipse.persistence.queries.CursoredStream;
+
+/**
+ * Bulk operations on the database of an {@link EntityManagerFactory} which
+ * avoid one transaction per entity.
+ *
+ * {@link #storeAll(java.util.Collection) } persists all entities in one
+ * transaction. The persistence context is flushed every
+ * {@code flushInterval} entities and cleared every {@code clearInterval}
+ * entities, so that the memory used by the persistence context stays bounded
+ * regardless of the number of entities. The inserts of one flush are sent as
+ * JDBC batches if the entity manager factory has been created with
+ * {@link #batchWritingProperties(int) } and, for MySQL and PostgreSQL, a JDBC
+ * URL passed through {@link #enableBatchRewriting(java.lang.String) }.
+ *
+ * {@link #retrieveAll(java.util.Collection, java.lang.Class) } retrieves
+ * many entities by their IDs with {@code IN} queries of at most
+ * {@code inChunkSize} IDs each instead of one query per ID.
+ *
+ * {@link #stream(java.lang.String, java.lang.Class, java.util.Map) } reads
+ * query results with an EclipseLink cursor and a JDBC fetch size, so that
+ * neither the JDBC driver nor the persistence context hold the whole result.
+ * MySQL only uses a server-side cursor with a JDBC URL passed through
+ * {@link #enableCursorFetch(java.lang.String) }.
+ *
+ * @author richter
+ */
+public class BulkStorage {
+    public final static int BATCH_SIZE_DEFAULT = 1000;
+    public final static int FLUSH_INTERVAL_DEFAULT = BATCH_SIZE_DEFAULT;
+    public final static int CLEAR_INTERVAL_DEFAULT = 10*FLUSH_INTERVAL_DEFAULT;
+    /**
+     * Apache Derby compiles every {@code IN} list element into the generated
+     * statement class, so that long lists are slow to compile or exceed the
+     * class size limit.
+     */
+    public final static int IN_CHUNK_SIZE_DERBY = 1000;
+    /**
+     * The PostgreSQL wire protocol limits the number of bind parameters to
+     * 32767.
+     */
+    public final static int IN_CHUNK_SIZE_POSTGRESQL = Short.MAX_VALUE;
+    /**
+     * MySQL limits the number of placeholders of a prepared statement to
+     * 65535.
+     */
+    public final static int IN_CHUNK_SIZE_MYSQL = 65535;
+    public final static int IN_CHUNK_SIZE_DEFAULT = 1000;
+    private final static String JDBC_URL_PROPERTY = "javax.persistence.jdbc.url";
+    private final static String JDBC_URL_PREFIX_DERBY = "jdbc:derby:";
+    private final static String JDBC_URL_PREFIX_MYSQL = "jdbc:mysql:";
+    private final static String JDBC_URL_PREFIX_POSTGRESQL = "jdbc:postgresql:";
+    /**
+     * Makes MySQL Connector/J send a batch of inserts as one multi-row
+     * insert.
+     */
+    private final static String JDBC_URL_PARAMETER_MYSQL = "rewriteBatchedStatements=true";
+    /**
+     * Makes the PostgreSQL JDBC driver send a batch of inserts as multi-row
+     * inserts.
+     */
+    private final static String JDBC_URL_PARAMETER_POSTGRESQL = "reWriteBatchedInserts=true";
+    /**
+     * Makes MySQL Connector/J fetch results with a server-side cursor in
+     * portions of the fetch size instead of reading the whole result.
+     */
+    private final static String JDBC_URL_PARAMETER_MYSQL_CURSOR = "useCursorFetch=true";
+    public final static int FETCH_SIZE_DEFAULT = BATCH_SIZE_DEFAULT;
+    private final EntityManagerFactory entityManagerFactory;
+    private final int flushInterval;
+    private final int clearInterval;
+    private final int inChunkSize;
+    /**
+     * The members of relationships per entity class for
+     * {@link #checkNoClearedReference(java.lang.Object, java.util.Set) }.
+     */
+    private final Map<Class<?>, List<Member>> associationMembers = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the EclipseLink properties which enable JDBC batch writing.
+     * They have to be passed at creation of the entity manager factory.
+     *
+     * @param batchSize the maximum number of statements per batch
+     * @return the properties
+     */
+    public static Map<String, String> batchWritingProperties(int batchSize) {
+        if(batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize has to be greater than 0");
+        }
+        Map<String, String> retValue = new HashMap<>();
+        retValue.put("eclipselink.jdbc.batch-writing",
+                "JDBC");
+        retValue.put("eclipselink.jdbc.batch-writing.size",
+                String.valueOf(batchSize));
+        return retValue;
+    }
+
+    /**
+     * Adds the parameter to {@code jdbcUrl} which makes the MySQL or
+     * PostgreSQL driver rewrite batches into multi-row inserts. Without it
+     * both drivers send every statement of a batch separately. Other URLs,
+     * e.g. of Apache Derby, are returned unchanged.
+     *
+     * @param jdbcUrl the JDBC URL
+     * @return the JDBC URL with the rewrite parameter if supported
+     */
+    public static String enableBatchRewriting(String jdbcUrl) {
+        String parameter;
+        if(jdbcUrl.startsWith(JDBC_URL_PREFIX_MYSQL)) {
+            parameter = JDBC_URL_PARAMETER_MYSQL;
+        }else if(jdbcUrl.startsWith(JDBC_URL_PREFIX_POSTGRESQL)) {
+            parameter = JDBC_URL_PARAMETER_POSTGRESQL;
+        }else {
+            return jdbcUrl;
+        }
+        if(jdbcUrl.contains(parameter)) {
+            return jdbcUrl;
+        }
+        return jdbcUrl+(jdbcUrl.contains("?") ? "&" : "?")+parameter;
+    }
+
+    /**
+     * Adds the parameter to {@code jdbcUrl} which makes the MySQL driver use
+     * server-side cursors for queries with a fetch size. PostgreSQL uses
+     * cursors for queries with a fetch size inside a transaction and Apache
+     * Derby always reads results incrementally, so that other URLs are
+     * returned unchanged.
+     *
+     * @param jdbcUrl the JDBC URL
+     * @return the JDBC URL with the cursor parameter if necessary
+     */
+    public static String enableCursorFetch(String jdbcUrl) {
+        if(!jdbcUrl.startsWith(JDBC_URL_PREFIX_MYSQL)
+                || jdbcUrl.contains(JDBC_URL_PARAMETER_MYSQL_CURSOR)) {
+            return jdbcUrl;
+        }
+        return jdbcUrl+(jdbcUrl.contains("?") ? "&" : "?")+JDBC_URL_PARAMETER_MYSQL_CURSOR;
+    }
+
+    /**
+     * Gets the maximum number of IDs in one {@code IN} query for the database
+     * of {@code jdbcUrl}.
+     *
+     * @param jdbcUrl the JDBC URL or {@code null} if it's unknown
+     * @return the chunk size for the database or
+     *     {@link #IN_CHUNK_SIZE_DEFAULT} if the database isn't known
+     */
+    public static int inChunkSize(String jdbcUrl) {
+        if(jdbcUrl == null) {
+            return IN_CHUNK_SIZE_DEFAULT;
+        }
+        if(jdbcUrl.startsWith(JDBC_URL_PREFIX_DERBY)) {
+            return IN_CHUNK_SIZE_DERBY;
+        }
+        if(jdbcUrl.startsWith(JDBC_URL_PREFIX_POSTGRESQL)) {
+            return IN_CHUNK_SIZE_POSTGRESQL;
+        }
+        if(jdbcUrl.startsWith(JDBC_URL_PREFIX_MYSQL)) {
+            return IN_CHUNK_SIZE_MYSQL;
+        }
+        return IN_CHUNK_SIZE_DEFAULT;
+    }
+
+    private static int inChunkSize(EntityManagerFactory entityManagerFactory) {
+        if(entityManagerFactory == null) {
+            //let the constructor fail with a meaningful message
+            return IN_CHUNK_SIZE_DEFAULT;
+        }
+        return inChunkSize((String)entityManagerFactory.getProperties().get(JDBC_URL_PROPERTY));
+    }
+
+    public BulkStorage(EntityManagerFactory entityManagerFactory) {
+        this(entityManagerFactory,
+                FLUSH_INTERVAL_DEFAULT,
+                CLEAR_INTERVAL_DEFAULT);
+    }
+
+    /**
+     * Creates a new {@code BulkStorage}.
+     *
+     * @param entityManagerFactory the entity manager factory to use
+     * @param flushInterval the number of entities after which the
+     *     persistence context is flushed, should match the batch size
+     * @param clearInterval the number of entities after which the
+     *     persistence context is cleared, has to be a multiple of
+     *     {@code flushInterval} so that no unflushed changes are discarded
+     */
+    public BulkStorage(EntityManagerFactory entityManagerFactory,
+            int flushInterval,
+            int clearInterval) {
+        this(entityManagerFactory,
+                flushInterval,
+                clearInterval,
+                inChunkSize(entityManagerFactory));
+    }
+
+    /**
+     * Creates a new {@code BulkStorage}.
+     *
+     * @param entityManagerFactory the entity manager factory to use
+     * @param flushInterval the number of entities after which the
+     *     persistence context is flushed, should match the batch size
+     * @param clearInterval the number of entities after which the
+     *     persistence context is cleared, has to be a multiple of
+     *     {@code flushInterval} so that no unflushed changes are discarded
+     * @param inChunkSize the maximum number of IDs per {@code IN} query
+     */
+    public BulkStorage(EntityManagerFactory entityManagerFactory,
+            int flushInterval,
+            int clearInterval,
+            int inChunkSize) {
+        if(entityManagerFactory == null) {
+            throw new IllegalArgumentException("entityManagerFactory mustn't be null");
+        }
+        if(flushInterval <= 0) {
+            throw new IllegalArgumentException("flushInterval has to be greater than 0");
+        }
+        if(clearInterval <= 0 || clearInterval % flushInterval != 0) {
+            throw new IllegalArgumentException(String.format("clearInterval has to be a positive multiple of flushInterval %d",
+                    flushInterval));
+        }
+        this.entityManagerFactory = entityManagerFactory;
+        this.flushInterval = flushInterval;
+        if(inChunkSize <= 0) {
+            throw new IllegalArgumentException("inChunkSize has to be greater than 0");
+        }
+        this.clearInterval = clearInterval;
+        this.inChunkSize = inChunkSize;
+    }
+
+    /**
+     * Persists all {@code entities} in one transaction which is rolled back
+     * if persisting, flushing or committing fails. Since the persistence
+     * context is cleared periodically, the passed instances aren't managed
+     * after the method returns.
+     *
+     * Clearing detaches the entities persisted so far, so that an entity
+     * mustn't refer to an entity which precedes it in {@code entities} by
+     * one or more clears, i.e. relationships have to stay within the
+     * portions of {@code clearInterval} entities. Callers are responsible
+     * for this. In order to keep the memory usage bounded, only references
+     * to the portion detached by the most recent clear are detected, which
+     * covers relationships across one portion boundary, and cause an
+     * {@link IllegalArgumentException} and a rollback. References to earlier
+     * portions aren't detected. Use {@link #storeGroups(java.util.Iterator) }
+     * to store entities which refer to each other across such portions.
+     *
+     * @param entities the entities to persist
+     * @return the number of persisted entities
+     * @throws IllegalArgumentException if an entity refers to an entity
+     *     which has been detached by the most recent clear
+     */
+    public int storeAll(Collection<?> entities) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            EntityTransaction transaction = entityManager.getTransaction();
+            transaction.begin();
+            try {
+                int count = 0;
+                boolean clearing = entities.size() > clearInterval;
+                List<Object> unclearedEntities = clearing
+                        ? new ArrayList<>(clearInterval)
+                        : Collections.emptyList();
+                Set<Object> lastClearedEntities = Collections.newSetFromMap(new IdentityHashMap<>());
+                    //identity since entities might not implement equals
+                    //before they have an ID; holds at most clearInterval
+                    //entities, so that no more than 2*clearInterval
+                    //entities are retained regardless of the input size
+                for(Object entity : entities) {
+                    if(!lastClearedEntities.isEmpty()) {
+                        checkNoClearedReference(entity,
+                                lastClearedEntities);
+                    }
+                    entityManager.persist(entity);
+                    count++;
+                    if(clearing) {
+                        unclearedEntities.add(entity);
+                    }
+                    if(count % flushInterval == 0) {
+                        entityManager.flush();
+                        if(count % clearInterval == 0) {
+                            entityManager.clear();
+                            lastClearedEntities.clear();
+                            lastClearedEntities.addAll(unclearedEntities);
+                            unclearedEntities.clear();
+                        }
+                    }
+                }
+                transaction.commit();
+                return count;
+            }catch(RuntimeException ex) {
+                if(transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw ex;
+            }
+        }finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Persists groups of entities in one transaction like
+     * {@link #storeAll(java.util.Collection) }, but flushes and clears the
+     * persistence context only between groups, after at least
+     * {@code flushInterval} and {@code clearInterval} entities. Entities
+     * may only refer to entities of their own group or to entities which
+     * have been stored before the invocation since entities of earlier
+     * groups might have been detached by clearing. Unlike
+     * {@link #storeAll(java.util.Collection) } this isn't checked since
+     * groups can be arbitrarily large. Since groups are consumed one by one,
+     * the entities don't have to be held in memory at once, e.g. if they're
+     * generated while iterating.
+     *
+     * @param groups the groups of entities to persist
+     * @return the number of persisted entities
+     */
+    public long storeGroups(Iterator<? extends Collection<?>> groups) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            EntityTransaction transaction = entityManager.getTransaction();
+            transaction.begin();
+            try {
+                long count = 0;
+                int unflushedCount = 0;
+                int unclearedCount = 0;
+                while(groups.hasNext()) {
+                    Collection<?> group = groups.next();
+                    for(Object entity : group) {
+                        entityManager.persist(entity);
+                    }
+                    count += group.size();
+                    unflushedCount += group.size();
+                    unclearedCount += group.size();
+                    if(unflushedCount >= flushInterval) {
+                        entityManager.flush();
+                        unflushedCount = 0;
+                        if(unclearedCount >= clearInterval) {
+                            entityManager.clear();
+                            unclearedCount = 0;
+                        }
+                    }
+                }
+                transaction.commit();
+                return count;
+            }catch(RuntimeException ex) {
+                if(transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw ex;
+            }
+        }finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Throws an {@link IllegalArgumentException} if {@code entity} refers to
+     * one of {@code lastClearedEntities} through a relationship.
+     */
+    private void checkNoClearedReference(Object entity,
+            Set<Object> lastClearedEntities) {
+        for(Member associationMember : getAssociationMembers(entity.getClass())) {
+            Object value = getValue(associationMember,
+                    entity);
+            Collection<?> targets;
+            if(value == null) {
+                continue;
+            }else if(value instanceof Collection) {
+                targets = (Collection<?>)value;
+            }else if(value instanceof Map) {
+                targets = ((Map<?, ?>)value).values();
+            }else {
+                targets = Collections.singleton(value);
+            }
+            for(Object target : targets) {
+                if(lastClearedEntities.contains(target)) {
+                    throw new IllegalArgumentException(String.format("entity %s refers to entity %s through %s which has been detached by clearing the persistence context every %d entities, use storeGroups to store entities which refer to each other across clears",
+                            entity,
+                            target,
+                            associationMember.getName(),
+                            clearInterval));
+                }
+            }
+        }
+    }
+
+    private List<Member> getAssociationMembers(Class<?> entityClass) {
+        return associationMembers.computeIfAbsent(entityClass,
+                key -> {
+                    List<Member> retValue = new ArrayList<>();
+                    ManagedType<?> managedType = entityManagerFactory.getMetamodel().managedType(key);
+                    for(Attribute<?, ?> attribute : managedType.getAttributes()) {
+                        if(!attribute.isAssociation()) {
+                            continue;
+                        }
+                        Member member = attribute.getJavaMember();
+                        if(member instanceof Field) {
+                            ((Field)member).setAccessible(true);
+                        }else if(member instanceof Method) {
+                            ((Method)member).setAccessible(true);
+                        }
+                        retValue.add(member);
+                    }
+                    return retValue;
+                });
+    }
+
+    private static Object getValue(Member member,
+            Object entity) {
+        try {
+            if(member instanceof Field) {
+                return ((Field)member).get(entity);
+            }
+            return ((Method)member).invoke(entity);
+        }catch(IllegalAccessException | InvocationTargetException ex) {
+            throw new IllegalStateException(String.format("relationship %s of entity %s can't be read",
+                            member.getName(),
+                            entity),
+                    ex);
+        }
+    }
+
+    /**
+     * Retrieves the entities of type {@code entityClass} with the IDs
+     * {@code ids} with one {@code IN} query per {@code inChunkSize} distinct
+     * IDs.
+     *
+     * @param <I> the type of IDs
+     * @param <T> the type of entities
+     * @param ids the IDs to retrieve
+     * @param entityClass the entity class
+     * @return a map from ID to entity which doesn't contain IDs without
+     *     entity
+     */
+    public <I, T> Map<I, T> retrieveAll(Collection<I> ids,
+            Class<T> entityClass) {
+        Map<I, T> retValue = new HashMap<>(ids.size()*4/3+1);
+        if(ids.isEmpty()) {
+            return retValue;
+        }
+        EntityType<T> entityType = entityManagerFactory.getMetamodel().entity(entityClass);
+        String idAttributeName = entityType.getId(entityType.getIdType().getJavaType()).getName();
+        String queryText = String.format("SELECT e FROM %s e WHERE e.%s IN :ids",
+                entityType.getName(),
+                idAttributeName);
+        PersistenceUnitUtil persistenceUnitUtil = entityManagerFactory.getPersistenceUnitUtil();
+        List<I> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            for(int start = 0; start < distinctIds.size(); start += inChunkSize) {
+                List<I> chunk = distinctIds.subList(start,
+                        Math.min(start+inChunkSize, distinctIds.size()));
+                List<T> entities = entityManager.createQuery(queryText,
+                        entityClass)
+                        .setParameter("ids", chunk)
+                        .getResultList();
+                for(T entity : entities) {
+                    @SuppressWarnings("unchecked")
+                    I id = (I)persistenceUnitUtil.getIdentifier(entity);
+                    retValue.put(id,
+                            entity);
+                }
+            }
+        }finally {
+            entityManager.close();
+        }
+        return retValue;
+    }
+
+    /**
+     * Streams all entities of type {@code entityClass} ordered by ID, see
+     * {@link #stream(java.lang.String, java.lang.Class, java.util.Map) }.
+     *
+     * @param <T> the type of entities
+     * @param entityClass the entity class
+     * @return the stream which has to be closed
+     */
+    public <T> Stream<T> streamAll(Class<T> entityClass) {
+        EntityType<T> entityType = entityManagerFactory.getMetamodel().entity(entityClass);
+        String idAttributeName = entityType.getId(entityType.getIdType().getJavaType()).getName();
+        return stream(String.format("SELECT e FROM %s e ORDER BY e.%s",
+                        entityType.getName(),
+                        idAttributeName),
+                entityClass,
+                Collections.emptyMap());
+    }
+
+    /**
+     * Streams the results of the JPQL query {@code queryText} with constant
+     * memory usage. Rows are fetched in portions of
+     * {@link #FETCH_SIZE_DEFAULT} through an EclipseLink
+     * {@link CursoredStream} in a read-only transaction. Every
+     * {@code clearInterval} results the persistence context and the elements
+     * already read from the cursor are cleared, so that entities returned
+     * earlier are detached and changes to them aren't written. The entity
+     * manager, the transaction and the cursor are released when the stream is
+     * closed, so that it should be used in a try-with-resources statement.
+     *
+     * @param <T> the type of results
+     * @param queryText the JPQL query
+     * @param resultClass the class of results
+     * @param parameters the named parameters of the query
+     * @return the stream which has to be closed
+     */
+    public <T> Stream<T> stream(String queryText,
+            Class<T> resultClass,
+            Map<String, ?> parameters) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        CursorIterator<T> iterator;
+        try {
+            entityManager.getTransaction().begin();
+                //PostgreSQL only uses cursors without auto-commit
+            TypedQuery<T> query = entityManager.createQuery(queryText,
+                    resultClass);
+            for(Map.Entry<String, ?> parameter : parameters.entrySet()) {
+                query.setParameter(parameter.getKey(),
+                        parameter.getValue());
+            }
+            query.setHint(QueryHints.CURSOR,
+                    Boolean.TRUE);
+            query.setHint(QueryHints.CURSOR_PAGE_SIZE,
+                    FETCH_SIZE_DEFAULT);
+            query.setHint(QueryHints.JDBC_FETCH_SIZE,
+                    FETCH_SIZE_DEFAULT);
+            CursoredStream cursor = (CursoredStream)query.getSingleResult();
+                //EclipseLink returns the cursor as single result
+            iterator = new CursorIterator<>(entityManager,
+                    cursor,
+                    resultClass,
+                    clearInterval);
+        }catch(RuntimeException ex) {
+            if(entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            entityManager.close();
+            throw ex;
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                        Spliterator.ORDERED | Spliterator.NONNULL),
+                false //parallel
+        ).onClose(iterator::close);
+    }
+
+    public EntityManagerFactory getEntityManagerFactory() {
+        return entityManagerFactory;
+    }
+
+    public int getFlushInterval() {
+        return flushInterval;
+    }
+
+    public int getClearInterval() {
+        return clearInterval;
+    }
+
+    public int getInChunkSize() {
+        return inChunkSize;
+    }
+
+    /**
+     * Iterates over an EclipseLink cursor and clears the persistence context
+     * periodically.
+     *
+     * @param <T> the type of results
+     */
+    private static class CursorIterator<T> implements Iterator<T> {
+        private final EntityManager entityManager;
+        private final CursoredStream cursor;
+        private final Class<T> resultClass;
+        private final int clearInterval;
+        private int count;
+        private boolean closed;
+
+        CursorIterator(EntityManager entityManager,
+                CursoredStream cursor,
+                Class<T> resultClass,
+                int clearInterval) {
+            this.entityManager = entityManager;
+            this.cursor = cursor;
+            this.resultClass = resultClass;
+            this.clearInterval = clearInterval;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !closed && cursor.hasNext();
+        }
+
+        @Override
+        public T next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if(count > 0 && count % clearInterval == 0) {
+                cursor.clear();
+                entityManager.clear();
+            }
+            count++;
+            return resultClass.cast(cursor.next());
+        }
+
+        /**
+         * Closes the cursor, rolls back the read-only transaction and closes
+         * the entity manager. Invoking this method more than once has no
+         * effect.
+         */
+        void close() {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            try {
+                cursor.close();
+            }finally {
+                try {
+                    if(entityManager.getTransaction().isActive()) {
+                        entityManager.getTransaction().rollback();
+                    }
+                }finally {
+                    entityManager.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.cache;
+
+import de.richtercloud.reflection.form.builder.jpa.accessor.EntityKey;
+import de.richtercloud.reflection.form.builder.jpa.relation.BidirectionalRelationshipBatch;
+import de.richtercloud.reflection.form.builder.jpa.relation.RelationshipIndex;
+import de.richtercloud.reflection.form.builder.jpa.relation.RelationshipMapping;
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.persistence.indirection.IndirectContainer;
+
+/**
+ * Caches the results of {@link PersistenceStorage#retrieve(java.lang.Object, java.lang.Class) }
+ * in an {@link EntityCache}, so that retrieving the same entities over and
+ * over, e.g. in a form or after storing, doesn't query the database.
+ *
+ * Invalidation: storing an entity invalidates the entity and all entities
+ * it references through relationship fields known to the
+ * {@link RelationshipIndex} before and after the change, so that the
+ * inverse side of a bidirectional relationship isn't retrieved stale. The
+ * entities referenced after the change are read from the stored entity. The
+ * entities referenced before the change are taken from a snapshot of the
+ * related keys which is recorded when an entity is put into the cache, so
+ * that they're known even if the shared cached instance has been changed in
+ * place. If there's no complete snapshot, because the entity isn't cached
+ * (anymore) or had lazy relationships which hadn't been loaded when it was
+ * put, all cached entities whose snapshot references the stored entity are
+ * invalidated instead. Lazy relationships which haven't been loaded are
+ * skipped without loading them. Callers which change relationships with a
+ * {@link BidirectionalRelationshipBatch} without storing all its entities
+ * invalidate them with {@link #invalidate(BidirectionalRelationshipBatch) }.
+ *
+ * Retrieved instances are shared by all callers until they're invalidated.
+ * Instances of this class are thread-safe if the storage is.
+ *
+ * @param <I> the type of IDs of the storage
+ * @author richter
+ */
+public class CachingPersistenceStorage<I> {
+    private final PersistenceStorage<I> storage;
+    private final RelationshipIndex relationshipIndex;
+    private final EntityCache cache;
+    private final Map<Class<?>, List<RelationshipMapping>> mappingsByEntityClass = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new {@code CachingPersistenceStorage}.
+     *
+     * @param storage the started storage
+     * @param relationshipIndex the relationships of the entity classes of
+     *     {@code storage}
+     * @param cache the cache which might be shared with other instances
+     *     using the same database, but not used otherwise since it holds the
+     *     entities together with a snapshot of their related keys
+     */
+    public CachingPersistenceStorage(PersistenceStorage<I> storage,
+            RelationshipIndex relationshipIndex,
+            EntityCache cache) {
+        if(storage == null) {
+            throw new IllegalArgumentException("storage mustn't be null");
+        }
+        if(relationshipIndex == null) {
+            throw new IllegalArgumentException("relationshipIndex mustn't be null");
+        }
+        if(cache == null) {
+            throw new IllegalArgumentException("cache mustn't be null");
+        }
+        this.storage = storage;
+        this.relationshipIndex = relationshipIndex;
+        this.cache = cache;
+    }
+
+    /**
+     * Stores {@code entity} and invalidates it and the entities it's related
+     * to regardless of whether storing succeeds.
+     *
+     * @param entity the entity to store
+     * @throws StorageException if {@link PersistenceStorage#store(java.lang.Object) }
+     *     throws it
+     */
+    public void store(Object entity) throws StorageException {
+        EntityKey key = EntityKey.of(entity);
+        Set<EntityKey> affectedKeys = new HashSet<>();
+        affectedKeys.add(key);
+        Object cached = cache.peek(key);
+        boolean previousKeysKnown = false;
+        if(cached instanceof CachedEntity) {
+            CachedEntity cachedEntity = (CachedEntity)cached;
+            affectedKeys.addAll(cachedEntity.relatedKeys);
+            previousKeysKnown = cachedEntity.complete;
+        }
+        collectRelatedKeys(entity,
+                affectedKeys);
+        try {
+            storage.store(entity);
+        }finally {
+            cache.invalidateAll(affectedKeys);
+            if(!previousKeysKnown) {
+                cache.invalidateIf(value -> value instanceof CachedEntity
+                        && ((CachedEntity)value).relatedKeys.contains(key));
+            }
+        }
+    }
+
+    /**
+     * Retrieves the entity with ID {@code id} from the cache or the storage.
+     * {@code null} results aren't cached.
+     *
+     * @param <T> the type of the entity
+     * @param id the ID
+     * @param entityClass the entity class
+     * @return the entity or {@code null} if it doesn't exist
+     * @throws StorageException if {@link PersistenceStorage#retrieve(java.lang.Object, java.lang.Class) }
+     *     throws it
+     */
+    public <T> T retrieve(I id,
+            Class<T> entityClass) throws StorageException {
+        EntityKey key = EntityKey.of(entityClass,
+                id);
+        Object cached = cache.get(key);
+        if(cached instanceof CachedEntity
+                && entityClass.isInstance(((CachedEntity)cached).entity)) {
+            return entityClass.cast(((CachedEntity)cached).entity);
+        }
+        long stamp = cache.getInvalidationStamp();
+        T retValue = storage.retrieve(id,
+                entityClass);
+        if(retValue != null) {
+            Set<EntityKey> relatedKeys = new HashSet<>();
+            boolean complete = collectRelatedKeys(retValue,
+                    relatedKeys);
+            cache.putIfNotInvalidatedSince(key,
+                    new CachedEntity(retValue,
+                            relatedKeys,
+                            complete),
+                    stamp);
+        }
+        return retValue;
+    }
+
+    /**
+     * Invalidates {@code entity}, e.g. after it has been written without
+     * this storage.
+     *
+     * @param entity the entity
+     */
+    public void invalidate(Object entity) {
+        cache.invalidate(EntityKey.of(entity));
+    }
+
+    /**
+     * Invalidates the owning and inverse entities of {@code batch} after it
+     * has been applied.
+     *
+     * @param batch the applied batch
+     */
+    public void invalidate(BidirectionalRelationshipBatch batch) {
+        Set<EntityKey> affectedKeys = new HashSet<>();
+        for(Object entity : batch.getOwningEntities()) {
+            affectedKeys.add(EntityKey.of(entity));
+        }
+        for(Object entity : batch.getInverseEntities()) {
+            affectedKeys.add(EntityKey.of(entity));
+        }
+        cache.invalidateAll(affectedKeys);
+    }
+
+    /**
+     * Adds the keys of the entities {@code entity} references through
+     * relationship fields to {@code keys}.
+     *
+     * @return {@code false} if a lazy relationship which hasn't been loaded
+     *     has been skipped, {@code true} otherwise
+     */
+    private boolean collectRelatedKeys(Object entity,
+            Set<EntityKey> keys) {
+        boolean retValue = true;
+        for(RelationshipMapping mapping : getMappings(entity.getClass())) {
+            Object value = mapping.getAccessor().get(entity);
+            if(value == null) {
+                continue;
+            }
+            if(value instanceof IndirectContainer
+                    && !((IndirectContainer)value).isInstantiated()) {
+                retValue = false;
+                continue;
+            }
+            if(mapping.isCollectionValued()) {
+                for(Object element : (Collection<?>)value) {
+                    keys.add(EntityKey.of(element));
+                }
+            }else {
+                keys.add(EntityKey.of(value));
+            }
+        }
+        return retValue;
+    }
+
+    private List<RelationshipMapping> getMappings(Class<?> entityClass) {
+        return mappingsByEntityClass.computeIfAbsent(entityClass,
+                key -> {
+                    List<RelationshipMapping> retValue = new ArrayList<>();
+                    for(RelationshipMapping mapping : relationshipIndex.getMappings()) {
+                        if(mapping.getField().getDeclaringClass().isAssignableFrom(key)) {
+                            retValue.add(mapping);
+                        }
+                    }
+                    return retValue;
+                });
+    }
+
+    public EntityCache getCache() {
+        return cache;
+    }
+
+    public PersistenceStorage<I> getStorage() {
+        return storage;
+    }
+
+    /**
+     * A cached entity with the keys of the entities it referenced when it
+     * has been put into the cache.
+     */
+    private final static class CachedEntity {
+        private final Object entity;
+        private final Set<EntityKey> relatedKeys;
+        /**
+         * Whether {@link #relatedKeys} contains all related entities, i.e. no
+         * lazy relationship has been skipped.
+         */
+        private final boolean complete;
+
+        CachedEntity(Object entity,
+                Set<EntityKey> relatedKeys,
+                boolean complete) {
+            this.entity = entity;
+            this.relatedKeys = relatedKeys;
+            this.complete = complete;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.cache;
+
+import de.richtercloud.reflection.form.builder.jpa.accessor.EntityKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * A size- and time-bounded cache of entities by {@link EntityKey}. Entries
+ * are evicted according to an {@link EvictionPolicy} when
+ * {@code maximumSize} is reached and expire {@code timeToLive} after they
+ * have been put. Expired entries are removed when they're looked up or
+ * evicted.
+ *
+ * Every invalidation advances a stamp, so that a value read from the
+ * database while the entity has been invalidated concurrently isn't put,
+ * see {@link #putIfNotInvalidatedSince(EntityKey, Object, long) }.
+ *
+ * Thread-safe. All operations are {@code O(1)} for {@link EvictionPolicy#LRU}
+ * and {@code O(log f)} with {@code f} being the number of distinct lookup
+ * frequencies for {@link EvictionPolicy#LFU}.
+ *
+ * @author richter
+ */
+public class EntityCache {
+    /**
+     * The time to live of entries which never expire.
+     */
+    public final static long TIME_TO_LIVE_UNLIMITED = 0;
+    private final int maximumSize;
+    private final long timeToLiveNanos;
+    private final EvictionPolicy evictionPolicy;
+    /**
+     * The entries in access order for {@link EvictionPolicy#LRU}.
+     */
+    private final Map<EntityKey, Entry> entries;
+    /**
+     * The keys per lookup frequency in insertion order for
+     * {@link EvictionPolicy#LFU}.
+     */
+    private final TreeMap<Long, LinkedHashSet<EntityKey>> frequencies = new TreeMap<>();
+    private long invalidationStamp;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long expirationCount;
+    private long invalidationCount;
+
+    /**
+     * Creates a new {@code EntityCache}.
+     *
+     * @param maximumSize the maximum number of entries
+     * @param timeToLive the time after which entries expire or
+     *     {@link #TIME_TO_LIVE_UNLIMITED}
+     * @param timeToLiveUnit the unit of {@code timeToLive}
+     * @param evictionPolicy the policy which determines the entry to evict
+     *     when the cache is full
+     */
+    public EntityCache(int maximumSize,
+            long timeToLive,
+            TimeUnit timeToLiveUnit,
+            EvictionPolicy evictionPolicy) {
+        if(maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize has to be greater than 0");
+        }
+        if(timeToLive < 0) {
+            throw new IllegalArgumentException("timeToLive mustn't be negative");
+        }
+        if(timeToLiveUnit == null) {
+            throw new IllegalArgumentException("timeToLiveUnit mustn't be null");
+        }
+        if(evictionPolicy == null) {
+            throw new IllegalArgumentException("evictionPolicy mustn't be null");
+        }
+        this.maximumSize = maximumSize;
+        this.timeToLiveNanos = timeToLiveUnit.toNanos(timeToLive);
+        this.evictionPolicy = evictionPolicy;
+        this.entries = evictionPolicy == EvictionPolicy.LRU
+                ? new LinkedHashMap<>(16,
+                        0.75f,
+                        true //accessOrder
+                )
+                : new HashMap<>();
+    }
+
+    /**
+     * Looks up the entity with {@code key} and counts a hit or miss.
+     *
+     * @param key the key
+     * @return the cached entity or {@code null} if it isn't cached or has
+     *     expired
+     */
+    public synchronized Object get(EntityKey key) {
+        Entry entry = entries.get(key);
+        if(entry == null) {
+            missCount++;
+            return null;
+        }
+        if(isExpired(entry)) {
+            remove(key);
+            expirationCount++;
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        if(evictionPolicy == EvictionPolicy.LFU) {
+            incrementFrequency(key,
+                    entry);
+        }
+        return entry.value;
+    }
+
+    /**
+     * Looks up the entity with {@code key} without counting a hit or miss.
+     *
+     * @param key the key
+     * @return the cached entity or {@code null} if it isn't cached or has
+     *     expired
+     */
+    public synchronized Object peek(EntityKey key) {
+        Entry entry = entries.get(key);
+        if(entry == null || isExpired(entry)) {
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Puts {@code value} and evicts an entry if the cache is full.
+     *
+     * @param key the key
+     * @param value the entity
+     */
+    public synchronized void put(EntityKey key,
+            Object value) {
+        if(value == null) {
+            throw new IllegalArgumentException("value mustn't be null");
+        }
+        Entry entry = entries.get(key);
+        if(entry != null) {
+            entry.value = value;
+            entry.expiresAtNanos = computeExpiry();
+            return;
+        }
+        while(entries.size() >= maximumSize) {
+            evict();
+        }
+        entry = new Entry(value,
+                computeExpiry());
+        entries.put(key,
+                entry);
+        if(evictionPolicy == EvictionPolicy.LFU) {
+            frequencies.computeIfAbsent(entry.frequency,
+                    frequency -> new LinkedHashSet<>()).add(key);
+        }
+    }
+
+    /**
+     * Puts {@code value} unless an entity has been invalidated since
+     * {@code stamp} has been obtained from {@link #getInvalidationStamp() }.
+     * Retrieving from the database should obtain the stamp before the read,
+     * so that a concurrent store of the entity can't be overwritten by the
+     * stale value.
+     *
+     * @param key the key
+     * @param value the entity
+     * @param stamp the invalidation stamp obtained before {@code value} has
+     *     been read
+     * @return {@code true} if {@code value} has been put
+     */
+    public synchronized boolean putIfNotInvalidatedSince(EntityKey key,
+            Object value,
+            long stamp) {
+        if(invalidationStamp != stamp) {
+            return false;
+        }
+        put(key,
+                value);
+        return true;
+    }
+
+    public synchronized long getInvalidationStamp() {
+        return invalidationStamp;
+    }
+
+    /**
+     * Removes the entry with {@code key} if it exists and advances the
+     * invalidation stamp in any case.
+     *
+     * @param key the key
+     */
+    public synchronized void invalidate(EntityKey key) {
+        invalidationStamp++;
+        if(remove(key)) {
+            invalidationCount++;
+        }
+    }
+
+    /**
+     * Removes the entries with {@code keys} and advances the invalidation
+     * stamp once.
+     *
+     * @param keys the keys
+     */
+    public synchronized void invalidateAll(Collection<EntityKey> keys) {
+        invalidationStamp++;
+        for(EntityKey key : keys) {
+            if(remove(key)) {
+                invalidationCount++;
+            }
+        }
+    }
+
+    /**
+     * Removes the entries whose value matches {@code predicate} and advances
+     * the invalidation stamp once. Takes time linear in the size of the
+     * cache.
+     *
+     * @param predicate the predicate which is evaluated while holding the
+     *     monitor of the cache
+     */
+    public synchronized void invalidateIf(Predicate<Object> predicate) {
+        invalidationStamp++;
+        List<EntityKey> keys = new ArrayList<>();
+        for(Map.Entry<EntityKey, Entry> entry : entries.entrySet()) {
+            if(predicate.test(entry.getValue().value)) {
+                keys.add(entry.getKey());
+            }
+        }
+        for(EntityKey key : keys) {
+            remove(key);
+            invalidationCount++;
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void invalidateAll() {
+        invalidationStamp++;
+        invalidationCount += entries.size();
+        entries.clear();
+        frequencies.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized EntityCacheStats getStats() {
+        return new EntityCacheStats(hitCount,
+                missCount,
+                evictionCount,
+                expirationCount,
+                invalidationCount,
+                entries.size());
+    }
+
+    /**
+     * Sets all counters of the statistics to {@code 0}.
+     */
+    public synchronized void resetStats() {
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+        expirationCount = 0;
+        invalidationCount = 0;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    private long computeExpiry() {
+        return timeToLiveNanos == TIME_TO_LIVE_UNLIMITED
+                ? Long.MAX_VALUE
+                : System.nanoTime()+timeToLiveNanos;
+    }
+
+    private boolean isExpired(Entry entry) {
+        return entry.expiresAtNanos != Long.MAX_VALUE
+                && System.nanoTime()-entry.expiresAtNanos >= 0;
+    }
+
+    private void evict() {
+        EntityKey key;
+        if(evictionPolicy == EvictionPolicy.LRU) {
+            key = entries.keySet().iterator().next();
+        }else {
+            key = frequencies.firstEntry().getValue().iterator().next();
+        }
+        if(isExpired(entries.get(key))) {
+            expirationCount++;
+        }else {
+            evictionCount++;
+        }
+        remove(key);
+    }
+
+    private boolean remove(EntityKey key) {
+        Entry entry = entries.remove(key);
+        if(entry == null) {
+            return false;
+        }
+        if(evictionPolicy == EvictionPolicy.LFU) {
+            removeFrequency(key,
+                    entry.frequency);
+        }
+        return true;
+    }
+
+    private void incrementFrequency(EntityKey key,
+            Entry entry) {
+        removeFrequency(key,
+                entry.frequency);
+        entry.frequency++;
+        frequencies.computeIfAbsent(entry.frequency,
+                frequency -> new LinkedHashSet<>()).add(key);
+    }
+
+    private void removeFrequency(EntityKey key,
+            long frequency) {
+        LinkedHashSet<EntityKey> keys = frequencies.get(frequency);
+        keys.remove(key);
+        if(keys.isEmpty()) {
+            frequencies.remove(frequency);
+        }
+    }
+
+    private final static class Entry {
+        private Object value;
+        private long expiresAtNanos;
+        private long frequency = 1;
+
+        Entry(Object value,
+                long expiresAtNanos) {
+            this.value = value;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.cache;
+
+/**
+ * An immutable snapshot of the statistics of an {@link EntityCache}.
+ *
+ * @author richter
+ */
+public final class EntityCacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long expirationCount;
+    private final long invalidationCount;
+    private final int size;
+
+    public EntityCacheStats(long hitCount,
+            long missCount,
+            long evictionCount,
+            long expirationCount,
+            long invalidationCount,
+            int size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.expirationCount = expirationCount;
+        this.invalidationCount = invalidationCount;
+        this.size = size;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * The number of lookups which didn't find an entry including those which
+     * found an expired entry.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getRequestCount() {
+        return hitCount+missCount;
+    }
+
+    /**
+     * The ratio of hits and requests.
+     *
+     * @return the hit rate or {@code 0} if there haven't been requests
+     */
+    public double getHitRate() {
+        long requestCount = getRequestCount();
+        return requestCount == 0
+                ? 0
+                : (double)hitCount/requestCount;
+    }
+
+    /**
+     * The number of entries removed because the cache was full.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * The number of entries removed because their time to live had passed.
+     *
+     * @return the expiration count
+     */
+    public long getExpirationCount() {
+        return expirationCount;
+    }
+
+    /**
+     * The number of entries removed because the entity or a related entity
+     * has been stored.
+     *
+     * @return the invalidation count
+     */
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EntityCacheStats[hits=%d, misses=%d, hitRate=%.3f, evictions=%d, expirations=%d, invalidations=%d, size=%d]",
+                hitCount,
+                missCount,
+                getHitRate(),
+                evictionCount,
+                expirationCount,
+                invalidationCount,
+                size);
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.cache;
+
+/**
+ * Determines which entry an {@link EntityCache} evicts when it's full.
+ *
+ * @author richter
+ */
+public enum EvictionPolicy {
+    /**
+     * Evicts the least recently retrieved or stored entry, which suits
+     * editing entities one after another.
+     */
+    LRU,
+    /**
+     * Evicts the least frequently retrieved entry and among those the oldest,
+     * which keeps entities which are referenced by many others, e.g.
+     * categories, across scans of many rarely used entities.
+     */
+    LFU
+}
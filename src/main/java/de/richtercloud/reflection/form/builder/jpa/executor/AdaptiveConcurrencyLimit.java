@@ -0,0 +1,128 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.executor;
+
+/**
+ * A concurrency limit which follows the gradient between the lowest observed
+ * latency and the latency of the latest samples: while latency stays close
+ * to the minimum, the limit grows by a queue allowance of
+ * {@code sqrt(limit)}; when latency rises because queries queue up in the
+ * database or wait for connections, it shrinks proportionally. Failures
+ * which indicate that no connection was available shrink the limit
+ * multiplicatively. The minimum latency is forgotten every
+ * {@link #MIN_LATENCY_RESET_SAMPLES} samples, so that the limit adapts if
+ * the workload changes.
+ *
+ * Thread-safe.
+ *
+ * @author richter
+ */
+public class AdaptiveConcurrencyLimit {
+    /**
+     * The weight of a new limit estimate.
+     */
+    private final static double SMOOTHING = 0.2;
+    /**
+     * The lower bound of the gradient, so that one slow sample can at most
+     * halve the limit.
+     */
+    private final static double GRADIENT_MIN = 0.5;
+    private final static double BACKOFF_RATIO = 0.9;
+    public final static int MIN_LATENCY_RESET_SAMPLES = 1000;
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private long minLatencyNanos = Long.MAX_VALUE;
+    private int samplesSinceMinLatencyReset;
+
+    /**
+     * Creates a new limit.
+     *
+     * @param initialLimit the initial limit
+     * @param minLimit the lowest limit, at least {@code 1}
+     * @param maxLimit the highest limit, e.g. the number of connections of
+     *     the connection pool
+     */
+    public AdaptiveConcurrencyLimit(int initialLimit,
+            int minLimit,
+            int maxLimit) {
+        if(minLimit < 1) {
+            throw new IllegalArgumentException("minLimit has to be at least 1");
+        }
+        if(maxLimit < minLimit) {
+            throw new IllegalArgumentException("maxLimit has to be greater than or equal to minLimit");
+        }
+        if(initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException(String.format("initialLimit has to be between %d and %d",
+                    minLimit,
+                    maxLimit));
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Adjusts the limit to the latency of a successful query.
+     *
+     * @param latencyNanos the latency of the query
+     * @param inflight the number of queries which were executing when the
+     *     query finished including the query
+     */
+    public synchronized void onSuccess(long latencyNanos,
+            int inflight) {
+        long latency = Math.max(latencyNanos, 1);
+        if(++samplesSinceMinLatencyReset >= MIN_LATENCY_RESET_SAMPLES) {
+            minLatencyNanos = latency;
+            samplesSinceMinLatencyReset = 0;
+        }else if(latency < minLatencyNanos) {
+            minLatencyNanos = latency;
+        }
+        if(inflight < limit/2) {
+            //the limit wasn't the bottleneck, so the sample doesn't tell
+            //anything about a higher limit
+            return;
+        }
+        double gradient = Math.max(GRADIENT_MIN,
+                Math.min(1.0, (double)minLatencyNanos/latency));
+        double newLimit = limit*gradient+Math.sqrt(limit);
+        limit = clamp(limit*(1-SMOOTHING)+newLimit*SMOOTHING);
+    }
+
+    /**
+     * Shrinks the limit after a query which failed because of a lack of
+     * resources, e.g. no connection was available.
+     */
+    public synchronized void onOverload() {
+        limit = clamp(limit*BACKOFF_RATIO);
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit,
+                Math.min(maxLimit, value));
+    }
+
+    public synchronized int getLimit() {
+        return (int)limit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+}
@@ -0,0 +1,342 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.executor;
+
+import de.richtercloud.reflection.form.builder.jpa.metrics.MetricsRegistry;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Executes queries with a concurrency which is adjusted by an
+ * {@link AdaptiveConcurrencyLimit} instead of a fixed number of threads.
+ * Queries exceeding the current limit wait in a queue and are dispatched
+ * when a running query finishes, so that no thread blocks while waiting for
+ * a permit. The threads are taken from a thread source which is either a
+ * pool of platform threads bounded by the maximum limit or, on runtimes
+ * supporting it, one virtual thread per query (see
+ * {@link QueryExecutors#newVirtualThreadPerTaskExecutor() }), so that
+ * blocking JDBC calls don't occupy platform threads.
+ *
+ * Queries which are discarded because the executor is closed before they
+ * have been dispatched are cancelled, so that waiting for their futures
+ * doesn't block forever. Commands passed to {@link #execute(java.lang.Runnable) }
+ * which implement {@link Future}, e.g. {@link FutureTask}s completing a
+ * {@link java.util.concurrent.CompletableFuture} in
+ * {@link FutureTask#done() }, are cancelled as well. Other commands are
+ * dropped since an {@link Executor} has no way to notify their submitter.
+ *
+ * @author richter
+ */
+public class AdaptiveQueryExecutor implements Executor, AutoCloseable {
+    private final static long KEEP_ALIVE_SECONDS = 60;
+    /**
+     * Treats failures to get a connection in time as overload.
+     */
+    public final static Predicate<Throwable> OVERLOAD_CLASSIFIER_DEFAULT = throwable -> {
+        Throwable cause = throwable;
+        while(cause != null) {
+            if(cause instanceof SQLTransientConnectionException
+                    || cause instanceof SQLTimeoutException) {
+                return true;
+            }
+            cause = cause.getCause();
+        }
+        return false;
+    };
+    private final ExecutorService threadSource;
+    private final AdaptiveConcurrencyLimit limit;
+    private final Predicate<Throwable> overloadClassifier;
+    private final Deque<FutureTask<?>> pending = new ArrayDeque<>();
+    private final Object lock = new Object();
+    private int inflight;
+    private boolean closed;
+
+    /**
+     * Creates an executor with a pool of platform threads or virtual threads.
+     *
+     * @param minConcurrency the minimum and initial concurrency
+     * @param maxConcurrency the maximum concurrency, usually the number of
+     *     connections of the connection pool
+     * @param virtualThreads whether to use one virtual thread per query
+     * @return the new executor
+     * @throws UnsupportedOperationException if {@code virtualThreads} is
+     *     {@code true} and the runtime doesn't support virtual threads
+     */
+    public static AdaptiveQueryExecutor create(int minConcurrency,
+            int maxConcurrency,
+            boolean virtualThreads) {
+        ExecutorService threadSource;
+        if(virtualThreads) {
+            threadSource = QueryExecutors.newVirtualThreadPerTaskExecutor();
+        }else {
+            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(maxConcurrency,
+                    maxConcurrency,
+                    KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>());
+                //an unbounded queue since a thread might not have returned to
+                //the pool yet when the next query is dispatched
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+            threadSource = threadPoolExecutor;
+        }
+        return new AdaptiveQueryExecutor(threadSource,
+                new AdaptiveConcurrencyLimit(minConcurrency,
+                        minConcurrency,
+                        maxConcurrency),
+                OVERLOAD_CLASSIFIER_DEFAULT);
+    }
+
+    /**
+     * Creates a new executor.
+     *
+     * @param threadSource the executor providing threads which is shut down
+     *     by {@link #close() }
+     * @param limit the concurrency limit
+     * @param overloadClassifier decides whether a failure of a query
+     *     indicates overload and shrinks the limit
+     */
+    public AdaptiveQueryExecutor(ExecutorService threadSource,
+            AdaptiveConcurrencyLimit limit,
+            Predicate<Throwable> overloadClassifier) {
+        if(threadSource == null) {
+            throw new IllegalArgumentException("threadSource mustn't be null");
+        }
+        if(limit == null) {
+            throw new IllegalArgumentException("limit mustn't be null");
+        }
+        if(overloadClassifier == null) {
+            throw new IllegalArgumentException("overloadClassifier mustn't be null");
+        }
+        this.threadSource = threadSource;
+        this.limit = limit;
+        this.overloadClassifier = overloadClassifier;
+    }
+
+    /**
+     * Submits a query. It's executed immediately if the limit allows it,
+     * otherwise when enough running queries have finished.
+     *
+     * @param <T> the type of the result
+     * @param query the query
+     * @return the future of the result
+     * @throws RejectedExecutionException if the executor has been closed
+     */
+    public <T> Future<T> submit(Callable<T> query) {
+        FutureTask<T> task = new FutureTask<>(query);
+        synchronized(lock) {
+            if(closed) {
+                throw new RejectedExecutionException("executor has been closed");
+            }
+            pending.add(task);
+        }
+        dispatch();
+        return task;
+    }
+
+    /**
+     * Submits {@code command} like a query, so that the executor can be used
+     * wherever an {@link Executor} is expected, e.g. for
+     * {@link java.util.concurrent.CompletableFuture}s. Exceptions thrown by
+     * {@code command} are only taken into account by the limit. If
+     * {@code command} is a {@link Future} it's cancelled when it's discarded
+     * by {@link #close() }.
+     *
+     * @param command the command to run
+     * @throws RejectedExecutionException if the executor has been closed
+     */
+    @Override
+    public void execute(Runnable command) {
+        FutureTask<Void> task = new CommandTask(command);
+        synchronized(lock) {
+            if(closed) {
+                throw new RejectedExecutionException("executor has been closed");
+            }
+            pending.add(task);
+        }
+        dispatch();
+    }
+
+    /**
+     * Runs a command passed to {@link #execute(java.lang.Runnable) } and
+     * cancels it if it's a {@link Future} and this task is cancelled before
+     * it ran.
+     */
+    private static class CommandTask extends FutureTask<Void> {
+        private final Runnable command;
+
+        CommandTask(Runnable command) {
+            super(command,
+                    null //result
+            );
+            this.command = command;
+        }
+
+        @Override
+        protected void done() {
+            if(isCancelled() && command instanceof Future) {
+                ((Future<?>)command).cancel(false //mayInterruptIfRunning
+                );
+            }
+        }
+    }
+
+    private void runTask(FutureTask<?> task) {
+        long start = System.nanoTime();
+        task.run();
+        long latency = System.nanoTime()-start;
+        Throwable failure = getFailure(task);
+        int inflightAtCompletion;
+        synchronized(lock) {
+            inflightAtCompletion = inflight;
+            inflight--;
+        }
+        if(failure == null) {
+            limit.onSuccess(latency,
+                    inflightAtCompletion);
+        }else if(overloadClassifier.test(failure)) {
+            limit.onOverload();
+        }
+        dispatch();
+    }
+
+    private static Throwable getFailure(FutureTask<?> task) {
+        if(task.isCancelled()) {
+            return null;
+        }
+        try {
+            task.get();
+                //doesn't block since the task has run
+            return null;
+        }catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }catch(ExecutionException ex) {
+            return ex.getCause();
+        }
+    }
+
+    private void dispatch() {
+        while(true) {
+            FutureTask<?> next;
+            synchronized(lock) {
+                if(pending.isEmpty() || inflight >= limit.getLimit()) {
+                    return;
+                }
+                next = pending.poll();
+                inflight++;
+            }
+            try {
+                threadSource.execute(() -> runTask(next));
+            }catch(RejectedExecutionException ex) {
+                //the thread source has been shut down by close or by its
+                //owner, so that neither next nor any other pending task will
+                //ever run
+                List<FutureTask<?>> discarded;
+                synchronized(lock) {
+                    inflight--;
+                    closed = true;
+                    discarded = drainPending();
+                }
+                next.cancel(false //mayInterruptIfRunning
+                );
+                cancelAll(discarded);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes all pending tasks. Has to be called while holding
+     * {@code lock}.
+     *
+     * @return the removed tasks which have to be cancelled without holding
+     *     {@code lock} since cancellation runs completion callbacks
+     */
+    private List<FutureTask<?>> drainPending() {
+        List<FutureTask<?>> retValue = new ArrayList<>(pending);
+        pending.clear();
+        return retValue;
+    }
+
+    private static void cancelAll(List<FutureTask<?>> tasks) {
+        for(FutureTask<?> task : tasks) {
+            task.cancel(false //mayInterruptIfRunning
+            );
+        }
+    }
+
+    public int getInflight() {
+        synchronized(lock) {
+            return inflight;
+        }
+    }
+
+    public int getQueueDepth() {
+        synchronized(lock) {
+            return pending.size();
+        }
+    }
+
+    public int getLimit() {
+        return limit.getLimit();
+    }
+
+    /**
+     * Registers the gauges {@code prefix.limit}, {@code prefix.inflight} and
+     * {@code prefix.queueDepth}.
+     *
+     * @param registry the registry to register at
+     * @param prefix the prefix of the gauge names
+     */
+    public void registerGauges(MetricsRegistry registry,
+            String prefix) {
+        registry.registerGauge(prefix+".limit",
+                this::getLimit);
+        registry.registerGauge(prefix+".inflight",
+                this::getInflight);
+        registry.registerGauge(prefix+".queueDepth",
+                this::getQueueDepth);
+    }
+
+    /**
+     * Rejects further queries, cancels queued queries and shuts the thread
+     * source down. Running queries complete.
+     */
+    @Override
+    public void close() {
+        List<FutureTask<?>> discarded;
+        synchronized(lock) {
+            closed = true;
+            discarded = drainPending();
+        }
+        cancelAll(discarded);
+        threadSource.shutdown();
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.generator;
+
+import de.richtercloud.reflection.form.builder.jpa.relation.BidirectionalRelationshipBatch;
+import de.richtercloud.reflection.form.builder.jpa.relation.RelationshipIndex;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * Generates a graph of test entities of one {@link EntityGraphShape} as a
+ * stream of independent groups. A group consists of parents and their
+ * children whose relationship fields are set on both sides with a
+ * {@link BidirectionalRelationshipBatch}; entities never refer to entities of
+ * other groups. Only the current group is held by the generator, so that
+ * millions of entities can be generated and stored with bounded heap usage,
+ * e.g. with {@code BulkStorage.storeGroups}.
+ *
+ * A group of a one-to-many or many-to-many shape is one parent with a random
+ * number of children between {@code 1} and {@code 2*fanOut-1}, i.e.
+ * {@code fanOut} on average. A group of a one-to-one shape consists of as
+ * many parent-child pairs.
+ *
+ * Since groups are independent, a many-to-many shape is generated as
+ * one-to-many: every child has exactly one parent and no child is shared
+ * between parents. Sharing children with parents of earlier groups would
+ * require those groups to stay managed, whereas
+ * {@code BulkStorage.storeGroups} clears the persistence context between
+ * groups which detaches the entities of earlier groups. Measurements of
+ * many-to-many shapes thus cover the join table and both sides of the
+ * relationship, but not the fan-in of children. The graph is determined by the seed, the first ID
+ * and the entity count. IDs are assigned consecutively starting at
+ * {@code firstId}.
+ *
+ * Instances are not thread-safe.
+ *
+ * @author richter
+ */
+public class EntityGraphGenerator implements Iterator<List<Object>> {
+    private final EntityGraphShape shape;
+    private final RelationshipIndex relationshipIndex;
+    private final Field parentField;
+    private final Field childField;
+    private final Constructor<?> parentConstructor;
+    private final Constructor<?> childConstructor;
+    private final SplittableRandom random;
+    private final long entityCount;
+    private final int fanOut;
+    private long nextId;
+    private long generatedCount;
+
+    /**
+     * Creates a new {@code EntityGraphGenerator}.
+     *
+     * @param shape the shape of the graph
+     * @param relationshipIndex an index containing the entity classes of
+     *     {@code shape}
+     * @param seed the seed of the random number generator
+     * @param firstId the ID of the first generated entity
+     * @param entityCount the number of entities to generate
+     * @param fanOut the average number of children per parent
+     * @throws NoSuchFieldException if the entities don't match
+     *     {@code shape}
+     * @throws NoSuchMethodException if an entity class doesn't have a
+     *     constructor taking the ID
+     */
+    public EntityGraphGenerator(EntityGraphShape shape,
+            RelationshipIndex relationshipIndex,
+            long seed,
+            long firstId,
+            long entityCount,
+            int fanOut) throws NoSuchFieldException,
+            NoSuchMethodException {
+        if(shape == null) {
+            throw new IllegalArgumentException("shape mustn't be null");
+        }
+        if(relationshipIndex == null) {
+            throw new IllegalArgumentException("relationshipIndex mustn't be null");
+        }
+        if(entityCount < 0) {
+            throw new IllegalArgumentException("entityCount mustn't be negative");
+        }
+        if(fanOut <= 0) {
+            throw new IllegalArgumentException("fanOut has to be greater than 0");
+        }
+        this.shape = shape;
+        this.relationshipIndex = relationshipIndex;
+        this.parentField = shape.getParentField();
+        this.childField = shape.getChildField();
+        this.parentConstructor = shape.getParentClass().getConstructor(Long.class);
+        this.childConstructor = shape.getChildClass().getConstructor(Long.class);
+        this.random = new SplittableRandom(seed);
+        this.entityCount = entityCount;
+        this.fanOut = fanOut;
+        this.nextId = firstId;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return generatedCount < entityCount;
+    }
+
+    /**
+     * Generates the next group of entities. The last group might have less
+     * children than drawn so that exactly {@code entityCount} entities are
+     * generated.
+     *
+     * @return the parents followed by the children of the group
+     */
+    @Override
+    public List<Object> next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int drawn = 1+random.nextInt(2*fanOut-1);
+        long remaining = entityCount-generatedCount;
+        BidirectionalRelationshipBatch batch = new BidirectionalRelationshipBatch(relationshipIndex);
+        List<Object> retValue;
+        if(shape.isOneToOne()) {
+            int pairCount = (int)Math.min(drawn,
+                    remaining/2);
+            if(pairCount == 0) {
+                //an odd entity count leaves one parent without child
+                retValue = new ArrayList<>(1);
+                retValue.add(newEntity(parentConstructor));
+            }else {
+                retValue = new ArrayList<>(2*pairCount);
+                List<Object> children = new ArrayList<>(pairCount);
+                for(int i = 0; i < pairCount; i++) {
+                    Object parent = newEntity(parentConstructor);
+                    Object child = newEntity(childConstructor);
+                    batch.add(parent,
+                            parentField,
+                            childField,
+                            child);
+                    retValue.add(parent);
+                    children.add(child);
+                }
+                retValue.addAll(children);
+            }
+        }else {
+            int childCount = (int)Math.min(drawn,
+                    remaining-1);
+            retValue = new ArrayList<>(1+childCount);
+            Object parent = newEntity(parentConstructor);
+            retValue.add(parent);
+            List<Object> children = new ArrayList<>(childCount);
+            for(int i = 0; i < childCount; i++) {
+                children.add(newEntity(childConstructor));
+            }
+            batch.add(parent,
+                    parentField,
+                    childField,
+                    children);
+            retValue.addAll(children);
+        }
+        batch.apply();
+        generatedCount += retValue.size();
+        return retValue;
+    }
+
+    private Object newEntity(Constructor<?> constructor) {
+        try {
+            return constructor.newInstance(nextId++);
+        } catch (InstantiationException
+                | IllegalAccessException
+                | InvocationTargetException ex) {
+            throw new IllegalStateException(String.format("creating instance of %s failed",
+                    constructor.getDeclaringClass().getName()),
+                    ex);
+        }
+    }
+
+    public long getGeneratedCount() {
+        return generatedCount;
+    }
+
+    /**
+     * The ID which will be assigned to the next generated entity, which can
+     * be used as {@code firstId} of a generator producing more entities of
+     * the same classes.
+     *
+     * @return the next ID
+     */
+    public long getNextId() {
+        return nextId;
+    }
+}
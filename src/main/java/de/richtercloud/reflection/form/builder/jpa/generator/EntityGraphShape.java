@@ -0,0 +1,130 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.generator;
+
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityAMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityAMappedByInverse;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityB;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityBMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityBMappedByInverse;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityC;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityCMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityD;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityDMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityE;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityEMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityEMappedByInverse;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityF;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityFMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityFMappedByInverse;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The relationship shapes of the test entities which
+ * {@link EntityGraphGenerator} produces: many-to-many ({@code A.bs} and
+ * {@code B.as}), one-to-many ({@code C.ds} and {@code D.c}) and one-to-one
+ * ({@code E.f} and {@code F.e}), each with two independent fields, with
+ * {@code mappedBy} on the first side and with {@code mappedBy} on the second
+ * side. Many-to-many shapes are generated without shared children, see
+ * {@link EntityGraphGenerator}.
+ *
+ * @author richter
+ */
+public enum EntityGraphShape {
+    MANY_TO_MANY(EntityA.class, "bs", EntityB.class, "as"),
+    MANY_TO_MANY_MAPPED_BY(EntityAMappedBy.class, "bs", EntityBMappedBy.class, "as"),
+    MANY_TO_MANY_MAPPED_BY_INVERSE(EntityAMappedByInverse.class, "bs", EntityBMappedByInverse.class, "as"),
+    ONE_TO_MANY(EntityC.class, "ds", EntityD.class, "c"),
+    ONE_TO_MANY_MAPPED_BY(EntityCMappedBy.class, "ds", EntityDMappedBy.class, "c"),
+    ONE_TO_ONE(EntityE.class, "f", EntityF.class, "e"),
+    ONE_TO_ONE_MAPPED_BY(EntityEMappedBy.class, "f", EntityFMappedBy.class, "e"),
+    ONE_TO_ONE_MAPPED_BY_INVERSE(EntityEMappedByInverse.class, "f", EntityFMappedByInverse.class, "e");
+
+    private final Class<?> parentClass;
+    private final String parentFieldName;
+    private final Class<?> childClass;
+    private final String childFieldName;
+
+    EntityGraphShape(Class<?> parentClass,
+            String parentFieldName,
+            Class<?> childClass,
+            String childFieldName) {
+        this.parentClass = parentClass;
+        this.parentFieldName = parentFieldName;
+        this.childClass = childClass;
+        this.childFieldName = childFieldName;
+    }
+
+    /**
+     * The class of the entities which refer to {@code fanOut} children, e.g.
+     * {@code EntityA}.
+     *
+     * @return the parent class
+     */
+    public Class<?> getParentClass() {
+        return parentClass;
+    }
+
+    /**
+     * The class of the entities on the other side, e.g. {@code EntityB}.
+     *
+     * @return the child class
+     */
+    public Class<?> getChildClass() {
+        return childClass;
+    }
+
+    /**
+     * The relationship field of the parent class.
+     *
+     * @return the field
+     * @throws NoSuchFieldException if the test entities don't match the
+     *     shape
+     */
+    public Field getParentField() throws NoSuchFieldException {
+        return parentClass.getDeclaredField(parentFieldName);
+    }
+
+    /**
+     * The relationship field of the child class.
+     *
+     * @return the field
+     * @throws NoSuchFieldException if the test entities don't match the
+     *     shape
+     */
+    public Field getChildField() throws NoSuchFieldException {
+        return childClass.getDeclaredField(childFieldName);
+    }
+
+    public Set<Class<?>> getEntityClasses() {
+        return new HashSet<>(Arrays.asList(parentClass,
+                childClass));
+    }
+
+    /**
+     * Whether every parent has exactly one child.
+     *
+     * @return {@code true} for one-to-one shapes
+     */
+    public boolean isOneToOne() {
+        return this == ONE_TO_ONE
+                || this == ONE_TO_ONE_MAPPED_BY
+                || this == ONE_TO_ONE_MAPPED_BY_INVERSE;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.memory;
+
+import de.richtercloud.reflection.form.builder.jpa.storage.DerbyEmbeddedPersistenceStorage;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import de.richtercloud.validation.tools.FieldRetriever;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An embedded Apache Derby storage whose database is held in memory. The
+ * database is dropped in {@link #shutdown() }, so that the heap it occupies is
+ * released; a Derby shutdown alone keeps in-memory databases until the JVM
+ * exits. This avoids all file system I/O for short-lived storages, e.g. for
+ * previews or ITs which don't restart storages.
+ *
+ * @author richter
+ */
+public class DerbyInMemoryPersistenceStorage extends DerbyEmbeddedPersistenceStorage {
+    private final static Logger LOGGER = LoggerFactory.getLogger(DerbyInMemoryPersistenceStorage.class);
+    /**
+     * Derby signals a successful drop with {@code 08006}, {@code XJ004}
+     * indicates that the database doesn't exist (anymore).
+     */
+    private final static String SQL_STATE_DROPPED = "08006";
+    private final static String SQL_STATE_NOT_FOUND = "XJ004";
+    private final DerbyInMemoryPersistenceStorageConf storageConf;
+
+    public DerbyInMemoryPersistenceStorage(DerbyInMemoryPersistenceStorageConf storageConf,
+            String persistenceUnitName,
+            int parallelQueryCount,
+            FieldRetriever fieldRetriever) throws StorageConfValidationException,
+            StorageCreationException {
+        super(storageConf,
+                persistenceUnitName,
+                parallelQueryCount,
+                fieldRetriever);
+        this.storageConf = storageConf;
+    }
+
+    /**
+     * Shuts down the storage and drops the in-memory database. Failure to
+     * drop is logged since the storage is unusable anyway.
+     */
+    @Override
+    public void shutdown() {
+        try {
+            super.shutdown();
+        }finally {
+            try {
+                dropDatabase(storageConf);
+            }catch(SQLException ex) {
+                LOGGER.error(String.format("dropping in-memory database %s failed",
+                                storageConf.getMemoryDatabaseName()),
+                        ex);
+            }
+        }
+    }
+
+    /**
+     * Drops the in-memory database of {@code storageConf} if it exists.
+     *
+     * @param storageConf the configuration of the database
+     * @return {@code true} if the database has been dropped, {@code false} if
+     *     it didn't exist
+     * @throws SQLException if dropping fails for another reason
+     */
+    public static boolean dropDatabase(DerbyInMemoryPersistenceStorageConf storageConf) throws SQLException {
+        try {
+            DriverManager.getConnection(storageConf.getMemoryConnectionURL()+";drop=true").close();
+        }catch(SQLException ex) {
+            if(SQL_STATE_DROPPED.equals(ex.getSQLState())) {
+                //Derby signals a successful drop with an exception
+                return true;
+            }
+            if(SQL_STATE_NOT_FOUND.equals(ex.getSQLState())) {
+                return false;
+            }
+            throw ex;
+        }
+        throw new IllegalStateException(String.format("Derby didn't signal that in-memory database %s has been dropped",
+                storageConf.getMemoryDatabaseName()));
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.memory;
+
+import de.richtercloud.reflection.form.builder.jpa.storage.DerbyEmbeddedPersistenceStorageConf;
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A configuration of an embedded Apache Derby database which is held in
+ * memory ({@code jdbc:derby:memory:<name>}) and never written to disk. It's
+ * used with {@link DerbyInMemoryPersistenceStorage} which drops the database
+ * on shutdown. Since the database doesn't survive a shutdown, storages have to
+ * use a persistence unit which generates the schema.
+ *
+ * @author richter
+ */
+public class DerbyInMemoryPersistenceStorageConf extends DerbyEmbeddedPersistenceStorageConf {
+    /**
+     * The Derby subsubprotocol of in-memory databases which is prepended to
+     * the database name.
+     */
+    public final static String MEMORY_SUBSUBPROTOCOL = "memory:";
+    private final String memoryDatabaseName;
+
+    /**
+     * Creates a configuration with a random database name which doesn't
+     * collide with other in-memory databases of the JVM.
+     *
+     * @param entityClasses the entity classes
+     * @param schemeChecksumFile the scheme checksum file
+     * @return the created configuration
+     * @throws IOException if the super constructor throws it
+     */
+    public static DerbyInMemoryPersistenceStorageConf createUnique(Set<Class<?>> entityClasses,
+            File schemeChecksumFile) throws IOException {
+        return new DerbyInMemoryPersistenceStorageConf(entityClasses,
+                UUID.randomUUID().toString(),
+                schemeChecksumFile);
+    }
+
+    /**
+     * Creates a new {@code DerbyInMemoryPersistenceStorageConf}.
+     *
+     * @param entityClasses the entity classes
+     * @param memoryDatabaseName the name of the in-memory database without
+     *     {@link #MEMORY_SUBSUBPROTOCOL}
+     * @param schemeChecksumFile the scheme checksum file
+     * @throws IOException if the super constructor throws it
+     */
+    public DerbyInMemoryPersistenceStorageConf(Set<Class<?>> entityClasses,
+            String memoryDatabaseName,
+            File schemeChecksumFile) throws IOException {
+        super(entityClasses,
+                MEMORY_SUBSUBPROTOCOL+checkMemoryDatabaseName(memoryDatabaseName),
+                schemeChecksumFile);
+        this.memoryDatabaseName = memoryDatabaseName;
+    }
+
+    private static String checkMemoryDatabaseName(String memoryDatabaseName) {
+        if(memoryDatabaseName == null || memoryDatabaseName.isEmpty()) {
+            throw new IllegalArgumentException("memoryDatabaseName mustn't be null or empty");
+        }
+        if(memoryDatabaseName.contains(";")) {
+            throw new IllegalArgumentException(String.format("memoryDatabaseName '%s' mustn't contain ';' which separates connection attributes",
+                    memoryDatabaseName));
+        }
+        return memoryDatabaseName;
+    }
+
+    /**
+     * The database name without {@link #MEMORY_SUBSUBPROTOCOL}.
+     *
+     * @return the memory database name
+     */
+    public String getMemoryDatabaseName() {
+        return memoryDatabaseName;
+    }
+
+    /**
+     * The JDBC URL of the database without connection attributes.
+     *
+     * @return the JDBC URL
+     */
+    public String getMemoryConnectionURL() {
+        return String.format("jdbc:derby:%s%s",
+                MEMORY_SUBSUBPROTOCOL,
+                memoryDatabaseName);
+    }
+}
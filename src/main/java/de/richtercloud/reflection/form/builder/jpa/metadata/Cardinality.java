@@ -0,0 +1,27 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.metadata;
+
+/**
+ * The JPA relationship annotation of a field.
+ *
+ * @author richter
+ */
+public enum Cardinality {
+    MANY_TO_MANY,
+    ONE_TO_MANY,
+    ONE_TO_ONE,
+    MANY_TO_ONE
+}
@@ -0,0 +1,702 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.metadata;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.Transient;
+
+/**
+ * The metadata of a set of entity classes which is otherwise derived by
+ * scanning classes and annotations at startup: the entity classes, their
+ * persistent fields in a stable order, their relationships and a scheme
+ * checksum. It's generated at build time by {@link EntityMetadataGenerator}
+ * and loaded from {@link #RESOURCE_NAME} with
+ * {@link #load(java.lang.ClassLoader) }. {@link #scan(java.util.Collection) }
+ * creates it at runtime which allows to detect outdated generated metadata by
+ * comparing checksums. A checksum over the class files of the entity classes
+ * allows {@link #getInstance(java.util.Collection, java.lang.ClassLoader) }
+ * to detect outdated generated metadata without a scan.
+ *
+ * @author richter
+ */
+public final class EntityMetadata {
+    public final static String RESOURCE_NAME = "META-INF/reflection-form-builder-it/entity-metadata.properties";
+    private final static String KEY_CHECKSUM = "checksum";
+    private final static String KEY_ENTITIES = "entities";
+    private final static String KEY_CLASS_FILE_CHECKSUM = "classFileChecksum";
+    private final static String KEY_PREFIX_FIELDS = "fields.";
+    private final static String KEY_PREFIX_RELATIONSHIP = "relationship.";
+    private final static String LIST_SEPARATOR = ",";
+    private final static String RELATIONSHIP_SEPARATOR = ";";
+    private final static String CHECKSUM_ALGORITHM = "SHA-256";
+    private final static String CLASS_FILE_SUFFIX = ".class";
+    private final static int CLASS_FILE_BUFFER_SIZE = 8192;
+    private final List<String> entityClassNames;
+    private final Map<String, List<String>> fieldNames;
+    private final List<RelationshipDescriptor> relationships;
+    private final String checksum;
+    /**
+     * The checksum over the class files of the entity classes and their
+     * superclasses or {@code null} if a class file couldn't be read.
+     */
+    private final String classFileChecksum;
+
+    /**
+     * Scans {@code entityClasses} and their annotations.
+     *
+     * @param entityClasses the entity classes
+     * @return the metadata of {@code entityClasses}
+     */
+    public static EntityMetadata scan(Collection<Class<?>> entityClasses) {
+        List<Class<?>> sortedEntityClasses = new ArrayList<>(entityClasses);
+        sortedEntityClasses.sort(Comparator.comparing(Class::getName));
+            //makes the metadata independent of the iteration order of
+            //entityClasses
+        List<String> entityClassNames = new ArrayList<>(sortedEntityClasses.size());
+        Map<String, List<String>> fieldNames = new LinkedHashMap<>();
+        List<RelationshipDescriptor> relationships = new LinkedList<>();
+        Set<Field> describedFields = new HashSet<>();
+            //fields of superclasses shared by several entity classes are
+            //only described once
+        MessageDigest messageDigest = createMessageDigest();
+        for(Class<?> entityClass : sortedEntityClasses) {
+            entityClassNames.add(entityClass.getName());
+            updateDigest(messageDigest,
+                    entityClass.getName());
+            for(Class<?> hierarchyClass : getHierarchy(entityClass)) {
+                //@Table, @Inheritance, @DiscriminatorColumn, etc. of the
+                //entity class, @MappedSuperclass ancestors and entity
+                //superclasses
+                updateDigest(messageDigest,
+                        String.format("class %s %s",
+                                hierarchyClass.getName(),
+                                describeAnnotations(hierarchyClass)));
+            }
+            List<String> entityFieldNames = new LinkedList<>();
+            for(Field field : getAllFields(entityClass)) {
+                if(Modifier.isStatic(field.getModifiers())
+                        || Modifier.isTransient(field.getModifiers())
+                        || field.isAnnotationPresent(Transient.class)) {
+                    continue;
+                }
+                entityFieldNames.add(field.getName());
+                updateDigest(messageDigest,
+                        String.format("%s %s %s",
+                                field.getName(),
+                                field.getGenericType().getTypeName(),
+                                describeAnnotations(field)));
+                if(!describedFields.add(field)) {
+                    continue;
+                }
+                RelationshipDescriptor relationship = createRelationshipDescriptor(field);
+                if(relationship != null) {
+                    relationships.add(relationship);
+                }
+            }
+            fieldNames.put(entityClass.getName(),
+                    Collections.unmodifiableList(new ArrayList<>(entityFieldNames)));
+        }
+        return new EntityMetadata(entityClassNames,
+                fieldNames,
+                relationships,
+                toHex(messageDigest.digest()),
+                computeClassFileChecksum(sortedEntityClasses));
+    }
+
+    /**
+     * Computes a SHA-256 checksum over the class files of
+     * {@code entityClasses} and their superclasses which is much cheaper than
+     * {@link #scan(java.util.Collection) } since neither fields nor
+     * annotations are inspected. Equal class files imply equal metadata.
+     *
+     * @param entityClasses the entity classes
+     * @return the checksum as hex string or {@code null} if the class file of
+     *     one of the classes can't be read, e.g. because it has been defined
+     *     at runtime
+     */
+    private static String computeClassFileChecksum(Collection<Class<?>> entityClasses) {
+        List<Class<?>> sortedEntityClasses = new ArrayList<>(entityClasses);
+        sortedEntityClasses.sort(Comparator.comparing(Class::getName));
+        MessageDigest messageDigest = createMessageDigest();
+        byte[] buffer = new byte[CLASS_FILE_BUFFER_SIZE];
+        for(Class<?> entityClass : sortedEntityClasses) {
+            for(Class<?> hierarchyClass : getHierarchy(entityClass)) {
+                updateDigest(messageDigest,
+                        hierarchyClass.getName());
+                ClassLoader classLoader = hierarchyClass.getClassLoader();
+                if(classLoader == null) {
+                    return null;
+                }
+                try (InputStream inputStream = classLoader.getResourceAsStream(hierarchyClass.getName().replace('.', '/')+CLASS_FILE_SUFFIX)) {
+                    if(inputStream == null) {
+                        return null;
+                    }
+                    int read;
+                    while((read = inputStream.read(buffer)) != -1) {
+                        messageDigest.update(buffer,
+                                0,
+                                read);
+                    }
+                } catch (IOException ex) {
+                    //an unreadable class file is handled like a missing
+                    //one, so that the caller falls back to scanning
+                    return null;
+                }
+            }
+        }
+        return toHex(messageDigest.digest());
+    }
+
+    private static RelationshipDescriptor createRelationshipDescriptor(Field field) {
+        Cardinality cardinality;
+        Class<?> targetEntity;
+        String mappedBy;
+        ManyToMany manyToMany = field.getAnnotation(ManyToMany.class);
+        OneToMany oneToMany = field.getAnnotation(OneToMany.class);
+        OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+        ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
+        if(manyToMany != null) {
+            cardinality = Cardinality.MANY_TO_MANY;
+            targetEntity = manyToMany.targetEntity();
+            mappedBy = manyToMany.mappedBy();
+        }else if(oneToMany != null) {
+            cardinality = Cardinality.ONE_TO_MANY;
+            targetEntity = oneToMany.targetEntity();
+            mappedBy = oneToMany.mappedBy();
+        }else if(oneToOne != null) {
+            cardinality = Cardinality.ONE_TO_ONE;
+            targetEntity = oneToOne.targetEntity();
+            mappedBy = oneToOne.mappedBy();
+        }else if(manyToOne != null) {
+            cardinality = Cardinality.MANY_TO_ONE;
+            targetEntity = manyToOne.targetEntity();
+            mappedBy = "";
+        }else {
+            return null;
+        }
+        if(Map.class.isAssignableFrom(field.getType())) {
+            //map-valued relationships aren't supported
+            return null;
+        }
+        Class<?> collectionType = Collection.class.isAssignableFrom(field.getType())
+                ? field.getType()
+                : null;
+        Class<?> targetEntityClass = getTargetEntityClass(field,
+                targetEntity);
+        String inverseFieldName = null;
+        if(!mappedBy.isEmpty()) {
+            if(targetEntityClass == null || findField(targetEntityClass, mappedBy) == null) {
+                throw new IllegalArgumentException(String.format("mappedBy attribute '%s' of field %s doesn't reference a field of %s",
+                        mappedBy,
+                        field,
+                        targetEntityClass));
+            }
+            inverseFieldName = mappedBy;
+        }else if(targetEntityClass != null) {
+            Field mappingField = findMappingField(targetEntityClass,
+                    field);
+            if(mappingField != null) {
+                inverseFieldName = mappingField.getName();
+            }
+        }
+        return new RelationshipDescriptor(field.getDeclaringClass().getName(),
+                field.getName(),
+                cardinality,
+                targetEntityClass != null ? targetEntityClass.getName() : null,
+                collectionType != null ? collectionType.getName() : null,
+                mappedBy.isEmpty(),
+                inverseFieldName);
+    }
+
+    private static Class<?> getTargetEntityClass(Field field,
+            Class<?> targetEntity) {
+        if(targetEntity != void.class) {
+            return targetEntity;
+        }
+        if(Collection.class.isAssignableFrom(field.getType())) {
+            Type genericType = field.getGenericType();
+            if(genericType instanceof ParameterizedType) {
+                Type[] typeArguments = ((ParameterizedType)genericType).getActualTypeArguments();
+                if(typeArguments.length == 1 && typeArguments[0] instanceof Class) {
+                    return (Class<?>)typeArguments[0];
+                }
+            }
+            //raw or wildcard collection without targetEntity
+            return null;
+        }
+        return field.getType();
+    }
+
+    /**
+     * Finds the field in {@code targetEntityClass} which specifies
+     * {@code field} in its {@code mappedBy} attribute.
+     */
+    private static Field findMappingField(Class<?> targetEntityClass,
+            Field field) {
+        for(Field candidate : getAllFields(targetEntityClass)) {
+            String mappedBy;
+            Class<?> targetEntity;
+            ManyToMany manyToMany = candidate.getAnnotation(ManyToMany.class);
+            OneToMany oneToMany = candidate.getAnnotation(OneToMany.class);
+            OneToOne oneToOne = candidate.getAnnotation(OneToOne.class);
+            if(manyToMany != null) {
+                mappedBy = manyToMany.mappedBy();
+                targetEntity = manyToMany.targetEntity();
+            }else if(oneToMany != null) {
+                mappedBy = oneToMany.mappedBy();
+                targetEntity = oneToMany.targetEntity();
+            }else if(oneToOne != null) {
+                mappedBy = oneToOne.mappedBy();
+                targetEntity = oneToOne.targetEntity();
+            }else {
+                continue;
+            }
+            if(!mappedBy.equals(field.getName())) {
+                continue;
+            }
+            Class<?> candidateTargetEntityClass = getTargetEntityClass(candidate,
+                    targetEntity);
+            if(candidateTargetEntityClass != null
+                    && candidateTargetEntityClass.isAssignableFrom(field.getDeclaringClass())) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the field named {@code name} in {@code clazz} or its
+     * superclasses.
+     *
+     * @param clazz the class to search
+     * @param name the name of the field
+     * @return the field or {@code null} if it doesn't exist
+     */
+    public static Field findField(Class<?> clazz,
+            String name) {
+        for(Field field : getAllFields(clazz)) {
+            if(field.getName().equals(name)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the declared fields of {@code clazz} and its superclasses with the
+     * fields of superclasses first.
+     */
+    private static List<Field> getAllFields(Class<?> clazz) {
+        List<Field> retValue = new LinkedList<>();
+        for(Class<?> hierarchyClass : getHierarchy(clazz)) {
+            retValue.addAll(Arrays.asList(hierarchyClass.getDeclaredFields()));
+        }
+        return retValue;
+    }
+
+    /**
+     * Gets {@code clazz} and its superclasses except {@link Object} with the
+     * topmost superclass first.
+     */
+    private static List<Class<?>> getHierarchy(Class<?> clazz) {
+        LinkedList<Class<?>> retValue = new LinkedList<>();
+        Class<?> current = clazz;
+        while(current != null && current != Object.class) {
+            retValue.addFirst(current);
+            current = current.getSuperclass();
+        }
+        return retValue;
+    }
+
+    /**
+     * Describes the annotations of {@code element} including all attribute
+     * values, so that e.g. changing {@code @Column(length=...)} or
+     * {@code mappedBy} changes the checksum. The attributes are read through
+     * their methods instead of {@link Annotation#toString() } whose format
+     * differs between Java versions.
+     */
+    private static String describeAnnotations(AnnotatedElement element) {
+        return Arrays.stream(element.getDeclaredAnnotations())
+                .map(EntityMetadata::describeAnnotation)
+                .sorted()
+                .collect(Collectors.joining(LIST_SEPARATOR));
+    }
+
+    private static String describeAnnotation(Annotation annotation) {
+        Method[] attributes = annotation.annotationType().getDeclaredMethods();
+        Arrays.sort(attributes,
+                Comparator.comparing(Method::getName));
+        StringBuilder retValue = new StringBuilder("@").append(annotation.annotationType().getName())
+                .append('(');
+        for(int i = 0; i < attributes.length; i++) {
+            if(i > 0) {
+                retValue.append(LIST_SEPARATOR);
+            }
+            Method attribute = attributes[i];
+            Object value;
+            try {
+                attribute.setAccessible(true);
+                    //annotation types might not be public
+                value = attribute.invoke(annotation);
+            } catch (IllegalAccessException
+                    | InvocationTargetException ex) {
+                throw new IllegalStateException(String.format("reading attribute %s of annotation %s failed",
+                                attribute.getName(),
+                                annotation.annotationType().getName()),
+                        ex);
+            }
+            retValue.append(attribute.getName())
+                    .append('=')
+                    .append(describeAttributeValue(value));
+        }
+        return retValue.append(')').toString();
+    }
+
+    private static String describeAttributeValue(Object value) {
+        if(value instanceof Class) {
+            return ((Class<?>)value).getName();
+        }
+        if(value instanceof Enum) {
+            return ((Enum<?>)value).name();
+        }
+        if(value instanceof Annotation) {
+            return describeAnnotation((Annotation)value);
+        }
+        if(value instanceof String) {
+            return String.format("\"%s\"",
+                    value);
+        }
+        if(value.getClass().isArray()) {
+            //the order of array elements is kept since it's significant,
+            //e.g. for @JoinColumns
+            StringBuilder retValue = new StringBuilder("[");
+            for(int i = 0; i < Array.getLength(value); i++) {
+                if(i > 0) {
+                    retValue.append(LIST_SEPARATOR);
+                }
+                retValue.append(describeAttributeValue(Array.get(value, i)));
+            }
+            return retValue.append(']').toString();
+        }
+        return String.valueOf(value);
+    }
+
+    private static MessageDigest createMessageDigest() {
+        try {
+            return MessageDigest.getInstance(CHECKSUM_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            //every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void updateDigest(MessageDigest messageDigest,
+            String line) {
+        messageDigest.update(line.getBytes(StandardCharsets.UTF_8));
+        messageDigest.update((byte)'\n');
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder retValue = new StringBuilder(bytes.length*2);
+        for(byte b : bytes) {
+            retValue.append(String.format("%02x", b));
+        }
+        return retValue.toString();
+    }
+
+    /**
+     * Loads the metadata generated at build time.
+     *
+     * @param classLoader the class loader to get {@link #RESOURCE_NAME} from
+     * @return the metadata or {@code null} if the resource doesn't exist
+     * @throws IOException if an I/O exception occurs during reading
+     */
+    public static EntityMetadata load(ClassLoader classLoader) throws IOException {
+        try (InputStream inputStream = classLoader.getResourceAsStream(RESOURCE_NAME)) {
+            if(inputStream == null) {
+                return null;
+            }
+            return read(inputStream);
+        }
+    }
+
+    /**
+     * Gets the metadata of {@code entityClasses} from the metadata generated
+     * at build time if it describes exactly {@code entityClasses} and its
+     * class file checksum matches the one of the current class files of
+     * {@code entityClasses} and scans them otherwise, so that outdated
+     * generated metadata, e.g. after recompiling entities without running the
+     * generator, isn't used.
+     *
+     * @param entityClasses the entity classes
+     * @param classLoader the class loader to get {@link #RESOURCE_NAME} from
+     * @return the metadata of {@code entityClasses}
+     * @throws IOException if an I/O exception occurs during reading of the
+     *     generated metadata
+     */
+    public static EntityMetadata getInstance(Collection<Class<?>> entityClasses,
+            ClassLoader classLoader) throws IOException {
+        EntityMetadata precomputedMetadata = load(classLoader);
+        if(precomputedMetadata != null) {
+            Set<String> entityClassNames = entityClasses.stream()
+                    .map(Class::getName)
+                    .collect(Collectors.toSet());
+            if(entityClassNames.equals(new HashSet<>(precomputedMetadata.getEntityClassNames()))
+                    && precomputedMetadata.classFileChecksum != null
+                    && precomputedMetadata.classFileChecksum.equals(computeClassFileChecksum(entityClasses))) {
+                return precomputedMetadata;
+            }
+        }
+        return scan(entityClasses);
+    }
+
+    /**
+     * Reads metadata written with {@link #write(java.io.OutputStream) }.
+     *
+     * @param inputStream the stream to read
+     * @return the read metadata
+     * @throws IOException if an I/O exception occurs during reading
+     */
+    public static EntityMetadata read(InputStream inputStream) throws IOException {
+        Properties properties = new Properties();
+        properties.load(inputStream);
+        String checksum = properties.getProperty(KEY_CHECKSUM);
+        String entities = properties.getProperty(KEY_ENTITIES);
+        if(checksum == null || entities == null) {
+            throw new IOException("entity metadata lacks checksum or entity list");
+        }
+        List<String> entityClassNames = splitList(entities);
+        Map<String, List<String>> fieldNames = new LinkedHashMap<>();
+        for(String entityClassName : entityClassNames) {
+            fieldNames.put(entityClassName,
+                    Collections.unmodifiableList(splitList(properties.getProperty(KEY_PREFIX_FIELDS+entityClassName, ""))));
+        }
+        List<String> relationshipKeys = properties.stringPropertyNames().stream()
+                .filter(key -> key.startsWith(KEY_PREFIX_RELATIONSHIP))
+                .sorted()
+                .collect(Collectors.toList());
+        List<RelationshipDescriptor> relationships = new LinkedList<>();
+        for(String relationshipKey : relationshipKeys) {
+            String fieldKey = relationshipKey.substring(KEY_PREFIX_RELATIONSHIP.length());
+            int fieldSeparatorIndex = fieldKey.lastIndexOf('#');
+            String[] values = properties.getProperty(relationshipKey).split(RELATIONSHIP_SEPARATOR, -1);
+            if(fieldSeparatorIndex == -1 || values.length != 5) {
+                throw new IOException(String.format("invalid relationship entry '%s'",
+                        relationshipKey));
+            }
+            relationships.add(new RelationshipDescriptor(fieldKey.substring(0, fieldSeparatorIndex),
+                    fieldKey.substring(fieldSeparatorIndex+1),
+                    Cardinality.valueOf(values[0]),
+                    emptyToNull(values[1]),
+                    emptyToNull(values[2]),
+                    Boolean.parseBoolean(values[3]),
+                    emptyToNull(values[4])));
+        }
+        return new EntityMetadata(entityClassNames,
+                fieldNames,
+                relationships,
+                checksum,
+                properties.getProperty(KEY_CLASS_FILE_CHECKSUM));
+    }
+
+    private static List<String> splitList(String value) {
+        if(value.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(value.split(LIST_SEPARATOR)));
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private EntityMetadata(List<String> entityClassNames,
+            Map<String, List<String>> fieldNames,
+            List<RelationshipDescriptor> relationships,
+            String checksum,
+            String classFileChecksum) {
+        this.entityClassNames = Collections.unmodifiableList(entityClassNames);
+        this.fieldNames = Collections.unmodifiableMap(fieldNames);
+        this.relationships = Collections.unmodifiableList(relationships);
+        this.checksum = checksum;
+        this.classFileChecksum = classFileChecksum;
+    }
+
+    /**
+     * Writes the metadata in properties format with sorted keys and without
+     * timestamp, so that the output only changes if the metadata changes.
+     *
+     * @param outputStream the stream to write to
+     * @throws IOException if an I/O exception occurs during writing
+     */
+    public void write(OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream,
+                StandardCharsets.ISO_8859_1));
+            //the encoding of Properties.load(InputStream), names are ASCII
+        writer.write(String.format("%s=%s%n",
+                KEY_CHECKSUM,
+                checksum));
+        if(classFileChecksum != null) {
+            writer.write(String.format("%s=%s%n",
+                    KEY_CLASS_FILE_CHECKSUM,
+                    classFileChecksum));
+        }
+        writer.write(String.format("%s=%s%n",
+                KEY_ENTITIES,
+                String.join(LIST_SEPARATOR, entityClassNames)));
+        for(Map.Entry<String, List<String>> entry : fieldNames.entrySet()) {
+            writer.write(String.format("%s%s=%s%n",
+                    KEY_PREFIX_FIELDS,
+                    entry.getKey(),
+                    String.join(LIST_SEPARATOR, entry.getValue())));
+        }
+        for(RelationshipDescriptor relationship : relationships) {
+            writer.write(String.format("%s%s#%s=%s%n",
+                    KEY_PREFIX_RELATIONSHIP,
+                    relationship.getEntityClassName(),
+                    relationship.getFieldName(),
+                    String.join(RELATIONSHIP_SEPARATOR,
+                            relationship.getCardinality().name(),
+                            nullToEmpty(relationship.getTargetEntityClassName()),
+                            nullToEmpty(relationship.getCollectionTypeName()),
+                            String.valueOf(relationship.isOwningSide()),
+                            nullToEmpty(relationship.getInverseFieldName()))));
+        }
+        writer.flush();
+    }
+
+    /**
+     * Loads the entity classes.
+     *
+     * @param classLoader the class loader to use
+     * @return the entity classes
+     * @throws ClassNotFoundException if an entity class doesn't exist
+     */
+    public Set<Class<?>> loadEntityClasses(ClassLoader classLoader) throws ClassNotFoundException {
+        Set<Class<?>> retValue = new LinkedHashSet<>();
+        for(String entityClassName : entityClassNames) {
+            retValue.add(Class.forName(entityClassName,
+                    false,
+                    classLoader));
+        }
+        return retValue;
+    }
+
+    public List<String> getEntityClassNames() {
+        return entityClassNames;
+    }
+
+    /**
+     * The persistent fields of an entity class with the fields of superclasses
+     * first and in declaration order.
+     *
+     * @param entityClassName the name of the entity class
+     * @return the field names or {@code null} if the class isn't described
+     */
+    public List<String> getFieldNames(String entityClassName) {
+        return fieldNames.get(entityClassName);
+    }
+
+    /**
+     * Gets the persistent fields of {@code entityClass} in the order of
+     * {@link #getFieldNames(java.lang.String) }. The fields are matched by
+     * name against the declared fields, so that neither modifiers nor
+     * annotations have to be inspected.
+     *
+     * @param entityClass the entity class
+     * @return the fields or {@code null} if the class isn't described
+     * @throws IllegalStateException if a described field doesn't exist in
+     *     {@code entityClass}
+     */
+    public List<Field> getFields(Class<?> entityClass) {
+        List<String> entityFieldNames = fieldNames.get(entityClass.getName());
+        if(entityFieldNames == null) {
+            return null;
+        }
+        List<Field> retValue = new ArrayList<>(entityFieldNames.size());
+        Iterator<String> entityFieldNameIterator = entityFieldNames.iterator();
+        String entityFieldName = entityFieldNameIterator.hasNext() ? entityFieldNameIterator.next() : null;
+        for(Field field : getAllFields(entityClass)) {
+            //both are in hierarchy and declaration order, so that shadowed
+            //fields are matched correctly
+            if(field.getName().equals(entityFieldName)) {
+                retValue.add(field);
+                entityFieldName = entityFieldNameIterator.hasNext() ? entityFieldNameIterator.next() : null;
+            }
+        }
+        if(entityFieldName != null) {
+            throw new IllegalStateException(String.format("field %s described by the metadata doesn't exist in %s",
+                    entityFieldName,
+                    entityClass.getName()));
+        }
+        return retValue;
+    }
+
+    public List<RelationshipDescriptor> getRelationships() {
+        return relationships;
+    }
+
+    /**
+     * A SHA-256 checksum over the entity classes, the annotations of them and
+     * their superclasses, their persistent fields, field types and field
+     * annotations including all attribute values which changes if the scheme
+     * might have changed.
+     *
+     * @return the checksum as hex string
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+}
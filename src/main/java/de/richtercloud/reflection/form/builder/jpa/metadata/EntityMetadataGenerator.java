@@ -0,0 +1,127 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.metadata;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.List;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Generates the {@link EntityMetadata} of the classes of a persistence unit
+ * at build time and writes it to {@link EntityMetadata#RESOURCE_NAME} below
+ * an output directory, usually the test output directory, so that it can be
+ * loaded with {@link EntityMetadata#load(java.lang.ClassLoader) } instead of
+ * scanning the entity classes at startup. Run by the
+ * {@code generate-entity-metadata} execution of the build.
+ *
+ * Arguments:
+ * <ol>
+ * <li>the path of the {@code persistence.xml} file</li>
+ * <li>the name of the persistence unit whose {@code class} elements list the
+ * entity classes</li>
+ * <li>the output directory</li>
+ * </ol>
+ *
+ * @author richter
+ */
+public final class EntityMetadataGenerator {
+    private final static String PERSISTENCE_UNIT_ELEMENT = "persistence-unit";
+    private final static String CLASS_ELEMENT = "class";
+    private final static String NAME_ATTRIBUTE = "name";
+
+    public static void main(String[] args) throws IOException,
+            ParserConfigurationException,
+            SAXException,
+            ClassNotFoundException {
+        if(args.length != 3) {
+            throw new IllegalArgumentException("expected the path of persistence.xml, the name of the persistence unit and the output directory as arguments");
+        }
+        File persistenceXmlFile = new File(args[0]);
+        String persistenceUnitName = args[1];
+        File outputDir = new File(args[2]);
+        List<String> entityClassNames = readEntityClassNames(persistenceXmlFile,
+                persistenceUnitName);
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        List<Class<?>> entityClasses = new LinkedList<>();
+        for(String entityClassName : entityClassNames) {
+            entityClasses.add(Class.forName(entityClassName,
+                    false,
+                    classLoader));
+        }
+        EntityMetadata entityMetadata = EntityMetadata.scan(entityClasses);
+        File outputFile = new File(outputDir,
+                EntityMetadata.RESOURCE_NAME.replace('/', File.separatorChar));
+        File outputFileDir = outputFile.getParentFile();
+        if(!outputFileDir.exists() && !outputFileDir.mkdirs()) {
+            throw new IOException(String.format("output directory '%s' could not be created",
+                    outputFileDir.getAbsolutePath()));
+        }
+        try (OutputStream outputStream = new FileOutputStream(outputFile)) {
+            entityMetadata.write(outputStream);
+        }
+    }
+
+    /**
+     * Reads the names of the classes listed in the persistence unit
+     * {@code persistenceUnitName} of {@code persistenceXmlFile}.
+     *
+     * @param persistenceXmlFile the {@code persistence.xml} file
+     * @param persistenceUnitName the name of the persistence unit
+     * @return the class names in declaration order
+     * @throws ParserConfigurationException if such an exception occurs
+     * @throws SAXException if {@code persistenceXmlFile} can't be parsed
+     * @throws IOException if an I/O exception occurs during reading
+     */
+    public static List<String> readEntityClassNames(File persistenceXmlFile,
+            String persistenceUnitName) throws ParserConfigurationException,
+            SAXException,
+            IOException {
+        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
+        Document document = documentBuilder.parse(persistenceXmlFile);
+        NodeList persistenceUnits = document.getElementsByTagNameNS("*",
+                PERSISTENCE_UNIT_ELEMENT);
+        for(int i = 0; i < persistenceUnits.getLength(); i++) {
+            Element persistenceUnit = (Element) persistenceUnits.item(i);
+            if(!persistenceUnitName.equals(persistenceUnit.getAttribute(NAME_ATTRIBUTE))) {
+                continue;
+            }
+            List<String> retValue = new LinkedList<>();
+            NodeList classes = persistenceUnit.getElementsByTagNameNS("*",
+                    CLASS_ELEMENT);
+            for(int j = 0; j < classes.getLength(); j++) {
+                retValue.add(classes.item(j).getTextContent().trim());
+            }
+            return retValue;
+        }
+        throw new IllegalArgumentException(String.format("persistence unit '%s' doesn't exist in '%s'",
+                persistenceUnitName,
+                persistenceXmlFile.getAbsolutePath()));
+    }
+
+    private EntityMetadataGenerator() {
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.metadata;
+
+import java.util.Objects;
+
+/**
+ * The relationship information of one field derived from its JPA
+ * annotations, described by class and field names so that it can be
+ * precomputed at build time. Immutable.
+ *
+ * @author richter
+ */
+public final class RelationshipDescriptor {
+    private final String entityClassName;
+    private final String fieldName;
+    private final Cardinality cardinality;
+    private final String targetEntityClassName;
+    private final String collectionTypeName;
+    private final boolean owningSide;
+    private final String inverseFieldName;
+
+    /**
+     * Creates a new {@code RelationshipDescriptor}.
+     *
+     * @param entityClassName the name of the class declaring the field
+     * @param fieldName the name of the field
+     * @param cardinality the cardinality
+     * @param targetEntityClassName the name of the entity class on the other
+     *     side or {@code null} if it can't be determined
+     * @param collectionTypeName the name of the declared collection type or
+     *     {@code null} if the field references a single entity
+     * @param owningSide whether the field doesn't specify {@code mappedBy}
+     * @param inverseFieldName the name of the field in the target entity class
+     *     on the other side or {@code null} if the relationship isn't declared
+     *     bidirectional
+     */
+    public RelationshipDescriptor(String entityClassName,
+            String fieldName,
+            Cardinality cardinality,
+            String targetEntityClassName,
+            String collectionTypeName,
+            boolean owningSide,
+            String inverseFieldName) {
+        this.entityClassName = entityClassName;
+        this.fieldName = fieldName;
+        this.cardinality = cardinality;
+        this.targetEntityClassName = targetEntityClassName;
+        this.collectionTypeName = collectionTypeName;
+        this.owningSide = owningSide;
+        this.inverseFieldName = inverseFieldName;
+    }
+
+    public String getEntityClassName() {
+        return entityClassName;
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    public Cardinality getCardinality() {
+        return cardinality;
+    }
+
+    public String getTargetEntityClassName() {
+        return targetEntityClassName;
+    }
+
+    public String getCollectionTypeName() {
+        return collectionTypeName;
+    }
+
+    public boolean isOwningSide() {
+        return owningSide;
+    }
+
+    public String getInverseFieldName() {
+        return inverseFieldName;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(entityClassName,
+                fieldName,
+                cardinality,
+                targetEntityClassName,
+                collectionTypeName,
+                owningSide,
+                inverseFieldName);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final RelationshipDescriptor other = (RelationshipDescriptor) obj;
+        return owningSide == other.owningSide
+                && Objects.equals(entityClassName, other.entityClassName)
+                && Objects.equals(fieldName, other.fieldName)
+                && cardinality == other.cardinality
+                && Objects.equals(targetEntityClassName, other.targetEntityClassName)
+                && Objects.equals(collectionTypeName, other.collectionTypeName)
+                && Objects.equals(inverseFieldName, other.inverseFieldName);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s.%s (%s, %s)",
+                entityClassName,
+                fieldName,
+                cardinality,
+                owningSide ? "owning" : "inverse");
+    }
+}
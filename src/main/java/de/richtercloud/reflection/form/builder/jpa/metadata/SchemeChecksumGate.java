@@ -0,0 +1,149 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.metadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+
+/**
+ * Decides whether a storage can be started against an existing database
+ * without schema handling. The checksum of the entity classes (see
+ * {@link EntityMetadata#getChecksum() }) is recorded next to the scheme
+ * checksum file of the storage after a successful start. As long as the
+ * recorded checksum matches the current entity classes, the storage is
+ * started with a persistence unit which neither generates nor validates the
+ * schema. On mismatch or if nothing has been recorded yet, the persistence
+ * unit which generates the schema is used.
+ *
+ * The scheme checksum file itself is written by the storage in its own
+ * format, therefore the gate uses the separate file
+ * {@code <schemeChecksumFile>}{@link #CHECKSUM_FILE_SUFFIX}.
+ *
+ * @author richter
+ */
+public final class SchemeChecksumGate {
+    public final static String CHECKSUM_FILE_SUFFIX = ".entity-metadata";
+    private final File checksumFile;
+    private final String checksum;
+
+    /**
+     * Creates a gate for {@code entityClasses}. The checksum is taken from
+     * the metadata generated at build time if it describes exactly
+     * {@code entityClasses}, otherwise they're scanned.
+     *
+     * @param entityClasses the entity classes of the storage
+     * @param schemeChecksumFile the scheme checksum file of the storage
+     * @throws IOException if an I/O exception occurs during loading of the
+     *     generated metadata
+     */
+    public SchemeChecksumGate(Set<Class<?>> entityClasses,
+            File schemeChecksumFile) throws IOException {
+        this(computeChecksum(entityClasses),
+                schemeChecksumFile);
+    }
+
+    /**
+     * Creates a gate for a known checksum.
+     *
+     * @param checksum the checksum of the current entity classes
+     * @param schemeChecksumFile the scheme checksum file of the storage
+     */
+    public SchemeChecksumGate(String checksum,
+            File schemeChecksumFile) {
+        if(checksum == null) {
+            throw new IllegalArgumentException("checksum mustn't be null");
+        }
+        if(schemeChecksumFile == null) {
+            throw new IllegalArgumentException("schemeChecksumFile mustn't be null");
+        }
+        this.checksum = checksum;
+        this.checksumFile = new File(schemeChecksumFile.getParentFile(),
+                schemeChecksumFile.getName()+CHECKSUM_FILE_SUFFIX);
+    }
+
+    private static String computeChecksum(Set<Class<?>> entityClasses) throws IOException {
+        return EntityMetadata.getInstance(entityClasses,
+                SchemeChecksumGate.class.getClassLoader()).getChecksum();
+    }
+
+    /**
+     * Whether the recorded checksum matches the current entity classes.
+     *
+     * @return {@code true} if the schema of the existing database can be
+     *     used without generation or validation
+     * @throws IOException if an I/O exception occurs during reading of the
+     *     recorded checksum
+     */
+    public boolean isSchemeUnchanged() throws IOException {
+        if(!checksumFile.exists()) {
+            return false;
+        }
+        String recordedChecksum = new String(Files.readAllBytes(checksumFile.toPath()),
+                StandardCharsets.UTF_8).trim();
+        return checksum.equals(recordedChecksum);
+    }
+
+    /**
+     * Selects the persistence unit to start the storage with.
+     *
+     * @param schemaGeneratingPersistenceUnitName the persistence unit which
+     *     generates and validates the schema
+     * @param existingSchemaPersistenceUnitName the persistence unit which
+     *     uses the schema as it is
+     * @return {@code existingSchemaPersistenceUnitName} if the scheme is
+     *     unchanged, {@code schemaGeneratingPersistenceUnitName} otherwise
+     * @throws IOException if an I/O exception occurs during reading of the
+     *     recorded checksum
+     */
+    public String selectPersistenceUnitName(String schemaGeneratingPersistenceUnitName,
+            String existingSchemaPersistenceUnitName) throws IOException {
+        return isSchemeUnchanged()
+                ? existingSchemaPersistenceUnitName
+                : schemaGeneratingPersistenceUnitName;
+    }
+
+    /**
+     * Records the checksum of the current entity classes. Has to be invoked
+     * after the storage has been started successfully, so that a failed
+     * schema generation is repeated at the next start.
+     *
+     * @throws IOException if an I/O exception occurs during writing
+     */
+    public void recordScheme() throws IOException {
+        Files.write(checksumFile.toPath(),
+                checksum.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Removes the recorded checksum, so that the next start handles the
+     * schema, e.g. after the database has been deleted.
+     *
+     * @throws IOException if an I/O exception occurs during deletion
+     */
+    public void invalidate() throws IOException {
+        Files.deleteIfExists(checksumFile.toPath());
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public File getChecksumFile() {
+        return checksumFile;
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Measures the heap high-water mark and the garbage collection time of the
+ * JVM since {@link #reset() } with the platform MXBeans. The high-water mark
+ * is the sum of the peak usages of all heap memory pools which is an upper
+ * bound since the pools don't necessarily peak at the same time.
+ *
+ * Measurements cover the whole JVM, so that concurrent activity is included.
+ * Not thread-safe.
+ *
+ * @author richter
+ */
+public class HeapUsageSampler {
+    private long gcTimeMillisAtReset;
+    private long gcCountAtReset;
+
+    public HeapUsageSampler() {
+        reset();
+    }
+
+    /**
+     * Resets the peak usage of all heap memory pools and records the current
+     * garbage collection totals.
+     */
+    public final void reset() {
+        for(MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(memoryPool.getType() == MemoryType.HEAP) {
+                memoryPool.resetPeakUsage();
+            }
+        }
+        gcTimeMillisAtReset = totalGcTimeMillis();
+        gcCountAtReset = totalGcCount();
+    }
+
+    /**
+     * The heap high-water mark since the last reset.
+     *
+     * @return the sum of peak usages of all heap memory pools in bytes
+     */
+    public long getPeakHeapBytes() {
+        long retValue = 0;
+        for(MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(memoryPool.getType() == MemoryType.HEAP) {
+                retValue += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        return retValue;
+    }
+
+    /**
+     * The accumulated collection time of all garbage collectors since the
+     * last reset.
+     *
+     * @return the time in milliseconds
+     */
+    public long getGcTimeMillis() {
+        return totalGcTimeMillis()-gcTimeMillisAtReset;
+    }
+
+    public long getGcCount() {
+        return totalGcCount()-gcCountAtReset;
+    }
+
+    private static long totalGcTimeMillis() {
+        long retValue = 0;
+        for(GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            retValue += Math.max(0,
+                    garbageCollector.getCollectionTime());
+                //-1 if undefined
+        }
+        return retValue;
+    }
+
+    private static long totalGcCount() {
+        long retValue = 0;
+        for(GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            retValue += Math.max(0,
+                    garbageCollector.getCollectionCount());
+        }
+        return retValue;
+    }
+}
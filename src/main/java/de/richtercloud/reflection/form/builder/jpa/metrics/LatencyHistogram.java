@@ -0,0 +1,134 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds with log-linear buckets:
+ * every power of two is divided into {@link #SUB_BUCKET_COUNT} linear
+ * sub-buckets, so that percentiles have a relative error below
+ * {@code 1/SUB_BUCKET_COUNT} while recording is a single atomic increment.
+ *
+ * @author richter
+ */
+public class LatencyHistogram {
+    private final static int SUB_BUCKET_BITS = 4;
+    private final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private final static int BUCKET_COUNT = (Long.SIZE-SUB_BUCKET_BITS+1)*SUB_BUCKET_COUNT;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds, negative values are recorded
+     *     as {@code 0}
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        buckets.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value,
+                Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public double getMeanNanos() {
+        long countValue = count.get();
+        if(countValue == 0) {
+            return 0;
+        }
+        return (double)sum.get()/countValue;
+    }
+
+    /**
+     * Gets the upper bound of the bucket containing the {@code percentile}th
+     * percentile of recorded values.
+     *
+     * @param percentile the percentile between {@code 0} and {@code 100}
+     * @return the value at the percentile in nanoseconds or {@code 0} if no
+     *     value has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if(percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile has to be between 0 and 100");
+        }
+        long countValue = 0;
+        long[] bucketCounts = new long[BUCKET_COUNT];
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            bucketCounts[i] = buckets.get(i);
+            countValue += bucketCounts[i];
+        }
+        if(countValue == 0) {
+            return 0;
+        }
+        long rank = Math.max(1,
+                (long)Math.ceil(percentile/100*countValue));
+        long seen = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            seen += bucketCounts[i];
+            if(seen >= rank) {
+                return Math.min(bucketUpperBound(i),
+                        max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Resets all recorded values. Values recorded concurrently might be lost.
+     */
+    public void reset() {
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int bucketIndex(long value) {
+        if(value < SUB_BUCKET_COUNT) {
+            return (int)value;
+        }
+        int magnitude = Long.SIZE-Long.numberOfLeadingZeros(value)-SUB_BUCKET_BITS-1;
+            //>= 0 since value >= SUB_BUCKET_COUNT, so that value >>> magnitude
+            //is in [SUB_BUCKET_COUNT, 2*SUB_BUCKET_COUNT)
+        int subBucket = (int)(value >>> magnitude)-SUB_BUCKET_COUNT;
+        return magnitude*SUB_BUCKET_COUNT+SUB_BUCKET_COUNT+subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if(index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int magnitude = index/SUB_BUCKET_COUNT-1;
+        int subBucket = index%SUB_BUCKET_COUNT;
+        long lowerBound = ((long)SUB_BUCKET_COUNT+subBucket) << magnitude;
+        return lowerBound+(1L << magnitude)-1;
+    }
+}
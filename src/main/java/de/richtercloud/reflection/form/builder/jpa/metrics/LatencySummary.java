@@ -0,0 +1,72 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * An immutable snapshot of a {@link LatencyHistogram} which the MXBean
+ * framework maps to composite data.
+ *
+ * @author richter
+ */
+public final class LatencySummary {
+    private final long count;
+    private final double meanNanos;
+    private final long p50Nanos;
+    private final long p99Nanos;
+    private final long maxNanos;
+
+    public static LatencySummary of(LatencyHistogram histogram) {
+        return new LatencySummary(histogram.getCount(),
+                histogram.getMeanNanos(),
+                histogram.getValueAtPercentile(50),
+                histogram.getValueAtPercentile(99),
+                histogram.getMaxNanos());
+    }
+
+    @ConstructorProperties({"count", "meanNanos", "p50Nanos", "p99Nanos", "maxNanos"})
+    public LatencySummary(long count,
+            double meanNanos,
+            long p50Nanos,
+            long p99Nanos,
+            long maxNanos) {
+        this.count = count;
+        this.meanNanos = meanNanos;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.maxNanos = maxNanos;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanNanos() {
+        return meanNanos;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+}
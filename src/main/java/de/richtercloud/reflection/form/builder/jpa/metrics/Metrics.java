@@ -0,0 +1,57 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The {@link MetricsMXBean} of a {@link MetricsRegistry}.
+ *
+ * @author richter
+ */
+class Metrics implements MetricsMXBean {
+    private final MetricsRegistry registry;
+
+    Metrics(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        return registry.getCounterValues();
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        return registry.getGaugeValues();
+    }
+
+    @Override
+    public Map<String, LatencySummary> getLatencies() {
+        SortedMap<String, LatencySummary> retValue = new TreeMap<>();
+        for(Map.Entry<String, LatencyHistogram> entry : registry.getHistograms().entrySet()) {
+            retValue.put(entry.getKey(),
+                    LatencySummary.of(entry.getValue()));
+        }
+        return retValue;
+    }
+
+    @Override
+    public void reset() {
+        registry.reset();
+    }
+}
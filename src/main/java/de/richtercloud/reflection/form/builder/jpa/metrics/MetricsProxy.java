@@ -0,0 +1,134 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Creates proxies which record the latency of every interface method call in
+ * the histogram {@code <prefix>.<methodName>} of a {@link MetricsRegistry},
+ * count failed calls in {@code <prefix>.<methodName>.errors} and expose the
+ * number of calls in progress as gauges {@code <prefix>.active} and
+ * {@code <prefix>.activePeak}. Works for every implementation of an interface,
+ * e.g. all {@code PersistenceStorage} implementations, without knowing
+ * them. Histograms and counters are looked up once at creation, so that a
+ * call only adds the reflective invocation, two {@link System#nanoTime() }
+ * calls and a few atomic increments.
+ *
+ * @author richter
+ */
+public final class MetricsProxy implements InvocationHandler {
+    private final Object target;
+    private final Map<Method, LatencyHistogram> histograms;
+    private final Map<Method, LongAdder> errorCounters;
+    private final AtomicLong active = new AtomicLong();
+    private final AtomicLong activePeak = new AtomicLong();
+
+    /**
+     * Creates an instrumented proxy for {@code target}.
+     *
+     * @param <S> the interface type
+     * @param interfaceType the interface whose methods are instrumented
+     * @param target the instance to delegate to
+     * @param registry the registry to record in
+     * @param prefix the prefix of the metric names
+     * @return the proxy
+     */
+    public static <S> S instrument(Class<S> interfaceType,
+            S target,
+            MetricsRegistry registry,
+            String prefix) {
+        if(!interfaceType.isInterface()) {
+            throw new IllegalArgumentException(String.format("%s isn't an interface",
+                    interfaceType.getName()));
+        }
+        if(target == null) {
+            throw new IllegalArgumentException("target mustn't be null");
+        }
+        MetricsProxy handler = new MetricsProxy(interfaceType,
+                target,
+                registry,
+                prefix);
+        registry.registerGauge(prefix+".active",
+                handler.active::get);
+        registry.registerGauge(prefix+".activePeak",
+                handler.activePeak::get);
+        return interfaceType.cast(Proxy.newProxyInstance(interfaceType.getClassLoader(),
+                new Class<?>[] {interfaceType},
+                handler));
+    }
+
+    private MetricsProxy(Class<?> interfaceType,
+            Object target,
+            MetricsRegistry registry,
+            String prefix) {
+        this.target = target;
+        Map<Method, LatencyHistogram> histograms = new HashMap<>();
+        Map<Method, LongAdder> errorCounters = new HashMap<>();
+        for(Method method : interfaceType.getMethods()) {
+            String operationName = prefix+"."+method.getName();
+                //overloads share metrics
+            histograms.put(method,
+                    registry.getHistogram(operationName));
+            errorCounters.put(method,
+                    registry.getCounter(MetricsRegistry.errorCounterName(operationName)));
+        }
+        this.histograms = histograms;
+        this.errorCounters = errorCounters;
+    }
+
+    @Override
+    @SuppressWarnings("PMD.AvoidRethrowingException")
+    public Object invoke(Object proxy,
+            Method method,
+            Object[] args) throws Throwable {
+        LatencyHistogram histogram = histograms.get(method);
+        if(histogram == null) {
+            //methods of Object
+            return invokeTarget(method,
+                    args);
+        }
+        activePeak.accumulateAndGet(active.incrementAndGet(),
+                Math::max);
+        long start = System.nanoTime();
+        try {
+            return invokeTarget(method,
+                    args);
+        }catch(Throwable ex) {
+            errorCounters.get(method).increment();
+            throw ex;
+        }finally {
+            histogram.record(System.nanoTime()-start);
+            active.decrementAndGet();
+        }
+    }
+
+    private Object invokeTarget(Method method,
+            Object[] args) throws Throwable {
+        try {
+            return method.invoke(target,
+                    args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+}
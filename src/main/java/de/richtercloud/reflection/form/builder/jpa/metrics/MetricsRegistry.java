@@ -0,0 +1,230 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+
+/**
+ * Named counters, latency histograms and gauges which can be queried
+ * programmatically and through JMX after
+ * {@link #registerMBean(java.lang.String) }. Counters and histograms are
+ * created on first use, recording is lock-free. Thread-safe.
+ *
+ * @author richter
+ */
+public class MetricsRegistry {
+    public final static String OBJECT_NAME_DOMAIN = "de.richtercloud.reflection.form.builder.jpa";
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private ObjectName objectName;
+
+    /**
+     * Invokes {@code operation} and records its latency in the histogram
+     * {@code operationName}. If {@code operation} throws an exception the
+     * counter {@code operationName.errors} is incremented.
+     *
+     * @param <T> the type of the result
+     * @param operationName the name of the operation
+     * @param operation the operation
+     * @return the result of {@code operation}
+     * @throws Exception if {@code operation} throws an exception
+     */
+    @SuppressWarnings("PMD.SignatureDeclareThrowsException")
+    public <T> T time(String operationName,
+            Callable<T> operation) throws Exception {
+        LatencyHistogram histogram = getHistogram(operationName);
+        long start = System.nanoTime();
+        try {
+            return operation.call();
+        }catch(Exception ex) {
+            getCounter(errorCounterName(operationName)).increment();
+            throw ex;
+        }finally {
+            histogram.record(System.nanoTime()-start);
+        }
+    }
+
+    /**
+     * The name of the counter of failed invocations of an operation.
+     *
+     * @param operationName the name of the operation
+     * @return the counter name
+     */
+    public static String errorCounterName(String operationName) {
+        return operationName+".errors";
+    }
+
+    public LongAdder getCounter(String name) {
+        return counters.computeIfAbsent(name,
+                key -> new LongAdder());
+    }
+
+    public LatencyHistogram getHistogram(String name) {
+        return histograms.computeIfAbsent(name,
+                key -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers a gauge whose value is read from {@code valueSupplier} every
+     * time it's queried. Replaces a gauge with the same name.
+     *
+     * @param name the name of the gauge
+     * @param valueSupplier the supplier of the current value
+     */
+    public void registerGauge(String name,
+            LongSupplier valueSupplier) {
+        gauges.put(name,
+                valueSupplier);
+    }
+
+    public void unregisterGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Registers gauges for the queue depth, the number of active threads
+     * and the number of completed tasks of {@code executor} under
+     * {@code prefix.queueDepth}, {@code prefix.activeCount} and
+     * {@code prefix.completedTaskCount}.
+     *
+     * @param prefix the prefix of the gauge names
+     * @param executor the executor to observe
+     */
+    public void registerExecutorGauges(String prefix,
+            ThreadPoolExecutor executor) {
+        registerGauge(prefix+".queueDepth",
+                () -> executor.getQueue().size());
+        registerGauge(prefix+".activeCount",
+                executor::getActiveCount);
+        registerGauge(prefix+".completedTaskCount",
+                executor::getCompletedTaskCount);
+    }
+
+    /**
+     * Gets the current values of all counters ordered by name.
+     *
+     * @return a snapshot of the counters
+     */
+    public SortedMap<String, Long> getCounterValues() {
+        SortedMap<String, Long> retValue = new TreeMap<>();
+        for(Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            retValue.put(entry.getKey(),
+                    entry.getValue().sum());
+        }
+        return retValue;
+    }
+
+    /**
+     * Gets the current values of all gauges ordered by name.
+     *
+     * @return a snapshot of the gauges
+     */
+    public SortedMap<String, Long> getGaugeValues() {
+        SortedMap<String, Long> retValue = new TreeMap<>();
+        for(Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            retValue.put(entry.getKey(),
+                    entry.getValue().getAsLong());
+        }
+        return retValue;
+    }
+
+    /**
+     * Gets all histograms ordered by name.
+     *
+     * @return an unmodifiable view of the histograms
+     */
+    public SortedMap<String, LatencyHistogram> getHistograms() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(histograms));
+    }
+
+    /**
+     * Resets all counters and histograms. Gauges aren't affected.
+     */
+    public void reset() {
+        counters.values().forEach(LongAdder::reset);
+        histograms.values().forEach(LatencyHistogram::reset);
+    }
+
+    /**
+     * Registers a {@link MetricsMXBean} for this registry at the platform
+     * MBean server with the object name
+     * {@code de.richtercloud.reflection.form.builder.jpa:type=Metrics,name=<name>}.
+     *
+     * @param name the value of the {@code name} key of the object name
+     * @return the object name
+     * @throws MalformedObjectNameException if {@code name} isn't a valid
+     *     object name value
+     * @throws InstanceAlreadyExistsException if an MBean with the object name
+     *     is already registered
+     * @throws MBeanRegistrationException if such an exception occurs
+     * @throws NotCompliantMBeanException if such an exception occurs
+     */
+    public synchronized ObjectName registerMBean(String name) throws MalformedObjectNameException,
+            InstanceAlreadyExistsException,
+            MBeanRegistrationException,
+            NotCompliantMBeanException {
+        if(objectName != null) {
+            throw new IllegalStateException(String.format("registry is already registered as %s",
+                    objectName));
+        }
+        ObjectName newObjectName = new ObjectName(String.format("%s:type=Metrics,name=%s",
+                OBJECT_NAME_DOMAIN,
+                ObjectName.quote(name)));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(this),
+                newObjectName);
+        objectName = newObjectName;
+        return objectName;
+    }
+
+    /**
+     * Unregisters the MBean registered with
+     * {@link #registerMBean(java.lang.String) } if it has been registered.
+     *
+     * @throws MBeanRegistrationException if such an exception occurs
+     */
+    public synchronized void unregisterMBean() throws MBeanRegistrationException {
+        if(objectName == null) {
+            return;
+        }
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            mBeanServer.unregisterMBean(objectName);
+        } catch (InstanceNotFoundException ex) {
+            //has been unregistered by someone else
+        }
+        objectName = null;
+    }
+
+    public synchronized ObjectName getObjectName() {
+        return objectName;
+    }
+}
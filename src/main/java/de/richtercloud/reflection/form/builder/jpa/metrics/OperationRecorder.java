@@ -0,0 +1,73 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records latencies of named operations in one {@link LatencyHistogram} per
+ * operation. Thread-safe.
+ *
+ * @author richter
+ */
+public class OperationRecorder {
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Invokes {@code operation} and records its latency under
+     * {@code operationName} regardless of whether it completes normally.
+     *
+     * @param <T> the type of the result
+     * @param operationName the name of the operation
+     * @param operation the operation
+     * @return the result of {@code operation}
+     * @throws Exception if {@code operation} throws an exception
+     */
+    @SuppressWarnings("PMD.SignatureDeclareThrowsException")
+    public <T> T time(String operationName,
+            Callable<T> operation) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return operation.call();
+        }finally {
+            record(operationName,
+                    System.nanoTime()-start);
+        }
+    }
+
+    public void record(String operationName,
+            long nanos) {
+        getHistogram(operationName).record(nanos);
+    }
+
+    public LatencyHistogram getHistogram(String operationName) {
+        return histograms.computeIfAbsent(operationName,
+                key -> new LatencyHistogram());
+    }
+
+    /**
+     * Gets all histograms ordered by operation name.
+     *
+     * @return an unmodifiable view of the histograms
+     */
+    public SortedMap<String, LatencyHistogram> getHistograms() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(histograms));
+    }
+}
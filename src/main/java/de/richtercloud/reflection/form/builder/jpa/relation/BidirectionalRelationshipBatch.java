@@ -0,0 +1,708 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.relation;
+
+import de.richtercloud.reflection.form.builder.jpa.accessor.FieldAccessor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+
+/**
+ * Collects updates of relationship fields whose inverse side is specified by a
+ * mapped field (like {@code EntityA.bs} mapped to {@code EntityB.as}) and
+ * applies them together. The inverse side changes of all updates are computed
+ * in one pass and every inverse collection is modified at most once, so that
+ * attaching {@code n} entities takes {@code O(n)} instead of {@code O(n²)}
+ * {@code contains} and {@code remove} calls on lists. All entities touched by
+ * the batch are written in one transaction with {@link #write(javax.persistence.EntityManager) }.
+ * Relationship information and field accessors are looked up in a
+ * {@link RelationshipIndex}, so that adding an update doesn't inspect
+ * annotations or types.
+ *
+ * New values are used as passed without defensive copies, so that the
+ * caller mustn't modify them after adding an update. If the new value is the
+ * current collection which has been changed in place, the old membership is
+ * unknown, so that added elements are found by comparing with the inverse
+ * side, but removed elements can't be found and have to be removed by
+ * passing a new collection. Collections on the inverse side which don't
+ * support the necessary changes, e.g. unmodifiable collections or
+ * {@link java.util.Arrays#asList(java.lang.Object...) } passed in earlier
+ * updates, are replaced with modifiable copies. {@link #apply() } only
+ * allocates hash sets for membership tests if old and new values are
+ * non-empty collections which aren't sets already, and tracks the changes of
+ * an inverse entity without allocating collections as long as it's linked to
+ * or unlinked from one entity, which is the common case of attaching new
+ * entities.
+ *
+ * Instances are not thread-safe. Batches of different threads which share
+ * entities are applied with {@link #apply(StripedEntityLocks) } and written
+ * with {@link #write(javax.persistence.EntityManager, StripedEntityLocks) }.
+ *
+ * @author richter
+ */
+public class BidirectionalRelationshipBatch {
+    private final RelationshipIndex relationshipIndex;
+    private final List<Update> updates = new ArrayList<>();
+    /**
+     * The entities whose relationship field has been set in
+     * {@link #apply() } including previous owners an inverse entity has been
+     * removed from.
+     */
+    private final Set<Object> owningEntities = Collections.newSetFromMap(new IdentityHashMap<>());
+    /**
+     * The entities whose mapped field has been changed in {@link #apply() }.
+     */
+    private final Set<Object> inverseEntities = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean applied;
+
+    public BidirectionalRelationshipBatch(RelationshipIndex relationshipIndex) {
+        if(relationshipIndex == null) {
+            throw new IllegalArgumentException("relationshipIndex mustn't be null");
+        }
+        this.relationshipIndex = relationshipIndex;
+    }
+
+    /**
+     * Adds the update of {@code field} of {@code entity} to {@code newValue}.
+     *
+     * @param entity the entity whose field is updated
+     * @param field the relationship field, either a collection or a reference
+     * @param mappedField the field on the other side of the relationship,
+     *     either a collection or a reference
+     * @param newValue the new value of {@code field} which can be
+     *     {@code null}
+     * @throws IllegalArgumentException if {@code field} or
+     *     {@code mappedField} aren't indexed relationship fields
+     */
+    public void add(Object entity,
+            Field field,
+            Field mappedField,
+            Object newValue) {
+        RelationshipMapping mapping = relationshipIndex.getMapping(field);
+        add(entity,
+                mapping,
+                relationshipIndex.getMapping(mappedField),
+                newValue);
+    }
+
+    /**
+     * Adds the update of {@code field} of {@code entity} to {@code newValue}
+     * for a relationship which is declared bidirectional with
+     * {@code mappedBy}, so that the mapped field is known from the index.
+     *
+     * @param entity the entity whose field is updated
+     * @param field the relationship field
+     * @param newValue the new value of {@code field} which can be
+     *     {@code null}
+     * @throws IllegalArgumentException if {@code field} isn't an indexed
+     *     relationship field with an inverse field
+     */
+    public void add(Object entity,
+            Field field,
+            Object newValue) {
+        RelationshipMapping mapping = relationshipIndex.getMapping(field);
+        if(mapping.getInverseField() == null) {
+            throw new IllegalArgumentException(String.format("relationship %s doesn't declare an inverse field, specify the mapped field",
+                    mapping));
+        }
+        add(entity,
+                mapping,
+                relationshipIndex.getMapping(mapping.getInverseField()),
+                newValue);
+    }
+
+    private void add(Object entity,
+            RelationshipMapping mapping,
+            RelationshipMapping mappedMapping,
+            Object newValue) {
+        if(applied) {
+            throw new IllegalStateException("batch has already been applied");
+        }
+        if(entity == null) {
+            throw new IllegalArgumentException("entity mustn't be null");
+        }
+        if(newValue != null
+                && mapping.isCollectionValued() != newValue instanceof Collection) {
+            throw new IllegalArgumentException(String.format("new value of type %s doesn't match relationship %s",
+                    newValue.getClass().getName(),
+                    mapping));
+        }
+        updates.add(new Update(entity,
+                mapping,
+                mappedMapping,
+                newValue));
+    }
+
+    /**
+     * Sets the relationship fields of all added updates and the mapped fields
+     * of all entities which are added to or removed from a relationship.
+     */
+    public void apply() {
+        if(applied) {
+            return;
+        }
+        Map<Object, InverseChange> inverseChanges = new IdentityHashMap<>();
+        for(Update update : updates) {
+            Object oldValue = update.field.getAccessor().get(update.entity);
+            if(update.field.isCollectionValued()) {
+                Collection<?> oldElements = oldValue == null
+                        ? Collections.emptySet()
+                        : (Collection<?>)oldValue;
+                Collection<?> newElements = update.newValue == null
+                        ? Collections.emptySet()
+                        : (Collection<?>)update.newValue;
+                if(oldElements.isEmpty()) {
+                    //the common case of attaching entities doesn't need
+                    //membership tests
+                    for(Object newElement : newElements) {
+                        getInverseChange(inverseChanges,
+                                newElement,
+                                update).link(update.entity);
+                    }
+                }else if(oldElements != newElements) {
+                    Collection<?> newLookup = asLookup(newElements);
+                    for(Object oldElement : oldElements) {
+                        if(!newLookup.contains(oldElement)) {
+                            getInverseChange(inverseChanges,
+                                    oldElement,
+                                    update).unlink(update.entity);
+                        }
+                    }
+                    Collection<?> oldLookup = asLookup(oldElements);
+                    for(Object newElement : newElements) {
+                        if(!oldLookup.contains(newElement)) {
+                            getInverseChange(inverseChanges,
+                                    newElement,
+                                    update).link(update.entity);
+                        }
+                    }
+                }else {
+                    //the collection might have been changed in place, so
+                    //that the old membership is unknown and the inverse
+                    //side is compared instead
+                    for(Object newElement : newElements) {
+                        if(!isLinked(newElement,
+                                update)) {
+                            getInverseChange(inverseChanges,
+                                    newElement,
+                                    update).link(update.entity);
+                        }
+                    }
+                }
+            }else {
+                if(oldValue != null && !oldValue.equals(update.newValue)) {
+                    getInverseChange(inverseChanges,
+                            oldValue,
+                            update).unlink(update.entity);
+                }
+                if(update.newValue != null) {
+                    getInverseChange(inverseChanges,
+                            update.newValue,
+                            update).link(update.entity);
+                }
+            }
+            update.field.getAccessor().set(update.entity,
+                    update.newValue);
+            owningEntities.add(update.entity);
+        }
+        for(Map.Entry<Object, InverseChange> entry : inverseChanges.entrySet()) {
+            for(InverseChange inverseChange = entry.getValue(); inverseChange != null; inverseChange = inverseChange.next) {
+                Object previousOwner = inverseChange.applyTo(entry.getKey());
+                if(previousOwner != null) {
+                    owningEntities.add(previousOwner);
+                }
+            }
+            inverseEntities.add(entry.getKey());
+        }
+        applied = true;
+    }
+
+    /**
+     * Applies the batch like {@link #apply() } while holding the locks of all
+     * entities it reads or changes, so that batches of different threads
+     * sharing entities are applied one after another for the shared
+     * entities. All threads changing the shared entities have to use the
+     * same {@code locks}.
+     *
+     * The changed entities depend on the current values which can only be
+     * read safely under the lock of the entity, so that the locks of the
+     * updated entities and new values are acquired first. If the current
+     * values reference further entities, all locks are released and acquired
+     * again including the locks of those entities until all are held.
+     *
+     * @param locks the locks shared by all threads
+     */
+    public void apply(StripedEntityLocks locks) {
+        if(applied) {
+            return;
+        }
+        try (StripedEntityLocks.Held held = lockForApply(locks)) {
+            apply();
+        }
+    }
+
+    /**
+     * Acquires the locks of the updated entities, their new and current
+     * values and the previous owners of the new values, i.e. of all entities
+     * {@link #apply() } reads or changes, and retries until the current
+     * values haven't changed between reading and locking.
+     *
+     * @return the held locks which cover all entities the batch reads or
+     *     changes
+     */
+    private StripedEntityLocks.Held lockForApply(StripedEntityLocks locks) {
+        Set<Object> entities = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(Update update : updates) {
+            entities.add(update.entity);
+            addElements(update.newValue,
+                    entities);
+        }
+        while(true) {
+            StripedEntityLocks.Held held = locks.lockAll(entities);
+            boolean covered = false;
+            try {
+                for(Update update : updates) {
+                    addElements(update.field.getAccessor().get(update.entity),
+                            entities);
+                    if(!update.mappedField.isCollectionValued()) {
+                        addPreviousOwners(update,
+                                entities);
+                    }
+                }
+                covered = held.covers(entities);
+                if(covered) {
+                    return held;
+                }
+            }finally {
+                if(!covered) {
+                    held.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the entities which currently reference the new elements of
+     * {@code update} through the reference-valued mapped field and which will
+     * be removed from them.
+     */
+    private static void addPreviousOwners(Update update,
+            Set<Object> entities) {
+        FieldAccessor mappedAccessor = update.mappedField.getAccessor();
+        if(update.newValue instanceof Collection) {
+            for(Object newElement : (Collection<?>)update.newValue) {
+                addElements(mappedAccessor.get(newElement),
+                        entities);
+            }
+        }else if(update.newValue != null) {
+            addElements(mappedAccessor.get(update.newValue),
+                    entities);
+        }
+    }
+
+    private static void addElements(Object value,
+            Set<Object> entities) {
+        if(value instanceof Collection) {
+            entities.addAll((Collection<?>)value);
+        }else if(value != null) {
+            entities.add(value);
+        }
+    }
+
+    /**
+     * Whether the mapped field of {@code inverseEntity} already references or
+     * contains the entity of {@code update}.
+     */
+    private static boolean isLinked(Object inverseEntity,
+            Update update) {
+        Object value = update.mappedField.getAccessor().get(inverseEntity);
+        if(value instanceof Collection) {
+            return ((Collection<?>)value).contains(update.entity);
+        }
+        return update.entity.equals(value);
+    }
+
+    /**
+     * Gets the change of {@code mappedField} of {@code inverseEntity}. The
+     * changes of one entity are chained since an entity rarely has more than
+     * one changed mapped field in a batch.
+     */
+    private static InverseChange getInverseChange(Map<Object, InverseChange> inverseChanges,
+            Object inverseEntity,
+            Update update) {
+        InverseChange first = inverseChanges.get(inverseEntity);
+        for(InverseChange inverseChange = first; inverseChange != null; inverseChange = inverseChange.next) {
+            if(inverseChange.mapping == update.mappedField) {
+                return inverseChange;
+            }
+        }
+        InverseChange retValue = new InverseChange(update.mappedField,
+                update.field,
+                first);
+        inverseChanges.put(inverseEntity,
+                retValue);
+        return retValue;
+    }
+
+    /**
+     * Returns {@code elements} if it supports fast membership tests and a
+     * hash set of its elements otherwise.
+     */
+    private static Collection<?> asLookup(Collection<?> elements) {
+        if(elements instanceof Set) {
+            return elements;
+        }
+        return new HashSet<>(elements);
+    }
+
+    /**
+     * Applies the batch if that hasn't happened yet and merges all owning
+     * entities and all changed entities on the inverse side in one
+     * transaction. The transaction is rolled back if merging or committing
+     * fails.
+     *
+     * @param entityManager the entity manager to use
+     */
+    public void write(EntityManager entityManager) {
+        apply();
+        merge(entityManager);
+    }
+
+    /**
+     * Applies the batch like {@link #apply(StripedEntityLocks) } if that
+     * hasn't happened yet and merges the changed entities like
+     * {@link #write(javax.persistence.EntityManager) } while holding the locks
+     * of all of them, so that other threads using the same {@code locks}
+     * can't change the merged graph before the transaction is committed. If
+     * the batch hasn't been applied yet, the locks are held from applying
+     * until committing. Entities which are only reached by cascading merges
+     * aren't locked.
+     *
+     * @param entityManager the entity manager to use
+     * @param locks the locks shared by all threads
+     */
+    public void write(EntityManager entityManager,
+            StripedEntityLocks locks) {
+        if(applied) {
+            Set<Object> entities = Collections.newSetFromMap(new IdentityHashMap<>());
+            entities.addAll(owningEntities);
+            entities.addAll(inverseEntities);
+            try (StripedEntityLocks.Held held = locks.lockAll(entities)) {
+                merge(entityManager);
+            }
+            return;
+        }
+        try (StripedEntityLocks.Held held = lockForApply(locks)) {
+            apply();
+                //the owning and inverse entities are a subset of the locked
+                //entities
+            merge(entityManager);
+        }
+    }
+
+    private void merge(EntityManager entityManager) {
+        EntityTransaction transaction = entityManager.getTransaction();
+        transaction.begin();
+        try {
+            for(Object owningEntity : owningEntities) {
+                entityManager.merge(owningEntity);
+            }
+            //merge inverse entities after new owning entities so that
+            //references to them can be resolved in the same unit of work
+            for(Object inverseEntity : inverseEntities) {
+                if(!owningEntities.contains(inverseEntity)) {
+                    entityManager.merge(inverseEntity);
+                }
+            }
+            transaction.commit();
+        }catch(RuntimeException ex) {
+            if(transaction.isActive()) {
+                transaction.rollback();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * The entities whose relationship field has been set.
+     *
+     * @return an unmodifiable view of the owning entities, empty before
+     *     {@link #apply() }
+     */
+    public Set<Object> getOwningEntities() {
+        return Collections.unmodifiableSet(owningEntities);
+    }
+
+    /**
+     * The entities whose mapped field has been changed.
+     *
+     * @return an unmodifiable view of the inverse entities, empty before
+     *     {@link #apply() }
+     */
+    public Set<Object> getInverseEntities() {
+        return Collections.unmodifiableSet(inverseEntities);
+    }
+
+    public int size() {
+        return updates.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Collection<Object> createCollection(Class<?> type) {
+        if(type.isAssignableFrom(ArrayList.class)) {
+            return new ArrayList<>();
+        }
+        if(type.isAssignableFrom(LinkedHashSet.class)) {
+            return new LinkedHashSet<>();
+        }
+        if(type.isAssignableFrom(TreeSet.class)) {
+            return new TreeSet<>();
+        }
+        throw new IllegalArgumentException(String.format("collection type %s isn't supported",
+                type.getName()));
+    }
+
+    /**
+     * Applies {@code modification} to {@code collection} which is the value of
+     * {@code mapping} of {@code entity}. If {@code collection} doesn't support
+     * the modification, e.g. because it's unmodifiable or has a fixed size, it
+     * is replaced with a modifiable copy to which the modification is applied,
+     * so that the batch doesn't fail after other entities have been changed.
+     * The modification has to be idempotent since it might be applied to a
+     * collection which has already been changed partially.
+     *
+     * @return the result of {@code modification}
+     */
+    private static boolean modify(Object entity,
+            RelationshipMapping mapping,
+            Collection<Object> collection,
+            Predicate<Collection<Object>> modification) {
+        try {
+            return modification.test(collection);
+        }catch(UnsupportedOperationException ex) {
+            Collection<Object> copy = createCollection(mapping.getCollectionType());
+            copy.addAll(collection);
+            boolean retValue = modification.test(copy);
+            mapping.getAccessor().set(entity,
+                    copy);
+            return retValue;
+        }
+    }
+
+    private static class Update {
+        private final Object entity;
+        private final RelationshipMapping field;
+        private final RelationshipMapping mappedField;
+        private final Object newValue;
+
+        Update(Object entity,
+                RelationshipMapping field,
+                RelationshipMapping mappedField,
+                Object newValue) {
+            this.entity = entity;
+            this.field = field;
+            this.mappedField = mappedField;
+            this.newValue = newValue;
+        }
+    }
+
+    /**
+     * The accumulated changes of the mapped field of one entity. Links and
+     * unlinks are held in a field as long as there's only one of them and
+     * moved to a set when a second one is added.
+     */
+    private static class InverseChange {
+        private final RelationshipMapping mapping;
+        /**
+         * The field on the other side of {@link #mapping}.
+         */
+        private final RelationshipMapping ownerMapping;
+        /**
+         * The change of another mapped field of the same entity.
+         */
+        private final InverseChange next;
+        private Object link;
+        private Set<Object> links;
+        private Object unlink;
+        private Set<Object> unlinks;
+
+        InverseChange(RelationshipMapping mapping,
+                RelationshipMapping ownerMapping,
+                InverseChange next) {
+            this.mapping = mapping;
+            this.ownerMapping = ownerMapping;
+            this.next = next;
+        }
+
+        void link(Object entity) {
+            removeUnlink(entity);
+            if(!mapping.isCollectionValued()) {
+                //the last update wins for references
+                link = entity;
+                return;
+            }
+            if(links != null) {
+                links.add(entity);
+            }else if(link == null || link.equals(entity)) {
+                link = entity;
+            }else {
+                links = new LinkedHashSet<>();
+                links.add(link);
+                links.add(entity);
+                link = null;
+            }
+        }
+
+        void unlink(Object entity) {
+            removeLink(entity);
+            if(unlinks != null) {
+                unlinks.add(entity);
+            }else if(unlink == null || unlink.equals(entity)) {
+                unlink = entity;
+            }else {
+                unlinks = new HashSet<>();
+                unlinks.add(unlink);
+                unlinks.add(entity);
+                unlink = null;
+            }
+        }
+
+        private void removeLink(Object entity) {
+            if(links != null) {
+                links.remove(entity);
+            }else if(entity.equals(link)) {
+                link = null;
+            }
+        }
+
+        private void removeUnlink(Object entity) {
+            if(unlinks != null) {
+                unlinks.remove(entity);
+            }else if(entity.equals(unlink)) {
+                unlink = null;
+            }
+        }
+
+        private boolean isUnlinked(Object entity) {
+            return unlinks != null
+                    ? unlinks.contains(entity)
+                    : entity.equals(unlink);
+        }
+
+        /**
+         * Applies the links and unlinks to {@code inverseEntity}.
+         *
+         * @return the entity which referenced {@code inverseEntity} through
+         *     {@link #ownerMapping} before and from which it has been removed
+         *     because {@link #mapping} is a reference which now references
+         *     another entity, or {@code null} if there's no such entity
+         */
+        @SuppressWarnings("unchecked")
+        Object applyTo(Object inverseEntity) {
+            FieldAccessor accessor = mapping.getAccessor();
+            Object value = accessor.get(inverseEntity);
+            if(mapping.isCollectionValued()) {
+                Collection<Object> collection = (Collection<Object>) value;
+                if(collection == null) {
+                    collection = createCollection(mapping.getCollectionType());
+                    accessor.set(inverseEntity,
+                            collection);
+                }
+                modify(inverseEntity,
+                        mapping,
+                        collection,
+                        this::applyToCollection);
+            }else if(link != null) {
+                accessor.set(inverseEntity,
+                        link);
+                if(value != null
+                        && !value.equals(link)
+                        && removeFromPreviousOwner(value,
+                                inverseEntity)) {
+                    return value;
+                }
+            }else if(value != null && isUnlinked(value)) {
+                accessor.set(inverseEntity,
+                        null);
+            }
+            return null;
+        }
+
+        private boolean applyToCollection(Collection<Object> collection) {
+            if(unlinks != null) {
+                collection.removeIf(unlinks::contains);
+            }else if(unlink != null) {
+                collection.remove(unlink);
+            }
+            if(links == null) {
+                if(link != null && !collection.contains(link)) {
+                    collection.add(link);
+                }
+            }else {
+                Collection<Object> existing = collection instanceof Set
+                        ? collection
+                        : new HashSet<>(collection);
+                for(Object link : links) {
+                    if(!existing.contains(link)) {
+                        collection.add(link);
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Removes {@code inverseEntity} from {@code previousOwner}, so that
+         * e.g. moving an entity on the many side of a one-to-many
+         * relationship to another owner doesn't leave it in the collection of
+         * the previous one.
+         *
+         * @return {@code true} if {@code previousOwner} has been changed
+         */
+        @SuppressWarnings("unchecked")
+        private boolean removeFromPreviousOwner(Object previousOwner,
+                Object inverseEntity) {
+            if(!ownerMapping.getField().getDeclaringClass().isInstance(previousOwner)) {
+                return false;
+            }
+            FieldAccessor ownerAccessor = ownerMapping.getAccessor();
+            Object ownerValue = ownerAccessor.get(previousOwner);
+            if(ownerMapping.isCollectionValued()) {
+                return ownerValue != null
+                        && modify(previousOwner,
+                                ownerMapping,
+                                (Collection<Object>)ownerValue,
+                                (collection) -> collection.remove(inverseEntity));
+            }
+            if(inverseEntity.equals(ownerValue)) {
+                ownerAccessor.set(previousOwner,
+                        null);
+                return true;
+            }
+            return false;
+        }
+    }
+}
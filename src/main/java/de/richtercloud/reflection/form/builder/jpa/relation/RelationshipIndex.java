@@ -0,0 +1,227 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.relation;
+
+import de.richtercloud.reflection.form.builder.jpa.accessor.FieldAccessors;
+import de.richtercloud.reflection.form.builder.jpa.metadata.EntityMetadata;
+import de.richtercloud.reflection.form.builder.jpa.metadata.RelationshipDescriptor;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable index of the relationship fields of a set of entity classes
+ * which is built once when the entity classes are known, e.g. at storage
+ * start, so that updating relationships is a lookup and a write and never
+ * inspects annotations. Map-valued relationships aren't indexed.
+ *
+ * The index is built from {@link EntityMetadata} which is either scanned at
+ * runtime or generated at build time, so that only fields are looked up by
+ * name and accessors are created. {@link #getInstance(java.util.Set) } uses
+ * the generated metadata if it describes exactly the requested entity
+ * classes.
+ *
+ * @author richter
+ */
+public final class RelationshipIndex {
+    private final static Map<Set<Class<?>>, RelationshipIndex> INSTANCES = new HashMap<>();
+    private final Set<Class<?>> entityClasses;
+    private final Map<Field, RelationshipMapping> mappings;
+
+    /**
+     * Gets the index for {@code entityClasses} and builds it from the
+     * metadata returned by
+     * {@link EntityMetadata#getInstance(java.util.Collection, java.lang.ClassLoader) }
+     * if it doesn't exist yet.
+     *
+     * @param entityClasses the entity classes
+     * @return the index
+     * @throws IOException if an I/O exception occurs during reading of the
+     *     metadata generated at build time
+     * @throws IllegalAccessException if an accessor for a relationship field
+     *     can't be created
+     */
+    public static RelationshipIndex getInstance(Set<Class<?>> entityClasses) throws IOException,
+            IllegalAccessException {
+        synchronized(INSTANCES) {
+            RelationshipIndex retValue = INSTANCES.get(entityClasses);
+            if(retValue == null) {
+                retValue = new RelationshipIndex(entityClasses,
+                        EntityMetadata.getInstance(entityClasses,
+                                RelationshipIndex.class.getClassLoader()));
+                INSTANCES.put(retValue.entityClasses,
+                        retValue);
+            }
+            return retValue;
+        }
+    }
+
+    /**
+     * Gets the index for the entity classes of {@code entityMetadata} and
+     * builds it from {@code entityMetadata} if it doesn't exist yet. The
+     * caller is responsible for checking that {@code entityMetadata} is up to
+     * date, e.g. by comparing its checksum.
+     *
+     * @param entityMetadata the metadata, usually generated at build time
+     * @param classLoader the class loader to load entity classes with
+     * @return the index
+     * @throws ClassNotFoundException if an entity class of
+     *     {@code entityMetadata} doesn't exist
+     * @throws IllegalAccessException if an accessor for a relationship field
+     *     can't be created
+     */
+    public static RelationshipIndex getInstance(EntityMetadata entityMetadata,
+            ClassLoader classLoader) throws ClassNotFoundException,
+            IllegalAccessException {
+        Set<Class<?>> entityClasses = entityMetadata.loadEntityClasses(classLoader);
+        synchronized(INSTANCES) {
+            RelationshipIndex retValue = INSTANCES.get(entityClasses);
+            if(retValue == null) {
+                retValue = new RelationshipIndex(entityClasses,
+                        entityMetadata);
+                INSTANCES.put(retValue.entityClasses,
+                        retValue);
+            }
+            return retValue;
+        }
+    }
+
+    /**
+     * Builds a new index which isn't cached, e.g. to measure the time it
+     * takes.
+     *
+     * @param entityMetadata the metadata
+     * @param classLoader the class loader to load entity classes with
+     * @return the new index
+     * @throws ClassNotFoundException if an entity class of
+     *     {@code entityMetadata} doesn't exist
+     * @throws IllegalAccessException if an accessor for a relationship field
+     *     can't be created
+     */
+    public static RelationshipIndex build(EntityMetadata entityMetadata,
+            ClassLoader classLoader) throws ClassNotFoundException,
+            IllegalAccessException {
+        return new RelationshipIndex(entityMetadata.loadEntityClasses(classLoader),
+                entityMetadata);
+    }
+
+    private RelationshipIndex(Set<Class<?>> entityClasses,
+            EntityMetadata entityMetadata) throws IllegalAccessException {
+        this.entityClasses = Collections.unmodifiableSet(new HashSet<>(entityClasses));
+        Map<String, Class<?>> classes = new HashMap<>();
+        for(Class<?> entityClass : entityClasses) {
+            classes.put(entityClass.getName(),
+                    entityClass);
+        }
+        Map<Field, RelationshipMapping> mappings = new HashMap<>();
+        for(RelationshipDescriptor descriptor : entityMetadata.getRelationships()) {
+            Class<?> entityClass = classes.get(descriptor.getEntityClassName());
+            if(entityClass == null) {
+                //declared in a superclass of an indexed entity class
+                entityClass = loadClass(entityClasses.iterator().next(),
+                        descriptor.getEntityClassName());
+            }
+            Field field = getField(entityClass,
+                    descriptor.getFieldName());
+            Class<?> targetEntityClass = descriptor.getTargetEntityClassName() == null
+                    ? null
+                    : loadClass(entityClass,
+                            descriptor.getTargetEntityClassName());
+            Field inverseField = descriptor.getInverseFieldName() == null
+                    ? null
+                    : getField(targetEntityClass,
+                            descriptor.getInverseFieldName());
+            mappings.put(field,
+                    new RelationshipMapping(field,
+                            FieldAccessors.get(field),
+                            descriptor.getCardinality(),
+                            targetEntityClass,
+                            descriptor.getCollectionTypeName() == null
+                                    ? null
+                                    : loadClass(entityClass,
+                                            descriptor.getCollectionTypeName()),
+                            descriptor.isOwningSide(),
+                            inverseField));
+        }
+        this.mappings = Collections.unmodifiableMap(mappings);
+    }
+
+    private static Class<?> loadClass(Class<?> entityClass,
+            String className) {
+        try {
+            return Class.forName(className,
+                    false,
+                    entityClass.getClassLoader());
+        } catch (ClassNotFoundException ex) {
+            throw new IllegalArgumentException(String.format("class %s referenced by relationship metadata of %s doesn't exist",
+                    className,
+                    entityClass.getName()),
+                    ex);
+        }
+    }
+
+    private static Field getField(Class<?> clazz,
+            String fieldName) {
+        Field retValue = EntityMetadata.findField(clazz,
+                fieldName);
+        if(retValue == null) {
+            throw new IllegalArgumentException(String.format("field '%s' referenced by relationship metadata doesn't exist in %s",
+                    fieldName,
+                    clazz.getName()));
+        }
+        return retValue;
+    }
+
+    /**
+     * Gets the mapping of {@code field}.
+     *
+     * @param field the field
+     * @return the mapping
+     * @throws IllegalArgumentException if {@code field} isn't a relationship
+     *     field of one of the indexed entity classes
+     */
+    public RelationshipMapping getMapping(Field field) {
+        RelationshipMapping retValue = mappings.get(field);
+        if(retValue == null) {
+            throw new IllegalArgumentException(String.format("field %s isn't an indexed relationship field",
+                    field));
+        }
+        return retValue;
+    }
+
+    /**
+     * Gets the mapping of {@code field}.
+     *
+     * @param field the field
+     * @return the mapping or {@code null} if {@code field} isn't an indexed
+     *     relationship field
+     */
+    public RelationshipMapping findMapping(Field field) {
+        return mappings.get(field);
+    }
+
+    public Set<Class<?>> getEntityClasses() {
+        return entityClasses;
+    }
+
+    public Collection<RelationshipMapping> getMappings() {
+        return mappings.values();
+    }
+}
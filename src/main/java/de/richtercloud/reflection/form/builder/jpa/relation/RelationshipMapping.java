@@ -0,0 +1,117 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.relation;
+
+import de.richtercloud.reflection.form.builder.jpa.accessor.FieldAccessor;
+import de.richtercloud.reflection.form.builder.jpa.metadata.Cardinality;
+import java.lang.reflect.Field;
+
+/**
+ * The relationship information of one field which has been derived from its
+ * JPA annotations by {@link RelationshipIndex}. Immutable.
+ *
+ * @author richter
+ */
+public final class RelationshipMapping {
+    private final Field field;
+    private final FieldAccessor accessor;
+    private final Cardinality cardinality;
+    private final Class<?> targetEntityClass;
+    private final Class<?> collectionType;
+    private final boolean owningSide;
+    private final Field inverseField;
+
+    RelationshipMapping(Field field,
+            FieldAccessor accessor,
+            Cardinality cardinality,
+            Class<?> targetEntityClass,
+            Class<?> collectionType,
+            boolean owningSide,
+            Field inverseField) {
+        this.field = field;
+        this.accessor = accessor;
+        this.cardinality = cardinality;
+        this.targetEntityClass = targetEntityClass;
+        this.collectionType = collectionType;
+        this.owningSide = owningSide;
+        this.inverseField = inverseField;
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public FieldAccessor getAccessor() {
+        return accessor;
+    }
+
+    public Cardinality getCardinality() {
+        return cardinality;
+    }
+
+    /**
+     * The entity class on the other side of the relationship.
+     *
+     * @return the target entity class
+     */
+    public Class<?> getTargetEntityClass() {
+        return targetEntityClass;
+    }
+
+    /**
+     * The declared collection type of the field.
+     *
+     * @return the collection type or {@code null} if the field references a
+     *     single entity
+     */
+    public Class<?> getCollectionType() {
+        return collectionType;
+    }
+
+    public boolean isCollectionValued() {
+        return collectionType != null;
+    }
+
+    /**
+     * Whether the field is the owning side of the relationship, i.e. doesn't
+     * specify {@code mappedBy}. Both fields of a relationship are owning if
+     * none of them specifies {@code mappedBy}.
+     *
+     * @return {@code true} if the field is an owning side
+     */
+    public boolean isOwningSide() {
+        return owningSide;
+    }
+
+    /**
+     * The field on the other side of the relationship if it's declared with
+     * {@code mappedBy} on either side.
+     *
+     * @return the inverse field or {@code null} if the relationship isn't
+     *     declared bidirectional
+     */
+    public Field getInverseField() {
+        return inverseField;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s.%s (%s, %s)",
+                field.getDeclaringClass().getSimpleName(),
+                field.getName(),
+                cardinality,
+                owningSide ? "owning" : "inverse");
+    }
+}
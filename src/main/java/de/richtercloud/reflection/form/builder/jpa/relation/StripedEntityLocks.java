@@ -0,0 +1,170 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.relation;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed number of locks which guard entity instances, so that threads
+ * changing relationships of the same entities in memory, e.g. a background
+ * import and the UI, don't interleave. Entities are mapped to a lock by
+ * identity since the in-memory state of an instance is guarded, so that
+ * entities without an ID can be locked as well. Different entities may share
+ * a lock.
+ *
+ * {@link #lockAll(java.util.Collection) } acquires the locks of several
+ * entities in ascending order of the lock index on every thread, so that
+ * threads locking both sides of a bidirectional relationship in different
+ * order can't deadlock.
+ *
+ * @author richter
+ */
+public final class StripedEntityLocks {
+    public final static int STRIPE_COUNT_DEFAULT = 64;
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    public StripedEntityLocks() {
+        this(STRIPE_COUNT_DEFAULT);
+    }
+
+    /**
+     * Creates a new {@code StripedEntityLocks}.
+     *
+     * @param stripeCount the minimum number of locks which is rounded up to
+     *     the next power of two
+     */
+    public StripedEntityLocks(int stripeCount) {
+        if(stripeCount <= 0) {
+            throw new IllegalArgumentException("stripeCount has to be greater than 0");
+        }
+        if(stripeCount > 1<<30) {
+            throw new IllegalArgumentException(String.format("stripeCount mustn't be greater than %d",
+                    1<<30));
+        }
+        int size = Integer.highestOneBit(stripeCount);
+        if(size < stripeCount) {
+            size <<= 1;
+        }
+        this.stripes = new ReentrantLock[size];
+        for(int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = size-1;
+    }
+
+    /**
+     * Gets the index of the lock which guards {@code entity}.
+     *
+     * @param entity the entity
+     * @return the lock index
+     */
+    public int getStripe(Object entity) {
+        int hash = System.identityHashCode(entity);
+        //spread the higher bits since the mask only uses the lower ones
+        return (hash^hash>>>16)&mask;
+    }
+
+    /**
+     * Acquires the locks of all {@code entities} in ascending order of their
+     * index and blocks until all are held.
+     *
+     * @param entities the entities to lock
+     * @return the held locks which have to be released with
+     *     {@link Held#close() }
+     */
+    public Held lockAll(Collection<?> entities) {
+        BitSet indices = new BitSet(stripes.length);
+        for(Object entity : entities) {
+            indices.set(getStripe(entity));
+        }
+        int locked = -1;
+        try {
+            for(int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i+1)) {
+                stripes[i].lock();
+                locked = i;
+            }
+        }catch(RuntimeException | Error ex) {
+            //e.g. an Error thrown if the maximum hold count is exceeded
+            unlock(indices,
+                    locked);
+            throw ex;
+        }
+        return new Held(indices);
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Releases the locks with indices in {@code indices} up to and including
+     * {@code last} in descending order.
+     */
+    private void unlock(BitSet indices,
+            int last) {
+        for(int i = last; i >= 0; i = indices.previousSetBit(i-1)) {
+            stripes[i].unlock();
+        }
+    }
+
+    /**
+     * Locks held by the current thread after
+     * {@link StripedEntityLocks#lockAll(java.util.Collection) }. Not
+     * thread-safe.
+     */
+    public final class Held implements AutoCloseable {
+        private final BitSet indices;
+        private boolean closed;
+
+        private Held(BitSet indices) {
+            this.indices = indices;
+        }
+
+        /**
+         * Whether the held locks guard all {@code entities}.
+         *
+         * @param entities the entities
+         * @return {@code true} if the locks of all {@code entities} are held
+         */
+        public boolean covers(Collection<?> entities) {
+            if(closed) {
+                return false;
+            }
+            for(Object entity : entities) {
+                if(!indices.get(getStripe(entity))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Releases the locks. Calling this method more than once has no
+         * effect.
+         */
+        @Override
+        public void close() {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            unlock(indices,
+                    indices.length()-1);
+        }
+    }
+}
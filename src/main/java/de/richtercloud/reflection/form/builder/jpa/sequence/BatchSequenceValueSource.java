@@ -0,0 +1,37 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.sequence;
+
+/**
+ * A {@link SequenceValueSource} which can provide a block of values at once.
+ *
+ * @author richter
+ */
+public interface BatchSequenceValueSource extends SequenceValueSource {
+
+    /**
+     * Gets {@code count} values of the sequence {@code sequenceName}. The
+     * values are unique, but not necessarily contiguous.
+     *
+     * @param sequenceName the name of the sequence
+     * @param count the number of values to get
+     * @return an array of length {@code count} containing the values in
+     *     ascending order
+     * @throws SequenceManagementException if an exception occurs while
+     *     getting values from the database
+     */
+    long[] getNextSequenceValues(String sequenceName,
+            int count) throws SequenceManagementException;
+}
@@ -0,0 +1,296 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.sequence;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link BatchSequenceValueSource} which allocates values in blocks using
+ * the hi/lo algorithm: every value {@code hi} of the underlying sequence is
+ * mapped to the block {@code [hi * blockSize, (hi + 1) * blockSize)}, so that
+ * only one database round trip is necessary per block.
+ *
+ * Values are handed out from the current block with lock-free increments. As
+ * soon as the remaining values of the current block fall below the refill
+ * threshold, the next block is fetched asynchronously, so that callers
+ * usually don't wait for the database when a block is exhausted.
+ *
+ * Values which have been fetched, but not handed out before the instance is
+ * closed are lost, so that restarts leave a gap of at most the remaining
+ * values of the current block and the prefetched block, i.e. at most
+ * {@code blockSize + refillThreshold} values. The next block is only
+ * prefetched for the current block, so that there's never more than one block
+ * ahead of it. The underlying sequence mustn't be used by anything other than
+ * instances of this class.
+ *
+ * @author richter
+ */
+public class HiLoSequenceValueSource implements BatchSequenceValueSource, AutoCloseable {
+    private final SequenceValueSource delegate;
+    private final int blockSize;
+    private final int refillThreshold;
+    private final Executor refillExecutor;
+    /**
+     * The executor created by this instance which needs to be shut down in
+     * {@link #close() } or {@code null} if the executor has been passed to the
+     * constructor.
+     */
+    private final ExecutorService ownedRefillExecutor;
+    private final Map<String, SequenceBlocks> sequenceBlocks = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * Creates a new {@code HiLoSequenceValueSource} which refills blocks with
+     * a daemon thread created by this instance and shut down in
+     * {@link #close() }.
+     *
+     * @param delegate the source of the underlying sequence
+     * @param blockSize the number of values per block
+     */
+    public HiLoSequenceValueSource(SequenceValueSource delegate,
+            int blockSize) {
+        this(delegate,
+                blockSize,
+                blockSize/4,
+                null);
+    }
+
+    /**
+     * Creates a new {@code HiLoSequenceValueSource}.
+     *
+     * @param delegate the source of the underlying sequence
+     * @param blockSize the number of values per block
+     * @param refillThreshold the number of remaining values in the current
+     *     block below which the next block is fetched asynchronously
+     * @param refillExecutor the executor to fetch blocks with or {@code null}
+     *     to let this instance create one
+     */
+    public HiLoSequenceValueSource(SequenceValueSource delegate,
+            int blockSize,
+            int refillThreshold,
+            Executor refillExecutor) {
+        if(delegate == null) {
+            throw new IllegalArgumentException("delegate mustn't be null");
+        }
+        if(blockSize < 1) {
+            throw new IllegalArgumentException("blockSize has to be greater than 0");
+        }
+        if(refillThreshold < 0 || refillThreshold >= blockSize) {
+            throw new IllegalArgumentException("refillThreshold has to be greater than or equal to 0 and less than blockSize");
+        }
+        this.delegate = delegate;
+        this.blockSize = blockSize;
+        this.refillThreshold = refillThreshold;
+        if(refillExecutor != null) {
+            this.refillExecutor = refillExecutor;
+            this.ownedRefillExecutor = null;
+        }else {
+            this.ownedRefillExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable,
+                        String.format("%s-refill",
+                                HiLoSequenceValueSource.class.getSimpleName()));
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.refillExecutor = ownedRefillExecutor;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws SequenceManagementException if this instance has been closed
+     *     or the underlying sequence fails
+     */
+    @Override
+    public long getNextSequenceValue(String sequenceName) throws SequenceManagementException {
+        SequenceBlocks blocks = getSequenceBlocks(sequenceName);
+        while(true) {
+            Block block = blocks.current;
+            if(block != null) {
+                long value = block.next.getAndIncrement();
+                if(value < block.end) {
+                    if(block.end-value <= refillThreshold) {
+                        blocks.prefetch(block);
+                    }
+                    return value;
+                }
+            }
+            blocks.advance(block);
+        }
+    }
+
+    @Override
+    public long[] getNextSequenceValues(String sequenceName,
+            int count) throws SequenceManagementException {
+        if(count < 0) {
+            throw new IllegalArgumentException("count mustn't be negative");
+        }
+        long[] retValue = new long[count];
+        SequenceBlocks blocks = getSequenceBlocks(sequenceName);
+        int filled = 0;
+        while(filled < count) {
+            Block block = blocks.current;
+            if(block != null) {
+                int requested = count-filled;
+                long start = block.next.getAndAdd(requested);
+                if(start < block.end) {
+                    long taken = Math.min(requested,
+                            block.end-start);
+                    for(long value = start; value < start+taken; value++) {
+                        retValue[filled++] = value;
+                    }
+                    if(block.end-(start+taken) <= refillThreshold) {
+                        blocks.prefetch(block);
+                    }
+                    continue;
+                }
+            }
+            blocks.advance(block);
+        }
+        return retValue;
+    }
+
+    private SequenceBlocks getSequenceBlocks(String sequenceName) throws SequenceManagementException {
+        checkNotClosed();
+        return sequenceBlocks.computeIfAbsent(sequenceName,
+                SequenceBlocks::new);
+    }
+
+    private void checkNotClosed() throws SequenceManagementException {
+        if(closed) {
+            throw new SequenceManagementException(String.format("%s has been closed",
+                    HiLoSequenceValueSource.class.getSimpleName()));
+        }
+    }
+
+    /**
+     * Rejects further requests and shuts down the refill executor if it has
+     * been created by this instance. Prefetched blocks are discarded.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if(ownedRefillExecutor != null) {
+            ownedRefillExecutor.shutdownNow();
+        }
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    private static class Block {
+        private final AtomicLong next;
+        private final long end;
+        private final AtomicBoolean prefetchTriggered = new AtomicBoolean(false);
+
+        Block(long start,
+                long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    private class SequenceBlocks {
+        private final String sequenceName;
+        private volatile Block current;
+        /**
+         * The asynchronously fetched next block or {@code null} if no fetch is
+         * pending. Guarded by {@code this}.
+         */
+        private CompletableFuture<Block> prefetched;
+
+        SequenceBlocks(String sequenceName) {
+            this.sequenceName = sequenceName;
+        }
+
+        /**
+         * Triggers the asynchronous fetch of the block following
+         * {@code block} unless it has been triggered before or {@code block}
+         * has already been replaced by {@link #advance(Block) } in which case
+         * the fetch would take a second block ahead of the current one.
+         */
+        void prefetch(Block block) throws SequenceManagementException {
+            if(block.prefetchTriggered.get()) {
+                return;
+            }
+            synchronized(this) {
+                if(block != current
+                        || prefetched != null
+                        || !block.prefetchTriggered.compareAndSet(false, true)) {
+                    return;
+                }
+                checkNotClosed();
+                try {
+                    prefetched = CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return fetchBlock();
+                        } catch (SequenceManagementException ex) {
+                            throw new CompletionException(ex);
+                        }
+                    },
+                            refillExecutor);
+                }catch(RejectedExecutionException ex) {
+                    //the refill executor has been shut down by close or by
+                    //the caller who passed it
+                    throw new SequenceManagementException(ex);
+                }
+            }
+        }
+
+        /**
+         * Replaces {@code exhausted} with the prefetched block or a
+         * synchronously fetched one unless another thread did so already.
+         */
+        synchronized void advance(Block exhausted) throws SequenceManagementException {
+            if(current != exhausted) {
+                return;
+            }
+            CompletableFuture<Block> pending = prefetched;
+            prefetched = null;
+            if(pending == null) {
+                current = fetchBlock();
+                return;
+            }
+            try {
+                current = pending.join();
+            }catch(CompletionException ex) {
+                Throwable cause = ex.getCause();
+                if(cause instanceof SequenceManagementException) {
+                    throw (SequenceManagementException)cause;
+                }
+                throw ex;
+            }
+        }
+
+        private Block fetchBlock() throws SequenceManagementException {
+            long hi = delegate.getNextSequenceValue(sequenceName);
+            long start = Math.multiplyExact(hi,
+                    (long)blockSize);
+            return new Block(start,
+                    start+blockSize);
+        }
+    }
+}
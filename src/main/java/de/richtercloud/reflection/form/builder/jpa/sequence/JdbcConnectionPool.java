@@ -0,0 +1,318 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.sequence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of JDBC connections in auto-commit mode which caches
+ * prepared statements per connection, so that frequent small statements like
+ * fetching sequence values don't pay for connection setup and statement
+ * parsing on every call. Connections are created lazily up to
+ * {@code maximumSize} and handed out last in, first out, so that few
+ * connections with warm statement caches are used under low load.
+ *
+ * A connection on which an {@link SQLException} occurred should be
+ * {@link PooledConnection#discard() discarded}, so that it's closed instead
+ * of being returned to the pool.
+ *
+ * @author richter
+ */
+public class JdbcConnectionPool implements AutoCloseable {
+    private final static Logger LOGGER = LoggerFactory.getLogger(JdbcConnectionPool.class);
+    public final static int STATEMENT_CACHE_SIZE_DEFAULT = 32;
+    public final static long BORROW_TIMEOUT_MILLIS_DEFAULT = 30000;
+    private final ConnectionFactory connectionFactory;
+    private final int maximumSize;
+    private final int statementCacheSize;
+    private final long borrowTimeoutMillis;
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final Set<PooledConnection> connections = ConcurrentHashMap.newKeySet();
+    private final LongAdder createdConnectionCount = new LongAdder();
+    private final LongAdder preparedStatementCount = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Creates physical connections of a {@link JdbcConnectionPool}, e.g.
+     * with {@link java.sql.DriverManager#getConnection(java.lang.String, java.lang.String, java.lang.String) }.
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+
+        Connection createConnection() throws SQLException;
+    }
+
+    public JdbcConnectionPool(ConnectionFactory connectionFactory,
+            int maximumSize) {
+        this(connectionFactory,
+                maximumSize,
+                STATEMENT_CACHE_SIZE_DEFAULT,
+                BORROW_TIMEOUT_MILLIS_DEFAULT);
+    }
+
+    /**
+     * Creates a new {@code JdbcConnectionPool}.
+     *
+     * @param connectionFactory the factory of physical connections
+     * @param maximumSize the maximum number of connections
+     * @param statementCacheSize the maximum number of cached prepared
+     *     statements per connection, the least recently used statement is
+     *     closed if it's exceeded
+     * @param borrowTimeoutMillis the time to wait for a connection if all
+     *     are borrowed
+     */
+    public JdbcConnectionPool(ConnectionFactory connectionFactory,
+            int maximumSize,
+            int statementCacheSize,
+            long borrowTimeoutMillis) {
+        if(connectionFactory == null) {
+            throw new IllegalArgumentException("connectionFactory mustn't be null");
+        }
+        if(maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize has to be greater than 0");
+        }
+        if(statementCacheSize <= 0) {
+            throw new IllegalArgumentException("statementCacheSize has to be greater than 0");
+        }
+        if(borrowTimeoutMillis < 0) {
+            throw new IllegalArgumentException("borrowTimeoutMillis mustn't be negative");
+        }
+        this.connectionFactory = connectionFactory;
+        this.maximumSize = maximumSize;
+        this.statementCacheSize = statementCacheSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.permits = new Semaphore(maximumSize,
+                true //fair
+        );
+    }
+
+    /**
+     * Borrows an idle connection or creates a new one if less than
+     * {@code maximumSize} connections exist. Waits up to
+     * {@code borrowTimeoutMillis} if all connections are borrowed.
+     *
+     * @return the borrowed connection which has to be returned with
+     *     {@link PooledConnection#close() }
+     * @throws SQLException if the pool is closed, creating a connection
+     *     fails, the timeout elapses or the current thread is interrupted
+     */
+    public PooledConnection borrow() throws SQLException {
+        if(closed) {
+            throw new SQLException("pool is closed");
+        }
+        try {
+            if(!permits.tryAcquire(borrowTimeoutMillis,
+                    TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException(String.format("no connection available within %d ms, all %d connections are borrowed",
+                        borrowTimeoutMillis,
+                        maximumSize));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a connection",
+                    ex);
+        }
+        PooledConnection retValue = idle.pollFirst();
+        if(retValue != null) {
+            retValue.borrowed = true;
+            return retValue;
+        }
+        try {
+            Connection connection = connectionFactory.createConnection();
+            connection.setAutoCommit(true);
+            retValue = new PooledConnection(connection);
+        }catch(SQLException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+        createdConnectionCount.increment();
+        connections.add(retValue);
+        if(closed) {
+            //close might have missed the new connection
+            retValue.discard();
+            retValue.close();
+            throw new SQLException("pool is closed");
+        }
+        return retValue;
+    }
+
+    private void release(PooledConnection connection) {
+        if(connection.discarded || closed) {
+            connections.remove(connection);
+            connection.closePhysically();
+        }else {
+            idle.offerFirst(connection);
+        }
+        permits.release();
+    }
+
+    /**
+     * Closes all idle connections and every borrowed connection when it's
+     * returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection connection;
+        while((connection = idle.pollFirst()) != null) {
+            connections.remove(connection);
+            connection.closePhysically();
+        }
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * The number of physical connections created since the pool has been
+     * created.
+     *
+     * @return the created connection count
+     */
+    public long getCreatedConnectionCount() {
+        return createdConnectionCount.sum();
+    }
+
+    /**
+     * The number of statements prepared on physical connections since the
+     * pool has been created. Cache hits aren't counted.
+     *
+     * @return the prepared statement count
+     */
+    public long getPreparedStatementCount() {
+        return preparedStatementCount.sum();
+    }
+
+    /**
+     * A borrowed connection. Not thread-safe since it's used by one thread
+     * between {@link JdbcConnectionPool#borrow() } and {@link #close() }.
+     */
+    public final class PooledConnection implements AutoCloseable {
+        private final Connection connection;
+        /**
+         * The prepared statements by SQL in access order.
+         */
+        private final Map<String, PreparedStatement> statements;
+        private boolean discarded;
+        private boolean borrowed = true;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(16,
+                    0.75f,
+                    true //accessOrder
+            ) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if(size() <= statementCacheSize) {
+                        return false;
+                    }
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * Gets the cached prepared statement for {@code sql} or prepares it.
+         * The statement mustn't be closed by the caller.
+         *
+         * @param sql the SQL
+         * @return the prepared statement
+         * @throws SQLException if preparing the statement fails
+         */
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            PreparedStatement retValue = statements.get(sql);
+            if(retValue == null) {
+                retValue = connection.prepareStatement(sql);
+                preparedStatementCount.increment();
+                statements.put(sql,
+                        retValue);
+            }
+            return retValue;
+        }
+
+        /**
+         * The physical connection for statements which aren't cached. It
+         * mustn't be closed by the caller.
+         *
+         * @return the physical connection
+         */
+        public Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Closes the physical connection when this connection is returned
+         * instead of returning it to the pool.
+         */
+        public void discard() {
+            discarded = true;
+        }
+
+        /**
+         * Returns this connection to the pool. Calling this method more than
+         * once has no effect.
+         */
+        @Override
+        public void close() {
+            if(!borrowed) {
+                return;
+            }
+            borrowed = false;
+            release(this);
+        }
+
+        private void closePhysically() {
+            for(PreparedStatement statement : statements.values()) {
+                closeQuietly(statement);
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                LOGGER.warn("closing pooled connection failed",
+                        ex);
+            }
+        }
+
+        private void closeQuietly(PreparedStatement statement) {
+            try {
+                statement.close();
+            } catch (SQLException ex) {
+                LOGGER.warn("closing cached prepared statement failed",
+                        ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.sequence;
+
+import java.sql.SQLException;
+
+/**
+ * A {@link BatchSequenceValueSource} which increments sequences with plain
+ * JDBC on connections of a {@link JdbcConnectionPool}, so that getting a value
+ * only costs one or two executions of cached prepared statements instead of
+ * setting up a connection and parsing a statement. Thread-safe.
+ *
+ * @author richter
+ */
+public class PooledJdbcSequenceValueSource implements BatchSequenceValueSource, AutoCloseable {
+    private final JdbcConnectionPool connectionPool;
+    private final SequenceDialect dialect;
+
+    /**
+     * Creates a new {@code PooledJdbcSequenceValueSource}.
+     *
+     * @param connectionPool the pool which is closed in {@link #close() }
+     * @param dialect the dialect of the database of {@code connectionPool}
+     */
+    public PooledJdbcSequenceValueSource(JdbcConnectionPool connectionPool,
+            SequenceDialect dialect) {
+        if(connectionPool == null) {
+            throw new IllegalArgumentException("connectionPool mustn't be null");
+        }
+        if(dialect == null) {
+            throw new IllegalArgumentException("dialect mustn't be null");
+        }
+        this.connectionPool = connectionPool;
+        this.dialect = dialect;
+    }
+
+    /**
+     * Creates the sequence {@code sequenceName} starting with {@code 1}.
+     *
+     * @param sequenceName the name of the sequence
+     * @throws SequenceManagementException if an SQL exception occurs
+     */
+    public void createSequence(String sequenceName) throws SequenceManagementException {
+        try (JdbcConnectionPool.PooledConnection connection = connectionPool.borrow()) {
+            try {
+                dialect.createSequence(connection.getConnection(),
+                        sequenceName);
+            }catch(SQLException ex) {
+                connection.discard();
+                throw ex;
+            }
+        } catch (SQLException ex) {
+            throw new SequenceManagementException(ex);
+        }
+    }
+
+    @Override
+    public long getNextSequenceValue(String sequenceName) throws SequenceManagementException {
+        try (JdbcConnectionPool.PooledConnection connection = connectionPool.borrow()) {
+            try {
+                return dialect.nextValue(connection,
+                        sequenceName);
+            }catch(SQLException ex) {
+                connection.discard();
+                throw ex;
+            }
+        } catch (SQLException ex) {
+            throw new SequenceManagementException(ex);
+        }
+    }
+
+    /**
+     * Gets {@code count} values with one borrowed connection.
+     *
+     * @param sequenceName the name of the sequence
+     * @param count the number of values to get
+     * @return the values in ascending order
+     * @throws SequenceManagementException if an SQL exception occurs
+     */
+    @Override
+    public long[] getNextSequenceValues(String sequenceName,
+            int count) throws SequenceManagementException {
+        if(count < 0) {
+            throw new IllegalArgumentException("count mustn't be negative");
+        }
+        long[] retValue = new long[count];
+        if(count == 0) {
+            return retValue;
+        }
+        try (JdbcConnectionPool.PooledConnection connection = connectionPool.borrow()) {
+            try {
+                for(int i = 0; i < count; i++) {
+                    retValue[i] = dialect.nextValue(connection,
+                            sequenceName);
+                }
+            }catch(SQLException ex) {
+                connection.discard();
+                throw ex;
+            }
+        } catch (SQLException ex) {
+            throw new SequenceManagementException(ex);
+        }
+        return retValue;
+    }
+
+    /**
+     * Closes the connection pool.
+     */
+    @Override
+    public void close() {
+        connectionPool.close();
+    }
+
+    public JdbcConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    public SequenceDialect getDialect() {
+        return dialect;
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.sequence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The SQL of creating and incrementing sequences in the databases supported by
+ * {@link PooledJdbcSequenceValueSource}. Sequence names are quoted, so that
+ * names which aren't valid unquoted identifiers like {@code with-minus} are
+ * supported.
+ *
+ * Sequences created with a dialect are only meant to be incremented with the
+ * same dialect and aren't interchangeable with those of
+ * {@link DerbySequenceManager}, {@link PostgresqlSequenceManager} and
+ * {@link MySQLSequenceManager}: quoting makes names case-sensitive whereas
+ * the managers might fold them, and the table emulating a MySQL sequence has
+ * a layout which is specific to {@link #MYSQL}. A sequence therefore has to be
+ * created and used either through a {@link PooledJdbcSequenceValueSource} or
+ * through a sequence manager, not both.
+ *
+ * @author richter
+ */
+public enum SequenceDialect {
+    DERBY {
+        @Override
+        public void createSequence(Connection connection,
+                String sequenceName) throws SQLException {
+            execute(connection,
+                    String.format("CREATE SEQUENCE %s AS BIGINT START WITH 1",
+                            quoteIdentifier(sequenceName, '"')));
+        }
+
+        @Override
+        public long nextValue(JdbcConnectionPool.PooledConnection connection,
+                String sequenceName) throws SQLException {
+            return queryLong(connection.prepareStatement(String.format("VALUES (NEXT VALUE FOR %s)",
+                    quoteIdentifier(sequenceName, '"'))));
+        }
+    },
+    POSTGRESQL {
+        @Override
+        public void createSequence(Connection connection,
+                String sequenceName) throws SQLException {
+            execute(connection,
+                    String.format("CREATE SEQUENCE %s",
+                            quoteIdentifier(sequenceName, '"')));
+        }
+
+        @Override
+        public long nextValue(JdbcConnectionPool.PooledConnection connection,
+                String sequenceName) throws SQLException {
+            return queryLong(connection.prepareStatement(String.format("SELECT nextval('%s')",
+                    quoteIdentifier(sequenceName, '"').replace("'", "''"))));
+        }
+    },
+    /**
+     * MySQL doesn't support sequences, so that they're emulated with a table
+     * with one row whose value is incremented with {@code LAST_INSERT_ID}
+     * which is per connection and thus not affected by other connections
+     * incrementing concurrently.
+     */
+    MYSQL {
+        @Override
+        public void createSequence(Connection connection,
+                String sequenceName) throws SQLException {
+            String table = quoteIdentifier(sequenceName, '`');
+            execute(connection,
+                    String.format("CREATE TABLE %s (sequence_value BIGINT NOT NULL) ENGINE=InnoDB",
+                            table));
+            execute(connection,
+                    String.format("INSERT INTO %s (sequence_value) VALUES (0)",
+                            table));
+        }
+
+        @Override
+        public long nextValue(JdbcConnectionPool.PooledConnection connection,
+                String sequenceName) throws SQLException {
+            connection.prepareStatement(String.format("UPDATE %s SET sequence_value = LAST_INSERT_ID(sequence_value+1)",
+                    quoteIdentifier(sequenceName, '`'))).executeUpdate();
+            return queryLong(connection.prepareStatement("SELECT LAST_INSERT_ID()"));
+        }
+    };
+
+    /**
+     * Creates the sequence {@code sequenceName} starting with {@code 1}.
+     *
+     * @param connection the connection to use
+     * @param sequenceName the name of the sequence
+     * @throws SQLException if an SQL exception occurs
+     */
+    public abstract void createSequence(Connection connection,
+            String sequenceName) throws SQLException;
+
+    /**
+     * Increments the sequence {@code sequenceName} with prepared statements
+     * cached by {@code connection}.
+     *
+     * @param connection the connection to use
+     * @param sequenceName the name of the sequence
+     * @return the next value
+     * @throws SQLException if an SQL exception occurs
+     */
+    public abstract long nextValue(JdbcConnectionPool.PooledConnection connection,
+            String sequenceName) throws SQLException;
+
+    private static String quoteIdentifier(String identifier,
+            char quote) {
+        String quoteString = String.valueOf(quote);
+        return quote+identifier.replace(quoteString, quoteString+quoteString)+quote;
+    }
+
+    private static void execute(Connection connection,
+            String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static long queryLong(PreparedStatement statement) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            if(!resultSet.next()) {
+                throw new SQLException("query didn't return a value");
+            }
+            return resultSet.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.sequence;
+
+/**
+ * Provides values of named sequences. Allows to treat
+ * {@link DerbySequenceManager}, {@link MySQLSequenceManager} and
+ * {@link PostgresqlSequenceManager} uniformly, e.g. with
+ * {@code sequenceManager::getNextSequenceValue}.
+ *
+ * @author richter
+ */
+@FunctionalInterface
+public interface SequenceValueSource {
+
+    long getNextSequenceValue(String sequenceName) throws SequenceManagementException;
+}
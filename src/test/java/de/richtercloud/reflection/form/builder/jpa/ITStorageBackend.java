@@ -0,0 +1,620 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import de.richtercloud.message.handler.IssueHandler;
+import de.richtercloud.message.handler.LoggerIssueHandler;
+import de.richtercloud.reflection.form.builder.jpa.bulk.BulkStorage;
+import de.richtercloud.reflection.form.builder.jpa.memory.DerbyInMemoryPersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.memory.DerbyInMemoryPersistenceStorageConf;
+import de.richtercloud.reflection.form.builder.jpa.metadata.SchemeChecksumGate;
+import de.richtercloud.reflection.form.builder.jpa.retriever.JPAOrderedCachedFieldRetriever;
+import de.richtercloud.reflection.form.builder.jpa.sequence.DerbySequenceManager;
+import de.richtercloud.reflection.form.builder.jpa.sequence.JdbcConnectionPool;
+import de.richtercloud.reflection.form.builder.jpa.sequence.MySQLSequenceManager;
+import de.richtercloud.reflection.form.builder.jpa.sequence.PooledJdbcSequenceValueSource;
+import de.richtercloud.reflection.form.builder.jpa.sequence.PostgresqlSequenceManager;
+import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceDialect;
+import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceManagementException;
+import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceValueSource;
+import de.richtercloud.reflection.form.builder.jpa.storage.DerbyEmbeddedPersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.storage.DerbyEmbeddedPersistenceStorageConf;
+import de.richtercloud.reflection.form.builder.jpa.storage.MySQLAutoPersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.storage.MySQLAutoPersistenceStorageConf;
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.storage.PostgresqlAutoPersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.storage.PostgresqlAutoPersistenceStorageConf;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import de.richtercloud.validation.tools.FieldRetriever;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The storage backends used in ITs and benchmarks. Derby runs embedded,
+ * PostgreSQL and MySQL use the locally installed binaries which the sequence
+ * manager ITs expect.
+ *
+ * @author richter
+ */
+public enum ITStorageBackend {
+    DERBY(SequenceDialect.DERBY) {
+        @Override
+        public ITStorageFactory createStorageFactory(Set<Class<?>> entityClasses,
+                String persistenceUnitName,
+                String existingSchemaPersistenceUnitName,
+                int parallelQueryCount) throws IOException,
+                FieldOrderValidationException {
+            ITResourceManager resourceManager = ITResourceManager.getInstance();
+            File databaseDir = resourceManager.createTempPath(ITStorageBackend.class.getSimpleName());
+                //databaseDir mustn't exist for Apache Derby
+            File schemeChecksumFile = resourceManager.createTempFile(ITStorageBackend.class.getSimpleName(),
+                    "checksum");
+            SchemeChecksumGate schemeChecksumGate = createSchemeChecksumGate(entityClasses,
+                    schemeChecksumFile,
+                    existingSchemaPersistenceUnitName);
+            FieldRetriever fieldRetriever = new JPAOrderedCachedFieldRetriever(entityClasses);
+            return () -> {
+                String startPersistenceUnitName = selectPersistenceUnitName(schemeChecksumGate,
+                        persistenceUnitName,
+                        existingSchemaPersistenceUnitName);
+                DerbyEmbeddedPersistenceStorageConf storageConf = new DerbyEmbeddedPersistenceStorageConf(entityClasses,
+                        databaseDir.getAbsolutePath(), //databaseName
+                        schemeChecksumFile);
+                PersistenceStorage<Long> retValue = new DerbyEmbeddedPersistenceStorage(storageConf,
+                        startPersistenceUnitName,
+                        parallelQueryCount,
+                        fieldRetriever);
+                retValue.start();
+                recordScheme(schemeChecksumGate);
+                registerConnection(retValue,
+                        String.format("jdbc:derby:%s",
+                                databaseDir.getAbsolutePath()),
+                        null, //username
+                        null //password
+                );
+                return retValue;
+            };
+        }
+
+        @Override
+        public SequenceValueSource openSequence(PersistenceStorage<Long> storage,
+                String sequenceName,
+                boolean create) throws SequenceManagementException {
+            DerbySequenceManager sequenceManager = new DerbySequenceManager(storage);
+            if(create) {
+                sequenceManager.createSequence(sequenceName);
+            }
+            return sequenceManager::getNextSequenceValue;
+        }
+    },
+    /**
+     * An embedded Derby database in memory which is dropped when a storage is
+     * shut down, so that storages of a factory don't share data and restarts
+     * always generate the schema.
+     */
+    DERBY_IN_MEMORY(SequenceDialect.DERBY) {
+        @Override
+        public ITStorageFactory createStorageFactory(Set<Class<?>> entityClasses,
+                String persistenceUnitName,
+                String existingSchemaPersistenceUnitName,
+                int parallelQueryCount) throws IOException,
+                FieldOrderValidationException {
+            File schemeChecksumFile = ITResourceManager.getInstance().createTempPath(ITStorageBackend.class.getSimpleName()+"-checksum");
+                //fast start isn't possible since the schema is dropped with
+                //the database
+            FieldRetriever fieldRetriever = new JPAOrderedCachedFieldRetriever(entityClasses);
+            return () -> {
+                DerbyInMemoryPersistenceStorageConf storageConf = DerbyInMemoryPersistenceStorageConf.createUnique(entityClasses,
+                        schemeChecksumFile);
+                PersistenceStorage<Long> retValue = new DerbyInMemoryPersistenceStorage(storageConf,
+                        persistenceUnitName,
+                        parallelQueryCount,
+                        fieldRetriever);
+                retValue.start();
+                registerConnection(retValue,
+                        storageConf.getMemoryConnectionURL(),
+                        null, //username
+                        null //password
+                );
+                return retValue;
+            };
+        }
+
+        @Override
+        public SequenceValueSource openSequence(PersistenceStorage<Long> storage,
+                String sequenceName,
+                boolean create) throws SequenceManagementException {
+            return DERBY.openSequence(storage,
+                    sequenceName,
+                    create);
+        }
+    },
+    POSTGRESQL(SequenceDialect.POSTGRESQL) {
+        @Override
+        public ITStorageFactory createStorageFactory(Set<Class<?>> entityClasses,
+                String persistenceUnitName,
+                String existingSchemaPersistenceUnitName,
+                int parallelQueryCount) throws IOException,
+                FieldOrderValidationException {
+            String postgresqlInstallationPrefixDir = findPostgresqlInstallationPrefixDir();
+            ITResourceManager resourceManager = ITResourceManager.getInstance();
+            File databaseDir = resourceManager.createTempPath(ITStorageBackend.class.getSimpleName());
+            String databaseName = resourceManager.createDatabaseName(DATABASE_NAME);
+                //unique across forks which might share a server
+            File schemeChecksumFile = resourceManager.createTempFile(ITStorageBackend.class.getSimpleName(),
+                    "checksum");
+            SchemeChecksumGate schemeChecksumGate = createSchemeChecksumGate(entityClasses,
+                    schemeChecksumFile,
+                    existingSchemaPersistenceUnitName);
+            FieldRetriever fieldRetriever = new JPAOrderedCachedFieldRetriever(entityClasses);
+            IssueHandler issueHandler = new LoggerIssueHandler(LOGGER);
+            return () -> {
+                String startPersistenceUnitName = selectPersistenceUnitName(schemeChecksumGate,
+                        persistenceUnitName,
+                        existingSchemaPersistenceUnitName);
+                try (PortReservation portReservation = resourceManager.reservePort(PostgresqlAutoPersistenceStorageConf.PORT_DEFAULT)) {
+                    PostgresqlAutoPersistenceStorageConf storageConf = new PostgresqlAutoPersistenceStorageConf(entityClasses,
+                            "localhost",
+                            USERNAME,
+                            PASSWORD,
+                            databaseName,
+                            schemeChecksumFile,
+                            databaseDir.getAbsolutePath(), //databaseDir
+                            postgresqlBinary(postgresqlInstallationPrefixDir, "initdb"), //initdbBinaryPath
+                            postgresqlBinary(postgresqlInstallationPrefixDir, "postgres"), //postgresBinaryPath
+                            postgresqlBinary(postgresqlInstallationPrefixDir, "createdb"), //createdbBinaryPath
+                            postgresqlBinary(postgresqlInstallationPrefixDir, "pg_ctl"), //pgCtlBinaryPath
+                            portReservation.getPort()
+                    );
+                    PersistenceStorage<Long> retValue = new PostgresqlAutoPersistenceStorage(storageConf,
+                            startPersistenceUnitName,
+                            parallelQueryCount,
+                            fieldRetriever,
+                            issueHandler);
+                    retValue.start();
+                    recordScheme(schemeChecksumGate);
+                    String jdbcUrl = String.format("jdbc:postgresql://localhost:%d/%s",
+                            portReservation.getPort(),
+                            databaseName);
+                    registerConnection(retValue,
+                            jdbcUrl,
+                            USERNAME,
+                            PASSWORD);
+                    return retValue;
+                }
+            };
+        }
+
+        @Override
+        public SequenceValueSource openSequence(PersistenceStorage<Long> storage,
+                String sequenceName,
+                boolean create) throws SequenceManagementException {
+            PostgresqlSequenceManager sequenceManager = new PostgresqlSequenceManager(storage);
+            if(create) {
+                sequenceManager.createSequence(sequenceName);
+            }
+            return sequenceManager::getNextSequenceValue;
+        }
+    },
+    MYSQL(SequenceDialect.MYSQL) {
+        @Override
+        public ITStorageFactory createStorageFactory(Set<Class<?>> entityClasses,
+                String persistenceUnitName,
+                String existingSchemaPersistenceUnitName,
+                int parallelQueryCount) throws IOException,
+                FieldOrderValidationException {
+            File mySQLDir = findMySQLDir();
+            ITResourceManager resourceManager = ITResourceManager.getInstance();
+            File databaseDir = resourceManager.createTempPath(ITStorageBackend.class.getSimpleName());
+            String databaseName = resourceManager.createDatabaseName(DATABASE_NAME);
+                //unique across forks which might share a server
+            File schemeChecksumFile = resourceManager.createTempFile(ITStorageBackend.class.getSimpleName(),
+                    "checksum");
+            SchemeChecksumGate schemeChecksumGate = createSchemeChecksumGate(entityClasses,
+                    schemeChecksumFile,
+                    existingSchemaPersistenceUnitName);
+            File myCnfFile = resourceManager.createTempPath(ITStorageBackend.class.getSimpleName()+"-mycnf");
+            FieldRetriever fieldRetriever = new JPAOrderedCachedFieldRetriever(entityClasses);
+            IssueHandler issueHandler = new LoggerIssueHandler(LOGGER);
+            return () -> {
+                String startPersistenceUnitName = selectPersistenceUnitName(schemeChecksumGate,
+                        persistenceUnitName,
+                        existingSchemaPersistenceUnitName);
+                try (PortReservation portReservation = resourceManager.reservePort(MySQLAutoPersistenceStorageConf.PORT_DEFAULT)) {
+                    MySQLAutoPersistenceStorageConf storageConf = new MySQLAutoPersistenceStorageConf(databaseDir.getAbsolutePath(),
+                            mySQLDir.getAbsolutePath(),
+                            "localhost",
+                            portReservation.getPort(),
+                            entityClasses,
+                            USERNAME,
+                            PASSWORD,
+                            databaseName,
+                            schemeChecksumFile);
+                    storageConf.setPassword(PASSWORD);
+                    storageConf.setBaseDir(mySQLDir.getAbsolutePath());
+                    storageConf.setMyCnfFilePath(myCnfFile.getAbsolutePath());
+                    PersistenceStorage<Long> retValue = new MySQLAutoPersistenceStorage(storageConf,
+                            startPersistenceUnitName,
+                            parallelQueryCount,
+                            issueHandler,
+                            fieldRetriever);
+                    retValue.start();
+                    recordScheme(schemeChecksumGate);
+                    String jdbcUrl = String.format("jdbc:mysql://localhost:%d/%s",
+                            portReservation.getPort(),
+                            databaseName);
+                    registerConnection(retValue,
+                            jdbcUrl,
+                            USERNAME,
+                            PASSWORD);
+                    return retValue;
+                }
+            };
+        }
+
+        @Override
+        public SequenceValueSource openSequence(PersistenceStorage<Long> storage,
+                String sequenceName,
+                boolean create) throws SequenceManagementException {
+            MySQLSequenceManager sequenceManager = new MySQLSequenceManager(storage);
+            if(create) {
+                sequenceManager.createSequence(sequenceName);
+            }
+            return sequenceManager::getNextSequenceValue;
+        }
+    };
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(ITStorageBackend.class);
+    public final static String PERSISTENCE_UNIT_NAME = "reflection-form-builder-it";
+    private final static String USERNAME = "reflection-form-builder";
+    private final static String PASSWORD = USERNAME;
+    private final static String DATABASE_NAME = "reflection-form-builder-it";
+    private final static String BIN = "bin";
+    /**
+     * The JDBC connection parameters of the database of every started storage
+     * which hasn't been shut down with
+     * {@link #shutdownStorage(de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage) }
+     * or unregistered with
+     * {@link #unregisterStorage(de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage) }
+     * yet. Weak keys only avoid keeping storages of failed tests reachable.
+     */
+    private final static Map<PersistenceStorage<Long>, StorageConnection> STORAGE_CONNECTIONS = Collections.synchronizedMap(new WeakHashMap<>());
+    private final SequenceDialect sequenceDialect;
+
+    ITStorageBackend(SequenceDialect sequenceDialect) {
+        this.sequenceDialect = sequenceDialect;
+    }
+
+    private static void registerConnection(PersistenceStorage<Long> storage,
+            String jdbcUrl,
+            String username,
+            String password) {
+        STORAGE_CONNECTIONS.put(storage,
+                new StorageConnection(jdbcUrl,
+                        username,
+                        password));
+    }
+
+    /**
+     * Shuts down a storage started by a backend and removes its connection
+     * parameters.
+     *
+     * @param storage the storage to shut down
+     */
+    public static void shutdownStorage(PersistenceStorage<Long> storage) {
+        unregisterStorage(storage);
+        storage.shutdown();
+    }
+
+    /**
+     * Removes the connection parameters of a storage started by a backend
+     * which is shut down by the caller, e.g. through a proxy.
+     *
+     * @param storage the storage started by a backend
+     */
+    public static void unregisterStorage(PersistenceStorage<Long> storage) {
+        if(storage == null) {
+            throw new IllegalArgumentException("storage mustn't be null");
+        }
+        STORAGE_CONNECTIONS.remove(storage);
+    }
+
+    private StorageConnection getStorageConnection(PersistenceStorage<Long> storage) {
+        StorageConnection retValue = STORAGE_CONNECTIONS.get(storage);
+        if(retValue == null) {
+            throw new IllegalArgumentException(String.format("storage %s hasn't been started by %s",
+                    storage,
+                    this));
+        }
+        return retValue;
+    }
+
+    /**
+     * Creates a factory for storages which all use the same newly created
+     * temporary database location, so that a storage can be restarted by
+     * shutting it down and starting a new one with the factory.
+     *
+     * @param entityClasses the entity classes
+     * @param persistenceUnitName the persistence unit name
+     * @param parallelQueryCount the number of parallel queries
+     * @return the created factory
+     * @throws IOException if an I/O exception occurs during creation of
+     *     temporary files
+     * @throws FieldOrderValidationException if such an exception occurs
+     */
+    public ITStorageFactory createStorageFactory(Set<Class<?>> entityClasses,
+            String persistenceUnitName,
+            int parallelQueryCount) throws IOException,
+            FieldOrderValidationException {
+        return createStorageFactory(entityClasses,
+                persistenceUnitName,
+                null, //existingSchemaPersistenceUnitName
+                parallelQueryCount);
+    }
+
+    /**
+     * Creates a factory like
+     * {@link #createStorageFactory(java.util.Set, java.lang.String, int) }
+     * whose storages start in fast-start mode if
+     * {@code existingSchemaPersistenceUnitName} isn't {@code null}: as long as
+     * the checksum recorded by a {@link SchemeChecksumGate} after the last
+     * successful start matches the entity classes, storages are started with
+     * {@code existingSchemaPersistenceUnitName} which skips schema generation
+     * and validation. Otherwise {@code persistenceUnitName} is used.
+     *
+     * @param entityClasses the entity classes
+     * @param persistenceUnitName the persistence unit name which generates
+     *     the schema
+     * @param existingSchemaPersistenceUnitName the persistence unit name which
+     *     uses the existing schema or {@code null} to disable fast start
+     * @param parallelQueryCount the number of parallel queries
+     * @return the created factory
+     * @throws IOException if an I/O exception occurs during creation of
+     *     temporary files
+     * @throws FieldOrderValidationException if such an exception occurs
+     */
+    public abstract ITStorageFactory createStorageFactory(Set<Class<?>> entityClasses,
+            String persistenceUnitName,
+            String existingSchemaPersistenceUnitName,
+            int parallelQueryCount) throws IOException,
+            FieldOrderValidationException;
+
+    private static SchemeChecksumGate createSchemeChecksumGate(Set<Class<?>> entityClasses,
+            File schemeChecksumFile,
+            String existingSchemaPersistenceUnitName) throws IOException {
+        if(existingSchemaPersistenceUnitName == null) {
+            return null;
+        }
+        return new SchemeChecksumGate(entityClasses,
+                schemeChecksumFile);
+    }
+
+    private static String selectPersistenceUnitName(SchemeChecksumGate schemeChecksumGate,
+            String persistenceUnitName,
+            String existingSchemaPersistenceUnitName) throws IOException {
+        if(schemeChecksumGate == null) {
+            return persistenceUnitName;
+        }
+        String retValue = schemeChecksumGate.selectPersistenceUnitName(persistenceUnitName,
+                existingSchemaPersistenceUnitName);
+        LOGGER.debug(String.format("starting storage with persistence unit %s",
+                retValue));
+        return retValue;
+    }
+
+    private static void recordScheme(SchemeChecksumGate schemeChecksumGate) throws IOException {
+        if(schemeChecksumGate != null) {
+            schemeChecksumGate.recordScheme();
+        }
+    }
+
+    /**
+     * Creates and starts a new storage in a newly created temporary location.
+     *
+     * @param entityClasses the entity classes
+     * @param persistenceUnitName the persistence unit name
+     * @param parallelQueryCount the number of parallel queries
+     * @return the started storage
+     * @throws IOException if an I/O exception occurs during creation of
+     *     temporary files
+     * @throws FieldOrderValidationException if such an exception occurs
+     * @throws StorageConfValidationException if such an exception occurs
+     * @throws StorageCreationException if such an exception occurs
+     */
+    public PersistenceStorage<Long> startStorage(Set<Class<?>> entityClasses,
+            String persistenceUnitName,
+            int parallelQueryCount) throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException {
+        return createStorageFactory(entityClasses,
+                persistenceUnitName,
+                parallelQueryCount).startStorage();
+    }
+
+    /**
+     * Opens the sequence {@code sequenceName} with the sequence manager of
+     * this backend.
+     *
+     * @param storage the storage to create the sequence manager for
+     * @param sequenceName the name of the sequence
+     * @param create whether to create the sequence or to use an existing one
+     * @return the source of values of the sequence
+     * @throws SequenceManagementException if such an exception occurs
+     */
+    public abstract SequenceValueSource openSequence(PersistenceStorage<Long> storage,
+            String sequenceName,
+            boolean create) throws SequenceManagementException;
+
+    /**
+     * Opens the sequence {@code sequenceName} with a
+     * {@link PooledJdbcSequenceValueSource} which connects to the database of
+     * {@code storage} with a pool of at most {@code poolSize} connections.
+     * The source has to be closed before {@code storage} is shut down.
+     *
+     * @param storage a storage started by this backend
+     * @param sequenceName the name of the sequence
+     * @param create whether to create the sequence or to use an existing one
+     *     created by a {@link PooledJdbcSequenceValueSource} (not by
+     *     {@link #openSequence(de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage, java.lang.String, boolean) }
+     *     whose sequence managers might name and create sequences differently,
+     *     see {@link SequenceDialect})
+     * @param poolSize the maximum number of connections
+     * @return the opened source
+     * @throws SequenceManagementException if creating the sequence fails
+     */
+    public PooledJdbcSequenceValueSource openPooledSequence(PersistenceStorage<Long> storage,
+            String sequenceName,
+            boolean create,
+            int poolSize) throws SequenceManagementException {
+        StorageConnection storageConnection = getStorageConnection(storage);
+        PooledJdbcSequenceValueSource retValue = new PooledJdbcSequenceValueSource(new JdbcConnectionPool(storageConnection::getConnection,
+                        poolSize),
+                sequenceDialect);
+        if(create) {
+            try {
+                retValue.createSequence(sequenceName);
+            }catch(SequenceManagementException ex) {
+                retValue.close();
+                throw ex;
+            }
+        }
+        return retValue;
+    }
+
+    /**
+     * Creates an entity manager factory for the database of {@code storage}
+     * which allows to use JPA directly instead of through the storage, e.g.
+     * with a {@link BulkStorage}. The JDBC URL is passed through
+     * {@link BulkStorage#enableBatchRewriting(java.lang.String) }.
+     *
+     * @param storage a storage started by this backend
+     * @param existingSchemaPersistenceUnitName the persistence unit which
+     *     doesn't generate the schema
+     * @param additionalProperties properties which are passed to
+     *     {@link Persistence#createEntityManagerFactory(java.lang.String, java.util.Map) }
+     *     in addition to the connection properties
+     * @return the entity manager factory which has to be closed by the caller
+     *     before {@code storage} is shut down
+     */
+    public EntityManagerFactory createEntityManagerFactory(PersistenceStorage<Long> storage,
+            String existingSchemaPersistenceUnitName,
+            Map<String, String> additionalProperties) {
+        StorageConnection storageConnection = getStorageConnection(storage);
+        Map<String, String> properties = new HashMap<>(additionalProperties);
+        properties.put("javax.persistence.jdbc.url",
+                BulkStorage.enableBatchRewriting(storageConnection.jdbcUrl));
+        if(storageConnection.username != null) {
+            properties.put("javax.persistence.jdbc.user",
+                    storageConnection.username);
+            properties.put("javax.persistence.jdbc.password",
+                    storageConnection.password);
+        }
+        return Persistence.createEntityManagerFactory(existingSchemaPersistenceUnitName,
+                properties);
+    }
+
+    /**
+     * Finds the PostgreSQL installation in {@code /usr/lib/postgresql/9.6}
+     * or {@code /usr/lib/postgresql/10}.
+     *
+     * @return the installation prefix
+     * @throws IllegalArgumentException if no installation exists
+     */
+    public static String findPostgresqlInstallationPrefixDir() {
+        String postgresqlInstallationPrefixDir = String.join(File.separator, "/", "usr", "lib", "postgresql", "9.6");
+        File postgresqlDir = new File(postgresqlInstallationPrefixDir);
+        if(!postgresqlDir.exists()) {
+            postgresqlInstallationPrefixDir = String.join(File.separator, "/", "usr", "lib", "postgresql", "10");
+            postgresqlDir = new File(postgresqlInstallationPrefixDir);
+            if(!postgresqlDir.exists()) {
+                throw new IllegalArgumentException(String.format("There's no PostgreSQL installation at '%s'. Can't proceed.", postgresqlDir.getAbsolutePath()));
+            }
+        }
+        if(!postgresqlDir.isDirectory()){
+            throw new IllegalArgumentException(String.format("PostgreSQL directory '%s' exists, but is not a directory", postgresqlDir.getAbsolutePath()));
+        }
+        return postgresqlInstallationPrefixDir;
+    }
+
+    public static String postgresqlBinary(String postgresqlInstallationPrefixDir,
+            String binaryName) {
+        return new File(postgresqlInstallationPrefixDir,
+                String.join(File.separator, BIN, binaryName)).getAbsolutePath();
+    }
+
+    /**
+     * Finds the MySQL installation in {@code $HOME/mysql-5.7.24}.
+     *
+     * @return the installation directory
+     * @throws IllegalArgumentException if no installation exists
+     */
+    public static File findMySQLDir() {
+        String homeDirPath = System.getProperty("user.home");
+        assert homeDirPath != null;
+        File homeDir = new File(homeDirPath);
+        assert homeDir.exists();
+        File mySQLDir = new File(homeDir, "mysql-5.7.24");
+        if(!mySQLDir.exists()) {
+            throw new IllegalArgumentException(String.format("There's no MySQL installation at '%s'. Download and extract manually and restart. Can't proceed.", mySQLDir.getAbsolutePath()));
+        }else if(!mySQLDir.isDirectory()){
+            throw new IllegalArgumentException(String.format("MySQL directory '%s' exists, but is not a directory", mySQLDir.getAbsolutePath()));
+        }
+        return mySQLDir;
+    }
+
+    /**
+     * The JDBC connection parameters of the database of a storage.
+     */
+    private static class StorageConnection {
+        private final String jdbcUrl;
+        /**
+         * {@code null} for databases without authentication.
+         */
+        private final String username;
+        private final String password;
+
+        StorageConnection(String jdbcUrl,
+                String username,
+                String password) {
+            this.jdbcUrl = jdbcUrl;
+            this.username = username;
+            this.password = password;
+        }
+
+        Connection getConnection() throws SQLException {
+            if(username == null) {
+                return DriverManager.getConnection(jdbcUrl);
+            }
+            return DriverManager.getConnection(jdbcUrl,
+                    username,
+                    password);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import java.io.IOException;
+
+/**
+ * Creates and starts storages which all use the same database location.
+ *
+ * @author richter
+ * @see ITStorageBackend#createStorageFactory(java.util.Set, java.lang.String, int)
+ */
+@FunctionalInterface
+public interface ITStorageFactory {
+
+    PersistenceStorage<Long> startStorage() throws IOException,
+            StorageConfValidationException,
+            StorageCreationException;
+}
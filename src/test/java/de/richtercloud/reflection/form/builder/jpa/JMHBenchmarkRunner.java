@@ -0,0 +1,75 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import java.io.File;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of this module once for every configured number of
+ * threads since JMH only supports one thread count per run. Used by the
+ * {@code benchmark} Maven profile.
+ *
+ * The following system properties are supported:
+ * <ul>
+ * <li>{@code benchmark.includes}: a regular expression matching the
+ * benchmarks to run (defaults to all benchmarks)</li>
+ * <li>{@code benchmark.threads}: a comma-separated list of thread counts
+ * (defaults to {@code 1})</li>
+ * <li>{@code benchmark.resultDir}: the directory where JSON results are
+ * written to (defaults to {@code target/jmh})</li>
+ * <li>{@code benchmark.profilers}: a comma-separated list of JMH profilers,
+ * e.g. {@code gc}</li>
+ * </ul>
+ *
+ * @author richter
+ */
+public final class JMHBenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String includes = System.getProperty("benchmark.includes", ".*Benchmark.*");
+        String threads = System.getProperty("benchmark.threads", "1");
+        File resultDir = new File(System.getProperty("benchmark.resultDir",
+                String.join(File.separator, "target", "jmh")));
+        String profilers = System.getProperty("benchmark.profilers", "");
+        if(!resultDir.exists() && !resultDir.mkdirs()) {
+            throw new IllegalArgumentException(String.format("result directory '%s' could not be created",
+                    resultDir.getAbsolutePath()));
+        }
+        for(String threadCountString : threads.split(",")) {
+            int threadCount = Integer.parseInt(threadCountString.trim());
+            ChainedOptionsBuilder optionsBuilder = new OptionsBuilder()
+                    .include(includes)
+                    .threads(threadCount)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(resultDir,
+                            String.format("%d-threads.json",
+                                    threadCount)).getAbsolutePath());
+            for(String profiler : profilers.split(",")) {
+                if(!profiler.trim().isEmpty()) {
+                    optionsBuilder.addProfiler(profiler.trim());
+                }
+            }
+            new Runner(optionsBuilder.build()).run();
+        }
+    }
+
+    private JMHBenchmarkRunner() {
+    }
+}
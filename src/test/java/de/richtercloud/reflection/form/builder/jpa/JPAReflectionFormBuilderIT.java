@@ -48,13 +48,9 @@ import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationExc
 import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
 import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
 import de.richtercloud.reflection.form.builder.storage.StorageException;
-import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
-import java.nio.file.Files;
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -62,7 +58,6 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Set;
 import javax.swing.JOptionPane;
-import org.apache.commons.io.FileUtils;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -103,23 +98,13 @@ public class JPAReflectionFormBuilderIT {
                     EntityD.class,
                     EntityE.class,
                     EntityF.class));
-            File databaseDir = Files.createTempDirectory(JPAReflectionFormBuilderIT.class.getSimpleName()).toFile();
-            FileUtils.forceDelete(databaseDir);
-            //databaseDir mustn't exist for Apache Derby
-            String databaseName = databaseDir.getAbsolutePath();
-            LOGGER.debug(String.format("database directory: %s", databaseName));
-            try(Connection connection = DriverManager.getConnection(String.format("jdbc:derby:%s;create=true", databaseDir.getAbsolutePath()))) {
-                connection.getCatalog();
-                    //do something to test the connection
-            }
-            File schemeChecksumFile = File.createTempFile(JPAReflectionFormBuilderIT.class.getSimpleName(), null);
-            DerbyEmbeddedPersistenceStorageConf storageConf = new DerbyEmbeddedPersistenceStorageConf(entityClasses,
-                    databaseName,
-                    schemeChecksumFile);
             String persistenceUnitName = "reflection-form-builder-it";
+            DerbyEmbeddedPersistenceStorageConf storageConf = DerbySchemaSnapshot.getInstance(entityClasses,
+                    persistenceUnitName).createStorageConf();
+                //avoids schema generation for every storage
             JPAFieldRetriever fieldRetriever = new JPAOrderedCachedFieldRetriever(entityClasses);
             storage = new DerbyEmbeddedPersistenceStorage(storageConf,
-                    persistenceUnitName,
+                    DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
                     1, //parallelQueryCount
                     fieldRetriever);
             storage.start();
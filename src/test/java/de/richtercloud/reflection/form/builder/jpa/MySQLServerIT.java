@@ -0,0 +1,123 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import de.richtercloud.reflection.form.builder.jpa.sequence.JdbcConnectionPool;
+import de.richtercloud.reflection.form.builder.jpa.sequence.PooledJdbcSequenceValueSource;
+import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceDialect;
+import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceManagementException;
+import de.richtercloud.reflection.form.builder.jpa.storage.MySQLAutoPersistenceStorageConf;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts a {@link MySQLServer} whose readiness is detected by
+ * {@link ServerReadinessProbe}, uses it and shuts it down and shows that
+ * readiness and shutdown are detected well within the timeouts of
+ * {@link MySQLServer}. The data directory is deleted after the test by
+ * {@link ITResourceRule}.
+ *
+ * @author richter
+ */
+public class MySQLServerIT {
+    private final static Logger LOGGER = LoggerFactory.getLogger(MySQLServerIT.class);
+    /**
+     * The maximum duration of {@link MySQLServer#start() } including the
+     * initialization of the data directory. Half of the startup timeout of
+     * {@link MySQLServer}, so that falling back to waiting for the timeout
+     * fails the test.
+     */
+    private final static long START_DURATION_MAX_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    /**
+     * The maximum duration of {@link MySQLServer#shutdown() } for an almost
+     * empty database.
+     */
+    private final static long SHUTDOWN_DURATION_MAX_MILLIS = TimeUnit.SECONDS.toMillis(15);
+    @Rule
+    public final ITResourceRule resources = new ITResourceRule();
+
+    /**
+     * Starts the server, uses the sequences of {@link SequenceDialect#MYSQL}
+     * in it in order to show that it accepts connections once it's
+     * considered ready and checks the start, readiness and shutdown
+     * durations.
+     */
+    @Test
+    public void testStartShutdown() throws IOException,
+            InterruptedException,
+            SQLException,
+            SequenceManagementException {
+        String sequenceName = "with-minus";
+        ITResourceManager resourceManager = ITResourceManager.getInstance();
+        File baseDir = resources.getScope().createTempDirectory(MySQLServerIT.class.getSimpleName());
+        String username = "reflection-form-builder";
+        String password = username;
+        MySQLServer server;
+        try (PortReservation portReservation = resourceManager.reservePort(MySQLAutoPersistenceStorageConf.PORT_DEFAULT)) {
+            server = new MySQLServer(ITStorageBackend.findMySQLDir().getAbsolutePath(),
+                    new File(baseDir, "data"),
+                    portReservation.getPort(),
+                    username,
+                    password);
+            server.start();
+        }
+        try {
+            LOGGER.info(String.format("started MySQL server on port %d in %d ms (ready %d ms after server start)",
+                    server.getPort(),
+                    server.getStartDurationMillis(),
+                    server.getReadinessDurationMillis()));
+            assertTrue(String.format("readiness duration %d ms isn't between 0 and the start duration %d ms",
+                            server.getReadinessDurationMillis(),
+                            server.getStartDurationMillis()),
+                    server.getReadinessDurationMillis() >= 0
+                            && server.getReadinessDurationMillis() <= server.getStartDurationMillis());
+            assertTrue(String.format("starting took %d ms, expected less than %d ms",
+                            server.getStartDurationMillis(),
+                            START_DURATION_MAX_MILLIS),
+                    server.getStartDurationMillis() < START_DURATION_MAX_MILLIS);
+            String databaseName = resourceManager.createDatabaseName("reflection-form-builder-it");
+            server.createDatabase(databaseName);
+            try (PooledJdbcSequenceValueSource instance = new PooledJdbcSequenceValueSource(new JdbcConnectionPool(() -> server.getConnection(databaseName),
+                            1 //maximumSize
+                    ),
+                    SequenceDialect.MYSQL)) {
+                instance.createSequence(sequenceName);
+                assertEquals(1L,
+                        instance.getNextSequenceValue(sequenceName));
+            }
+        }finally {
+            server.shutdown();
+        }
+        LOGGER.info(String.format("shut down MySQL server in %d ms",
+                server.getShutdownDurationMillis()));
+        assertTrue(String.format("shutting down took %d ms, expected between 0 and %d ms",
+                        server.getShutdownDurationMillis(),
+                        SHUTDOWN_DURATION_MAX_MILLIS),
+                server.getShutdownDurationMillis() >= 0
+                        && server.getShutdownDurationMillis() < SHUTDOWN_DURATION_MAX_MILLIS);
+        assertFalse("server still accepts connections after shutdown",
+                ServerReadinessProbe.mysqlProbe("localhost",
+                        server.getPort()).probe());
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Shows that {@link PortReservationService} never hands out the same port
+ * twice while it's reserved, even if threads reserve concurrently from the
+ * same starting port, and that a port can be reserved again through the
+ * registry after its reservation has been closed. Every test uses a registry directory of its
+ * own, so that ports reserved by other forks don't interfere.
+ *
+ * @author richter
+ */
+public class PortReservationServiceIT {
+    private final static int THREAD_COUNT = 16;
+    private final static int RESERVATIONS_PER_THREAD = 4;
+    @Rule
+    public final ITResourceRule resources = new ITResourceRule();
+
+    @Test
+    public void testReserveDistinct() throws IOException,
+            InterruptedException,
+            ExecutionException {
+        PortReservationService instance = new PortReservationService(resources.getScope().createTempDirectory(PortReservationServiceIT.class.getSimpleName()));
+        int startingFrom = findClosedPort();
+        CountDownLatch startLatch = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        List<PortReservation> reservations = new ArrayList<>(THREAD_COUNT*RESERVATIONS_PER_THREAD);
+        try {
+            List<Future<List<PortReservation>>> futures = new ArrayList<>(THREAD_COUNT);
+            for(int i = 0; i < THREAD_COUNT; i++) {
+                futures.add(executor.submit(() -> {
+                    startLatch.await();
+                    List<PortReservation> threadReservations = new ArrayList<>(RESERVATIONS_PER_THREAD);
+                    for(int j = 0; j < RESERVATIONS_PER_THREAD; j++) {
+                        threadReservations.add(instance.reserve(startingFrom));
+                    }
+                    return threadReservations;
+                }));
+            }
+            startLatch.countDown();
+            for(Future<List<PortReservation>> future : futures) {
+                reservations.addAll(future.get());
+            }
+            Set<Integer> ports = new HashSet<>();
+            for(PortReservation reservation : reservations) {
+                assertTrue(String.format("port %d has been reserved twice",
+                                reservation.getPort()),
+                        ports.add(reservation.getPort()));
+                assertTrue(reservation.getPort() >= startingFrom);
+            }
+            assertEquals(THREAD_COUNT*RESERVATIONS_PER_THREAD,
+                    ports.size());
+        }finally {
+            executor.shutdownNow();
+            for(PortReservation reservation : reservations) {
+                reservation.close();
+            }
+        }
+    }
+
+    @Test
+    public void testRelease() throws IOException {
+        PortReservationService instance = new PortReservationService(resources.getScope().createTempDirectory(PortReservationServiceIT.class.getSimpleName()));
+        int port;
+        try (PortReservation reservation = instance.reserve(findClosedPort())) {
+            port = reservation.getPort();
+            reservation.close();
+            reservation.close();
+                //closing twice has no effect
+        }
+        PortReservationService otherInstance = new PortReservationService(instance.getRegistryDir());
+            //behaves like another JVM using the same registry whose scan
+            //starts at the released port
+        try (PortReservation reservation = otherInstance.reserve(port)) {
+            assertEquals(port,
+                    reservation.getPort());
+        }
+    }
+
+    private static int findClosedPort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import de.richtercloud.reflection.form.builder.jpa.bulk.BulkStorage;
+import de.richtercloud.reflection.form.builder.jpa.retriever.JPAOrderedCachedFieldRetriever;
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.storage.PostgresqlAutoPersistenceStorageConf;
+import de.richtercloud.reflection.form.builder.jpa.storage.PostgresqlPersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.storage.PostgresqlPersistenceStorageConf;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides one {@link PostgresqlCluster} per JVM which is started on first
+ * use and shut down by the {@link ITResourceManager}. Every storage started
+ * with {@link #startStorage(java.util.Set, java.lang.String, int) } gets its
+ * own database which is cloned from a template database whose schema has been
+ * created once per set of entity classes and persistence unit, so that neither
+ * {@code initdb} nor schema generation run per test. The cloned database is
+ * dropped when the storage is shut down with
+ * {@link #shutdownStorage(de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage) }
+ * or the entity manager factory is closed with
+ * {@link #closeEntityManagerFactory(javax.persistence.EntityManagerFactory) }.
+ *
+ * @author richter
+ */
+public final class PostgresqlClusterFixture {
+    private final static Logger LOGGER = LoggerFactory.getLogger(PostgresqlClusterFixture.class);
+    private final static String USERNAME = "reflection-form-builder";
+    private final static String PASSWORD = USERNAME;
+    private final static String TEMPLATE_DATABASE_NAME_PREFIX = "reflection-form-builder-template";
+    private final static String POSTGRESQL_DRIVER = "org.postgresql.Driver";
+    private final static String DATABASE_NAME_PREFIX = "reflection-form-builder-it";
+    private static PostgresqlClusterFixture instance;
+    private final PostgresqlCluster cluster;
+    /**
+     * Guarded by {@code this}.
+     */
+    private final Map<TemplateKey, TemplateDatabase> templateDatabases = new HashMap<>();
+    /**
+     * The names of the cloned databases of started storages and created entity
+     * manager factories which haven't been shut down or closed yet.
+     */
+    private final Map<Object, String> clonedDatabaseNames = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    /**
+     * Gets the cluster fixture of this JVM and starts the cluster if
+     * necessary.
+     *
+     * @return the fixture
+     * @throws IOException if the cluster can't be started
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public static synchronized PostgresqlClusterFixture getInstance() throws IOException,
+            InterruptedException {
+        if(instance == null) {
+            ITResourceManager resourceManager = ITResourceManager.getInstance();
+            File baseDir = resourceManager.createTempDirectory(PostgresqlClusterFixture.class.getSimpleName());
+            PostgresqlCluster cluster;
+            try (PortReservation portReservation = resourceManager.reservePort(PostgresqlAutoPersistenceStorageConf.PORT_DEFAULT)) {
+                cluster = new PostgresqlCluster(ITStorageBackend.findPostgresqlInstallationPrefixDir(),
+                        new File(baseDir, "data"),
+                        portReservation.getPort(),
+                        USERNAME,
+                        PASSWORD);
+                cluster.start();
+            }
+            LOGGER.info(String.format("started shared PostgreSQL cluster in '%s' on port %d in %d ms (ready %d ms after server start)",
+                    cluster.getDataDir().getAbsolutePath(),
+                    cluster.getPort(),
+                    cluster.getStartDurationMillis(),
+                    cluster.getReadinessDurationMillis()));
+            resourceManager.register(() -> {
+                cluster.shutdown();
+                LOGGER.info(String.format("shut down shared PostgreSQL cluster in %d ms",
+                        cluster.getShutdownDurationMillis()));
+            });
+                //the resource manager deletes baseDir after shutdown
+            instance = new PostgresqlClusterFixture(cluster);
+        }
+        return instance;
+    }
+
+    private PostgresqlClusterFixture(PostgresqlCluster cluster) {
+        this.cluster = cluster;
+    }
+
+    /**
+     * Creates a database for {@code entityClasses} from the template database
+     * and starts a storage for it.
+     *
+     * @param entityClasses the entity classes
+     * @param persistenceUnitName the persistence unit name
+     * @param parallelQueryCount the number of parallel queries
+     * @return the started storage using a database which isn't used by any
+     *     other storage and which has to be shut down with
+     *     {@link #shutdownStorage(de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage) }
+     * @throws IOException if an I/O exception occurs
+     * @throws SQLException if creating the database fails
+     * @throws FieldOrderValidationException if such an exception occurs
+     * @throws StorageConfValidationException if such an exception occurs
+     * @throws StorageCreationException if such an exception occurs
+     */
+    public PersistenceStorage<Long> startStorage(Set<Class<?>> entityClasses,
+            String persistenceUnitName,
+            int parallelQueryCount) throws IOException,
+            SQLException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException {
+        TemplateDatabase templateDatabase = getTemplateDatabase(entityClasses,
+                persistenceUnitName);
+        String databaseName = cloneTemplateDatabase(templateDatabase);
+        File schemeChecksumFile = ITResourceManager.getInstance().createTempFile(PostgresqlClusterFixture.class.getSimpleName(),
+                "checksum");
+        Files.copy(templateDatabase.schemeChecksumFile.toPath(),
+                schemeChecksumFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+            //the schema of the copy matches the template's
+        PersistenceStorage<Long> retValue = createStorage(entityClasses,
+                persistenceUnitName,
+                parallelQueryCount,
+                databaseName,
+                schemeChecksumFile);
+        try {
+            retValue.start();
+        }catch(StorageCreationException ex) {
+            cluster.dropDatabase(databaseName);
+            throw ex;
+        }
+        clonedDatabaseNames.put(retValue,
+                databaseName);
+        return retValue;
+    }
+
+    /**
+     * Shuts down a storage started with
+     * {@link #startStorage(java.util.Set, java.lang.String, int) } and drops
+     * its database.
+     *
+     * @param storage the storage to shut down
+     * @throws SQLException if dropping the database fails
+     */
+    public void shutdownStorage(PersistenceStorage<Long> storage) throws SQLException {
+        String databaseName = removeClonedDatabaseName(storage);
+        try {
+            storage.shutdown();
+        }finally {
+            cluster.dropDatabase(databaseName);
+        }
+    }
+
+    /**
+     * Creates a database for {@code entityClasses} from the template database
+     * and an entity manager factory for it which allows to use JPA directly
+     * instead of through a storage.
+     *
+     * @param entityClasses the entity classes
+     * @param persistenceUnitName the persistence unit name used to create the
+     *     template database
+     * @param existingSchemaPersistenceUnitName the persistence unit which
+     *     doesn't generate the schema
+     * @param additionalProperties properties which are passed to
+     *     {@link Persistence#createEntityManagerFactory(java.lang.String, java.util.Map) }
+     *     in addition to the connection properties
+     * @return the entity manager factory which has to be closed with
+     *     {@link #closeEntityManagerFactory(javax.persistence.EntityManagerFactory) }
+     * @throws IOException if an I/O exception occurs
+     * @throws SQLException if creating the database fails
+     * @throws FieldOrderValidationException if such an exception occurs
+     * @throws StorageConfValidationException if such an exception occurs
+     * @throws StorageCreationException if such an exception occurs
+     */
+    public EntityManagerFactory createEntityManagerFactory(Set<Class<?>> entityClasses,
+            String persistenceUnitName,
+            String existingSchemaPersistenceUnitName,
+            Map<String, String> additionalProperties) throws IOException,
+            SQLException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException {
+        TemplateDatabase templateDatabase = getTemplateDatabase(entityClasses,
+                persistenceUnitName);
+        String databaseName = cloneTemplateDatabase(templateDatabase);
+        Map<String, String> properties = new HashMap<>(additionalProperties);
+        properties.put("javax.persistence.jdbc.driver",
+                POSTGRESQL_DRIVER);
+        properties.put("javax.persistence.jdbc.url",
+                BulkStorage.enableBatchRewriting(cluster.getJdbcUrl(databaseName)));
+        properties.put("javax.persistence.jdbc.user",
+                cluster.getUsername());
+        properties.put("javax.persistence.jdbc.password",
+                cluster.getPassword());
+        EntityManagerFactory retValue;
+        try {
+            retValue = Persistence.createEntityManagerFactory(existingSchemaPersistenceUnitName,
+                    properties);
+        }catch(RuntimeException ex) {
+            cluster.dropDatabase(databaseName);
+            throw ex;
+        }
+        clonedDatabaseNames.put(retValue,
+                databaseName);
+        return retValue;
+    }
+
+    /**
+     * Closes an entity manager factory created with
+     * {@link #createEntityManagerFactory(java.util.Set, java.lang.String, java.lang.String, java.util.Map) }
+     * and drops its database.
+     *
+     * @param entityManagerFactory the entity manager factory to close
+     * @throws SQLException if dropping the database fails
+     */
+    public void closeEntityManagerFactory(EntityManagerFactory entityManagerFactory) throws SQLException {
+        String databaseName = removeClonedDatabaseName(entityManagerFactory);
+        try {
+            entityManagerFactory.close();
+        }finally {
+            cluster.dropDatabase(databaseName);
+        }
+    }
+
+    private String removeClonedDatabaseName(Object owner) {
+        if(owner == null) {
+            throw new IllegalArgumentException("owner mustn't be null");
+        }
+        String retValue = clonedDatabaseNames.remove(owner);
+        if(retValue == null) {
+            throw new IllegalArgumentException(String.format("%s hasn't been created by %s or has been released already",
+                    owner,
+                    PostgresqlClusterFixture.class.getSimpleName()));
+        }
+        return retValue;
+    }
+
+    private String cloneTemplateDatabase(TemplateDatabase templateDatabase) throws IOException,
+            SQLException {
+        String databaseName = ITResourceManager.getInstance().createDatabaseName(DATABASE_NAME_PREFIX);
+        synchronized(templateDatabase) {
+            //avoid concurrent copies of the same template
+            cluster.createDatabase(databaseName,
+                    templateDatabase.databaseName);
+        }
+        return databaseName;
+    }
+
+    private synchronized TemplateDatabase getTemplateDatabase(Set<Class<?>> entityClasses,
+            String persistenceUnitName) throws IOException,
+            SQLException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException {
+        TemplateKey templateKey = new TemplateKey(entityClasses,
+                persistenceUnitName);
+        TemplateDatabase retValue = templateDatabases.get(templateKey);
+        if(retValue == null) {
+            String databaseName = ITResourceManager.getInstance().createDatabaseName(TEMPLATE_DATABASE_NAME_PREFIX);
+            cluster.createDatabase(databaseName);
+            File schemeChecksumFile = ITResourceManager.getInstance().createTempFile(PostgresqlClusterFixture.class.getSimpleName(),
+                "checksum");
+            PersistenceStorage<Long> storage = createStorage(entityClasses,
+                    persistenceUnitName,
+                    1, //parallelQueryCount
+                    databaseName,
+                    schemeChecksumFile);
+            storage.start();
+                //creates the schema
+            storage.shutdown();
+                //closes all connections which is necessary to use the database
+                //as template
+            retValue = new TemplateDatabase(databaseName,
+                    schemeChecksumFile);
+            templateDatabases.put(templateKey,
+                    retValue);
+        }
+        return retValue;
+    }
+
+    private PersistenceStorage<Long> createStorage(Set<Class<?>> entityClasses,
+            String persistenceUnitName,
+            int parallelQueryCount,
+            String databaseName,
+            File schemeChecksumFile) throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException {
+        PostgresqlPersistenceStorageConf storageConf = new PostgresqlPersistenceStorageConf(entityClasses,
+                "localhost",
+                cluster.getUsername(),
+                cluster.getPassword(),
+                databaseName,
+                schemeChecksumFile);
+        storageConf.setPort(cluster.getPort());
+        return new PostgresqlPersistenceStorage(storageConf,
+                persistenceUnitName,
+                parallelQueryCount,
+                new JPAOrderedCachedFieldRetriever(entityClasses));
+    }
+
+    public PostgresqlCluster getCluster() {
+        return cluster;
+    }
+
+    /**
+     * Identifies a template database since different persistence units might
+     * create different schemas for the same entity classes.
+     */
+    private static class TemplateKey {
+        private final Set<Class<?>> entityClasses;
+        private final String persistenceUnitName;
+
+        TemplateKey(Set<Class<?>> entityClasses,
+                String persistenceUnitName) {
+            this.entityClasses = new HashSet<>(entityClasses);
+            this.persistenceUnitName = persistenceUnitName;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(entityClasses,
+                    persistenceUnitName);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj) {
+                return true;
+            }
+            if(!(obj instanceof TemplateKey)) {
+                return false;
+            }
+            TemplateKey other = (TemplateKey) obj;
+            return entityClasses.equals(other.entityClasses)
+                    && Objects.equals(persistenceUnitName,
+                            other.persistenceUnitName);
+        }
+    }
+
+    private static class TemplateDatabase {
+        private final String databaseName;
+        private final File schemeChecksumFile;
+
+        TemplateDatabase(String databaseName,
+                File schemeChecksumFile) {
+            this.databaseName = databaseName;
+            this.schemeChecksumFile = schemeChecksumFile;
+        }
+    }
+}
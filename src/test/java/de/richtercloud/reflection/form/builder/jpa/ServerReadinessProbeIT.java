@@ -0,0 +1,181 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Shows that {@link ServerReadinessProbe} waits for the ready log line and
+ * the protocol probe, fails fast if the server process exits and that the
+ * PostgreSQL probe recognizes an answer to an {@code SSLRequest} and the
+ * MySQL probe a handshake packet. Server processes are simulated with shell
+ * commands and servers with sockets.
+ *
+ * @author richter
+ */
+public class ServerReadinessProbeIT {
+    private final static String READY_LINE = "LOG:  database system is ready to accept connections";
+    private final static long TIMEOUT_MILLIS = 10000;
+    @Rule
+    public final ITResourceRule resources = new ITResourceRule();
+
+    @Test
+    public void testReadyAfterLogLine() throws IOException,
+            InterruptedException {
+        File logFile = resources.getScope().createTempPath(ServerReadinessProbeIT.class.getSimpleName()+".log");
+        Process process = startShell(String.format("echo 'LOG:  starting' >> '%1$s'; sleep 0.5; echo '%2$s' >> '%1$s'; exec sleep 30",
+                logFile.getAbsolutePath(),
+                READY_LINE));
+        AtomicInteger probeCount = new AtomicInteger();
+        try {
+            long waited = new ServerReadinessProbe(process,
+                    logFile,
+                    ServerReadinessProbe.POSTGRESQL_READY_PATTERN,
+                    () -> {
+                        probeCount.incrementAndGet();
+                        return true;
+                    },
+                    TIMEOUT_MILLIS).await();
+            assertTrue(new String(Files.readAllBytes(logFile.toPath()),
+                    StandardCharsets.UTF_8).contains(READY_LINE));
+            assertEquals("server has been probed before the ready line has been logged",
+                    1,
+                    probeCount.get());
+            assertTrue(String.format("waited %d ms for a server ready after 500 ms",
+                            waited),
+                    waited < TIMEOUT_MILLIS/2);
+        }finally {
+            process.destroyForcibly();
+        }
+    }
+
+    @Test
+    public void testProcessExit() throws IOException,
+            InterruptedException {
+        File logFile = resources.getScope().createTempPath(ServerReadinessProbeIT.class.getSimpleName()+".log");
+        Process process = startShell(String.format("echo 'FATAL:  lock file already exists' >> '%s'; exit 3",
+                logFile.getAbsolutePath()));
+        long start = System.currentTimeMillis();
+        try {
+            new ServerReadinessProbe(process,
+                    logFile,
+                    ServerReadinessProbe.POSTGRESQL_READY_PATTERN,
+                    () -> true,
+                    TIMEOUT_MILLIS).await();
+            fail("IOException expected");
+        }catch(IOException expected) {
+            assertTrue(expected.getMessage(),
+                    expected.getMessage().contains("lock file already exists"));
+        }
+        assertTrue(System.currentTimeMillis()-start < TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void testPostgresqlProbe() throws IOException,
+            InterruptedException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread server = new Thread(() -> {
+                try (Socket socket = serverSocket.accept()) {
+                    DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+                    int length = inputStream.readInt();
+                    int code = inputStream.readInt();
+                    if(length == 8 && code == 80877103) {
+                        socket.getOutputStream().write('N');
+                            //SSL not supported
+                    }
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+            server.start();
+            assertTrue(ServerReadinessProbe.postgresqlProbe("localhost",
+                    serverSocket.getLocalPort()).probe());
+            server.join();
+        }
+        assertFalse(ServerReadinessProbe.postgresqlProbe("localhost",
+                findClosedPort()).probe());
+    }
+
+    @Test
+    public void testMysqlProbe() throws IOException,
+            InterruptedException {
+        byte[] handshakePayload = new byte[] {10, '5', '.', '7', 0};
+            //protocol version and the beginning of the server version
+        assertTrue(probeMysql(handshakePayload));
+        byte[] errorPayload = new byte[] {(byte)0xff, 0x10, 0x04};
+            //error packet with error code 1040 (too many connections)
+        assertFalse(probeMysql(errorPayload));
+        assertFalse(ServerReadinessProbe.mysqlProbe("localhost",
+                findClosedPort()).probe());
+    }
+
+    @Test
+    public void testMysqlReadyPattern() {
+        assertTrue(ServerReadinessProbe.MYSQL_READY_PATTERN.matcher("2018-11-10T12:00:00.000000Z 0 [Note] /home/user/mysql-5.7.24/bin/mysqld: ready for connections.").matches());
+        assertFalse(ServerReadinessProbe.MYSQL_READY_PATTERN.matcher("2018-11-10T12:00:00.000000Z 0 [Note] InnoDB: Starting shutdown...").matches());
+    }
+
+    /**
+     * Probes a simulated MySQL server which sends {@code payload} in one
+     * packet after accepting the connection.
+     */
+    private static boolean probeMysql(byte[] payload) throws IOException,
+            InterruptedException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread server = new Thread(() -> {
+                try (Socket socket = serverSocket.accept()) {
+                    OutputStream outputStream = socket.getOutputStream();
+                    outputStream.write(new byte[] {(byte)payload.length, 0, 0, 0});
+                        //payload length and sequence number
+                    outputStream.write(payload);
+                    outputStream.flush();
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+            server.start();
+            boolean retValue = ServerReadinessProbe.mysqlProbe("localhost",
+                    serverSocket.getLocalPort()).probe();
+            server.join();
+            return retValue;
+        }
+    }
+
+    private static int findClosedPort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    private static Process startShell(String command) throws IOException {
+        return new ProcessBuilder("sh", "-c", command)
+                .redirectErrorStream(true)
+                .start();
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.accessor;
+
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityB;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityC;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityD;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityE;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityF;
+import java.lang.reflect.Field;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares reading and writing relationship fields of the test entities
+ * through {@link FieldAccessor} against {@link Field#get(java.lang.Object) }
+ * and {@link Field#set(java.lang.Object, java.lang.Object) }. Run with
+ * {@code -Dbenchmark.profilers=gc} in order to compare allocation rates.
+ *
+ * @author richter
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldAccessorBenchmark {
+    @Param({"EntityA.bs", "EntityB.as", "EntityC.ds", "EntityD.c", "EntityE.f", "EntityF.e"})
+    public String field;
+    private Field reflectionField;
+    private FieldAccessor accessor;
+    private Object entity;
+    private Object value;
+
+    @Setup
+    public void setup() throws NoSuchFieldException,
+            IllegalAccessException {
+        String[] fieldParts = field.split("\\.");
+        switch(fieldParts[0]) {
+            case "EntityA":
+                entity = new EntityA(1L);
+                value = new LinkedList<>();
+                break;
+            case "EntityB":
+                entity = new EntityB(1L);
+                value = new LinkedList<>();
+                break;
+            case "EntityC":
+                entity = new EntityC(1L);
+                value = new LinkedList<>();
+                break;
+            case "EntityD":
+                entity = new EntityD(1L);
+                value = new EntityC(2L);
+                break;
+            case "EntityE":
+                entity = new EntityE(1L);
+                value = new EntityF(2L);
+                break;
+            case "EntityF":
+                entity = new EntityF(1L);
+                value = new EntityE(2L);
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("entity class %s isn't supported",
+                        fieldParts[0]));
+        }
+        reflectionField = entity.getClass().getDeclaredField(fieldParts[1]);
+        reflectionField.setAccessible(true);
+        accessor = FieldAccessors.get(reflectionField);
+    }
+
+    @Benchmark
+    public Object reflectionGet() throws IllegalAccessException {
+        return reflectionField.get(entity);
+    }
+
+    @Benchmark
+    public Object accessorGet() {
+        return accessor.get(entity);
+    }
+
+    @Benchmark
+    public void reflectionSet() throws IllegalAccessException {
+        reflectionField.set(entity,
+                value);
+    }
+
+    @Benchmark
+    public void accessorSet() {
+        accessor.set(entity,
+                value);
+    }
+
+    /**
+     * Includes the lookup of the accessor in the cache which is what callers
+     * passing {@link Field}s do.
+     */
+    @Benchmark
+    public Object cachedAccessorGet() throws IllegalAccessException {
+        return FieldAccessors.get(reflectionField).get(entity);
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.async;
+
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.executor.AdaptiveQueryExecutor;
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Shows that stores and retrieves submitted interleaved to an
+ * {@link AsyncPersistenceStorage} are ordered per entity, also with an
+ * executor running operations in the submitting thread, and that saturation
+ * and interruption are handled according to the {@link SaturationPolicy}.
+ *
+ * @author richter
+ */
+public class AsyncPersistenceStorageIT {
+    private final static int ENTITY_COUNT = 500;
+    private final static int MAX_PENDING = 32;
+
+    @Test
+    public void testDerby() throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            InterruptedException,
+            ExecutionException {
+        testInterleaved(ITStorageBackend.DERBY);
+        testReject(ITStorageBackend.DERBY);
+        testCallerRunsExecutor(ITStorageBackend.DERBY);
+        testInterruptedBlock(ITStorageBackend.DERBY);
+    }
+
+    @Test
+    public void testPostgresql() throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            InterruptedException,
+            ExecutionException {
+        testInterleaved(ITStorageBackend.POSTGRESQL);
+        testReject(ITStorageBackend.POSTGRESQL);
+        testCallerRunsExecutor(ITStorageBackend.POSTGRESQL);
+        testInterruptedBlock(ITStorageBackend.POSTGRESQL);
+    }
+
+    /**
+     * Submits a store and a retrieve of every entity without waiting, so that
+     * only the ordering per entity guarantees that every retrieve finds the
+     * stored entity.
+     */
+    private void testInterleaved(ITStorageBackend backend) throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            InterruptedException,
+            ExecutionException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        PersistenceStorage<Long> storage = backend.startStorage(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                10 //parallelQueryCount
+        );
+        try (AdaptiveQueryExecutor executor = AdaptiveQueryExecutor.create(1,
+                10, //maxConcurrency
+                false //virtualThreads
+        )) {
+            AsyncPersistenceStorage<Long> instance = new AsyncPersistenceStorage<>(storage,
+                    executor,
+                    MAX_PENDING,
+                    SaturationPolicy.BLOCK);
+            List<CompletableFuture<Void>> stores = new ArrayList<>(ENTITY_COUNT);
+            List<CompletableFuture<EntityA>> retrievals = new ArrayList<>(ENTITY_COUNT);
+            for(long i = 0; i < ENTITY_COUNT; i++) {
+                stores.add(instance.storeAsync(new EntityA(i+1)));
+                retrievals.add(instance.retrieveAsync(i+1,
+                        EntityA.class));
+                assertTrue(instance.getPendingCount() <= MAX_PENDING);
+            }
+            CompletableFuture.allOf(stores.toArray(new CompletableFuture<?>[stores.size()])).get();
+            for(int i = 0; i < ENTITY_COUNT; i++) {
+                EntityA retrieved = retrievals.get(i).get();
+                assertNotNull(String.format("entity %d hasn't been stored before it has been retrieved",
+                                i+1),
+                        retrieved);
+                assertEquals(Long.valueOf(i+1),
+                        retrieved.getId());
+            }
+            long count = instance.runQueryAsync(asyncStorage -> {
+                int found = 0;
+                for(long i = 0; i < ENTITY_COUNT; i++) {
+                    try {
+                        if(asyncStorage.retrieve(i+1, EntityA.class) != null) {
+                            found++;
+                        }
+                    } catch (StorageException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+                return found;
+            }).get();
+            assertEquals(ENTITY_COUNT,
+                    count);
+        }finally {
+            ITStorageBackend.shutdownStorage(storage);
+        }
+    }
+
+    private void testReject(ITStorageBackend backend) throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            InterruptedException,
+            ExecutionException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        PersistenceStorage<Long> storage = backend.startStorage(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                10 //parallelQueryCount
+        );
+        CountDownLatch blockingQueryLatch = new CountDownLatch(1);
+        try (AdaptiveQueryExecutor executor = AdaptiveQueryExecutor.create(1,
+                10, //maxConcurrency
+                false //virtualThreads
+        )) {
+            AsyncPersistenceStorage<Long> instance = new AsyncPersistenceStorage<>(storage,
+                    executor,
+                    1, //maxPending
+                    SaturationPolicy.REJECT);
+            CompletableFuture<Void> blockingQuery = instance.runQueryAsync(asyncStorage -> {
+                try {
+                    blockingQueryLatch.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            });
+            CompletableFuture<Void> rejected = instance.storeAsync(new EntityA(1L));
+            try {
+                rejected.get();
+                fail("RejectedExecutionException expected");
+            }catch(ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof RejectedExecutionException);
+            }
+            blockingQueryLatch.countDown();
+            blockingQuery.get();
+        }finally {
+            blockingQueryLatch.countDown();
+            ITStorageBackend.shutdownStorage(storage);
+        }
+    }
+
+    /**
+     * Runs the operations in the submitting thread, so that the completion of
+     * an operation removes its tail while it's being submitted, which has to
+     * neither deadlock nor fail.
+     */
+    private void testCallerRunsExecutor(ITStorageBackend backend) throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            InterruptedException,
+            ExecutionException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        PersistenceStorage<Long> storage = backend.startStorage(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                10 //parallelQueryCount
+        );
+        try {
+            AsyncPersistenceStorage<Long> instance = new AsyncPersistenceStorage<>(storage,
+                    Runnable::run,
+                    MAX_PENDING,
+                    SaturationPolicy.BLOCK);
+            for(long i = 0; i < ENTITY_COUNT; i++) {
+                CompletableFuture<Void> store = instance.storeAsync(new EntityA(i+1));
+                CompletableFuture<EntityA> retrieval = instance.retrieveAsync(i+1,
+                        EntityA.class);
+                assertTrue(store.isDone());
+                assertEquals(Long.valueOf(i+1),
+                        retrieval.get().getId());
+            }
+            assertEquals(0,
+                    instance.getPendingCount());
+        }finally {
+            ITStorageBackend.shutdownStorage(storage);
+        }
+    }
+
+    /**
+     * Interrupts the submitting thread while all permits are held, so that
+     * the submission is completed with the {@link InterruptedException}
+     * instead of being reported as saturation and the interrupt flag is kept.
+     */
+    private void testInterruptedBlock(ITStorageBackend backend) throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            InterruptedException,
+            ExecutionException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        PersistenceStorage<Long> storage = backend.startStorage(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                10 //parallelQueryCount
+        );
+        CountDownLatch blockingQueryLatch = new CountDownLatch(1);
+        try (AdaptiveQueryExecutor executor = AdaptiveQueryExecutor.create(1,
+                10, //maxConcurrency
+                false //virtualThreads
+        )) {
+            AsyncPersistenceStorage<Long> instance = new AsyncPersistenceStorage<>(storage,
+                    executor,
+                    1, //maxPending
+                    SaturationPolicy.BLOCK);
+            CompletableFuture<Void> blockingQuery = instance.runQueryAsync(asyncStorage -> {
+                try {
+                    blockingQueryLatch.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            });
+            Thread.currentThread().interrupt();
+            CompletableFuture<Void> interrupted = instance.storeAsync(new EntityA(1L));
+            assertTrue(Thread.interrupted());
+                //clears the flag, so that the following get doesn't fail
+            try {
+                interrupted.get();
+                fail("InterruptedException expected");
+            }catch(ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof InterruptedException);
+            }
+            blockingQueryLatch.countDown();
+            blockingQuery.get();
+        }finally {
+            blockingQueryLatch.countDown();
+            ITStorageBackend.shutdownStorage(storage);
+        }
+    }
+}
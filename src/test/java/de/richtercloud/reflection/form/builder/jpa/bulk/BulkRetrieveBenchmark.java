@@ -0,0 +1,175 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.bulk;
+
+import de.richtercloud.reflection.form.builder.jpa.DerbySchemaSnapshot;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.PostgresqlClusterFixture;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares retrieving {@code idCount} entities with
+ * {@link BulkStorage#retrieveAll(java.util.Collection, java.lang.Class) }
+ * against one lookup per ID, which is what calling
+ * {@code PersistenceStorage.retrieve} in a loop does. The shared cache is
+ * disabled, so that both variants query the database.
+ *
+ * @author richter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BulkRetrieveBenchmark {
+    private final static int ENTITY_COUNT = 20000;
+    @Param({"DERBY", "POSTGRESQL", "MYSQL"})
+    public ITStorageBackend backend;
+    @Param({"10", "100", "1000", "5000"})
+    public int idCount;
+    /**
+     * The storage which provides the MySQL server and database, {@code null}
+     * for other backends.
+     */
+    private PersistenceStorage<Long> storage;
+    private EntityManagerFactory entityManagerFactory;
+    private BulkStorage bulkStorage;
+    private List<Long> ids;
+
+    @Setup
+    public void setup() throws IOException,
+            InterruptedException,
+            SQLException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        Map<String, String> properties = new HashMap<>(BulkStorage.batchWritingProperties(BulkStorage.BATCH_SIZE_DEFAULT));
+        properties.put("eclipselink.cache.shared.default",
+                Boolean.FALSE.toString());
+        switch(backend) {
+            case DERBY:
+                entityManagerFactory = DerbySchemaSnapshot.getInstance(entityClasses,
+                        ITStorageBackend.PERSISTENCE_UNIT_NAME).createEntityManagerFactory(DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                                properties);
+                break;
+            case POSTGRESQL:
+                entityManagerFactory = PostgresqlClusterFixture.getInstance().createEntityManagerFactory(entityClasses,
+                        ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                        DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                        properties);
+                break;
+            case MYSQL:
+                storage = backend.startStorage(entityClasses,
+                        ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                        1 //parallelQueryCount
+                );
+                    //starts the server like MySQLSequenceManagerIT and
+                    //creates the schema
+                entityManagerFactory = backend.createEntityManagerFactory(storage,
+                        DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                        properties);
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("backend %s isn't supported",
+                        backend));
+        }
+        bulkStorage = new BulkStorage(entityManagerFactory);
+        List<EntityA> entities = new ArrayList<>(ENTITY_COUNT);
+        for(long i = 0; i < ENTITY_COUNT; i++) {
+            entities.add(new EntityA(i));
+        }
+        bulkStorage.storeAll(entities);
+        ids = new ArrayList<>(idCount);
+        int step = ENTITY_COUNT/idCount;
+        for(long i = 0; i < idCount; i++) {
+            ids.add(i*step);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException,
+            InterruptedException,
+            SQLException {
+        if(entityManagerFactory != null) {
+            if(backend == ITStorageBackend.POSTGRESQL) {
+                PostgresqlClusterFixture.getInstance().closeEntityManagerFactory(entityManagerFactory);
+                    //drops the cloned database
+            }else {
+                entityManagerFactory.close();
+            }
+        }
+        if(storage != null) {
+            ITStorageBackend.shutdownStorage(storage);
+        }
+    }
+
+    @Benchmark
+    public Map<Long, EntityA> retrieveAll() {
+        return bulkStorage.retrieveAll(ids,
+                EntityA.class);
+    }
+
+    /**
+     * Uses one entity manager per ID like {@code PersistenceStorage.retrieve}.
+     */
+    @Benchmark
+    public Map<Long, EntityA> retrievePerId() {
+        Map<Long, EntityA> retValue = new HashMap<>();
+        for(Long id : ids) {
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            try {
+                EntityA entity = entityManager.find(EntityA.class,
+                        id);
+                if(entity != null) {
+                    retValue.put(id,
+                            entity);
+                }
+            }finally {
+                entityManager.close();
+            }
+        }
+        return retValue;
+    }
+}
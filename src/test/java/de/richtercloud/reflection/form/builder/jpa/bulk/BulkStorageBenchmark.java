@@ -0,0 +1,167 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.bulk;
+
+import de.richtercloud.reflection.form.builder.jpa.DerbySchemaSnapshot;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.PostgresqlClusterFixture;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares storing {@code entityCount} entities with
+ * {@link BulkStorage#storeAll(java.util.Collection) } against one transaction
+ * per entity, which is what calling {@code PersistenceStorage.store} in a loop
+ * does. MySQL runs in a server started by a MySQL storage since there's no
+ * shared MySQL server fixture.
+ *
+ * @author richter
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BulkStorageBenchmark {
+    @Param({"DERBY", "POSTGRESQL", "MYSQL"})
+    public ITStorageBackend backend;
+    @Param({"1000", "10000"})
+    public int entityCount;
+    /**
+     * The storage which provides the MySQL server and database, {@code null}
+     * for other backends.
+     */
+    private PersistenceStorage<Long> storage;
+    private EntityManagerFactory entityManagerFactory;
+    private BulkStorage bulkStorage;
+    private long nextId = 1;
+    private List<EntityA> entities;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException,
+            InterruptedException,
+            SQLException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        Map<String, String> properties = BulkStorage.batchWritingProperties(BulkStorage.BATCH_SIZE_DEFAULT);
+        switch(backend) {
+            case DERBY:
+                entityManagerFactory = DerbySchemaSnapshot.getInstance(entityClasses,
+                        ITStorageBackend.PERSISTENCE_UNIT_NAME).createEntityManagerFactory(DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                                properties);
+                break;
+            case POSTGRESQL:
+                entityManagerFactory = PostgresqlClusterFixture.getInstance().createEntityManagerFactory(entityClasses,
+                        ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                        DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                        properties);
+                break;
+            case MYSQL:
+                storage = backend.startStorage(entityClasses,
+                        ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                        1 //parallelQueryCount
+                );
+                    //starts the server like MySQLSequenceManagerIT and
+                    //creates the schema
+                entityManagerFactory = backend.createEntityManagerFactory(storage,
+                        DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                        properties);
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("backend %s isn't supported",
+                        backend));
+        }
+        bulkStorage = new BulkStorage(entityManagerFactory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException,
+            InterruptedException,
+            SQLException {
+        if(entityManagerFactory != null) {
+            if(backend == ITStorageBackend.POSTGRESQL) {
+                PostgresqlClusterFixture.getInstance().closeEntityManagerFactory(entityManagerFactory);
+                    //drops the cloned database
+            }else {
+                entityManagerFactory.close();
+            }
+        }
+        if(storage != null) {
+            ITStorageBackend.shutdownStorage(storage);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        entities = new ArrayList<>(entityCount);
+        for(int i = 0; i < entityCount; i++) {
+            entities.add(new EntityA(nextId++));
+        }
+    }
+
+    @Benchmark
+    public int storeAll() {
+        return bulkStorage.storeAll(entities);
+    }
+
+    /**
+     * Uses one entity manager and transaction per entity like
+     * {@code PersistenceStorage.store}.
+     */
+    @Benchmark
+    public int storePerEntity() {
+        for(EntityA entity : entities) {
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            try {
+                entityManager.getTransaction().begin();
+                entityManager.persist(entity);
+                entityManager.getTransaction().commit();
+            }finally {
+                entityManager.close();
+            }
+        }
+        return entities.size();
+    }
+}
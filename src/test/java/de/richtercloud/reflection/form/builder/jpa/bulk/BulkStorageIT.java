@@ -0,0 +1,306 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.bulk;
+
+import de.richtercloud.reflection.form.builder.jpa.DerbySchemaSnapshot;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityC;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityD;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Shows that {@link BulkStorage#storeAll(java.util.Collection) } stores more
+ * entities than fit into one flush and clear interval and rolls back
+ * everything if one entity can't be stored or refers to an entity which has
+ * been detached by clearing and that
+ * {@link BulkStorage#retrieveAll(java.util.Collection, java.lang.Class) }
+ * retrieves entities across chunks. Storing doesn't retain entities beyond
+ * the most recent clear interval.
+ *
+ * @author richter
+ */
+public class BulkStorageIT {
+    private final static int ENTITY_COUNT = 25000;
+    private final static int FLUSH_INTERVAL = 1000;
+    private final static int CLEAR_INTERVAL = 5000;
+    /**
+     * The number of entities stored in {@link #testStoreAllHeapBounded() }
+     * which is large enough that retaining all of them would exceed
+     * {@link #HEAP_GROWTH_MAX_BYTES}.
+     */
+    private final static int HEAP_ENTITY_COUNT = 500000;
+    private final static long HEAP_GROWTH_MAX_BYTES = 32L*1024*1024;
+    private EntityManagerFactory entityManagerFactory;
+
+    @Before
+    public void setUp() throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            SQLException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        entityManagerFactory = DerbySchemaSnapshot.getInstance(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME).createEntityManagerFactory(DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                        BulkStorage.batchWritingProperties(FLUSH_INTERVAL));
+    }
+
+    @After
+    public void tearDown() {
+        if(entityManagerFactory != null) {
+            entityManagerFactory.close();
+        }
+    }
+
+    @Test
+    public void testStoreAll() {
+        BulkStorage instance = new BulkStorage(entityManagerFactory,
+                FLUSH_INTERVAL,
+                CLEAR_INTERVAL);
+        List<EntityA> entities = new ArrayList<>(ENTITY_COUNT);
+        for(long i = 0; i < ENTITY_COUNT; i++) {
+            entities.add(new EntityA(i));
+        }
+        int result = instance.storeAll(entities);
+        assertEquals(ENTITY_COUNT,
+                result);
+        assertEquals(ENTITY_COUNT,
+                countEntityAs());
+    }
+
+    @Test
+    public void testStoreAllRollback() {
+        BulkStorage instance = new BulkStorage(entityManagerFactory,
+                FLUSH_INTERVAL,
+                CLEAR_INTERVAL);
+        List<EntityA> entities = new ArrayList<>(ENTITY_COUNT);
+        for(long i = 0; i < ENTITY_COUNT; i++) {
+            entities.add(new EntityA(i));
+        }
+        entities.add(new EntityA(0L));
+            //duplicate primary key after the last clear
+        try {
+            instance.storeAll(entities);
+            fail("PersistenceException expected");
+        }catch(PersistenceException expected) {
+            //expected
+        }
+        assertEquals(0,
+                countEntityAs());
+    }
+
+    /**
+     * Retrieves more IDs than fit into one chunk including duplicates and IDs
+     * without entity.
+     */
+    @Test
+    public void testRetrieveAll() {
+        int inChunkSize = 1000;
+        BulkStorage instance = new BulkStorage(entityManagerFactory,
+                FLUSH_INTERVAL,
+                CLEAR_INTERVAL,
+                inChunkSize);
+        List<EntityA> entities = new ArrayList<>(ENTITY_COUNT);
+        for(long i = 0; i < ENTITY_COUNT; i++) {
+            entities.add(new EntityA(i));
+        }
+        instance.storeAll(entities);
+        List<Long> ids = new ArrayList<>();
+        for(long i = 0; i < 2*inChunkSize+inChunkSize/2; i++) {
+            ids.add(i*7);
+        }
+        ids.add(0L);
+            //duplicate
+        ids.add((long)ENTITY_COUNT);
+            //doesn't exist
+        Map<Long, EntityA> result = instance.retrieveAll(ids,
+                EntityA.class);
+        assertEquals(2*inChunkSize+inChunkSize/2,
+                result.size());
+        for(Map.Entry<Long, EntityA> entry : result.entrySet()) {
+            assertEquals(entry.getKey(),
+                    entry.getValue().getId());
+        }
+        assertFalse(result.containsKey((long)ENTITY_COUNT));
+    }
+
+    /**
+     * Stores entities which refer to entities within the same portion of
+     * {@code CLEAR_INTERVAL} entities and shows that a reference to an entity
+     * which has been detached by clearing is rejected and rolls back
+     * everything.
+     */
+    @Test
+    public void testStoreAllCrossReference() throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            SQLException,
+            NoSuchFieldException,
+            IllegalAccessException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityC.class,
+                EntityD.class));
+        EntityManagerFactory crossReferenceEntityManagerFactory = DerbySchemaSnapshot.getInstance(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME).createEntityManagerFactory(DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                        BulkStorage.batchWritingProperties(FLUSH_INTERVAL));
+        try {
+            BulkStorage instance = new BulkStorage(crossReferenceEntityManagerFactory,
+                    FLUSH_INTERVAL,
+                    CLEAR_INTERVAL);
+            Field cField = EntityD.class.getDeclaredField("c");
+            cField.setAccessible(true);
+            List<Object> entities = new ArrayList<>(2*CLEAR_INTERVAL);
+            for(long i = 0; i < 2*CLEAR_INTERVAL; i += 2) {
+                EntityC entityC = new EntityC(i);
+                EntityD entityD = new EntityD(i+1);
+                cField.set(entityD,
+                        entityC);
+                entities.add(entityC);
+                entities.add(entityD);
+            }
+                //pairs don't span a clear since CLEAR_INTERVAL is even
+            assertEquals(2*CLEAR_INTERVAL,
+                    instance.storeAll(entities));
+            assertEquals(CLEAR_INTERVAL,
+                    countEntities(crossReferenceEntityManagerFactory,
+                            EntityD.class));
+            List<Object> crossReferenceEntities = new ArrayList<>(CLEAR_INTERVAL+1);
+            EntityC detachedEntityC = new EntityC((long)2*CLEAR_INTERVAL);
+            crossReferenceEntities.add(detachedEntityC);
+            for(long i = 1; i < CLEAR_INTERVAL; i++) {
+                crossReferenceEntities.add(new EntityC(2*CLEAR_INTERVAL+i));
+            }
+            EntityD crossReferenceEntityD = new EntityD((long)3*CLEAR_INTERVAL);
+            cField.set(crossReferenceEntityD,
+                    detachedEntityC);
+            crossReferenceEntities.add(crossReferenceEntityD);
+                //stored after the first clear
+            try {
+                instance.storeAll(crossReferenceEntities);
+                fail("IllegalArgumentException expected");
+            }catch(IllegalArgumentException expected) {
+                //expected
+            }
+            assertEquals(CLEAR_INTERVAL,
+                    countEntities(crossReferenceEntityManagerFactory,
+                            EntityC.class));
+            assertEquals(CLEAR_INTERVAL,
+                    countEntities(crossReferenceEntityManagerFactory,
+                            EntityD.class));
+        }finally {
+            crossReferenceEntityManagerFactory.close();
+        }
+    }
+
+    /**
+     * Stores entities which are generated while iterating and checks that the
+     * heap doesn't grow with their number, i.e. that only the entities of the
+     * current and the most recently cleared interval are retained.
+     */
+    @Test
+    public void testStoreAllHeapBounded() {
+        BulkStorage instance = new BulkStorage(entityManagerFactory,
+                FLUSH_INTERVAL,
+                CLEAR_INTERVAL);
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long[] heapUsed = new long[2];
+        Collection<EntityA> entities = new AbstractCollection<EntityA>() {
+            @Override
+            public Iterator<EntityA> iterator() {
+                return new Iterator<EntityA>() {
+                    private long next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < HEAP_ENTITY_COUNT;
+                    }
+
+                    @Override
+                    public EntityA next() {
+                        if(!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        if(next == HEAP_ENTITY_COUNT/10) {
+                            memory.gc();
+                            heapUsed[0] = memory.getHeapMemoryUsage().getUsed();
+                        }else if(next == HEAP_ENTITY_COUNT-1) {
+                            memory.gc();
+                            heapUsed[1] = memory.getHeapMemoryUsage().getUsed();
+                        }
+                        EntityA retValue = new EntityA(next);
+                        next++;
+                        return retValue;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return HEAP_ENTITY_COUNT;
+            }
+        };
+        int result = instance.storeAll(entities);
+        assertEquals(HEAP_ENTITY_COUNT,
+                result);
+        assertTrue(String.format("heap grew by %d bytes while storing %d entities",
+                        heapUsed[1]-heapUsed[0],
+                        HEAP_ENTITY_COUNT),
+                heapUsed[1]-heapUsed[0] < HEAP_GROWTH_MAX_BYTES);
+    }
+
+    private long countEntityAs() {
+        return countEntities(entityManagerFactory,
+                EntityA.class);
+    }
+
+    private static long countEntities(EntityManagerFactory entityManagerFactory,
+            Class<?> entityClass) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            return entityManager.createQuery(String.format("SELECT COUNT(e) FROM %s e",
+                            entityClass.getSimpleName()),
+                    Long.class).getSingleResult();
+        }finally {
+            entityManager.close();
+        }
+    }
+}
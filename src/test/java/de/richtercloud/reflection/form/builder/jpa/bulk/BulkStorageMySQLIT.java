@@ -0,0 +1,110 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.bulk;
+
+import de.richtercloud.reflection.form.builder.jpa.DerbySchemaSnapshot;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Shows that {@link BulkStorage} works with MySQL, i.e. that
+ * {@link BulkStorage#storeAll(java.util.Collection) } stores with rewritten
+ * batches and that {@link BulkStorage#retrieveAll(java.util.Collection, java.lang.Class) }
+ * uses {@link BulkStorage#IN_CHUNK_SIZE_MYSQL} IDs per query. The server is
+ * started by a MySQL storage like in {@code MySQLSequenceManagerIT}.
+ *
+ * @author richter
+ */
+public class BulkStorageMySQLIT {
+    private final static int ENTITY_COUNT = BulkStorage.IN_CHUNK_SIZE_MYSQL+1000;
+        //more than one chunk
+    private PersistenceStorage<Long> storage;
+    private EntityManagerFactory entityManagerFactory;
+
+    @Before
+    public void setUp() throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        storage = ITStorageBackend.MYSQL.startStorage(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                1 //parallelQueryCount
+        );
+        entityManagerFactory = ITStorageBackend.MYSQL.createEntityManagerFactory(storage,
+                DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                BulkStorage.batchWritingProperties(BulkStorage.BATCH_SIZE_DEFAULT));
+    }
+
+    @After
+    public void tearDown() {
+        if(entityManagerFactory != null) {
+            entityManagerFactory.close();
+        }
+        if(storage != null) {
+            ITStorageBackend.shutdownStorage(storage);
+        }
+    }
+
+    @Test
+    public void testStoreAllRetrieveAll() {
+        BulkStorage instance = new BulkStorage(entityManagerFactory);
+        assertEquals(BulkStorage.IN_CHUNK_SIZE_MYSQL,
+                instance.getInChunkSize());
+        assertTrue(((String)entityManagerFactory.getProperties().get("javax.persistence.jdbc.url")).contains("rewriteBatchedStatements=true"));
+        List<EntityA> entities = new ArrayList<>(ENTITY_COUNT);
+        List<Long> ids = new ArrayList<>(ENTITY_COUNT);
+        for(long i = 0; i < ENTITY_COUNT; i++) {
+            entities.add(new EntityA(i));
+            ids.add(i);
+        }
+        assertEquals(ENTITY_COUNT,
+                instance.storeAll(entities));
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            assertEquals(ENTITY_COUNT,
+                    (long)entityManager.createQuery("SELECT COUNT(a) FROM EntityA a",
+                            Long.class).getSingleResult());
+        }finally {
+            entityManager.close();
+        }
+        Map<Long, EntityA> result = instance.retrieveAll(ids,
+                EntityA.class);
+        assertEquals(ENTITY_COUNT,
+                result.size());
+        for(Map.Entry<Long, EntityA> entry : result.entrySet()) {
+            assertEquals(entry.getKey(),
+                    entry.getValue().getId());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.bulk;
+
+import de.richtercloud.reflection.form.builder.jpa.DerbySchemaSnapshot;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.PostgresqlClusterFixture;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import javax.persistence.EntityManagerFactory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shows that {@link BulkStorage#streamAll(java.lang.Class) } iterates over
+ * one million rows in ID order while the used heap stays flat. The used heap
+ * is measured after garbage collection once the first tenth of the rows has
+ * been read and again before the last row, and mustn't grow by more than
+ * {@link #HEAP_GROWTH_MAX_BYTES}, whereas holding all entities would take
+ * several times that.
+ *
+ * @author richter
+ */
+public class BulkStorageStreamIT {
+    private final static Logger LOGGER = LoggerFactory.getLogger(BulkStorageStreamIT.class);
+    private final static long ROW_COUNT = 1000000;
+    private final static long HEAP_GROWTH_MAX_BYTES = 32L*1024*1024;
+
+    @Test
+    @SuppressWarnings("PMD.SignatureDeclareThrowsException")
+    public void testDerby() throws Exception {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        EntityManagerFactory entityManagerFactory = DerbySchemaSnapshot.getInstance(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME).createEntityManagerFactory(DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                        BulkStorage.batchWritingProperties(BulkStorage.BATCH_SIZE_DEFAULT));
+        try {
+            testStream(entityManagerFactory,
+                    ITStorageBackend.DERBY);
+        }finally {
+            entityManagerFactory.close();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("PMD.SignatureDeclareThrowsException")
+    public void testPostgresql() throws Exception {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        PostgresqlClusterFixture clusterFixture = PostgresqlClusterFixture.getInstance();
+        EntityManagerFactory entityManagerFactory = clusterFixture.createEntityManagerFactory(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                BulkStorage.batchWritingProperties(BulkStorage.BATCH_SIZE_DEFAULT));
+        try {
+            testStream(entityManagerFactory,
+                    ITStorageBackend.POSTGRESQL);
+        }finally {
+            clusterFixture.closeEntityManagerFactory(entityManagerFactory);
+                //drops the cloned database
+        }
+    }
+
+    private void testStream(EntityManagerFactory entityManagerFactory,
+            ITStorageBackend backend) {
+        BulkStorage instance = new BulkStorage(entityManagerFactory);
+        Iterator<Set<EntityA>> groups = LongStream.rangeClosed(1, ROW_COUNT)
+                .mapToObj(id -> Collections.singleton(new EntityA(id)))
+                .iterator();
+        assertEquals(ROW_COUNT,
+                instance.storeGroups(groups));
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long expectedId = 1;
+        long heapUsedStart = -1;
+        long heapUsedEnd = -1;
+        try (Stream<EntityA> stream = instance.streamAll(EntityA.class)) {
+            Iterator<EntityA> iterator = stream.iterator();
+            while(iterator.hasNext()) {
+                EntityA entity = iterator.next();
+                assertEquals(Long.valueOf(expectedId),
+                        entity.getId());
+                if(expectedId == ROW_COUNT/10) {
+                    memory.gc();
+                    heapUsedStart = memory.getHeapMemoryUsage().getUsed();
+                }else if(expectedId == ROW_COUNT-1) {
+                    memory.gc();
+                    heapUsedEnd = memory.getHeapMemoryUsage().getUsed();
+                }
+                expectedId++;
+            }
+        }
+        assertEquals(ROW_COUNT+1,
+                expectedId);
+        LOGGER.info(String.format("%s: used heap %d bytes after %d rows and %d bytes after %d rows",
+                backend,
+                heapUsedStart,
+                ROW_COUNT/10,
+                heapUsedEnd,
+                ROW_COUNT-1));
+        assertTrue(String.format("heap grew by %d bytes while streaming",
+                        heapUsedEnd-heapUsedStart),
+                heapUsedEnd-heapUsedStart < HEAP_GROWTH_MAX_BYTES);
+    }
+}
@@ -0,0 +1,314 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.cache;
+
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.accessor.EntityKey;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityAMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityAMappedByInverse;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityBMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityBMappedByInverse;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityCMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityDMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityEMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityEMappedByInverse;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityFMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityFMappedByInverse;
+import de.richtercloud.reflection.form.builder.jpa.relation.BidirectionalRelationshipBatch;
+import de.richtercloud.reflection.form.builder.jpa.relation.RelationshipIndex;
+import de.richtercloud.reflection.form.builder.jpa.relation.RelationshipMapping;
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Shows that retrieving through a {@link CachingPersistenceStorage} returns
+ * the same relationships on both sides as retrieving from the storage after
+ * linking and unlinking entities with a
+ * {@link BidirectionalRelationshipBatch} for the mappedBy and inverse
+ * mappedBy entity variants.
+ *
+ * @author richter
+ */
+public class CachingPersistenceStorageIT {
+    private final static int MAXIMUM_SIZE = 100;
+    private PersistenceStorage<Long> storage;
+    private RelationshipIndex relationshipIndex;
+    private CachingPersistenceStorage<Long> instance;
+    private long nextId = 1;
+
+    @Before
+    public void setUp() throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            IllegalAccessException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityAMappedBy.class,
+                EntityBMappedBy.class,
+                EntityCMappedBy.class,
+                EntityDMappedBy.class,
+                EntityEMappedBy.class,
+                EntityFMappedBy.class,
+                EntityAMappedByInverse.class,
+                EntityBMappedByInverse.class,
+                EntityEMappedByInverse.class,
+                EntityFMappedByInverse.class));
+        storage = ITStorageBackend.DERBY.startStorage(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                1 //parallelQueryCount
+        );
+        relationshipIndex = RelationshipIndex.getInstance(entityClasses);
+        instance = new CachingPersistenceStorage<>(storage,
+                relationshipIndex,
+                new EntityCache(MAXIMUM_SIZE,
+                        EntityCache.TIME_TO_LIVE_UNLIMITED,
+                        TimeUnit.MILLISECONDS,
+                        EvictionPolicy.LRU));
+    }
+
+    @After
+    public void tearDown() {
+        if(storage != null) {
+            ITStorageBackend.shutdownStorage(storage);
+        }
+    }
+
+    @Test
+    public void testMappedBy() throws ReflectiveOperationException,
+            StorageException {
+        testLinkAndUnlink(EntityAMappedBy.class,
+                "bs",
+                EntityBMappedBy.class,
+                "as");
+        testLinkAndUnlink(EntityCMappedBy.class,
+                "ds",
+                EntityDMappedBy.class,
+                "c");
+        testLinkAndUnlink(EntityEMappedBy.class,
+                "f",
+                EntityFMappedBy.class,
+                "e");
+        assertTrue(instance.getCache().getStats().getHitCount() > 0);
+    }
+
+    /**
+     * One-to-many relationships can't have the mappedBy attribute on the
+     * other side, so that only many-to-many and one-to-one are tested.
+     */
+    @Test
+    public void testMappedByInverse() throws ReflectiveOperationException,
+            StorageException {
+        testLinkAndUnlink(EntityAMappedByInverse.class,
+                "bs",
+                EntityBMappedByInverse.class,
+                "as");
+        testLinkAndUnlink(EntityEMappedByInverse.class,
+                "f",
+                EntityFMappedByInverse.class,
+                "e");
+        assertTrue(instance.getCache().getStats().getHitCount() > 0);
+    }
+
+    /**
+     * Shows that storing a cached instance after removing an element from its
+     * mappedBy collection in place invalidates the removed element without
+     * {@link CachingPersistenceStorage#invalidate(BidirectionalRelationshipBatch) },
+     * although the cached instance doesn't reference it anymore.
+     */
+    @Test
+    public void testRemoveFromCachedMappedByCollection() throws ReflectiveOperationException,
+            StorageException {
+        testRemoveFromCachedCollection(EntityAMappedBy.class,
+                "bs",
+                EntityBMappedBy.class,
+                "as");
+        testRemoveFromCachedCollection(EntityCMappedBy.class,
+                "ds",
+                EntityDMappedBy.class,
+                "c");
+    }
+
+    private void testRemoveFromCachedCollection(Class<?> entityClass,
+            String fieldName,
+            Class<?> inverseEntityClass,
+            String mappedFieldName) throws ReflectiveOperationException,
+            StorageException {
+        Field field = entityClass.getDeclaredField(fieldName);
+        Field mappedField = inverseEntityClass.getDeclaredField(mappedFieldName);
+        List<Object> inverseEntities = new ArrayList<>(2);
+        for(int i = 0; i < 2; i++) {
+            Object inverseEntity = newEntity(inverseEntityClass);
+            instance.store(inverseEntity);
+            inverseEntities.add(inverseEntity);
+        }
+        Object entity = newEntity(entityClass);
+        BidirectionalRelationshipBatch batch = new BidirectionalRelationshipBatch(relationshipIndex);
+        batch.add(entity,
+                field,
+                mappedField,
+                inverseEntities);
+        batch.apply();
+        instance.store(entity);
+        //cache the inverse entities referencing entity
+        for(Object inverseEntity : inverseEntities) {
+            assertConsistent(inverseEntity);
+        }
+        Object entityCached = retrieve(entity);
+        Collection<?> elements = (Collection<?>)relationshipIndex.getMapping(field).getAccessor().get(entityCached);
+        List<Object> remaining = new ArrayList<>(elements);
+        remaining.removeIf(element -> EntityKey.of(element).equals(EntityKey.of(inverseEntities.get(0))));
+        batch = new BidirectionalRelationshipBatch(relationshipIndex);
+        batch.add(entityCached,
+                field,
+                mappedField,
+                remaining);
+        batch.apply();
+        assertEquals(1,
+                ((Collection<?>)relationshipIndex.getMapping(field).getAccessor().get(entityCached)).size());
+        instance.store(entityCached);
+        assertConsistent(entity);
+        for(Object inverseEntity : inverseEntities) {
+            assertConsistent(inverseEntity);
+        }
+    }
+
+    /**
+     * Caches the inverse entities, links them to a new entity which is the
+     * only one stored like after editing it in a form, unlinks one of them
+     * from the cached instance and checks that the cache is consistent with
+     * the storage after each step.
+     */
+    private void testLinkAndUnlink(Class<?> entityClass,
+            String fieldName,
+            Class<?> inverseEntityClass,
+            String mappedFieldName) throws ReflectiveOperationException,
+            StorageException {
+        Field field = entityClass.getDeclaredField(fieldName);
+        Field mappedField = inverseEntityClass.getDeclaredField(mappedFieldName);
+        boolean collectionValued = relationshipIndex.getMapping(field).isCollectionValued();
+        int inverseEntityCount = collectionValued ? 2 : 1;
+        List<Object> inverseEntities = new ArrayList<>(inverseEntityCount);
+        for(int i = 0; i < inverseEntityCount; i++) {
+            Object inverseEntity = newEntity(inverseEntityClass);
+            instance.store(inverseEntity);
+            inverseEntities.add(inverseEntity);
+        }
+        for(Object inverseEntity : inverseEntities) {
+            Object retrieved = retrieve(inverseEntity);
+            assertSame(retrieved,
+                    retrieve(inverseEntity));
+        }
+        //link
+        Object entity = newEntity(entityClass);
+        BidirectionalRelationshipBatch batch = new BidirectionalRelationshipBatch(relationshipIndex);
+        batch.add(entity,
+                field,
+                mappedField,
+                collectionValued ? inverseEntities : inverseEntities.get(0));
+        batch.apply();
+        instance.store(entity);
+        assertConsistent(entity);
+        for(Object inverseEntity : inverseEntities) {
+            assertConsistent(inverseEntity);
+        }
+        //unlink the first inverse entity from the cached instance in place
+        Object entityCached = retrieve(entity);
+        batch = new BidirectionalRelationshipBatch(relationshipIndex);
+        Object newValue = null;
+        if(collectionValued) {
+            List<Object> remaining = new ArrayList<>((Collection<?>)relationshipIndex.getMapping(field).getAccessor().get(entityCached));
+            remaining.removeIf(element -> EntityKey.of(element).equals(EntityKey.of(inverseEntities.get(0))));
+            newValue = remaining;
+        }
+        batch.add(entityCached,
+                field,
+                mappedField,
+                newValue);
+        batch.apply();
+        instance.store(entityCached);
+        instance.invalidate(batch);
+        assertConsistent(entity);
+        for(Object inverseEntity : inverseEntities) {
+            assertConsistent(inverseEntity);
+        }
+    }
+
+    private Object newEntity(Class<?> entityClass) throws NoSuchMethodException,
+            InstantiationException,
+            IllegalAccessException,
+            InvocationTargetException {
+        return entityClass.getConstructor(Long.class).newInstance(nextId++);
+    }
+
+    private Object retrieve(Object entity) throws StorageException {
+        return instance.retrieve((Long)EntityKey.of(entity).getId(),
+                entity.getClass());
+    }
+
+    /**
+     * Asserts that the cached instance of {@code entity} references the same
+     * entities as the instance retrieved from the storage.
+     */
+    private void assertConsistent(Object entity) throws StorageException {
+        Long id = (Long)EntityKey.of(entity).getId();
+        Object cached = instance.retrieve(id,
+                entity.getClass());
+        Object stored = storage.retrieve(id,
+                entity.getClass());
+        for(RelationshipMapping mapping : relationshipIndex.getMappings()) {
+            if(mapping.getField().getDeclaringClass() != entity.getClass()) {
+                continue;
+            }
+            assertEquals(String.format("cached %s is stale",
+                            mapping),
+                    getRelatedKeys(stored,
+                            mapping),
+                    getRelatedKeys(cached,
+                            mapping));
+        }
+    }
+
+    private Set<EntityKey> getRelatedKeys(Object entity,
+            RelationshipMapping mapping) {
+        Set<EntityKey> retValue = new HashSet<>();
+        Object value = mapping.getAccessor().get(entity);
+        if(value instanceof Collection) {
+            for(Object element : (Collection<?>)value) {
+                retValue.add(EntityKey.of(element));
+            }
+        }else if(value != null) {
+            retValue.add(EntityKey.of(value));
+        }
+        return retValue;
+    }
+}
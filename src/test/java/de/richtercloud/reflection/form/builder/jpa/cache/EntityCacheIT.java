@@ -0,0 +1,144 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.cache;
+
+import de.richtercloud.reflection.form.builder.jpa.accessor.EntityKey;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Shows that {@link EntityCache} evicts according to its
+ * {@link EvictionPolicy}, expires entries and counts hits and misses.
+ *
+ * @author richter
+ */
+public class EntityCacheIT {
+    private final static int MAXIMUM_SIZE = 3;
+
+    @Test
+    public void testLru() {
+        EntityCache instance = new EntityCache(MAXIMUM_SIZE,
+                EntityCache.TIME_TO_LIVE_UNLIMITED,
+                TimeUnit.MILLISECONDS,
+                EvictionPolicy.LRU);
+        for(long i = 1; i <= MAXIMUM_SIZE; i++) {
+            instance.put(key(i),
+                    new EntityA(i));
+        }
+        assertNotNull(instance.get(key(1)));
+        instance.put(key(4),
+                new EntityA(4L));
+        assertNull(instance.get(key(2)));
+        assertNotNull(instance.get(key(1)));
+        assertNotNull(instance.get(key(3)));
+        assertNotNull(instance.get(key(4)));
+        EntityCacheStats stats = instance.getStats();
+        assertEquals(4,
+                stats.getHitCount());
+        assertEquals(1,
+                stats.getMissCount());
+        assertEquals(1,
+                stats.getEvictionCount());
+        assertEquals(MAXIMUM_SIZE,
+                stats.getSize());
+    }
+
+    @Test
+    public void testLfu() {
+        EntityCache instance = new EntityCache(MAXIMUM_SIZE,
+                EntityCache.TIME_TO_LIVE_UNLIMITED,
+                TimeUnit.MILLISECONDS,
+                EvictionPolicy.LFU);
+        for(long i = 1; i <= MAXIMUM_SIZE; i++) {
+            instance.put(key(i),
+                    new EntityA(i));
+        }
+        instance.get(key(1));
+        instance.get(key(1));
+        instance.get(key(3));
+        instance.put(key(4),
+                new EntityA(4L));
+        //2 is the least frequently used
+        assertNull(instance.peek(key(2)));
+        instance.put(key(5),
+                new EntityA(5L));
+        //4 has been used less frequently than 1 and 3 although it's the most
+        //recent
+        assertNull(instance.peek(key(4)));
+        assertNotNull(instance.peek(key(1)));
+        assertNotNull(instance.peek(key(3)));
+        assertNotNull(instance.peek(key(5)));
+        assertEquals(2,
+                instance.getStats().getEvictionCount());
+    }
+
+    @Test
+    public void testTimeToLive() throws InterruptedException {
+        EntityCache instance = new EntityCache(MAXIMUM_SIZE,
+                50,
+                TimeUnit.MILLISECONDS,
+                EvictionPolicy.LRU);
+        EntityA entity = new EntityA(1L);
+        instance.put(key(1),
+                entity);
+        assertSame(entity,
+                instance.get(key(1)));
+        Thread.sleep(100);
+        assertNull(instance.get(key(1)));
+        EntityCacheStats stats = instance.getStats();
+        assertEquals(1,
+                stats.getExpirationCount());
+        assertEquals(1,
+                stats.getMissCount());
+        assertEquals(0,
+                stats.getSize());
+    }
+
+    /**
+     * Shows that a value which has been read before a concurrent
+     * invalidation isn't put.
+     */
+    @Test
+    public void testPutIfNotInvalidatedSince() {
+        EntityCache instance = new EntityCache(MAXIMUM_SIZE,
+                EntityCache.TIME_TO_LIVE_UNLIMITED,
+                TimeUnit.MILLISECONDS,
+                EvictionPolicy.LRU);
+        long stamp = instance.getInvalidationStamp();
+        instance.invalidate(key(1));
+        assertFalse(instance.putIfNotInvalidatedSince(key(1),
+                new EntityA(1L),
+                stamp));
+        assertNull(instance.peek(key(1)));
+        instance.put(key(1),
+                new EntityA(1L));
+        instance.invalidateAll();
+        assertEquals(0,
+                instance.size());
+        assertEquals(1,
+                instance.getStats().getInvalidationCount());
+    }
+
+    private static EntityKey key(long id) {
+        return EntityKey.of(EntityA.class,
+                id);
+    }
+}
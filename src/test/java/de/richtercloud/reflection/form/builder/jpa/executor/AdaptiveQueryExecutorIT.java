@@ -0,0 +1,234 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.executor;
+
+import de.richtercloud.reflection.form.builder.jpa.DerbySchemaSnapshot;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.bulk.BulkStorage;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the throughput of point queries on Apache Derby executed by fixed
+ * thread pools with the sizes used as {@code parallelQueryCount} in the ITs,
+ * by an {@link AdaptiveQueryExecutor} with platform threads and, if the
+ * runtime supports it, with virtual threads.
+ *
+ * @author richter
+ */
+public class AdaptiveQueryExecutorIT {
+    private final static Logger LOGGER = LoggerFactory.getLogger(AdaptiveQueryExecutorIT.class);
+    private final static int ENTITY_COUNT = 1000;
+    private final static int QUERY_COUNT = 20000;
+    private final static int MAX_CONCURRENCY = 32;
+        //the default size of EclipseLink's internal connection pool
+    /**
+     * The adaptive executor has to reach at least this ratio of the
+     * throughput of the best fixed pool, which has been chosen with knowledge
+     * of the workload.
+     */
+    private final static double MIN_THROUGHPUT_RATIO = 0.5;
+    private EntityManagerFactory entityManagerFactory;
+
+    @Before
+    public void setUp() throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            SQLException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        entityManagerFactory = DerbySchemaSnapshot.getInstance(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME).createEntityManagerFactory(DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA);
+        List<EntityA> entities = new ArrayList<>(ENTITY_COUNT);
+        for(long i = 0; i < ENTITY_COUNT; i++) {
+            entities.add(new EntityA(i+1));
+        }
+        new BulkStorage(entityManagerFactory).storeAll(entities);
+    }
+
+    @After
+    public void tearDown() {
+        if(entityManagerFactory != null) {
+            entityManagerFactory.close();
+        }
+    }
+
+    @Test
+    public void testThroughput() throws InterruptedException,
+            ExecutionException {
+        Map<String, Double> throughputs = new LinkedHashMap<>();
+        for(int poolSize : new int[] {1, 10}) {
+            ExecutorService executorService = Executors.newFixedThreadPool(poolSize);
+            try {
+                throughputs.put(String.format("fixed %d",
+                                poolSize),
+                        measureThroughput(executorService::submit));
+            }finally {
+                executorService.shutdown();
+            }
+        }
+        double bestFixedThroughput = throughputs.values().stream()
+                .mapToDouble(Double::doubleValue)
+                .max()
+                .getAsDouble();
+        try (AdaptiveQueryExecutor executor = AdaptiveQueryExecutor.create(1,
+                MAX_CONCURRENCY,
+                false //virtualThreads
+        )) {
+            double throughput = measureThroughput(executor::submit);
+            throughputs.put(String.format("adaptive (limit %d)",
+                            executor.getLimit()),
+                    throughput);
+            assertTrue(String.format("adaptive throughput %.0f queries/s is less than %.0f %% of the best fixed pool throughput %.0f queries/s",
+                            throughput,
+                            MIN_THROUGHPUT_RATIO*100,
+                            bestFixedThroughput),
+                    throughput >= MIN_THROUGHPUT_RATIO*bestFixedThroughput);
+        }
+        if(QueryExecutors.isVirtualThreadSupported()) {
+            try (AdaptiveQueryExecutor executor = AdaptiveQueryExecutor.create(1,
+                    MAX_CONCURRENCY,
+                    true //virtualThreads
+            )) {
+                throughputs.put(String.format("adaptive virtual threads (limit %d)",
+                                executor.getLimit()),
+                        measureThroughput(executor::submit));
+            }
+        }
+        LOGGER.info(String.format("throughput of %d queries: %s",
+                QUERY_COUNT,
+                throughputs.entrySet().stream()
+                        .map(entry -> String.format("%s: %.0f queries/s",
+                                entry.getKey(),
+                                entry.getValue()))
+                        .reduce((left, right) -> left+", "+right)
+                        .get()));
+    }
+
+    /**
+     * Shows that closing the executor while queries are queued cancels them
+     * instead of leaving their futures incomplete forever, for queries passed
+     * to {@link AdaptiveQueryExecutor#submit(java.util.concurrent.Callable) }
+     * as well as for {@link Future}s passed to
+     * {@link AdaptiveQueryExecutor#execute(java.lang.Runnable) }, while the
+     * running query completes.
+     */
+    @Test(timeout = 10000)
+    public void testCloseCancelsQueuedQueries() throws InterruptedException,
+            ExecutionException,
+            TimeoutException {
+        CountDownLatch runningQueryRelease = new CountDownLatch(1);
+        CountDownLatch runningQueryStarted = new CountDownLatch(1);
+        AdaptiveQueryExecutor executor = new AdaptiveQueryExecutor(Executors.newSingleThreadExecutor(),
+                new AdaptiveConcurrencyLimit(1,
+                        1,
+                        1),
+                AdaptiveQueryExecutor.OVERLOAD_CLASSIFIER_DEFAULT);
+        Future<Integer> runningQuery = executor.submit(() -> {
+            runningQueryStarted.countDown();
+            runningQueryRelease.await();
+            return 1;
+        });
+        runningQueryStarted.await();
+        Future<Integer> queuedQuery = executor.submit(() -> 2);
+        FutureTask<Integer> queuedCommand = new FutureTask<>(() -> 3);
+        executor.execute(queuedCommand);
+        assertEquals(2,
+                executor.getQueueDepth());
+        executor.close();
+        assertTrue(queuedQuery.isCancelled());
+        assertTrue(queuedCommand.isCancelled());
+        try {
+            queuedQuery.get(1,
+                    TimeUnit.SECONDS);
+            fail("CancellationException expected");
+        }catch(CancellationException expected) {
+            //expected
+        }
+        runningQueryRelease.countDown();
+        assertEquals(Integer.valueOf(1),
+                runningQuery.get(1,
+                        TimeUnit.SECONDS));
+    }
+
+    @FunctionalInterface
+    private interface QuerySubmitter {
+
+        Future<EntityA> submit(Callable<EntityA> query);
+    }
+
+    /**
+     * Submits {@link #QUERY_COUNT} queries at once and waits for all.
+     *
+     * @return the throughput in queries per second
+     */
+    private double measureThroughput(QuerySubmitter querySubmitter) throws InterruptedException,
+            ExecutionException {
+        List<Future<EntityA>> futures = new ArrayList<>(QUERY_COUNT);
+        long start = System.nanoTime();
+        for(int i = 0; i < QUERY_COUNT; i++) {
+            long id = i % ENTITY_COUNT+1;
+            futures.add(querySubmitter.submit(() -> {
+                EntityManager entityManager = entityManagerFactory.createEntityManager();
+                try {
+                    //a query instead of find, which could be answered from the
+                    //shared cache without database access
+                    return entityManager.createQuery("SELECT e FROM EntityA e WHERE e.id = :id",
+                            EntityA.class)
+                            .setParameter("id", id)
+                            .getSingleResult();
+                }finally {
+                    entityManager.close();
+                }
+            }));
+        }
+        for(Future<EntityA> future : futures) {
+            assertNotNull(future.get());
+        }
+        return QUERY_COUNT*1e9/(System.nanoTime()-start);
+    }
+}
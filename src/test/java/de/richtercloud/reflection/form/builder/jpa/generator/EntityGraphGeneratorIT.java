@@ -0,0 +1,211 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.generator;
+
+import de.richtercloud.reflection.form.builder.jpa.DerbySchemaSnapshot;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.bulk.BulkStorage;
+import de.richtercloud.reflection.form.builder.jpa.relation.RelationshipIndex;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Shows that {@link EntityGraphGenerator} generates the requested number of
+ * entities of every shape with both sides of relationships set, that the
+ * graph is determined by the seed and that generated groups can be stored
+ * with {@link BulkStorage#storeGroups(java.util.Iterator) }.
+ *
+ * @author richter
+ */
+public class EntityGraphGeneratorIT {
+    private final static long SEED = 42L;
+    private final static int FAN_OUT = 10;
+
+    @Test
+    public void testBidirectional() throws IOException,
+            IllegalAccessException,
+            NoSuchFieldException,
+            NoSuchMethodException {
+        for(EntityGraphShape shape : EntityGraphShape.values()) {
+            long entityCount = 1001;
+                //odd in order to test the last group
+            EntityGraphGenerator generator = createGenerator(shape,
+                    SEED,
+                    entityCount);
+            Field parentField = shape.getParentField();
+            Field childField = shape.getChildField();
+            parentField.setAccessible(true);
+            childField.setAccessible(true);
+            long count = 0;
+            while(generator.hasNext()) {
+                List<Object> group = generator.next();
+                count += group.size();
+                for(Object entity : group) {
+                    if(shape.getParentClass().isInstance(entity)) {
+                        assertParentLinked(shape,
+                                entity,
+                                parentField,
+                                childField);
+                    }
+                }
+            }
+            assertEquals(shape.toString(),
+                    entityCount,
+                    count);
+            assertEquals(entityCount,
+                    generator.getGeneratedCount());
+        }
+    }
+
+    private static void assertParentLinked(EntityGraphShape shape,
+            Object parent,
+            Field parentField,
+            Field childField) throws IllegalAccessException {
+        Object value = parentField.get(parent);
+        Collection<?> children;
+        if(value instanceof Collection) {
+            children = (Collection<?>) value;
+        }else {
+            assertTrue(shape.isOneToOne());
+            children = value == null ? new ArrayList<>() : Collections.singletonList(value);
+        }
+        for(Object child : children) {
+            Object inverseValue = childField.get(child);
+            if(inverseValue instanceof Collection) {
+                assertTrue(((Collection<?>)inverseValue).contains(parent));
+            }else {
+                assertSame(parent,
+                        inverseValue);
+            }
+        }
+    }
+
+    @Test
+    public void testDeterministic() throws IOException,
+            IllegalAccessException,
+            NoSuchFieldException,
+            NoSuchMethodException {
+        EntityGraphGenerator generator1 = createGenerator(EntityGraphShape.ONE_TO_MANY,
+                SEED,
+                100000);
+        EntityGraphGenerator generator2 = createGenerator(EntityGraphShape.ONE_TO_MANY,
+                SEED,
+                100000);
+        boolean groupSizesDiffer = false;
+        int previousGroupSize = -1;
+        while(generator1.hasNext()) {
+            int groupSize = generator1.next().size();
+            assertEquals(groupSize,
+                    generator2.next().size());
+            groupSizesDiffer |= previousGroupSize != -1 && previousGroupSize != groupSize;
+            previousGroupSize = groupSize;
+        }
+        assertFalse(generator2.hasNext());
+        assertTrue("fan-out isn't random",
+                groupSizesDiffer);
+        assertEquals(generator1.getNextId(),
+                generator2.getNextId());
+    }
+
+    /**
+     * Generates more entities than fit into a small heap if they were held at
+     * once.
+     */
+    @Test
+    public void testStreaming() throws IOException,
+            IllegalAccessException,
+            NoSuchFieldException,
+            NoSuchMethodException {
+        long entityCount = 5000000;
+        EntityGraphGenerator generator = createGenerator(EntityGraphShape.MANY_TO_MANY,
+                SEED,
+                entityCount);
+        long count = 0;
+        while(generator.hasNext()) {
+            count += generator.next().size();
+        }
+        assertEquals(entityCount,
+                count);
+    }
+
+    @Test
+    public void testStoreGroups() throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            SQLException,
+            IllegalAccessException,
+            NoSuchFieldException,
+            NoSuchMethodException {
+        long entityCount = 20000;
+        EntityGraphShape shape = EntityGraphShape.MANY_TO_MANY;
+        EntityManagerFactory entityManagerFactory = DerbySchemaSnapshot.getInstance(shape.getEntityClasses(),
+                ITStorageBackend.PERSISTENCE_UNIT_NAME).createEntityManagerFactory(DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                        BulkStorage.batchWritingProperties(BulkStorage.BATCH_SIZE_DEFAULT));
+        try {
+            BulkStorage bulkStorage = new BulkStorage(entityManagerFactory);
+            assertEquals(entityCount,
+                    bulkStorage.storeGroups(createGenerator(shape,
+                            SEED,
+                            entityCount)));
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            try {
+                long parentCount = entityManager.createQuery(String.format("SELECT COUNT(e) FROM %s e",
+                                shape.getParentClass().getSimpleName()),
+                        Long.class).getSingleResult();
+                long childCount = entityManager.createQuery(String.format("SELECT COUNT(e) FROM %s e",
+                                shape.getChildClass().getSimpleName()),
+                        Long.class).getSingleResult();
+                assertEquals(entityCount,
+                        parentCount+childCount);
+            }finally {
+                entityManager.close();
+            }
+        }finally {
+            entityManagerFactory.close();
+        }
+    }
+
+    private static EntityGraphGenerator createGenerator(EntityGraphShape shape,
+            long seed,
+            long entityCount) throws IOException,
+            IllegalAccessException,
+            NoSuchFieldException,
+            NoSuchMethodException {
+        Set<Class<?>> entityClasses = shape.getEntityClasses();
+        return new EntityGraphGenerator(shape,
+                RelationshipIndex.getInstance(entityClasses),
+                seed,
+                1L, //firstId
+                entityCount,
+                FAN_OUT);
+    }
+}
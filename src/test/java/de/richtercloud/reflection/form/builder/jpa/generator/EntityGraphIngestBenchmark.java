@@ -0,0 +1,185 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.generator;
+
+import de.richtercloud.reflection.form.builder.jpa.DerbySchemaSnapshot;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.PostgresqlClusterFixture;
+import de.richtercloud.reflection.form.builder.jpa.bulk.BulkStorage;
+import de.richtercloud.reflection.form.builder.jpa.metrics.HeapUsageSampler;
+import de.richtercloud.reflection.form.builder.jpa.relation.RelationshipIndex;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManagerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams {@code entityCount} generated entities of every
+ * {@link EntityGraphShape} into the database with
+ * {@link BulkStorage#storeGroups(java.util.Iterator) } without holding them
+ * in memory. Besides the time measured by JMH, throughput, the heap
+ * high-water mark and the garbage collection time of every iteration are
+ * appended to {@code target/ingest-benchmark/EntityGraphIngestBenchmark.csv}.
+ * The heap should stay bounded regardless of {@code entityCount}. The heap
+ * is limited to 512 MB so that unbounded growth fails instead of going
+ * unnoticed.
+ *
+ * @author richter
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class EntityGraphIngestBenchmark {
+    private final static Logger LOGGER = LoggerFactory.getLogger(EntityGraphIngestBenchmark.class);
+    private final static File REPORT_FILE = new File(String.join(File.separator, "target", "ingest-benchmark", EntityGraphIngestBenchmark.class.getSimpleName()+".csv"));
+    private final static String REPORT_HEADER = "backend,shape,entityCount,fanOut,millis,entitiesPerSecond,peakHeapBytes,gcMillis,gcCount";
+    private final static long SEED = 1L;
+    @Param({"DERBY", "POSTGRESQL"})
+    public ITStorageBackend backend;
+    @Param({"MANY_TO_MANY", "MANY_TO_MANY_MAPPED_BY", "MANY_TO_MANY_MAPPED_BY_INVERSE",
+        "ONE_TO_MANY", "ONE_TO_MANY_MAPPED_BY",
+        "ONE_TO_ONE", "ONE_TO_ONE_MAPPED_BY", "ONE_TO_ONE_MAPPED_BY_INVERSE"})
+    public EntityGraphShape shape;
+    @Param({"100000", "1000000"})
+    public long entityCount;
+    @Param({"10"})
+    public int fanOut;
+    private EntityManagerFactory entityManagerFactory;
+    private BulkStorage bulkStorage;
+    private RelationshipIndex relationshipIndex;
+    private HeapUsageSampler heapUsageSampler;
+    private EntityGraphGenerator generator;
+    private long nextId = 1;
+    private long iterationStart;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException,
+            InterruptedException,
+            SQLException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            IllegalAccessException {
+        Set<Class<?>> entityClasses = shape.getEntityClasses();
+        Map<String, String> properties = BulkStorage.batchWritingProperties(BulkStorage.BATCH_SIZE_DEFAULT);
+        switch(backend) {
+            case DERBY:
+                entityManagerFactory = DerbySchemaSnapshot.getInstance(entityClasses,
+                        ITStorageBackend.PERSISTENCE_UNIT_NAME).createEntityManagerFactory(DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                                properties);
+                break;
+            case POSTGRESQL:
+                entityManagerFactory = PostgresqlClusterFixture.getInstance().createEntityManagerFactory(entityClasses,
+                        ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                        DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                        properties);
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("backend %s isn't supported",
+                        backend));
+        }
+        bulkStorage = new BulkStorage(entityManagerFactory);
+        relationshipIndex = RelationshipIndex.getInstance(entityClasses);
+        heapUsageSampler = new HeapUsageSampler();
+        if(!REPORT_FILE.exists()) {
+            Files.createDirectories(REPORT_FILE.getParentFile().toPath());
+            Files.write(REPORT_FILE.toPath(),
+                    (REPORT_HEADER+System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException,
+            InterruptedException,
+            SQLException {
+        if(entityManagerFactory != null) {
+            if(backend == ITStorageBackend.POSTGRESQL) {
+                PostgresqlClusterFixture.getInstance().closeEntityManagerFactory(entityManagerFactory);
+                    //drops the cloned database
+            }else {
+                entityManagerFactory.close();
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() throws NoSuchFieldException,
+            NoSuchMethodException {
+        generator = new EntityGraphGenerator(shape,
+                relationshipIndex,
+                SEED+nextId,
+                nextId,
+                entityCount,
+                fanOut);
+        System.gc();
+            //start every iteration with the same heap usage as far as
+            //possible
+        heapUsageSampler.reset();
+        iterationStart = System.nanoTime();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws IOException {
+        long millis = Math.max(1,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-iterationStart));
+        String line = String.format("%s,%s,%d,%d,%d,%d,%d,%d,%d",
+                backend,
+                shape,
+                entityCount,
+                fanOut,
+                millis,
+                generator.getGeneratedCount()*1000/millis,
+                heapUsageSampler.getPeakHeapBytes(),
+                heapUsageSampler.getGcTimeMillis(),
+                heapUsageSampler.getGcCount());
+        LOGGER.info(line);
+        Files.write(REPORT_FILE.toPath(),
+                (line+System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        nextId = generator.getNextId();
+    }
+
+    @Benchmark
+    public long storeGroups() {
+        return bulkStorage.storeGroups(generator);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.memory;
+
+import de.richtercloud.reflection.form.builder.jpa.ITResourceManager;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageFactory;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.retriever.JPAOrderedCachedFieldRetriever;
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * Shows that {@link DerbyInMemoryPersistenceStorage} stores and retrieves
+ * entities without a database directory and drops the database on shutdown.
+ *
+ * @author richter
+ */
+public class DerbyInMemoryPersistenceStorageIT {
+    private final static int ENTITY_COUNT = 100;
+
+    @Test
+    public void testStoreRetrieveAndDrop() throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            StorageException,
+            SQLException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        DerbyInMemoryPersistenceStorageConf storageConf = DerbyInMemoryPersistenceStorageConf.createUnique(entityClasses,
+                ITResourceManager.getInstance().createTempPath(DerbyInMemoryPersistenceStorageIT.class.getSimpleName()));
+        DerbyInMemoryPersistenceStorage storage = new DerbyInMemoryPersistenceStorage(storageConf,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                1, //parallelQueryCount
+                new JPAOrderedCachedFieldRetriever(entityClasses));
+        storage.start();
+        try {
+            for(long i = 0; i < ENTITY_COUNT; i++) {
+                storage.store(new EntityA(i+1));
+            }
+            for(long i = 0; i < ENTITY_COUNT; i++) {
+                EntityA retrieved = storage.retrieve(i+1,
+                        EntityA.class);
+                assertNotNull(retrieved);
+                assertEquals(Long.valueOf(i+1),
+                        retrieved.getId());
+            }
+        }finally {
+            storage.shutdown();
+        }
+        assertFalse("in-memory database hasn't been dropped on shutdown",
+                DerbyInMemoryPersistenceStorage.dropDatabase(storageConf));
+    }
+
+    /**
+     * Storages started by the same factory don't share data since every
+     * storage gets its own in-memory database.
+     */
+    @Test
+    public void testFactoryStoragesAreIsolated() throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            StorageException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        ITStorageFactory storageFactory = ITStorageBackend.DERBY_IN_MEMORY.createStorageFactory(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                1 //parallelQueryCount
+        );
+        PersistenceStorage<Long> storage = storageFactory.startStorage();
+        try {
+            storage.store(new EntityA(1L));
+        }finally {
+            ITStorageBackend.shutdownStorage(storage);
+        }
+        storage = storageFactory.startStorage();
+        try {
+            assertNull(storage.retrieve(1L,
+                    EntityA.class));
+        }finally {
+            ITStorageBackend.shutdownStorage(storage);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.metadata;
+
+import de.richtercloud.reflection.form.builder.jpa.DerbySchemaSnapshot;
+import de.richtercloud.reflection.form.builder.jpa.ITResourceManager;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.relation.RelationshipIndex;
+import de.richtercloud.reflection.form.builder.jpa.retriever.JPAOrderedCachedFieldRetriever;
+import de.richtercloud.reflection.form.builder.jpa.storage.DerbyEmbeddedPersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.storage.DerbyEmbeddedPersistenceStorageConf;
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the cold start of a storage with and without the
+ * {@link EntityMetadata} generated at build time by
+ * {@link EntityMetadataGenerator}. Every start runs in a new JVM (see
+ * {@link ColdStartProcess}) since the scan profits from classes and
+ * reflection data loaded by earlier measurements in the same JVM. Both
+ * variants are started alternately against the same database, so that the
+ * order doesn't favour one of them, after an unmeasured start which creates
+ * the schema and warms up the file system cache. The medians are logged and
+ * written to {@code ColdStartIT.txt} in the directory specified with
+ * {@link #REPORT_DIR_PROPERTY}.
+ *
+ * A start comprises getting the metadata, building the
+ * {@link RelationshipIndex}, selecting the persistence unit with a
+ * {@link SchemeChecksumGate} and starting the storage without schema
+ * generation.
+ *
+ * @author richter
+ */
+public class ColdStartIT {
+    private final static Logger LOGGER = LoggerFactory.getLogger(ColdStartIT.class);
+    /**
+     * The system property which allows to specify the report directory, set
+     * to {@code ${project.build.directory}/cold-start} in the build.
+     */
+    public final static String REPORT_DIR_PROPERTY = "reflection-form-builder-it.coldStartReportDir";
+    private final static String REPORT_DIR_DEFAULT = "target/cold-start";
+    private final static int ROUNDS = 5;
+    private final static String MODE_PRECOMPUTED = "precomputed";
+    private final static String MODE_SCANNED = "scanned";
+    private final static String CLASS_NAME_SEPARATOR = ",";
+
+    @Test
+    public void testColdStart() throws IOException,
+            ClassNotFoundException,
+            InterruptedException {
+        ClassLoader classLoader = ColdStartIT.class.getClassLoader();
+        EntityMetadata precomputedMetadata = EntityMetadata.load(classLoader);
+        assertNotNull(String.format("precomputed entity metadata %s doesn't exist, it's generated in the process-test-classes phase",
+                        EntityMetadata.RESOURCE_NAME),
+                precomputedMetadata);
+        Set<Class<?>> entityClasses = precomputedMetadata.loadEntityClasses(classLoader);
+        assertEquals("precomputed entity metadata is outdated",
+                EntityMetadata.scan(entityClasses).getChecksum(),
+                precomputedMetadata.getChecksum());
+        File tempDir = ITResourceManager.getInstance().createTempDirectory(ColdStartIT.class.getSimpleName());
+        List<String> arguments = Arrays.asList(new File(tempDir, "database").getAbsolutePath(),
+                new File(tempDir, "checksum").getAbsolutePath(),
+                String.join(CLASS_NAME_SEPARATOR, precomputedMetadata.getEntityClassNames()));
+        startProcess(MODE_SCANNED,
+                arguments,
+                tempDir,
+                0);
+            //creates the schema and records its checksum
+        List<Long> precomputedMetadataNanos = new LinkedList<>();
+        List<Long> precomputedStartNanos = new LinkedList<>();
+        List<Long> scannedMetadataNanos = new LinkedList<>();
+        List<Long> scannedStartNanos = new LinkedList<>();
+        for(int round = 0; round < ROUNDS; round++) {
+            boolean precomputedFirst = round % 2 == 0;
+            for(boolean precomputed : new boolean[] {precomputedFirst, !precomputedFirst}) {
+                long[] result = startProcess(precomputed ? MODE_PRECOMPUTED : MODE_SCANNED,
+                        arguments,
+                        tempDir,
+                        round+1);
+                if(precomputed) {
+                    precomputedMetadataNanos.add(result[0]);
+                    precomputedStartNanos.add(result[1]);
+                }else {
+                    scannedMetadataNanos.add(result[0]);
+                    scannedStartNanos.add(result[1]);
+                }
+            }
+        }
+        List<String> report = Arrays.asList(String.format("metadata precomputed: %d ms",
+                        TimeUnit.NANOSECONDS.toMillis(median(precomputedMetadataNanos))),
+                String.format("metadata scanned: %d ms",
+                        TimeUnit.NANOSECONDS.toMillis(median(scannedMetadataNanos))),
+                String.format("storage start with precomputed metadata: %d ms",
+                        TimeUnit.NANOSECONDS.toMillis(median(precomputedStartNanos))),
+                String.format("storage start with scanned metadata: %d ms",
+                        TimeUnit.NANOSECONDS.toMillis(median(scannedStartNanos))));
+        LOGGER.info(String.format("median cold-start times of %d starts in separate JVMs for %d entity classes:%n%s",
+                ROUNDS,
+                entityClasses.size(),
+                String.join(System.lineSeparator(), report)));
+        File reportDir = new File(System.getProperty(REPORT_DIR_PROPERTY,
+                REPORT_DIR_DEFAULT));
+        if(!reportDir.exists() && !reportDir.mkdirs()) {
+            throw new IOException(String.format("report directory '%s' could not be created",
+                    reportDir.getAbsolutePath()));
+        }
+        Files.write(new File(reportDir, ColdStartIT.class.getSimpleName()+".txt").toPath(),
+                report,
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Runs {@link ColdStartProcess} in a new JVM.
+     *
+     * @return the nanoseconds until the metadata was available and until the
+     *     storage was started
+     */
+    private static long[] startProcess(String mode,
+            List<String> arguments,
+            File tempDir,
+            int round) throws IOException,
+            InterruptedException {
+        File resultFile = new File(tempDir, String.format("%s-%d.result", mode, round));
+        File logFile = new File(tempDir, String.format("%s-%d.log", mode, round));
+        List<String> command = new LinkedList<>(Arrays.asList(new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath(),
+                "-cp",
+                System.getProperty("java.class.path"),
+                ColdStartProcess.class.getName(),
+                mode,
+                resultFile.getAbsolutePath()));
+        command.addAll(arguments);
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(logFile)
+                .start();
+        int exitValue = process.waitFor();
+        if(exitValue != 0 || !resultFile.exists()) {
+            throw new IllegalStateException(String.format("cold start in mode %s failed with exit value %d, see '%s' for details",
+                    mode,
+                    exitValue,
+                    logFile.getAbsolutePath()));
+        }
+        String[] result = new String(Files.readAllBytes(resultFile.toPath()),
+                StandardCharsets.UTF_8).trim().split(" ");
+        return new long[] {Long.parseLong(result[0]),
+                Long.parseLong(result[1])};
+    }
+
+    private static long median(List<Long> values) {
+        List<Long> sortedValues = new ArrayList<>(values);
+        Collections.sort(sortedValues);
+        return sortedValues.get(sortedValues.size()/2);
+    }
+
+    /**
+     * Starts and shuts down a storage in a new JVM and writes the nanoseconds
+     * until the metadata was available and until the storage was started to
+     * a result file.
+     *
+     * Arguments:
+     * <ol>
+     * <li>{@code precomputed} or {@code scanned}</li>
+     * <li>the result file</li>
+     * <li>the database directory</li>
+     * <li>the scheme checksum file</li>
+     * <li>the comma-separated names of the entity classes</li>
+     * </ol>
+     */
+    public static class ColdStartProcess {
+
+        public static void main(String[] args) throws IOException,
+                ClassNotFoundException,
+                IllegalAccessException,
+                FieldOrderValidationException,
+                StorageConfValidationException,
+                StorageCreationException {
+            if(args.length != 5) {
+                throw new IllegalArgumentException("expected the mode, the result file, the database directory, the scheme checksum file and the entity class names as arguments");
+            }
+            long start = System.nanoTime();
+            ClassLoader classLoader = ColdStartProcess.class.getClassLoader();
+            Set<Class<?>> entityClasses = new LinkedHashSet<>();
+            for(String entityClassName : args[4].split(CLASS_NAME_SEPARATOR)) {
+                entityClasses.add(Class.forName(entityClassName,
+                        false,
+                        classLoader));
+            }
+            EntityMetadata entityMetadata;
+            if(MODE_PRECOMPUTED.equals(args[0])) {
+                entityMetadata = EntityMetadata.getInstance(entityClasses,
+                        classLoader);
+            }else if(MODE_SCANNED.equals(args[0])) {
+                entityMetadata = EntityMetadata.scan(entityClasses);
+            }else {
+                throw new IllegalArgumentException(String.format("mode '%s' isn't supported",
+                        args[0]));
+            }
+            RelationshipIndex.build(entityMetadata,
+                    classLoader);
+            File schemeChecksumFile = new File(args[3]);
+            SchemeChecksumGate schemeChecksumGate = new SchemeChecksumGate(entityMetadata.getChecksum(),
+                    schemeChecksumFile);
+            long metadataNanos = System.nanoTime()-start;
+            DerbyEmbeddedPersistenceStorageConf storageConf = new DerbyEmbeddedPersistenceStorageConf(entityClasses,
+                    args[2], //databaseName
+                    schemeChecksumFile);
+            PersistenceStorage<Long> storage = new DerbyEmbeddedPersistenceStorage(storageConf,
+                    schemeChecksumGate.selectPersistenceUnitName(ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                            DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA),
+                    1, //parallelQueryCount
+                    new JPAOrderedCachedFieldRetriever(entityClasses));
+            storage.start();
+            long startNanos = System.nanoTime()-start;
+            schemeChecksumGate.recordScheme();
+            storage.shutdown();
+            Files.write(new File(args[1]).toPath(),
+                    Arrays.asList(String.format("%d %d",
+                            metadataNanos,
+                            startNanos)),
+                    StandardCharsets.UTF_8);
+            System.exit(0);
+                //storage implementations might leave non-daemon threads
+        }
+    }
+}
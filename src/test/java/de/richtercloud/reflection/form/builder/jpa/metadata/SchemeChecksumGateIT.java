@@ -0,0 +1,294 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.metadata;
+
+import de.richtercloud.reflection.form.builder.jpa.DerbySchemaSnapshot;
+import de.richtercloud.reflection.form.builder.jpa.ITResourceManager;
+import de.richtercloud.reflection.form.builder.jpa.ITResourceRule;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageFactory;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityB;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityC;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityD;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityE;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityF;
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.Entity;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Restarts storages against the same database with and without the fast
+ * start of {@link SchemeChecksumGate} and shows that restarts which skip
+ * schema handling are faster. Both modes are compared on restarts of an
+ * existing database, so that database creation isn't part of the
+ * measurement. Also shows that the gate falls back to schema handling if
+ * only an annotation attribute of an entity changes and that outdated
+ * generated metadata isn't used.
+ *
+ * @author richter
+ */
+public class SchemeChecksumGateIT {
+    private final static Logger LOGGER = LoggerFactory.getLogger(SchemeChecksumGateIT.class);
+    private final static int RESTART_COUNT = 5;
+    private final static Set<Class<?>> ENTITY_CLASSES = new HashSet<>(Arrays.asList(EntityA.class,
+            EntityB.class,
+            EntityC.class,
+            EntityD.class,
+            EntityE.class,
+            EntityF.class));
+    private final static String COLUMN_LENGTH_ENTITY_NAME = "ColumnLengthEntity";
+    private final static String COLUMN_LENGTH_ENTITY_PACKAGE = SchemeChecksumGateIT.class.getPackage().getName()+".generated";
+    @Rule
+    public final ITResourceRule resources = new ITResourceRule();
+
+    @Test
+    public void testDerby() throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException {
+        testRestart(ITStorageBackend.DERBY);
+    }
+
+    @Test
+    public void testPostgresql() throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException {
+        testRestart(ITStorageBackend.POSTGRESQL);
+    }
+
+    @Test
+    public void testMySQL() throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException {
+        testRestart(ITStorageBackend.MYSQL);
+    }
+
+    private void testRestart(ITStorageBackend backend) throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException {
+        long fullRestartNanos = measureRestarts(backend.createStorageFactory(ENTITY_CLASSES,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                10 //parallelQueryCount
+        ));
+        long fastRestartNanos = measureRestarts(backend.createStorageFactory(ENTITY_CLASSES,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                10 //parallelQueryCount
+        ));
+        LOGGER.info(String.format("%s: median restart with schema handling %d ms, with fast start %d ms",
+                backend,
+                TimeUnit.NANOSECONDS.toMillis(fullRestartNanos),
+                TimeUnit.NANOSECONDS.toMillis(fastRestartNanos)));
+        assertTrue(String.format("fast restart (%d ns) isn't faster than restart with schema handling (%d ns)",
+                        fastRestartNanos,
+                        fullRestartNanos),
+                fastRestartNanos < fullRestartNanos);
+    }
+
+    /**
+     * Creates the database with a first start and restarts it
+     * {@link #RESTART_COUNT} times.
+     *
+     * @return the median of the restart times in nanoseconds
+     */
+    private long measureRestarts(ITStorageFactory storageFactory) throws IOException,
+            StorageConfValidationException,
+            StorageCreationException {
+        ITStorageBackend.shutdownStorage(storageFactory.startStorage());
+        long[] restartNanos = new long[RESTART_COUNT];
+        for(int i = 0; i < RESTART_COUNT; i++) {
+            long start = System.nanoTime();
+            PersistenceStorage<Long> storage = storageFactory.startStorage();
+            restartNanos[i] = System.nanoTime()-start;
+            ITStorageBackend.shutdownStorage(storage);
+        }
+        Arrays.sort(restartNanos);
+        return restartNanos[RESTART_COUNT/2];
+    }
+
+    @Test
+    public void testMismatchFallsBackToSchemaHandling() throws IOException {
+        File schemeChecksumFile = ITResourceManager.getInstance().createTempFile(SchemeChecksumGateIT.class.getSimpleName(),
+                "checksum");
+        SchemeChecksumGate instance = new SchemeChecksumGate(ENTITY_CLASSES,
+                schemeChecksumFile);
+        try {
+            assertEquals(ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                    instance.selectPersistenceUnitName(ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                            DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA));
+            instance.recordScheme();
+            assertEquals(DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                    instance.selectPersistenceUnitName(ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                            DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA));
+            SchemeChecksumGate changed = new SchemeChecksumGate(new HashSet<>(Arrays.asList(EntityA.class)),
+                    schemeChecksumFile);
+            assertFalse(changed.isSchemeUnchanged());
+            assertEquals(ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                    changed.selectPersistenceUnitName(ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                            DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA));
+            Files.write(instance.getChecksumFile().toPath(),
+                    "corrupted".getBytes(StandardCharsets.UTF_8));
+            assertFalse(instance.isSchemeUnchanged());
+        }finally {
+            instance.invalidate();
+            Files.delete(schemeChecksumFile.toPath());
+        }
+    }
+
+    /**
+     * Compiles two versions of an entity class which only differ in the
+     * {@code length} attribute of a {@code @Column} annotation, like a
+     * recompiled entity, and shows that the gate of the second version
+     * doesn't reuse the schema recorded for the first one.
+     */
+    @Test
+    @SuppressWarnings("PMD.SignatureDeclareThrowsException")
+    public void testAnnotationAttributeChangeFallsBackToSchemaHandling() throws Exception {
+        File schemeChecksumFile = resources.getScope().createTempFile(SchemeChecksumGateIT.class.getSimpleName(),
+                "checksum");
+        try (URLClassLoader version1ClassLoader = compileColumnLengthEntity(255);
+                URLClassLoader version2ClassLoader = compileColumnLengthEntity(1024)) {
+            Class<?> version1 = version1ClassLoader.loadClass(COLUMN_LENGTH_ENTITY_PACKAGE+"."+COLUMN_LENGTH_ENTITY_NAME);
+            Class<?> version2 = version2ClassLoader.loadClass(COLUMN_LENGTH_ENTITY_PACKAGE+"."+COLUMN_LENGTH_ENTITY_NAME);
+            SchemeChecksumGate recorded = new SchemeChecksumGate(Collections.singleton(version1),
+                    schemeChecksumFile);
+            recorded.recordScheme();
+            assertEquals(DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
+                    recorded.selectPersistenceUnitName(ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                            DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA));
+            SchemeChecksumGate changed = new SchemeChecksumGate(Collections.singleton(version2),
+                    schemeChecksumFile);
+            assertNotEquals(recorded.getChecksum(),
+                    changed.getChecksum());
+            assertEquals(ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                    changed.selectPersistenceUnitName(ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                            DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA));
+        }
+    }
+
+    /**
+     * Shows that {@link EntityMetadata#getInstance(java.util.Collection, java.lang.ClassLoader) }
+     * uses generated metadata including the field order only as long as the
+     * class files it has been generated from are unchanged and scans the
+     * entity classes after they have been recompiled with a different
+     * annotation attribute.
+     */
+    @Test
+    public void testOutdatedGeneratedMetadataIsScanned() throws Exception {
+        try (URLClassLoader version1ClassLoader = compileColumnLengthEntity(255);
+                URLClassLoader version2ClassLoader = compileColumnLengthEntity(1024)) {
+            Class<?> version1 = version1ClassLoader.loadClass(COLUMN_LENGTH_ENTITY_PACKAGE+"."+COLUMN_LENGTH_ENTITY_NAME);
+            Class<?> version2 = version2ClassLoader.loadClass(COLUMN_LENGTH_ENTITY_PACKAGE+"."+COLUMN_LENGTH_ENTITY_NAME);
+            EntityMetadata generated = EntityMetadata.scan(Collections.singleton(version1));
+            File metadataDir = resources.getScope().createTempDirectory(EntityMetadata.class.getSimpleName());
+            File metadataFile = new File(metadataDir,
+                    EntityMetadata.RESOURCE_NAME.replace('/', File.separatorChar));
+            Files.createDirectories(metadataFile.getParentFile().toPath());
+            try (OutputStream outputStream = new FileOutputStream(metadataFile)) {
+                generated.write(outputStream);
+            }
+            try (URLClassLoader metadataClassLoader = new URLClassLoader(new URL[] {metadataDir.toURI().toURL()},
+                    null //parent
+            )) {
+                //no parent, so that metadata generated by the build isn't
+                //found
+                EntityMetadata current = EntityMetadata.getInstance(Collections.singleton(version1),
+                        metadataClassLoader);
+                assertEquals(generated.getChecksum(),
+                        current.getChecksum());
+                assertEquals(Arrays.asList(version1.getDeclaredField("id"),
+                                version1.getDeclaredField("name")),
+                        current.getFields(version1));
+                EntityMetadata recompiled = EntityMetadata.getInstance(Collections.singleton(version2),
+                        metadataClassLoader);
+                assertNotEquals(generated.getChecksum(),
+                        recompiled.getChecksum());
+                assertEquals(EntityMetadata.scan(Collections.singleton(version2)).getChecksum(),
+                        recompiled.getChecksum());
+            }
+        }
+    }
+
+    private URLClassLoader compileColumnLengthEntity(int columnLength) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull("compiling entities requires a JDK",
+                compiler);
+        File sourceDir = resources.getScope().createTempDirectory(COLUMN_LENGTH_ENTITY_NAME);
+        File packageDir = new File(sourceDir,
+                COLUMN_LENGTH_ENTITY_PACKAGE.replace('.', File.separatorChar));
+        Files.createDirectories(packageDir.toPath());
+        File sourceFile = new File(packageDir,
+                COLUMN_LENGTH_ENTITY_NAME+".java");
+        Files.write(sourceFile.toPath(),
+                String.join(System.lineSeparator(),
+                        String.format("package %s;",
+                                COLUMN_LENGTH_ENTITY_PACKAGE),
+                        "@javax.persistence.Entity",
+                        String.format("public class %s {",
+                                COLUMN_LENGTH_ENTITY_NAME),
+                        "    @javax.persistence.Id",
+                        "    private Long id;",
+                        String.format("    @javax.persistence.Column(length = %d)",
+                                columnLength),
+                        "    private String name;",
+                        "}").getBytes(StandardCharsets.UTF_8));
+        String jpaClassPath = new File(Entity.class.getProtectionDomain().getCodeSource().getLocation().getPath()).getAbsolutePath();
+            //the JPA API is the only dependency of the entity
+        int result = compiler.run(null, //in
+                null, //out
+                null, //err
+                "-classpath",
+                jpaClassPath,
+                "-d",
+                sourceDir.getAbsolutePath(),
+                sourceFile.getAbsolutePath());
+        assertEquals(String.format("compiling %s failed",
+                        sourceFile.getAbsolutePath()),
+                0,
+                result);
+        return new URLClassLoader(new URL[] {sourceDir.toURI().toURL()},
+                SchemeChecksumGateIT.class.getClassLoader());
+    }
+}
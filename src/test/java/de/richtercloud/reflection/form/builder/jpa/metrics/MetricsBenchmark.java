@@ -0,0 +1,83 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.metrics;
+
+import de.richtercloud.reflection.form.builder.jpa.sequence.MeteredSequenceValueSource;
+import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceManagementException;
+import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceValueSource;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead of recording metrics on the hot path by calling an
+ * in-memory {@link SequenceValueSource} directly, through a
+ * {@link MeteredSequenceValueSource} and through a {@link MetricsProxy}.
+ * Since the source doesn't access a database, the difference is the
+ * overhead per call. Run with {@code -Dbenchmark.threads=1,4} in order to see
+ * contention on the shared histogram.
+ *
+ * @author richter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    private final static String SEQUENCE_NAME = "with-minus";
+    private SequenceValueSource direct;
+    private SequenceValueSource metered;
+    private SequenceValueSource proxied;
+
+    @Setup
+    public void setup() {
+        AtomicLong sequence = new AtomicLong();
+        direct = sequenceName -> sequence.incrementAndGet();
+        MetricsRegistry registry = new MetricsRegistry();
+        metered = new MeteredSequenceValueSource(direct,
+                registry,
+                "metered");
+        proxied = MetricsProxy.instrument(SequenceValueSource.class,
+                direct,
+                registry,
+                "proxied");
+    }
+
+    @Benchmark
+    public long direct() throws SequenceManagementException {
+        return direct.getNextSequenceValue(SEQUENCE_NAME);
+    }
+
+    @Benchmark
+    public long metered() throws SequenceManagementException {
+        return metered.getNextSequenceValue(SEQUENCE_NAME);
+    }
+
+    @Benchmark
+    public long proxied() throws SequenceManagementException {
+        return proxied.getNextSequenceValue(SEQUENCE_NAME);
+    }
+}
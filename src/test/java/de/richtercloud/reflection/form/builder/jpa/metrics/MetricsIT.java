@@ -0,0 +1,133 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.metrics;
+
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.sequence.MeteredSequenceValueSource;
+import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceValueSource;
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Shows that the metrics of storage and sequence operations move as
+ * expected for all storage backends and can be read through JMX.
+ *
+ * @author richter
+ */
+public class MetricsIT {
+    private final static String SEQUENCE_NAME = "with-minus";
+    private final static int ENTITY_COUNT = 20;
+    private final static int SEQUENCE_VALUE_COUNT = 50;
+
+    @Test
+    @SuppressWarnings("PMD.SignatureDeclareThrowsException")
+    public void testDerby() throws Exception {
+        testMetrics(ITStorageBackend.DERBY);
+    }
+
+    @Test
+    @SuppressWarnings("PMD.SignatureDeclareThrowsException")
+    public void testPostgresql() throws Exception {
+        testMetrics(ITStorageBackend.POSTGRESQL);
+    }
+
+    @Test
+    @SuppressWarnings("PMD.SignatureDeclareThrowsException")
+    public void testMySQL() throws Exception {
+        testMetrics(ITStorageBackend.MYSQL);
+    }
+
+    @SuppressWarnings({"PMD.SignatureDeclareThrowsException", "unchecked"})
+    private void testMetrics(ITStorageBackend backend) throws Exception {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        MetricsRegistry registry = new MetricsRegistry();
+        ObjectName objectName = registry.registerMBean(String.format("%s-%s",
+                MetricsIT.class.getSimpleName(),
+                backend));
+        try {
+            PersistenceStorage<Long> storage = registry.time("storage.start",
+                    () -> backend.startStorage(entityClasses,
+                            ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                            10 //parallelQueryCount
+                    ));
+            PersistenceStorage<Long> instrumentedStorage = MetricsProxy.instrument(PersistenceStorage.class,
+                    storage,
+                    registry,
+                    "storage");
+            try {
+                for(long i = 0; i < ENTITY_COUNT; i++) {
+                    instrumentedStorage.store(new EntityA(i+1));
+                }
+                for(long i = 0; i < ENTITY_COUNT; i++) {
+                    assertNotNull(instrumentedStorage.retrieve(i+1,
+                            EntityA.class));
+                }
+                SequenceValueSource sequenceValueSource = new MeteredSequenceValueSource(backend.openSequence(storage,
+                                SEQUENCE_NAME,
+                                true //create
+                        ),
+                        registry,
+                        "sequence");
+                for(int i = 0; i < SEQUENCE_VALUE_COUNT; i++) {
+                    sequenceValueSource.getNextSequenceValue(SEQUENCE_NAME);
+                }
+            }finally {
+                instrumentedStorage.shutdown();
+                ITStorageBackend.unregisterStorage(storage);
+            }
+            assertEquals(1,
+                    registry.getHistogram("storage.start").getCount());
+            assertEquals(ENTITY_COUNT,
+                    registry.getHistogram("storage.store").getCount());
+            assertEquals(ENTITY_COUNT,
+                    registry.getHistogram("storage.retrieve").getCount());
+            assertEquals(1,
+                    registry.getHistogram("storage.shutdown").getCount());
+            assertEquals(SEQUENCE_VALUE_COUNT,
+                    registry.getHistogram("sequence.getNextSequenceValue").getCount());
+            assertTrue(registry.getHistogram("storage.store").getMaxNanos() > 0);
+            assertEquals(Long.valueOf(0),
+                    registry.getCounterValues().get(MetricsRegistry.errorCounterName("storage.store")));
+            assertEquals(Long.valueOf(0),
+                    registry.getGaugeValues().get("storage.active"));
+            assertTrue(registry.getGaugeValues().get("storage.activePeak") >= 1);
+            //JMX
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            TabularData latencies = (TabularData) mBeanServer.getAttribute(objectName,
+                    "Latencies");
+            CompositeData storeLatency = (CompositeData) latencies.get(new Object[] {"storage.store"}).get("value");
+            assertEquals((long)ENTITY_COUNT,
+                    storeLatency.get("count"));
+            TabularData gauges = (TabularData) mBeanServer.getAttribute(objectName,
+                    "Gauges");
+            assertEquals(0L,
+                    gauges.get(new Object[] {"storage.active"}).get("value"));
+        }finally {
+            registry.unregisterMBean();
+        }
+    }
+}
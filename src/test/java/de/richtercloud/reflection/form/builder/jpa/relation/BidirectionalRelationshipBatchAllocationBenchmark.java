@@ -0,0 +1,147 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.relation;
+
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityB;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityC;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityD;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityE;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityF;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link BidirectionalRelationshipBatch#apply() } without a database
+ * in order to make the allocations of the propagation to the inverse side
+ * visible. Run it with the GC profiler, e.g.
+ * {@code mvn verify -Pbenchmark -Dbenchmark.includes=BidirectionalRelationshipBatchAllocationBenchmark -Dbenchmark.profilers=gc},
+ * and divide {@code gc.alloc.rate.norm} by {@code elementCount} in order to
+ * get the bytes allocated per propagated element.
+ *
+ * Every invocation resets the fields of both sides with reflection, which
+ * doesn't allocate, so that the inverse collections are created by the batch
+ * each time like for newly attached entities.
+ *
+ * @author richter
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BidirectionalRelationshipBatchAllocationBenchmark {
+    @Param({"10", "1000"})
+    public int elementCount;
+    @Param({"MANY_TO_MANY", "ONE_TO_MANY", "ONE_TO_ONE"})
+    public BidirectionalRelationshipBatchBenchmark.Relationship relationship;
+    private RelationshipIndex relationshipIndex;
+    private Field field;
+    private Field mappedField;
+    private final List<Object> entities = new ArrayList<>();
+    private final List<Object> inverseEntities = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException,
+            NoSuchFieldException,
+            IllegalAccessException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class,
+                EntityB.class,
+                EntityC.class,
+                EntityD.class,
+                EntityE.class,
+                EntityF.class));
+        relationshipIndex = RelationshipIndex.getInstance(entityClasses);
+        long nextId = 1;
+        switch(relationship) {
+            case MANY_TO_MANY:
+                field = EntityA.class.getDeclaredField("bs");
+                mappedField = EntityB.class.getDeclaredField("as");
+                entities.add(new EntityA(nextId++));
+                for(int i = 0; i < elementCount; i++) {
+                    inverseEntities.add(new EntityB(nextId++));
+                }
+                break;
+            case ONE_TO_MANY:
+                field = EntityC.class.getDeclaredField("ds");
+                mappedField = EntityD.class.getDeclaredField("c");
+                entities.add(new EntityC(nextId++));
+                for(int i = 0; i < elementCount; i++) {
+                    inverseEntities.add(new EntityD(nextId++));
+                }
+                break;
+            case ONE_TO_ONE:
+                field = EntityE.class.getDeclaredField("f");
+                mappedField = EntityF.class.getDeclaredField("e");
+                for(int i = 0; i < elementCount; i++) {
+                    entities.add(new EntityE(nextId++));
+                    inverseEntities.add(new EntityF(nextId++));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("relationship %s isn't supported",
+                        relationship));
+        }
+        field.setAccessible(true);
+        mappedField.setAccessible(true);
+    }
+
+    @Benchmark
+    public BidirectionalRelationshipBatch apply() throws IllegalAccessException {
+        for(Object entity : entities) {
+            field.set(entity,
+                    null);
+        }
+        for(Object inverseEntity : inverseEntities) {
+            mappedField.set(inverseEntity,
+                    null);
+        }
+        BidirectionalRelationshipBatch batch = new BidirectionalRelationshipBatch(relationshipIndex);
+        if(relationship == BidirectionalRelationshipBatchBenchmark.Relationship.ONE_TO_ONE) {
+            for(int i = 0; i < elementCount; i++) {
+                batch.add(entities.get(i),
+                        field,
+                        mappedField,
+                        inverseEntities.get(i));
+            }
+        }else {
+            batch.add(entities.get(0),
+                    field,
+                    mappedField,
+                    inverseEntities);
+        }
+        batch.apply();
+        return batch;
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.relation;
+
+import de.richtercloud.reflection.form.builder.jpa.DerbySchemaSnapshot;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityB;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityC;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityD;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityE;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityF;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures applying and writing a {@link BidirectionalRelationshipBatch} for
+ * an increasing number of elements. The time per operation should grow
+ * roughly linearly with {@code elementCount}. Every invocation attaches newly
+ * persisted entities on the inverse side, so that the database grows during
+ * the trial, but the work per invocation stays the same.
+ *
+ * @author richter
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BidirectionalRelationshipBatchBenchmark {
+    @Param({"1000", "10000", "20000"})
+    public int elementCount;
+    @Param({"MANY_TO_MANY", "ONE_TO_MANY", "ONE_TO_ONE"})
+    public Relationship relationship;
+    private EntityManagerFactory entityManagerFactory;
+    private RelationshipIndex relationshipIndex;
+    private long nextId = 1;
+    private BidirectionalRelationshipBatch batch;
+
+    public enum Relationship {
+        MANY_TO_MANY,
+        ONE_TO_MANY,
+        ONE_TO_ONE
+    }
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            SQLException,
+            IllegalAccessException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class,
+                EntityB.class,
+                EntityC.class,
+                EntityD.class,
+                EntityE.class,
+                EntityF.class));
+        entityManagerFactory = DerbySchemaSnapshot.getInstance(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME).createEntityManagerFactory(DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA);
+        relationshipIndex = RelationshipIndex.getInstance(entityClasses);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        if(entityManagerFactory != null) {
+            entityManagerFactory.close();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() throws NoSuchFieldException {
+        batch = new BidirectionalRelationshipBatch(relationshipIndex);
+        List<Object> inverseEntities = new ArrayList<>(elementCount);
+        switch(relationship) {
+            case MANY_TO_MANY:
+                for(int i = 0; i < elementCount; i++) {
+                    inverseEntities.add(new EntityB(nextId++));
+                }
+                batch.add(new EntityA(nextId++),
+                        EntityA.class.getDeclaredField("bs"),
+                        EntityB.class.getDeclaredField("as"),
+                        inverseEntities);
+                break;
+            case ONE_TO_MANY:
+                for(int i = 0; i < elementCount; i++) {
+                    inverseEntities.add(new EntityD(nextId++));
+                }
+                batch.add(new EntityC(nextId++),
+                        EntityC.class.getDeclaredField("ds"),
+                        EntityD.class.getDeclaredField("c"),
+                        inverseEntities);
+                break;
+            case ONE_TO_ONE:
+                for(int i = 0; i < elementCount; i++) {
+                    EntityF entityF = new EntityF(nextId++);
+                    inverseEntities.add(entityF);
+                    batch.add(new EntityE(nextId++),
+                            EntityE.class.getDeclaredField("f"),
+                            EntityF.class.getDeclaredField("e"),
+                            entityF);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("relationship %s isn't supported",
+                        relationship));
+        }
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            for(Object inverseEntity : inverseEntities) {
+                entityManager.persist(inverseEntity);
+            }
+            entityManager.getTransaction().commit();
+        }finally {
+            entityManager.close();
+        }
+    }
+
+    @Benchmark
+    public BidirectionalRelationshipBatch applyAndWrite() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            batch.write(entityManager);
+        }finally {
+            entityManager.close();
+        }
+        return batch;
+    }
+}
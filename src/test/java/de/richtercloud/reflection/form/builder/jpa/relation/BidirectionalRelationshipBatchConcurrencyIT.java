@@ -0,0 +1,377 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.relation;
+
+import de.richtercloud.reflection.form.builder.jpa.DerbySchemaSnapshot;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.accessor.EntityKey;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityB;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityC;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityD;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Shows that
+ * {@link BidirectionalRelationshipBatch#write(javax.persistence.EntityManager, StripedEntityLocks) }
+ * keeps both sides of many-to-many and one-to-many relationships consistent
+ * in memory and in the database when many threads apply and write updates of
+ * overlapping entities from both sides at the same time and that it doesn't
+ * deadlock. Since every batch is merged under the locks of the entities it
+ * changes, the stored relationships have to match the in-memory ones after
+ * all workers finished.
+ *
+ * @author richter
+ */
+public class BidirectionalRelationshipBatchConcurrencyIT {
+    private final static int THREAD_COUNT = 8;
+    /**
+     * Every iteration writes one transaction, so that the count is lower than
+     * for in-memory stress tests.
+     */
+    private final static int ITERATION_COUNT = 1000;
+    /**
+     * Few entities, so that almost every update overlaps with updates of
+     * other threads.
+     */
+    private final static int OWNER_COUNT = 10;
+    private final static int ELEMENT_COUNT = 30;
+    private final static int MAX_ELEMENTS_PER_UPDATE = 5;
+    /**
+     * The time after which the workers are considered deadlocked.
+     */
+    private final static long TIMEOUT_SECONDS = 120;
+    private EntityManagerFactory entityManagerFactory;
+    private RelationshipIndex relationshipIndex;
+    private final StripedEntityLocks locks = new StripedEntityLocks();
+
+    @Before
+    public void setUp() throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            SQLException,
+            IllegalAccessException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class,
+                EntityB.class,
+                EntityC.class,
+                EntityD.class));
+        entityManagerFactory = DerbySchemaSnapshot.getInstance(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME).createEntityManagerFactory(DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA);
+        relationshipIndex = RelationshipIndex.getInstance(entityClasses);
+    }
+
+    @After
+    public void tearDown() {
+        if(entityManagerFactory != null) {
+            entityManagerFactory.close();
+        }
+    }
+
+    @Test
+    public void testManyToMany() throws NoSuchFieldException,
+            InterruptedException,
+            ExecutionException {
+        List<EntityA> entityAs = new ArrayList<>(OWNER_COUNT);
+        for(long i = 0; i < OWNER_COUNT; i++) {
+            entityAs.add(new EntityA(1L+i));
+        }
+        List<EntityB> entityBs = new ArrayList<>(ELEMENT_COUNT);
+        for(long i = 0; i < ELEMENT_COUNT; i++) {
+            entityBs.add(new EntityB(1000L+i));
+        }
+        persistAll(entityAs);
+        persistAll(entityBs);
+        Field fieldBs = EntityA.class.getDeclaredField("bs");
+        Field fieldAs = EntityB.class.getDeclaredField("as");
+        runWorkers((random) -> {
+            BidirectionalRelationshipBatch batch = new BidirectionalRelationshipBatch(relationshipIndex);
+            if(random.nextBoolean()) {
+                batch.add(pick(entityAs, random),
+                        fieldBs,
+                        fieldAs,
+                        pickSubset(entityBs, random));
+            }else {
+                batch.add(pick(entityBs, random),
+                        fieldAs,
+                        fieldBs,
+                        pickSubset(entityAs, random));
+            }
+            write(batch);
+        });
+        assertManyToManyConsistent(entityAs,
+                entityBs);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            List<EntityA> entityAsStored = new ArrayList<>(OWNER_COUNT);
+            for(EntityA entityA : entityAs) {
+                EntityA entityAStored = entityManager.find(EntityA.class,
+                        entityA.getId());
+                assertEquals(getIds(entityA.getBs()),
+                        getIds(entityAStored.getBs()));
+                entityAsStored.add(entityAStored);
+            }
+            List<EntityB> entityBsStored = new ArrayList<>(ELEMENT_COUNT);
+            for(EntityB entityB : entityBs) {
+                entityBsStored.add(entityManager.find(EntityB.class,
+                        entityB.getId()));
+            }
+            assertManyToManyConsistent(entityAsStored,
+                    entityBsStored);
+        }finally {
+            entityManager.close();
+        }
+    }
+
+    @Test
+    public void testOneToMany() throws NoSuchFieldException,
+            InterruptedException,
+            ExecutionException {
+        List<EntityC> entityCs = new ArrayList<>(OWNER_COUNT);
+        for(long i = 0; i < OWNER_COUNT; i++) {
+            entityCs.add(new EntityC(1L+i));
+        }
+        List<EntityD> entityDs = new ArrayList<>(ELEMENT_COUNT);
+        for(long i = 0; i < ELEMENT_COUNT; i++) {
+            entityDs.add(new EntityD(1000L+i));
+        }
+        persistAll(entityCs);
+        persistAll(entityDs);
+        Field fieldDs = EntityC.class.getDeclaredField("ds");
+        Field fieldC = EntityD.class.getDeclaredField("c");
+        runWorkers((random) -> {
+            BidirectionalRelationshipBatch batch = new BidirectionalRelationshipBatch(relationshipIndex);
+            if(random.nextBoolean()) {
+                batch.add(pick(entityCs, random),
+                        fieldDs,
+                        fieldC,
+                        pickSubset(entityDs, random));
+            }else {
+                //null unlinks
+                batch.add(pick(entityDs, random),
+                        fieldC,
+                        fieldDs,
+                        random.nextInt(OWNER_COUNT+1) == OWNER_COUNT
+                                ? null
+                                : pick(entityCs, random));
+            }
+            write(batch);
+        });
+        assertOneToManyConsistent(entityCs,
+                entityDs);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            List<EntityC> entityCsStored = new ArrayList<>(OWNER_COUNT);
+            for(EntityC entityC : entityCs) {
+                EntityC entityCStored = entityManager.find(EntityC.class,
+                        entityC.getId());
+                assertEquals(getIds(entityC.getDs()),
+                        getIds(entityCStored.getDs()));
+                entityCsStored.add(entityCStored);
+            }
+            List<EntityD> entityDsStored = new ArrayList<>(ELEMENT_COUNT);
+            for(EntityD entityD : entityDs) {
+                entityDsStored.add(entityManager.find(EntityD.class,
+                        entityD.getId()));
+            }
+            assertOneToManyConsistent(entityCsStored,
+                    entityDsStored);
+        }finally {
+            entityManager.close();
+        }
+    }
+
+    private interface Worker {
+
+        void update(Random random);
+    }
+
+    /**
+     * Runs {@link #ITERATION_COUNT} updates on each of
+     * {@link #THREAD_COUNT} threads which are started at the same time.
+     */
+    private void runWorkers(Worker worker) throws InterruptedException,
+            ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            CountDownLatch startLatch = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>(THREAD_COUNT);
+            for(int i = 0; i < THREAD_COUNT; i++) {
+                Random random = new Random(i);
+                futures.add(executor.submit(() -> {
+                    startLatch.await();
+                    for(int j = 0; j < ITERATION_COUNT; j++) {
+                        worker.update(random);
+                    }
+                    return null;
+                }));
+            }
+            startLatch.countDown();
+            long deadline = System.nanoTime()+TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            for(Future<?> future : futures) {
+                try {
+                    future.get(Math.max(0, deadline-System.nanoTime()),
+                            TimeUnit.NANOSECONDS);
+                } catch (TimeoutException ex) {
+                    fail(String.format("workers didn't finish within %d s, they're probably deadlocked",
+                            TIMEOUT_SECONDS));
+                }
+            }
+        }finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> T pick(List<T> entities,
+            Random random) {
+        return entities.get(random.nextInt(entities.size()));
+    }
+
+    private static <T> List<T> pickSubset(List<T> entities,
+            Random random) {
+        List<T> shuffled = new ArrayList<>(entities);
+        Collections.shuffle(shuffled,
+                random);
+        return new ArrayList<>(shuffled.subList(0,
+                random.nextInt(MAX_ELEMENTS_PER_UPDATE+1)));
+    }
+
+    private static void assertManyToManyConsistent(List<EntityA> entityAs,
+            List<EntityB> entityBs) {
+        for(EntityA entityA : entityAs) {
+            assertNoDuplicates(entityA.getBs());
+            for(EntityB entityB : nullToEmpty(entityA.getBs())) {
+                assertTrue(String.format("A %d references B %d, but not vice versa",
+                                entityA.getId(),
+                                entityB.getId()),
+                        getIds(entityB.getAs()).contains(entityA.getId()));
+            }
+        }
+        for(EntityB entityB : entityBs) {
+            assertNoDuplicates(entityB.getAs());
+            for(EntityA entityA : nullToEmpty(entityB.getAs())) {
+                assertTrue(String.format("B %d references A %d, but not vice versa",
+                                entityB.getId(),
+                                entityA.getId()),
+                        getIds(entityA.getBs()).contains(entityB.getId()));
+            }
+        }
+    }
+
+    private static void assertOneToManyConsistent(List<EntityC> entityCs,
+            List<EntityD> entityDs) {
+        Set<Object> referencedIds = new HashSet<>();
+        for(EntityC entityC : entityCs) {
+            assertNoDuplicates(entityC.getDs());
+            for(EntityD entityD : nullToEmpty(entityC.getDs())) {
+                assertTrue(String.format("D %d is in the collections of more than one C",
+                                entityD.getId()),
+                        referencedIds.add(entityD.getId()));
+                assertEquals(String.format("C %d contains D %d which references another C",
+                                entityC.getId(),
+                                entityD.getId()),
+                        entityC.getId(),
+                        entityD.getC() == null ? null : entityD.getC().getId());
+            }
+        }
+        for(EntityD entityD : entityDs) {
+            if(entityD.getC() == null) {
+                continue;
+            }
+            assertTrue(String.format("D %d references C %d, but not vice versa",
+                            entityD.getId(),
+                            entityD.getC().getId()),
+                    getIds(entityD.getC().getDs()).contains(entityD.getId()));
+        }
+    }
+
+    private static void assertNoDuplicates(Collection<?> entities) {
+        assertEquals(nullToEmpty(entities).size(),
+                new HashSet<>(nullToEmpty(entities)).size());
+    }
+
+    private static <T> Collection<T> nullToEmpty(Collection<T> entities) {
+        return entities == null
+                ? Collections.emptyList()
+                : entities;
+    }
+
+    private static Set<Object> getIds(Collection<?> entities) {
+        Set<Object> retValue = new HashSet<>();
+        for(Object entity : nullToEmpty(entities)) {
+            retValue.add(EntityKey.of(entity).getId());
+        }
+        return retValue;
+    }
+
+    /**
+     * Persists {@code entities} without relationships before the workers
+     * start, so that the batches only merge existing entities.
+     */
+    private void persistAll(List<?> entities) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            for(Object entity : entities) {
+                entityManager.persist(entity);
+            }
+            entityManager.getTransaction().commit();
+        }finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Applies and writes {@code batch} on the calling worker thread with an
+     * entity manager of its own.
+     */
+    private void write(BidirectionalRelationshipBatch batch) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            batch.write(entityManager,
+                    locks);
+        }finally {
+            entityManager.close();
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.relation;
+
+import de.richtercloud.reflection.form.builder.jpa.DerbySchemaSnapshot;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityB;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityC;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityD;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityE;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityF;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shows that {@link BidirectionalRelationshipBatch} sets both sides of
+ * many-to-many, one-to-many and one-to-one relationships with more than 10000
+ * elements and writes them in one transaction.
+ *
+ * @author richter
+ */
+public class BidirectionalRelationshipBatchIT {
+    private final static Logger LOGGER = LoggerFactory.getLogger(BidirectionalRelationshipBatchIT.class);
+    private final static int ELEMENT_COUNT = 10000;
+    /**
+     * Only every {@code VERIFICATION_STEP}th inverse entity is retrieved for
+     * verification in order to avoid one lazy load per element.
+     */
+    private final static int VERIFICATION_STEP = 100;
+    private EntityManagerFactory entityManagerFactory;
+    private RelationshipIndex relationshipIndex;
+
+    @Before
+    public void setUp() throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            SQLException,
+            IllegalAccessException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class,
+                EntityB.class,
+                EntityC.class,
+                EntityD.class,
+                EntityE.class,
+                EntityF.class));
+        entityManagerFactory = DerbySchemaSnapshot.getInstance(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME).createEntityManagerFactory(DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA);
+        relationshipIndex = RelationshipIndex.getInstance(entityClasses);
+    }
+
+    @After
+    public void tearDown() {
+        if(entityManagerFactory != null) {
+            entityManagerFactory.close();
+        }
+    }
+
+    @Test
+    public void testManyToMany() throws NoSuchFieldException {
+        EntityA entityA = new EntityA(1L);
+        List<EntityB> entityBs = new ArrayList<>(ELEMENT_COUNT);
+        for(long i = 0; i < ELEMENT_COUNT; i++) {
+            entityBs.add(new EntityB(100L+i));
+        }
+        persistAll(entityBs);
+        BidirectionalRelationshipBatch batch = new BidirectionalRelationshipBatch(relationshipIndex);
+        batch.add(entityA,
+                EntityA.class.getDeclaredField("bs"),
+                EntityB.class.getDeclaredField("as"),
+                entityBs);
+        write(batch);
+        assertEquals(ELEMENT_COUNT,
+                batch.getInverseEntities().size());
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            EntityA entityAStored = entityManager.find(EntityA.class,
+                    entityA.getId());
+            assertEquals(ELEMENT_COUNT,
+                    entityAStored.getBs().size());
+            for(int i = 0; i < ELEMENT_COUNT; i += VERIFICATION_STEP) {
+                EntityB entityBStored = entityManager.find(EntityB.class,
+                        entityBs.get(i).getId());
+                assertTrue(entityBStored.getAs().contains(entityAStored));
+            }
+        }finally {
+            entityManager.close();
+        }
+    }
+
+    @Test
+    public void testOneToMany() throws NoSuchFieldException {
+        EntityC entityC = new EntityC(1L);
+        List<EntityD> entityDs = new ArrayList<>(ELEMENT_COUNT);
+        for(long i = 0; i < ELEMENT_COUNT; i++) {
+            entityDs.add(new EntityD(100L+i));
+        }
+        persistAll(entityDs);
+        BidirectionalRelationshipBatch batch = new BidirectionalRelationshipBatch(relationshipIndex);
+        batch.add(entityC,
+                EntityC.class.getDeclaredField("ds"),
+                EntityD.class.getDeclaredField("c"),
+                entityDs);
+        write(batch);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            EntityC entityCStored = entityManager.find(EntityC.class,
+                    entityC.getId());
+            assertEquals(ELEMENT_COUNT,
+                    entityCStored.getDs().size());
+            for(int i = 0; i < ELEMENT_COUNT; i += VERIFICATION_STEP) {
+                EntityD entityDStored = entityManager.find(EntityD.class,
+                        entityDs.get(i).getId());
+                assertEquals(entityCStored,
+                        entityDStored.getC());
+            }
+        }finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * One-to-one relationships only have one element per update, so that the
+     * batch contains one update per pair.
+     */
+    @Test
+    public void testOneToOne() throws NoSuchFieldException {
+        Field fieldF = EntityE.class.getDeclaredField("f");
+        Field mappedFieldE = EntityF.class.getDeclaredField("e");
+        List<EntityE> entityEs = new ArrayList<>(ELEMENT_COUNT);
+        List<EntityF> entityFs = new ArrayList<>(ELEMENT_COUNT);
+        for(long i = 0; i < ELEMENT_COUNT; i++) {
+            entityEs.add(new EntityE(100L+i));
+            entityFs.add(new EntityF(100L+ELEMENT_COUNT+i));
+        }
+        persistAll(entityFs);
+        BidirectionalRelationshipBatch batch = new BidirectionalRelationshipBatch(relationshipIndex);
+        for(int i = 0; i < ELEMENT_COUNT; i++) {
+            batch.add(entityEs.get(i),
+                    fieldF,
+                    mappedFieldE,
+                    entityFs.get(i));
+        }
+        write(batch);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            for(int i = 0; i < ELEMENT_COUNT; i += VERIFICATION_STEP) {
+                EntityE entityEStored = entityManager.find(EntityE.class,
+                        entityEs.get(i).getId());
+                EntityF entityFStored = entityManager.find(EntityF.class,
+                        entityFs.get(i).getId());
+                assertEquals(entityFStored,
+                        entityEStored.getF());
+                assertEquals(entityEStored,
+                        entityFStored.getE());
+            }
+        }finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Shows that moving an entity on the many side of a one-to-many
+     * relationship to another owner removes it from the collection of the
+     * previous owner and writes the previous owner.
+     */
+    @Test
+    public void testOneToManyMoveToOtherOwner() throws NoSuchFieldException {
+        Field fieldDs = EntityC.class.getDeclaredField("ds");
+        Field mappedFieldC = EntityD.class.getDeclaredField("c");
+        EntityC entityC1 = new EntityC(1L);
+        EntityC entityC2 = new EntityC(2L);
+        EntityD entityD = new EntityD(100L);
+        persistAll(Arrays.asList(entityD));
+        BidirectionalRelationshipBatch batch = new BidirectionalRelationshipBatch(relationshipIndex);
+        batch.add(entityC1,
+                fieldDs,
+                mappedFieldC,
+                new ArrayList<>(Arrays.asList(entityD)));
+        write(batch);
+        BidirectionalRelationshipBatch moveBatch = new BidirectionalRelationshipBatch(relationshipIndex);
+        moveBatch.add(entityC2,
+                fieldDs,
+                mappedFieldC,
+                new ArrayList<>(Arrays.asList(entityD)));
+        write(moveBatch);
+        assertEquals(entityC2,
+                entityD.getC());
+        assertTrue(entityC1.getDs().isEmpty());
+        assertTrue(moveBatch.getOwningEntities().contains(entityC1));
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            EntityC entityC1Stored = entityManager.find(EntityC.class,
+                    entityC1.getId());
+            EntityC entityC2Stored = entityManager.find(EntityC.class,
+                    entityC2.getId());
+            assertTrue(entityC1Stored.getDs().isEmpty());
+            assertEquals(1,
+                    entityC2Stored.getDs().size());
+            assertEquals(entityC2Stored,
+                    entityManager.find(EntityD.class,
+                            entityD.getId()).getC());
+        }finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Shows that adding elements to the current collection of an entity in
+     * place and passing the same instance as new value links the added
+     * elements.
+     */
+    @Test
+    public void testManyToManySameInstanceChangedInPlace() throws NoSuchFieldException {
+        Field fieldBs = EntityA.class.getDeclaredField("bs");
+        Field fieldAs = EntityB.class.getDeclaredField("as");
+        EntityA entityA = new EntityA(1L);
+        EntityB entityB1 = new EntityB(100L);
+        EntityB entityB2 = new EntityB(101L);
+        BidirectionalRelationshipBatch batch = new BidirectionalRelationshipBatch(relationshipIndex);
+        batch.add(entityA,
+                fieldBs,
+                fieldAs,
+                new ArrayList<>(Arrays.asList(entityB1)));
+        batch.apply();
+        entityA.getBs().add(entityB2);
+        BidirectionalRelationshipBatch sameInstanceBatch = new BidirectionalRelationshipBatch(relationshipIndex);
+        sameInstanceBatch.add(entityA,
+                fieldBs,
+                fieldAs,
+                entityA.getBs());
+        sameInstanceBatch.apply();
+        assertEquals(Arrays.asList(entityA),
+                entityB1.getAs());
+        assertEquals(Arrays.asList(entityA),
+                entityB2.getAs());
+        assertEquals(new HashSet<>(Arrays.asList(entityB2)),
+                sameInstanceBatch.getInverseEntities());
+    }
+
+    /**
+     * Shows that collections on the inverse side which have been passed as
+     * unmodifiable or fixed-size collections in earlier updates are replaced
+     * with modifiable copies instead of failing in the middle of the batch.
+     */
+    @Test
+    public void testUnmodifiableInverseCollections() throws NoSuchFieldException {
+        Field fieldBs = EntityA.class.getDeclaredField("bs");
+        Field fieldAs = EntityB.class.getDeclaredField("as");
+        EntityA entityA1 = new EntityA(1L);
+        EntityA entityA2 = new EntityA(2L);
+        EntityB entityB = new EntityB(100L);
+        BidirectionalRelationshipBatch batch = new BidirectionalRelationshipBatch(relationshipIndex);
+        batch.add(entityB,
+                fieldAs,
+                fieldBs,
+                Collections.unmodifiableList(Arrays.asList(entityA1)));
+        batch.apply();
+        BidirectionalRelationshipBatch manyToManyBatch = new BidirectionalRelationshipBatch(relationshipIndex);
+        manyToManyBatch.add(entityA2,
+                fieldBs,
+                fieldAs,
+                Arrays.asList(entityB));
+        manyToManyBatch.apply();
+        assertEquals(Arrays.asList(entityA1,
+                        entityA2),
+                entityB.getAs());
+        //removing from the collection of the previous owner of a
+        //one-to-many relationship
+        Field fieldDs = EntityC.class.getDeclaredField("ds");
+        Field fieldC = EntityD.class.getDeclaredField("c");
+        EntityC entityC1 = new EntityC(1L);
+        EntityC entityC2 = new EntityC(2L);
+        EntityD entityD = new EntityD(100L);
+        BidirectionalRelationshipBatch oneToManyBatch = new BidirectionalRelationshipBatch(relationshipIndex);
+        oneToManyBatch.add(entityC1,
+                fieldDs,
+                fieldC,
+                Arrays.asList(entityD));
+        oneToManyBatch.apply();
+        BidirectionalRelationshipBatch moveBatch = new BidirectionalRelationshipBatch(relationshipIndex);
+        moveBatch.add(entityC2,
+                fieldDs,
+                fieldC,
+                Collections.unmodifiableList(Arrays.asList(entityD)));
+        moveBatch.apply();
+        assertEquals(Collections.emptyList(),
+                entityC1.getDs());
+        assertEquals(Arrays.asList(entityD),
+                entityC2.getDs());
+        assertEquals(entityC2,
+                entityD.getC());
+    }
+
+    private void persistAll(List<?> entities) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            for(Object entity : entities) {
+                entityManager.persist(entity);
+            }
+            entityManager.getTransaction().commit();
+        }finally {
+            entityManager.close();
+        }
+    }
+
+    private void write(BidirectionalRelationshipBatch batch) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            long start = System.currentTimeMillis();
+            batch.write(entityManager);
+            LOGGER.info(String.format("writing batch with %d updates took %d ms",
+                    batch.size(),
+                    System.currentTimeMillis()-start));
+        }finally {
+            entityManager.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.relation;
+
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityAMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityAMappedByInverse;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityB;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityBMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityBMappedByInverse;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityC;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityCMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityD;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityDMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityE;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityEMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityEMappedByInverse;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityF;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityFMappedBy;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityFMappedByInverse;
+import de.richtercloud.reflection.form.builder.jpa.metadata.Cardinality;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Shows that {@link RelationshipIndex} derives cardinality, target entity,
+ * collection type and the owning and inverse side for all relationship
+ * variants of the test entities.
+ *
+ * @author richter
+ */
+public class RelationshipIndexIT {
+    private static RelationshipIndex instance;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException,
+            IllegalAccessException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class,
+                EntityB.class,
+                EntityC.class,
+                EntityD.class,
+                EntityE.class,
+                EntityF.class,
+                EntityAMappedBy.class,
+                EntityBMappedBy.class,
+                EntityCMappedBy.class,
+                EntityDMappedBy.class,
+                EntityEMappedBy.class,
+                EntityFMappedBy.class,
+                EntityAMappedByInverse.class,
+                EntityBMappedByInverse.class,
+                EntityEMappedByInverse.class,
+                EntityFMappedByInverse.class));
+        instance = RelationshipIndex.getInstance(entityClasses);
+        assertSame(instance,
+                RelationshipIndex.getInstance(new HashSet<>(entityClasses)));
+    }
+
+    /**
+     * Without {@code mappedBy} both sides are owning and the index doesn't
+     * know the inverse side.
+     */
+    @Test
+    public void testWithoutMappedBy() throws NoSuchFieldException {
+        assertUnidirectional(EntityA.class.getDeclaredField("bs"),
+                Cardinality.MANY_TO_MANY,
+                EntityB.class);
+        assertUnidirectional(EntityB.class.getDeclaredField("as"),
+                Cardinality.MANY_TO_MANY,
+                EntityA.class);
+        assertUnidirectional(EntityC.class.getDeclaredField("ds"),
+                Cardinality.ONE_TO_MANY,
+                EntityD.class);
+        assertUnidirectional(EntityD.class.getDeclaredField("c"),
+                Cardinality.MANY_TO_ONE,
+                EntityC.class);
+        assertUnidirectional(EntityE.class.getDeclaredField("f"),
+                Cardinality.ONE_TO_ONE,
+                EntityF.class);
+        assertUnidirectional(EntityF.class.getDeclaredField("e"),
+                Cardinality.ONE_TO_ONE,
+                EntityE.class);
+    }
+
+    @Test
+    public void testMappedBy() throws NoSuchFieldException {
+        assertBidirectional(EntityAMappedBy.class.getDeclaredField("bs"),
+                EntityBMappedBy.class.getDeclaredField("as"));
+        assertBidirectional(EntityCMappedBy.class.getDeclaredField("ds"),
+                EntityDMappedBy.class.getDeclaredField("c"));
+        assertBidirectional(EntityEMappedBy.class.getDeclaredField("f"),
+                EntityFMappedBy.class.getDeclaredField("e"));
+    }
+
+    @Test
+    public void testMappedByInverse() throws NoSuchFieldException {
+        assertBidirectional(EntityAMappedByInverse.class.getDeclaredField("bs"),
+                EntityBMappedByInverse.class.getDeclaredField("as"));
+        assertBidirectional(EntityEMappedByInverse.class.getDeclaredField("f"),
+                EntityFMappedByInverse.class.getDeclaredField("e"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetMappingNoRelationship() throws NoSuchFieldException {
+        instance.getMapping(EntityA.class.getDeclaredField("id"));
+    }
+
+    private static void assertUnidirectional(Field field,
+            Cardinality cardinality,
+            Class<?> targetEntityClass) {
+        RelationshipMapping mapping = instance.getMapping(field);
+        assertEquals(cardinality,
+                mapping.getCardinality());
+        assertEquals(targetEntityClass,
+                mapping.getTargetEntityClass());
+        assertEquals(cardinality == Cardinality.MANY_TO_MANY
+                        || cardinality == Cardinality.ONE_TO_MANY,
+                mapping.isCollectionValued());
+        assertTrue(mapping.isOwningSide());
+        assertNull(mapping.getInverseField());
+    }
+
+    /**
+     * Exactly one side specifies {@code mappedBy} and both sides reference
+     * each other.
+     */
+    private static void assertBidirectional(Field field,
+            Field mappedField) {
+        RelationshipMapping mapping = instance.getMapping(field);
+        RelationshipMapping mappedMapping = instance.getMapping(mappedField);
+        assertEquals(mappedField,
+                mapping.getInverseField());
+        assertEquals(field,
+                mappedMapping.getInverseField());
+        assertTrue(mapping.isOwningSide() != mappedMapping.isOwningSide());
+        assertEquals(mappedField.getDeclaringClass(),
+                mapping.getTargetEntityClass());
+        assertEquals(field.getDeclaringClass(),
+                mappedMapping.getTargetEntityClass());
+    }
+}
@@ -14,6 +14,7 @@
  */
 package de.richtercloud.reflection.form.builder.jpa.sequence;
 
+import de.richtercloud.reflection.form.builder.jpa.DerbySchemaSnapshot;
 import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
 import de.richtercloud.reflection.form.builder.jpa.retriever.JPAOrderedCachedFieldRetriever;
 import de.richtercloud.reflection.form.builder.jpa.storage.DerbyEmbeddedPersistenceStorage;
@@ -23,13 +24,11 @@ import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationExc
 import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
 import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
 import de.richtercloud.validation.tools.FieldRetriever;
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
-import org.apache.commons.io.FileUtils;
 import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 
@@ -44,21 +43,19 @@ public class DerbySequenceManagerIT {
             FieldOrderValidationException,
             StorageConfValidationException,
             StorageCreationException,
-            SequenceManagementException {
+            SequenceManagementException,
+            SQLException {
         PersistenceStorage<Long> storage = null;
         try {
             String sequenceName = "with-minus";
             Set<Class<?>> entityClasses = new HashSet<Class<?>>(Arrays.asList(EntityA.class));
-            File databaseDir = Files.createTempDirectory(DerbySequenceManagerIT.class.getSimpleName()).toFile();
-            FileUtils.forceDelete(databaseDir);
-            File schemeChecksumFile = File.createTempFile(DerbySequenceManagerIT.class.getSimpleName(), "checksum");
-            DerbyEmbeddedPersistenceStorageConf storageConf = new DerbyEmbeddedPersistenceStorageConf(entityClasses,
-                    databaseDir.getAbsolutePath(), //databaseName
-                    schemeChecksumFile);
             String persistenceUnitName = "reflection-form-builder-it";
+            DerbyEmbeddedPersistenceStorageConf storageConf = DerbySchemaSnapshot.getInstance(entityClasses,
+                    persistenceUnitName).createStorageConf();
+                //avoids schema generation for every storage
             FieldRetriever fieldRetriever = new JPAOrderedCachedFieldRetriever(entityClasses);
             storage = new DerbyEmbeddedPersistenceStorage(storageConf,
-                    persistenceUnitName,
+                    DerbySchemaSnapshot.PERSISTENCE_UNIT_NAME_EXISTING_SCHEMA,
                     10, //parallelQueryCount
                     fieldRetriever);
             storage.start();
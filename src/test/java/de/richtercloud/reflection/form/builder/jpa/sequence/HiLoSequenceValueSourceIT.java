@@ -0,0 +1,203 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.sequence;
+
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageFactory;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import de.richtercloud.test.tools.ParallelITExecutor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Shows that {@link HiLoSequenceValueSource} doesn't hand out duplicate values
+ * and doesn't leave gaps larger than one block plus the refill threshold when
+ * used concurrently and across storage restarts.
+ *
+ * @author richter
+ */
+public class HiLoSequenceValueSourceIT {
+    private final static String SEQUENCE_NAME = "with-minus";
+    private final static int BLOCK_SIZE = 100;
+    private final static int REFILL_THRESHOLD = 20;
+    private final static int PARALLELISM = 8;
+    private final static int VALUES_PER_THREAD = 1000;
+    private final static int BATCH_SIZE = 37;
+    private final static int RESTART_COUNT = 3;
+    /**
+     * Small blocks which are exhausted often, so that threads still holding a
+     * replaced block are common.
+     */
+    private final static int CONTENTION_BLOCK_SIZE = 2;
+    private final static int CONTENTION_REFILL_THRESHOLD = 1;
+    /**
+     * Few values per round and many rounds, so that the state at closing
+     * varies.
+     */
+    private final static int CONTENTION_VALUES_PER_THREAD = 10;
+    private final static int CONTENTION_ROUNDS = 2000;
+
+    @Test
+    public void testDerby() throws IOException,
+            InterruptedException,
+            ExecutionException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            SequenceManagementException {
+        testAllocation(ITStorageBackend.DERBY);
+    }
+
+    @Test
+    public void testPostgresql() throws IOException,
+            InterruptedException,
+            ExecutionException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            SequenceManagementException {
+        testAllocation(ITStorageBackend.POSTGRESQL);
+    }
+
+    @Test
+    public void testMySQL() throws IOException,
+            InterruptedException,
+            ExecutionException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            SequenceManagementException {
+        testAllocation(ITStorageBackend.MYSQL);
+    }
+
+    /**
+     * Shows that the values fetched, but not handed out before closing never
+     * exceed the documented bound, even if threads still holding a block
+     * which has already been replaced trigger a prefetch. Uses an in-memory
+     * delegate, so that blocks are exhausted at a high rate.
+     */
+    @Test
+    public void testLostValuesUnderContention() throws InterruptedException,
+            ExecutionException {
+        for(int round = 0; round < CONTENTION_ROUNDS; round++) {
+            AtomicLong hi = new AtomicLong();
+            Queue<Long> values = new ConcurrentLinkedQueue<>();
+            try (HiLoSequenceValueSource instance = new HiLoSequenceValueSource(sequenceName -> hi.getAndIncrement(),
+                    CONTENTION_BLOCK_SIZE,
+                    CONTENTION_REFILL_THRESHOLD,
+                    Runnable::run //refillExecutor
+            )) {
+                new ParallelITExecutor().executeLambdaInParallel(PARALLELISM, () -> {
+                    for(int i = 0; i < CONTENTION_VALUES_PER_THREAD; i++) {
+                        values.add(instance.getNextSequenceValue(SEQUENCE_NAME));
+                    }
+                    return null;
+                });
+            }
+            long lostValueCount = hi.get()*CONTENTION_BLOCK_SIZE-values.size();
+            assertTrue(String.format("%d values have been fetched, but not handed out",
+                            lostValueCount),
+                    lostValueCount <= CONTENTION_BLOCK_SIZE+CONTENTION_REFILL_THRESHOLD);
+        }
+    }
+
+    @Test
+    public void testClosed() throws SequenceManagementException {
+        HiLoSequenceValueSource instance = new HiLoSequenceValueSource(sequenceName -> 0L,
+                BLOCK_SIZE);
+        instance.getNextSequenceValue(SEQUENCE_NAME);
+        instance.close();
+        try {
+            instance.getNextSequenceValue(SEQUENCE_NAME);
+            fail("SequenceManagementException expected");
+        }catch(SequenceManagementException expected) {
+            //expected
+        }
+    }
+
+    private void testAllocation(ITStorageBackend backend) throws IOException,
+            InterruptedException,
+            ExecutionException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            SequenceManagementException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        ITStorageFactory storageFactory = backend.createStorageFactory(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                10 //parallelQueryCount
+        );
+        Queue<Long> values = new ConcurrentLinkedQueue<>();
+        for(int restart = 0; restart < RESTART_COUNT; restart++) {
+            PersistenceStorage<Long> storage = storageFactory.startStorage();
+            try {
+                SequenceValueSource sequenceValueSource = backend.openSequence(storage,
+                        SEQUENCE_NAME,
+                        restart == 0 //create
+                );
+                try (HiLoSequenceValueSource instance = new HiLoSequenceValueSource(sequenceValueSource,
+                        BLOCK_SIZE,
+                        REFILL_THRESHOLD,
+                        null //refillExecutor
+                )) {
+                    new ParallelITExecutor().executeLambdaInParallel(PARALLELISM, () -> {
+                        for(int i = 0; i < VALUES_PER_THREAD; i++) {
+                            if(i % 10 == 0) {
+                                for(long value : instance.getNextSequenceValues(SEQUENCE_NAME, BATCH_SIZE)) {
+                                    values.add(value);
+                                }
+                            }else {
+                                values.add(instance.getNextSequenceValue(SEQUENCE_NAME));
+                            }
+                        }
+                        return null;
+                    });
+                }
+            }finally {
+                ITStorageBackend.shutdownStorage(storage);
+            }
+        }
+        List<Long> sortedValues = new ArrayList<>(values);
+        Collections.sort(sortedValues);
+        assertEquals("duplicate values have been handed out",
+                sortedValues.size(),
+                new HashSet<>(sortedValues).size());
+        for(int i = 1; i < sortedValues.size(); i++) {
+            long gap = sortedValues.get(i)-sortedValues.get(i-1)-1;
+            assertTrue(String.format("gap of %d values between %d and %d exceeds block size plus refill threshold",
+                            gap,
+                            sortedValues.get(i-1),
+                            sortedValues.get(i)),
+                    gap <= BLOCK_SIZE+REFILL_THRESHOLD);
+        }
+    }
+}
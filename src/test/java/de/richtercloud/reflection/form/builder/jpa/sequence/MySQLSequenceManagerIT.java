@@ -16,7 +16,9 @@ package de.richtercloud.reflection.form.builder.jpa.sequence;
 
 import de.richtercloud.message.handler.IssueHandler;
 import de.richtercloud.message.handler.LoggerIssueHandler;
-import de.richtercloud.reflection.form.builder.jpa.ReflectionFormBuilderITUtils;
+import de.richtercloud.reflection.form.builder.jpa.ITResourceManager;
+import de.richtercloud.reflection.form.builder.jpa.ITResourceRule;
+import de.richtercloud.reflection.form.builder.jpa.PortReservation;
 import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
 import de.richtercloud.reflection.form.builder.jpa.retriever.JPAOrderedCachedFieldRetriever;
 import de.richtercloud.reflection.form.builder.jpa.storage.MySQLAutoPersistenceStorage;
@@ -28,22 +30,26 @@ import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
 import de.richtercloud.validation.tools.FieldRetriever;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
-import org.apache.commons.io.FileUtils;
 import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Tests {@link MySQLSequenceManager} with a server started by a MySQL
+ * storage. The data directory is deleted after the test by
+ * {@link ITResourceRule}.
  *
  * @author richter
  */
 public class MySQLSequenceManagerIT {
     private final static Logger LOGGER = LoggerFactory.getLogger(MySQLSequenceManagerIT.class);
+    @Rule
+    public final ITResourceRule resources = new ITResourceRule();
 
     @Test
     public void testCreateSequence() throws IOException,
@@ -68,38 +74,40 @@ public class MySQLSequenceManagerIT {
 
             String sequenceName = "with-minus";
             Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
-            File databaseDir = Files.createTempDirectory(MySQLSequenceManagerIT.class.getSimpleName()).toFile();
-            FileUtils.forceDelete(databaseDir);
-            String databaseName = "reflection-form-builder-it";
-            File schemeChecksumFile = File.createTempFile(MySQLSequenceManagerIT.class.getSimpleName(), "checksum");
+            ITResourceManager resourceManager = ITResourceManager.getInstance();
+            File databaseDir = resources.getScope().createTempPath(MySQLSequenceManagerIT.class.getSimpleName());
+            String databaseName = resourceManager.createDatabaseName("reflection-form-builder-it");
+            File schemeChecksumFile = resources.getScope().createTempFile(MySQLSequenceManagerIT.class.getSimpleName(),
+                    "checksum");
             String username = "reflection-form-builder";
             String password = username;
-            File myCnfFile = File.createTempFile(MySQLSequenceManagerIT.class.getSimpleName(), "mycnf");
-            myCnfFile.delete();
-            int databasePort = ReflectionFormBuilderITUtils.findFreePort(MySQLAutoPersistenceStorageConf.PORT_DEFAULT);
-            LOGGER.info(String.format("using random next free port %d",
-                    databasePort));
-            MySQLAutoPersistenceStorageConf storageConf = new MySQLAutoPersistenceStorageConf(databaseDir.getAbsolutePath(),
-                    mySQLDir.getAbsolutePath(),
-                    "localhost",
-                    databasePort,
-                    entityClasses,
-                    username,
-                    password,
-                    databaseName,
-                    schemeChecksumFile);
-            storageConf.setPassword(password);
-            storageConf.setBaseDir(mySQLDir.getAbsolutePath());
-            storageConf.setMyCnfFilePath(myCnfFile.getAbsolutePath());
-            String persistenceUnitName = "reflection-form-builder-it";
-            FieldRetriever fieldRetriever = new JPAOrderedCachedFieldRetriever(entityClasses);
-            IssueHandler issueHandler = new LoggerIssueHandler(LOGGER);
-            storage = new MySQLAutoPersistenceStorage(storageConf,
-                    persistenceUnitName,
-                    10, //parallelQueryCount
-                    issueHandler,
-                    fieldRetriever);
-            storage.start();
+            File myCnfFile = resources.getScope().createTempPath(MySQLSequenceManagerIT.class.getSimpleName()+"-mycnf");
+            try (PortReservation portReservation = resourceManager.reservePort(MySQLAutoPersistenceStorageConf.PORT_DEFAULT)) {
+                int databasePort = portReservation.getPort();
+                LOGGER.info(String.format("using reserved port %d",
+                        databasePort));
+                MySQLAutoPersistenceStorageConf storageConf = new MySQLAutoPersistenceStorageConf(databaseDir.getAbsolutePath(),
+                        mySQLDir.getAbsolutePath(),
+                        "localhost",
+                        databasePort,
+                        entityClasses,
+                        username,
+                        password,
+                        databaseName,
+                        schemeChecksumFile);
+                storageConf.setPassword(password);
+                storageConf.setBaseDir(mySQLDir.getAbsolutePath());
+                storageConf.setMyCnfFilePath(myCnfFile.getAbsolutePath());
+                String persistenceUnitName = "reflection-form-builder-it";
+                FieldRetriever fieldRetriever = new JPAOrderedCachedFieldRetriever(entityClasses);
+                IssueHandler issueHandler = new LoggerIssueHandler(LOGGER);
+                storage = new MySQLAutoPersistenceStorage(storageConf,
+                        persistenceUnitName,
+                        10, //parallelQueryCount
+                        issueHandler,
+                        fieldRetriever);
+                storage.start();
+            }
             MySQLSequenceManager instance = new MySQLSequenceManager(storage);
             instance.createSequence(sequenceName);
             long nextSequenceValue = instance.getNextSequenceValue(sequenceName);
@@ -0,0 +1,176 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.sequence;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Shows that {@link PooledJdbcSequenceValueSource} provides unique values
+ * under contention with at most one prepared statement per connection and
+ * sequence and that {@link JdbcConnectionPool} replaces failed connections
+ * and bounds the number of connections. Uses an in-memory Derby database.
+ *
+ * @author richter
+ */
+public class PooledJdbcSequenceValueSourceIT {
+    private final static String SEQUENCE_NAME = "with-minus";
+    private final static int POOL_SIZE = 4;
+    private final static int THREAD_COUNT = 8;
+    private final static int VALUES_PER_THREAD = 1000;
+    /**
+     * The SQL state of Derby after dropping a database successfully.
+     */
+    private final static String SQL_STATE_DROPPED = "08006";
+    private String connectionURL;
+
+    @Before
+    public void setUp() throws SQLException {
+        connectionURL = String.format("jdbc:derby:memory:%s",
+                UUID.randomUUID());
+        DriverManager.getConnection(connectionURL+";create=true").close();
+    }
+
+    @After
+    public void tearDown() {
+        try {
+            DriverManager.getConnection(connectionURL+";drop=true").close();
+        } catch (SQLException ex) {
+            assertEquals(SQL_STATE_DROPPED,
+                    ex.getSQLState());
+        }
+    }
+
+    @Test
+    public void testConcurrentValuesAreUnique() throws Exception {
+        JdbcConnectionPool connectionPool = createConnectionPool(POOL_SIZE,
+                JdbcConnectionPool.BORROW_TIMEOUT_MILLIS_DEFAULT);
+        try (PooledJdbcSequenceValueSource instance = new PooledJdbcSequenceValueSource(connectionPool,
+                SequenceDialect.DERBY)) {
+            instance.createSequence(SEQUENCE_NAME);
+            ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+            List<Future<long[]>> futures = new ArrayList<>(THREAD_COUNT);
+            try {
+                for(int i = 0; i < THREAD_COUNT; i++) {
+                    futures.add(executor.submit(() -> {
+                        long[] values = new long[VALUES_PER_THREAD];
+                        for(int j = 0; j < VALUES_PER_THREAD; j++) {
+                            values[j] = instance.getNextSequenceValue(SEQUENCE_NAME);
+                        }
+                        return values;
+                    }));
+                }
+                Set<Long> values = new HashSet<>();
+                for(Future<long[]> future : futures) {
+                    for(long value : future.get()) {
+                        assertTrue(String.format("value %d has been provided twice",
+                                        value),
+                                values.add(value));
+                    }
+                }
+                assertEquals(THREAD_COUNT*VALUES_PER_THREAD,
+                        values.size());
+            }finally {
+                executor.shutdownNow();
+            }
+            assertTrue(connectionPool.getCreatedConnectionCount() <= POOL_SIZE);
+            //one statement per connection regardless of the number of values
+            assertTrue(connectionPool.getPreparedStatementCount() <= connectionPool.getCreatedConnectionCount());
+        }
+    }
+
+    @Test
+    public void testGetNextSequenceValues() throws SequenceManagementException {
+        try (PooledJdbcSequenceValueSource instance = new PooledJdbcSequenceValueSource(createConnectionPool(1,
+                        JdbcConnectionPool.BORROW_TIMEOUT_MILLIS_DEFAULT),
+                SequenceDialect.DERBY)) {
+            instance.createSequence(SEQUENCE_NAME);
+            long[] values = instance.getNextSequenceValues(SEQUENCE_NAME,
+                    100);
+            for(int i = 1; i < values.length; i++) {
+                assertTrue(values[i] > values[i-1]);
+            }
+            assertEquals(1,
+                    instance.getConnectionPool().getPreparedStatementCount());
+        }
+    }
+
+    /**
+     * Shows that a connection on which a statement failed is closed and
+     * replaced and that its permit is returned, so that a pool of size one
+     * keeps working.
+     */
+    @Test
+    public void testFailedConnectionIsReplaced() throws SequenceManagementException {
+        JdbcConnectionPool connectionPool = createConnectionPool(1,
+                1000 //borrowTimeoutMillis
+        );
+        try (PooledJdbcSequenceValueSource instance = new PooledJdbcSequenceValueSource(connectionPool,
+                SequenceDialect.DERBY)) {
+            instance.createSequence(SEQUENCE_NAME);
+            instance.getNextSequenceValue(SEQUENCE_NAME);
+            try {
+                instance.getNextSequenceValue("nonexisting");
+                fail("SequenceManagementException expected");
+            }catch(SequenceManagementException expected) {
+                //expected
+            }
+            instance.getNextSequenceValue(SEQUENCE_NAME);
+            assertEquals(2,
+                    connectionPool.getCreatedConnectionCount());
+        }
+    }
+
+    @Test
+    public void testBorrowTimeout() throws SQLException {
+        try (JdbcConnectionPool connectionPool = createConnectionPool(1,
+                100 //borrowTimeoutMillis
+        )) {
+            JdbcConnectionPool.PooledConnection borrowed = connectionPool.borrow();
+                //occupies the only connection of the pool
+            try {
+                connectionPool.borrow();
+                fail("SQLTimeoutException expected");
+            }catch(SQLTimeoutException expected) {
+                //expected
+            }finally {
+                borrowed.close();
+            }
+        }
+    }
+
+    private JdbcConnectionPool createConnectionPool(int maximumSize,
+            long borrowTimeoutMillis) {
+        return new JdbcConnectionPool(() -> DriverManager.getConnection(connectionURL),
+                maximumSize,
+                JdbcConnectionPool.STATEMENT_CACHE_SIZE_DEFAULT,
+                borrowTimeoutMillis);
+    }
+}
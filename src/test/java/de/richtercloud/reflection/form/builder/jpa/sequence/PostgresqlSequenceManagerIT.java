@@ -14,143 +14,144 @@
  */
 package de.richtercloud.reflection.form.builder.jpa.sequence;
 
-import de.richtercloud.jhbuild.java.wrapper.ArchitectureNotRecognizedException;
-import de.richtercloud.jhbuild.java.wrapper.BuildFailureException;
-import de.richtercloud.jhbuild.java.wrapper.ExtractionException;
-import de.richtercloud.jhbuild.java.wrapper.MissingSystemBinaryException;
-import de.richtercloud.jhbuild.java.wrapper.ModuleBuildFailureException;
-import de.richtercloud.jhbuild.java.wrapper.OSNotRecognizedException;
-import de.richtercloud.jhbuild.java.wrapper.download.DownloadException;
-import de.richtercloud.message.handler.IssueHandler;
-import de.richtercloud.message.handler.LoggerIssueHandler;
-import de.richtercloud.reflection.form.builder.jpa.ReflectionFormBuilderITUtils;
+import de.richtercloud.reflection.form.builder.jpa.ConcurrencyStallException;
+import de.richtercloud.reflection.form.builder.jpa.ConcurrencySweep;
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.PostgresqlClusterFixture;
 import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
-import de.richtercloud.reflection.form.builder.jpa.retriever.JPAOrderedCachedFieldRetriever;
 import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
-import de.richtercloud.reflection.form.builder.jpa.storage.PostgresqlAutoPersistenceStorage;
-import de.richtercloud.reflection.form.builder.jpa.storage.PostgresqlAutoPersistenceStorageConf;
-import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
 import de.richtercloud.test.tools.ParallelITExecutor;
-import de.richtercloud.validation.tools.FieldRetriever;
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import org.apache.commons.io.FileUtils;
+import java.util.concurrent.TimeUnit;
 import static org.junit.Assert.assertEquals;
+import org.junit.Assume;
 import org.junit.Test;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  *
  * @author richter
  */
 public class PostgresqlSequenceManagerIT {
-    private final static Logger LOGGER = LoggerFactory.getLogger(PostgresqlSequenceManagerIT.class);
-    private static final String BIN = "bin";
 
+    /**
+     * Creates sequences in isolated databases of the shared cluster of
+     * {@link PostgresqlClusterFixture} in parallel.
+     */
     @Test
     @SuppressWarnings("PMD.JUnitTestsShouldIncludeAssert")
     public void testCreateSequence() throws InterruptedException,
             ExecutionException,
-            FieldOrderValidationException,
-            OSNotRecognizedException,
-            ArchitectureNotRecognizedException,
-            IOException,
-            ExtractionException,
-            MissingSystemBinaryException,
-            BuildFailureException,
-            ModuleBuildFailureException,
-            DownloadException {
-        //assert that /usr/lib/postgresql/1ß is present and request user to download
-        //if not (there might be a more elegant way to do this)
-        String postgresqlInstallationPrefixDir = String.join(File.separator, "/", "usr", "lib", "postgresql", "9.6");
-        File postgresqlDir = new File(postgresqlInstallationPrefixDir);
-        if(!postgresqlDir.exists()) {
-            postgresqlInstallationPrefixDir = String.join(File.separator, "/", "usr", "lib", "postgresql", "10");
-            postgresqlDir = new File(postgresqlInstallationPrefixDir);
-            if(!postgresqlDir.exists()) {
-                throw new IllegalArgumentException(String.format("There's no PostgreSQL installation at '%s'. Can't proceed.", postgresqlDir.getAbsolutePath()));
-            }else if(!postgresqlDir.isDirectory()) {
-                throw new IllegalArgumentException(String.format("PostgreSQL directory '%s' exists, but is not a directory", postgresqlDir.getAbsolutePath()));
-            }
-        }else if(!postgresqlDir.isDirectory()){
-            throw new IllegalArgumentException(String.format("PostgreSQL directory '%s' exists, but is not a directory", postgresqlDir.getAbsolutePath()));
-        }
-
+            IOException {
         int parallelism = 10;
         //parallelism allows to better reproduce and detect deadlocks under
         //heavy load
         String sequenceName = "with-minus";
         Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
-        String username = "reflection-form-builder";
-        String password = username;
-        String databaseName = "reflection-form-builder";
-
-        IssueHandler issueHandler = new LoggerIssueHandler(LOGGER);
-        String initdb = new File(postgresqlInstallationPrefixDir,
-                String.join(File.separator, BIN, "initdb")).getAbsolutePath();
-        String postgres = new File(postgresqlInstallationPrefixDir,
-                String.join(File.separator, BIN, "postgres")).getAbsolutePath();
-        String createdb = new File(postgresqlInstallationPrefixDir,
-                String.join(File.separator, BIN, "createdb")).getAbsolutePath();
-        String pgCtl = new File(postgresqlInstallationPrefixDir,
-                String.join(File.separator, BIN, "pg_ctl")).getAbsolutePath();
         String persistenceUnitName = "reflection-form-builder-it";
-        Lock findPortLock = new ReentrantLock(true //fair
-                );
-        FieldRetriever fieldRetriever = new JPAOrderedCachedFieldRetriever(entityClasses);
+        PostgresqlClusterFixture clusterFixture = PostgresqlClusterFixture.getInstance();
         ParallelITExecutor parallelITExecutor = new ParallelITExecutor();
         parallelITExecutor.executeLambdaInParallel(parallelism, () -> {
             PersistenceStorage<Long> storage = null;
             try {
-                File databaseDir = Files.createTempDirectory(PostgresqlSequenceManagerIT.class.getSimpleName()).toFile();
-                LOGGER.debug(String.format("using '%s' as database directory", databaseDir));
-                FileUtils.forceDelete(databaseDir);
-                File schemeChecksumFile = File.createTempFile(PostgresqlSequenceManagerIT.class.getSimpleName(), "checksum");
-                findPortLock.lock();
-                try {
-                    int databasePort = ReflectionFormBuilderITUtils.findFreePort(PostgresqlAutoPersistenceStorageConf.PORT_DEFAULT);
-                    LOGGER.info(String.format("using random next free port %d",
-                            databasePort));
-                    PostgresqlAutoPersistenceStorageConf storageConf = new PostgresqlAutoPersistenceStorageConf(entityClasses,
-                            "localhost",
-                            username,
-                            password,
-                            databaseName,
-                            schemeChecksumFile,
-                            databaseDir.getAbsolutePath(), //databaseDir
-                            initdb, //initdbBinaryPath
-                            postgres, //postgresBinaryPath
-                            createdb, //createdbBinaryPath
-                            pgCtl, //pgCtlBinaryPath
-                            databasePort
-                    );
-                    storage = new PostgresqlAutoPersistenceStorage(storageConf,
-                            persistenceUnitName,
-                            10, //parallelQueryCount
-                            fieldRetriever,
-                            issueHandler);
-                    storage.start();
-                }finally {
-                    findPortLock.unlock();
-                }
+                storage = clusterFixture.startStorage(entityClasses,
+                        persistenceUnitName,
+                        10 //parallelQueryCount
+                );
                 PostgresqlSequenceManager instance = new PostgresqlSequenceManager(storage);
                 instance.createSequence(sequenceName);
                 long nextSequenceValue = instance.getNextSequenceValue(sequenceName);
                 assertEquals(1L, nextSequenceValue);
             } finally {
                 if(storage != null) {
-                    storage.shutdown();
+                    clusterFixture.shutdownStorage(storage);
                 }
             }
             return null;
         });
     }
+
+    /**
+     * Creates a sequence in a storage which starts its own server with
+     * {@link ITStorageBackend#POSTGRESQL} in order to keep covering
+     * {@link de.richtercloud.reflection.form.builder.jpa.storage.PostgresqlAutoPersistenceStorage}
+     * which isn't used by {@link #testCreateSequence() }.
+     */
+    @Test
+    @SuppressWarnings("PMD.SignatureDeclareThrowsException")
+    public void testCreateSequenceAutoStorage() throws Exception {
+        String sequenceName = "with-minus";
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        PersistenceStorage<Long> storage = ITStorageBackend.POSTGRESQL.startStorage(entityClasses,
+                "reflection-form-builder-it",
+                10 //parallelQueryCount
+        );
+        try {
+            PostgresqlSequenceManager instance = new PostgresqlSequenceManager(storage);
+            instance.createSequence(sequenceName);
+            long nextSequenceValue = instance.getNextSequenceValue(sequenceName);
+            assertEquals(1L, nextSequenceValue);
+        }finally {
+            ITStorageBackend.shutdownStorage(storage);
+        }
+    }
+
+    /**
+     * Runs storage startup, sequence creation and sequence value retrieval
+     * with the parallelism steps specified with
+     * {@link ConcurrencySweep#PARALLELISM_PROPERTY} (e.g.
+     * {@code -Dreflection-form-builder-it.sweep.parallelism=1,2,4,8,16,32})
+     * and writes latency histograms to
+     * {@code PostgresqlSequenceManagerIT.json} in the directory specified with
+     * {@link ConcurrencySweep#REPORT_DIR_PROPERTY}. A
+     * step which doesn't finish within 10 minutes is considered a deadlock and
+     * fails the test with a thread dump. Skipped if the property isn't set
+     * because it starts a large number of servers.
+     */
+    @Test
+    @SuppressWarnings("PMD.JUnitTestsShouldIncludeAssert")
+    public void testCreateSequenceScalingSweep() throws InterruptedException,
+            ExecutionException,
+            ConcurrencyStallException,
+            IOException {
+        List<Integer> parallelisms = ConcurrencySweep.parallelismsFromSystemProperty();
+        Assume.assumeTrue(String.format("concurrency sweep is disabled, set system property %s in order to enable it",
+                        ConcurrencySweep.PARALLELISM_PROPERTY),
+                parallelisms != null);
+        String sequenceName = "with-minus";
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        ConcurrencySweep sweep = new ConcurrencySweep(PostgresqlSequenceManagerIT.class.getSimpleName(),
+                parallelisms,
+                10, //stepTimeout
+                TimeUnit.MINUTES,
+                ConcurrencySweep.reportDirFromSystemProperty());
+        sweep.run((threadIndex, recorder) -> {
+            PersistenceStorage<Long> storage = recorder.time("start",
+                    () -> ITStorageBackend.POSTGRESQL.startStorage(entityClasses,
+                            "reflection-form-builder-it",
+                            10 //parallelQueryCount
+                    ));
+            try {
+                SequenceValueSource sequenceValueSource = recorder.time("createSequence",
+                        () -> ITStorageBackend.POSTGRESQL.openSequence(storage,
+                                sequenceName,
+                                true //create
+                        ));
+                for(int i = 0; i < 100; i++) {
+                    recorder.time("getNextSequenceValue",
+                            () -> sequenceValueSource.getNextSequenceValue(sequenceName));
+                }
+            }finally {
+                recorder.time("shutdown",
+                        () -> {
+                            ITStorageBackend.shutdownStorage(storage);
+                            return null;
+                        });
+            }
+        });
+    }
 }
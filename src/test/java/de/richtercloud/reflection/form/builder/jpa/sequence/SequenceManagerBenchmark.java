@@ -0,0 +1,135 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.sequence;
+
+import de.richtercloud.reflection.form.builder.jpa.ITStorageBackend;
+import de.richtercloud.reflection.form.builder.jpa.entities.EntityA;
+import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.retriever.FieldOrderValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * Measures throughput and latency distribution of
+ * {@code getNextSequenceValue} of the sequence managers of all storage
+ * backends. The number of threads is controlled by the runner, see
+ * {@link de.richtercloud.reflection.form.builder.jpa.JMHBenchmarkRunner}, so
+ * that every backend is measured under increasing contention.
+ *
+ * {@code implementation} compares the sequence managers with a
+ * {@link PooledJdbcSequenceValueSource} which uses pooled connections and
+ * cached prepared statements, so that the cost of per-call connection setup
+ * and statement parsing shows up as the difference.
+ *
+ * @author richter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SequenceManagerBenchmark {
+    private final static String SEQUENCE_NAME = "with-minus";
+    @Param({"DERBY", "DERBY_IN_MEMORY", "POSTGRESQL", "MYSQL"})
+    public ITStorageBackend backend;
+    @Param({"SEQUENCE_MANAGER", "POOLED_JDBC"})
+    public Implementation implementation;
+    private PersistenceStorage<Long> storage;
+    private SequenceValueSource sequenceValueSource;
+    private PooledJdbcSequenceValueSource pooledSequenceValueSource;
+
+    public enum Implementation {
+        SEQUENCE_MANAGER,
+        POOLED_JDBC
+    }
+
+    /**
+     * Sets up the trial. The connection pool of
+     * {@link PooledJdbcSequenceValueSource} gets one connection per benchmark
+     * thread, so that threads never wait for connections whatever
+     * {@code benchmark.threads} is passed to the runner.
+     *
+     * @param benchmarkParams the parameters of the trial injected by JMH
+     */
+    @Setup(Level.Trial)
+    public void setup(BenchmarkParams benchmarkParams) throws IOException,
+            FieldOrderValidationException,
+            StorageConfValidationException,
+            StorageCreationException,
+            SequenceManagementException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(EntityA.class));
+        storage = backend.startStorage(entityClasses,
+                ITStorageBackend.PERSISTENCE_UNIT_NAME,
+                10 //parallelQueryCount
+        );
+        switch(implementation) {
+            case SEQUENCE_MANAGER:
+                sequenceValueSource = backend.openSequence(storage,
+                        SEQUENCE_NAME,
+                        true //create
+                );
+                break;
+            case POOLED_JDBC:
+                pooledSequenceValueSource = backend.openPooledSequence(storage,
+                        SEQUENCE_NAME,
+                        true, //create
+                        benchmarkParams.getThreads() //poolSize
+                );
+                sequenceValueSource = pooledSequenceValueSource;
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("implementation %s isn't supported",
+                        implementation));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        try {
+            if(pooledSequenceValueSource != null) {
+                pooledSequenceValueSource.close();
+            }
+        }finally {
+            if(storage != null) {
+                ITStorageBackend.shutdownStorage(storage);
+            }
+        }
+    }
+
+    @Benchmark
+    public long getNextSequenceValue() throws SequenceManagementException {
+        return sequenceValueSource.getNextSequenceValue(SEQUENCE_NAME);
+    }
+}